@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import io.airlift.http.client.HttpClient.HttpResponseFuture;
+import io.airlift.http.client.jetty.JettyHttpClient;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Picks one of a list of service URIs, such as those returned by a service selector, for each request.
+ * <p>
+ * Each destination has a cost: a moving average of its response time that jumps up to any slower
+ * response right away, and decays over about ten seconds. Two of the URIs are chosen at random, and
+ * the request goes to the one with the lower cost times the number of requests outstanding to it
+ * ("power of two choices"). This avoids slow or busy destinations without sending every request to
+ * the same one. When wrapping a {@link JettyHttpClient}, the outstanding requests include those sent
+ * to the destination by other users of the client.
+ */
+@Beta
+@ThreadSafe
+public class BalancingHttpClient
+{
+    private static final double DECAY_NANOS = SECONDS.toNanos(10);
+    // response time recorded for a failure, so a destination that fails fast doesn't attract requests
+    private static final long FAILURE_NANOS = SECONDS.toNanos(1);
+
+    private final HttpClient httpClient;
+    private final ToIntFunction<URI> clientOutstandingRequests;
+    private final Ticker ticker;
+
+    private final ConcurrentMap<String, Destination> destinations = new ConcurrentHashMap<>();
+
+    public BalancingHttpClient(HttpClient httpClient)
+    {
+        this(httpClient, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    BalancingHttpClient(HttpClient httpClient, Ticker ticker)
+    {
+        this.httpClient = checkNotNull(httpClient, "httpClient is null");
+        this.ticker = checkNotNull(ticker, "ticker is null");
+
+        if (httpClient instanceof JettyHttpClient) {
+            clientOutstandingRequests = ((JettyHttpClient) httpClient)::getOutstandingRequests;
+        }
+        else {
+            clientOutstandingRequests = uri -> 0;
+        }
+    }
+
+    public <T, E extends Exception> T execute(List<URI> uris, Function<URI, Request> requestFactory, ResponseHandler<T, E> responseHandler)
+            throws E
+    {
+        checkNotNull(requestFactory, "requestFactory is null");
+        checkNotNull(responseHandler, "responseHandler is null");
+
+        URI uri = select(uris);
+        Destination destination = getDestination(uri);
+
+        long start = destination.requestStarted();
+        boolean succeeded = false;
+        try {
+            T value = httpClient.execute(requestFactory.apply(uri), responseHandler);
+            succeeded = true;
+            return value;
+        }
+        finally {
+            destination.requestFinished(start, succeeded);
+        }
+    }
+
+    public <T, E extends Exception> HttpResponseFuture<T> executeAsync(List<URI> uris, Function<URI, Request> requestFactory, ResponseHandler<T, E> responseHandler)
+    {
+        checkNotNull(requestFactory, "requestFactory is null");
+        checkNotNull(responseHandler, "responseHandler is null");
+
+        URI uri = select(uris);
+        Destination destination = getDestination(uri);
+
+        long start = destination.requestStarted();
+        HttpResponseFuture<T> future;
+        try {
+            future = httpClient.executeAsync(requestFactory.apply(uri), responseHandler);
+        }
+        catch (RuntimeException | Error e) {
+            destination.requestFinished(start, false);
+            throw e;
+        }
+
+        Futures.addCallback(future, new FutureCallback<T>()
+        {
+            @Override
+            public void onSuccess(T result)
+            {
+                destination.requestFinished(start, true);
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                if (t instanceof CancellationException) {
+                    // the caller gave up on the request, which says nothing about the destination
+                    destination.requestCanceled();
+                    return;
+                }
+                destination.requestFinished(start, false);
+            }
+        }, directExecutor());
+        return future;
+    }
+
+    @VisibleForTesting
+    URI select(List<URI> uris)
+    {
+        checkNotNull(uris, "uris is null");
+        checkArgument(!uris.isEmpty(), "uris is empty");
+
+        if (uris.size() == 1) {
+            return uris.get(0);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int first = random.nextInt(uris.size());
+        int second = random.nextInt(uris.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+
+        URI firstUri = uris.get(first);
+        URI secondUri = uris.get(second);
+        return getScore(secondUri) < getScore(firstUri) ? secondUri : firstUri;
+    }
+
+    private double getScore(URI uri)
+    {
+        Destination destination = getDestination(uri);
+        int outstanding = Math.max(destination.getOutstandingRequests(), clientOutstandingRequests.applyAsInt(uri));
+        return destination.getScore(outstanding);
+    }
+
+    private Destination getDestination(URI uri)
+    {
+        String key = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+        return destinations.computeIfAbsent(key, ignored -> new Destination());
+    }
+
+    @ThreadSafe
+    private class Destination
+    {
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+
+        @GuardedBy("this")
+        private boolean hasCost;
+        @GuardedBy("this")
+        private double costNanos;
+        @GuardedBy("this")
+        private long lastUpdate;
+
+        public int getOutstandingRequests()
+        {
+            return outstandingRequests.get();
+        }
+
+        public long requestStarted()
+        {
+            outstandingRequests.incrementAndGet();
+            return ticker.read();
+        }
+
+        public void requestCanceled()
+        {
+            outstandingRequests.decrementAndGet();
+        }
+
+        public void requestFinished(long start, boolean succeeded)
+        {
+            outstandingRequests.decrementAndGet();
+
+            long now = ticker.read();
+            long responseTime = now - start;
+            if (!succeeded) {
+                responseTime = Math.max(responseTime, FAILURE_NANOS);
+            }
+
+            synchronized (this) {
+                if (!hasCost || responseTime > costNanos) {
+                    // slow down right away
+                    costNanos = responseTime;
+                }
+                else {
+                    double weight = Math.exp(-(now - lastUpdate) / DECAY_NANOS);
+                    costNanos = costNanos * weight + responseTime * (1 - weight);
+                }
+                lastUpdate = now;
+                hasCost = true;
+            }
+        }
+
+        public synchronized double getScore(int outstanding)
+        {
+            if (!hasCost) {
+                // nothing is known about the destination, so send it one request at a time until something is
+                return outstanding == 0 ? 0 : Double.MAX_VALUE;
+            }
+            return getCost(ticker.read()) * (outstanding + 1);
+        }
+
+        @GuardedBy("this")
+        private double getCost(long now)
+        {
+            if (!hasCost) {
+                return 0;
+            }
+            // decay the cost of a destination that isn't getting responses, so it is tried again eventually
+            return costNanos * Math.exp(-(now - lastUpdate) / DECAY_NANOS);
+        }
+    }
+}
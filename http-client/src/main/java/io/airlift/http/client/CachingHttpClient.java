@@ -0,0 +1,736 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import io.airlift.stats.CounterStat;
+import io.airlift.units.DataSize;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.net.HttpHeaders.AGE;
+import static com.google.common.net.HttpHeaders.AUTHORIZATION;
+import static com.google.common.net.HttpHeaders.CACHE_CONTROL;
+import static com.google.common.net.HttpHeaders.CONTENT_LENGTH;
+import static com.google.common.net.HttpHeaders.ETAG;
+import static com.google.common.net.HttpHeaders.IF_MODIFIED_SINCE;
+import static com.google.common.net.HttpHeaders.IF_NONE_MATCH;
+import static com.google.common.net.HttpHeaders.LAST_MODIFIED;
+import static com.google.common.net.HttpHeaders.VARY;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Keeps the responses to GET requests in a bounded in-memory cache, as directed by their
+ * {@code Cache-Control} header. A response is served from the cache until its {@code max-age}
+ * has passed, and then for the {@code stale-while-revalidate} period while it is refreshed in
+ * the background. After that, or for a {@code no-cache} response, the request is sent with
+ * {@code If-None-Match} and {@code If-Modified-Since}, and a {@code 304 Not Modified} response
+ * is answered from the cache. The {@code Age} of a response counts against its {@code max-age};
+ * the {@code Date} header is not used, because it depends on the clock of the server.
+ * <p>
+ * A request with an {@code Authorization} header is only answered from the cache, and its response
+ * only stored, if the response is {@code public}.
+ * <p>
+ * Responses are buffered in memory, so this should only wrap clients of small documents.
+ * Closing this client closes the wrapped client.
+ */
+@Beta
+@ThreadSafe
+public class CachingHttpClient
+        implements HttpClient
+{
+    private static final String STALE_WHILE_REVALIDATE = "stale-while-revalidate";
+    private static final String PUBLIC = "public";
+
+    private final HttpClient httpClient;
+    private final Ticker ticker;
+    private final Cache<String, CacheEntry> cache;
+
+    private final CounterStat hits = new CounterStat();
+    private final CounterStat misses = new CounterStat();
+    private final CounterStat notModified = new CounterStat();
+
+    public CachingHttpClient(HttpClient httpClient, DataSize maxSize)
+    {
+        this(httpClient, maxSize, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CachingHttpClient(HttpClient httpClient, DataSize maxSize, Ticker ticker)
+    {
+        this.httpClient = checkNotNull(httpClient, "httpClient is null");
+        checkNotNull(maxSize, "maxSize is null");
+        this.ticker = checkNotNull(ticker, "ticker is null");
+
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxSize.toBytes())
+                .weigher((String key, CacheEntry entry) -> key.length() + entry.getResponse().getSize())
+                .build();
+    }
+
+    @Override
+    public <T, E extends Exception> T execute(Request request, ResponseHandler<T, E> responseHandler)
+            throws E
+    {
+        checkNotNull(request, "request is null");
+        checkNotNull(responseHandler, "responseHandler is null");
+
+        if (!isCacheable(request)) {
+            return httpClient.execute(request, responseHandler);
+        }
+
+        CacheEntry entry = getEntry(request);
+        if (isUsable(request, entry)) {
+            return entry.getResponse().handle(request, responseHandler);
+        }
+
+        Fetch fetch = httpClient.execute(createConditionalRequest(request, entry), FetchResponseHandler.INSTANCE);
+        return handleFetch(request, entry, fetch, responseHandler);
+    }
+
+    @Override
+    public <T, E extends Exception> HttpResponseFuture<T> executeAsync(Request request, ResponseHandler<T, E> responseHandler)
+    {
+        checkNotNull(request, "request is null");
+        checkNotNull(responseHandler, "responseHandler is null");
+
+        if (!isCacheable(request)) {
+            return httpClient.executeAsync(request, responseHandler);
+        }
+
+        CachingResponseFuture<T> future = new CachingResponseFuture<>();
+
+        CacheEntry entry = getEntry(request);
+        if (isUsable(request, entry)) {
+            future.complete(() -> entry.getResponse().handle(request, responseHandler));
+            return future;
+        }
+
+        HttpResponseFuture<Fetch> fetchFuture = httpClient.executeAsync(createConditionalRequest(request, entry), FetchResponseHandler.INSTANCE);
+        future.setDelegate(fetchFuture);
+        Futures.addCallback(fetchFuture, new FutureCallback<Fetch>()
+        {
+            @Override
+            public void onSuccess(Fetch fetch)
+            {
+                future.complete(() -> handleFetch(request, entry, fetch, responseHandler));
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                future.setException(t);
+            }
+        }, directExecutor());
+        return future;
+    }
+
+    @Override
+    public <T> HttpResponseFuture<T> executeStreaming(Request request, StreamingResponseHandler<T> responseHandler)
+    {
+        return httpClient.executeStreaming(request, responseHandler);
+    }
+
+    @Override
+    public RequestStats getStats()
+    {
+        return httpClient.getStats();
+    }
+
+    @Override
+    public long getMaxContentLength()
+    {
+        return httpClient.getMaxContentLength();
+    }
+
+    @Override
+    public void close()
+    {
+        cache.invalidateAll();
+        httpClient.close();
+    }
+
+    /**
+     * Requests answered from the cache without waiting for the server.
+     */
+    @Managed
+    @Nested
+    public CounterStat getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * Requests answered with a full response from the server.
+     */
+    @Managed
+    @Nested
+    public CounterStat getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * Requests answered from the cache after the server confirmed the response is still valid.
+     */
+    @Managed
+    @Nested
+    public CounterStat getNotModified()
+    {
+        return notModified;
+    }
+
+    @Managed
+    public long getCachedResponses()
+    {
+        return cache.size();
+    }
+
+    private static boolean isCacheable(Request request)
+    {
+        if (!request.getMethod().equalsIgnoreCase("GET") || request.getBodyGenerator() != null) {
+            return false;
+        }
+
+        // the caller is validating its own copy
+        if (!getHeaders(request, IF_NONE_MATCH).isEmpty() || !getHeaders(request, IF_MODIFIED_SINCE).isEmpty()) {
+            return false;
+        }
+
+        CacheControl cacheControl = getCacheControl(getHeaders(request, CACHE_CONTROL));
+        return cacheControl == null || !cacheControl.isNoStore();
+    }
+
+    private CacheEntry getEntry(Request request)
+    {
+        CacheEntry entry = cache.getIfPresent(request.getUri().toString());
+        if (entry == null || !entry.matches(request)) {
+            return null;
+        }
+        if (isAuthorized(request) && !entry.isPublic()) {
+            return null;
+        }
+        return entry;
+    }
+
+    private boolean isUsable(Request request, CacheEntry entry)
+    {
+        if (entry == null) {
+            return false;
+        }
+
+        CacheControl cacheControl = getCacheControl(getHeaders(request, CACHE_CONTROL));
+        if (cacheControl != null && cacheControl.isNoCache()) {
+            return false;
+        }
+
+        long now = ticker.read();
+        if (entry.isFresh(now)) {
+            hits.update(1);
+            return true;
+        }
+        if (entry.isStaleUsable(now)) {
+            hits.update(1);
+            revalidate(request, entry);
+            return true;
+        }
+        return false;
+    }
+
+    private void revalidate(Request request, CacheEntry entry)
+    {
+        if (!entry.startRevalidation()) {
+            return;
+        }
+
+        HttpResponseFuture<Fetch> future;
+        try {
+            future = httpClient.executeAsync(createConditionalRequest(request, entry), FetchResponseHandler.INSTANCE);
+        }
+        catch (RuntimeException e) {
+            entry.revalidationFinished();
+            return;
+        }
+
+        Futures.addCallback(future, new FutureCallback<Fetch>()
+        {
+            @Override
+            public void onSuccess(Fetch fetch)
+            {
+                // like a failure, a server error keeps the stale response
+                BufferedResponse response = fetch.getResponse();
+                if (response != null && response.getStatusCode() < 500) {
+                    update(request, entry, response);
+                }
+                entry.revalidationFinished();
+            }
+
+            @Override
+            public void onFailure(Throwable t)
+            {
+                // keep serving the stale response until the next revalidation
+                entry.revalidationFinished();
+            }
+        }, directExecutor());
+    }
+
+    private <T, E extends Exception> T handleFetch(Request request, CacheEntry entry, Fetch fetch, ResponseHandler<T, E> responseHandler)
+            throws E
+    {
+        if (fetch.getException() != null) {
+            return responseHandler.handleException(request, fetch.getException());
+        }
+        return update(request, entry, fetch.getResponse()).handle(request, responseHandler);
+    }
+
+    private BufferedResponse update(Request request, CacheEntry entry, BufferedResponse response)
+    {
+        String key = request.getUri().toString();
+
+        if (entry != null && response.getStatusCode() == HttpStatus.NOT_MODIFIED.code()) {
+            notModified.update(1);
+            response = entry.getResponse().withUpdatedHeaders(response.getHeaders());
+        }
+        else {
+            misses.update(1);
+        }
+
+        CacheEntry updated = CacheEntry.create(request, response, ticker.read());
+        if (updated != null) {
+            cache.put(key, updated);
+        }
+        else if (entry != null) {
+            // only remove the entry that was validated, since another request may have replaced it
+            cache.asMap().remove(key, entry);
+        }
+        return response;
+    }
+
+    private static Request createConditionalRequest(Request request, CacheEntry entry)
+    {
+        if (entry == null) {
+            return request;
+        }
+
+        BufferedResponse response = entry.getResponse();
+        String etag = response.getHeader(ETAG);
+        String lastModified = response.getHeader(LAST_MODIFIED);
+        if (etag == null && lastModified == null) {
+            return request;
+        }
+
+        Request.Builder builder = Request.Builder.fromRequest(request);
+        if (etag != null) {
+            builder.setHeader(IF_NONE_MATCH, etag);
+        }
+        if (lastModified != null) {
+            builder.setHeader(IF_MODIFIED_SINCE, lastModified);
+        }
+        return builder.build();
+    }
+
+    private static boolean isAuthorized(Request request)
+    {
+        return !getHeaders(request, AUTHORIZATION).isEmpty();
+    }
+
+    private static List<String> getHeaders(Request request, String name)
+    {
+        ImmutableList.Builder<String> values = ImmutableList.builder();
+        for (Map.Entry<String, String> header : request.getHeaders().entries()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                values.add(header.getValue());
+            }
+        }
+        return values.build();
+    }
+
+    private static CacheControl getCacheControl(List<String> values)
+    {
+        if (values.isEmpty()) {
+            return null;
+        }
+        try {
+            return CacheControl.valueOf(Joiner.on(',').join(values));
+        }
+        catch (IllegalArgumentException e) {
+            // a directive with an invalid value makes the header unusable
+            return null;
+        }
+    }
+
+    private static class CacheEntry
+    {
+        private final BufferedResponse response;
+        private final Map<String, List<String>> varyHeaders;
+        private final long expiresAt;
+        private final long staleExpiresAt;
+        private final boolean isPublic;
+        private final AtomicBoolean revalidating = new AtomicBoolean();
+
+        /**
+         * Returns the entry for the response, or null if the response can not be cached.
+         */
+        public static CacheEntry create(Request request, BufferedResponse response, long now)
+        {
+            if (response.getStatusCode() != HttpStatus.OK.code()) {
+                return null;
+            }
+
+            CacheControl cacheControl = getCacheControl(response.getHeaders(CACHE_CONTROL));
+            if (cacheControl == null || cacheControl.isNoStore()) {
+                return null;
+            }
+
+            // CacheControl does not parse the public directive
+            boolean isPublic = false;
+            for (String value : response.getHeaders(CACHE_CONTROL)) {
+                for (String directive : Splitter.on(',').trimResults().split(value)) {
+                    isPublic |= directive.equalsIgnoreCase(PUBLIC);
+                }
+            }
+            if (isAuthorized(request) && !isPublic) {
+                return null;
+            }
+
+            ImmutableMap.Builder<String, List<String>> varyHeaders = ImmutableMap.builder();
+            for (String value : response.getHeaders(VARY)) {
+                for (String name : Splitter.on(',').omitEmptyStrings().trimResults().split(value)) {
+                    if (name.equals("*")) {
+                        return null;
+                    }
+                    varyHeaders.put(name, getHeaders(request, name));
+                }
+            }
+
+            long freshNanos = 0;
+            long staleNanos = 0;
+            if (!cacheControl.isNoCache() && cacheControl.getMaxAge() > 0) {
+                freshNanos = SECONDS.toNanos(cacheControl.getMaxAge());
+                if (!cacheControl.isMustRevalidate()) {
+                    staleNanos = parseSeconds(cacheControl.getCacheExtension().get(STALE_WHILE_REVALIDATE));
+                }
+            }
+
+            // the response may have spent part of its lifetime in other caches
+            long ageNanos = parseSeconds(response.getHeader(AGE));
+
+            // without a validator, a response that is already stale is of no use
+            if (freshNanos + staleNanos <= ageNanos && response.getHeader(ETAG) == null && response.getHeader(LAST_MODIFIED) == null) {
+                return null;
+            }
+
+            return new CacheEntry(
+                    response,
+                    varyHeaders.build(),
+                    now + Math.max(0, freshNanos - ageNanos),
+                    now + Math.max(0, freshNanos + staleNanos - ageNanos),
+                    isPublic);
+        }
+
+        private CacheEntry(BufferedResponse response, Map<String, List<String>> varyHeaders, long expiresAt, long staleExpiresAt, boolean isPublic)
+        {
+            this.response = response;
+            this.varyHeaders = varyHeaders;
+            this.expiresAt = expiresAt;
+            this.staleExpiresAt = staleExpiresAt;
+            this.isPublic = isPublic;
+        }
+
+        public BufferedResponse getResponse()
+        {
+            return response;
+        }
+
+        public boolean isPublic()
+        {
+            return isPublic;
+        }
+
+        public boolean matches(Request request)
+        {
+            for (Map.Entry<String, List<String>> header : varyHeaders.entrySet()) {
+                if (!Objects.equals(header.getValue(), getHeaders(request, header.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public boolean isFresh(long now)
+        {
+            return now - expiresAt < 0;
+        }
+
+        public boolean isStaleUsable(long now)
+        {
+            return now - staleExpiresAt < 0;
+        }
+
+        public boolean startRevalidation()
+        {
+            return revalidating.compareAndSet(false, true);
+        }
+
+        public void revalidationFinished()
+        {
+            revalidating.set(false);
+        }
+
+        private static long parseSeconds(String value)
+        {
+            if (value == null) {
+                return 0;
+            }
+            try {
+                return SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+            }
+            catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+    }
+
+    private static class BufferedResponse
+    {
+        private final int statusCode;
+        private final String statusMessage;
+        private final ListMultimap<HeaderName, String> headers;
+        private final byte[] body;
+
+        public BufferedResponse(int statusCode, String statusMessage, ListMultimap<HeaderName, String> headers, byte[] body)
+        {
+            this.statusCode = statusCode;
+            this.statusMessage = statusMessage;
+            this.headers = ImmutableListMultimap.copyOf(headers);
+            this.body = body;
+        }
+
+        public int getStatusCode()
+        {
+            return statusCode;
+        }
+
+        public ListMultimap<HeaderName, String> getHeaders()
+        {
+            return headers;
+        }
+
+        public List<String> getHeaders(String name)
+        {
+            return headers.get(HeaderName.of(name));
+        }
+
+        public String getHeader(String name)
+        {
+            List<String> values = getHeaders(name);
+            return values.isEmpty() ? null : values.get(0);
+        }
+
+        public int getSize()
+        {
+            int size = body.length;
+            for (Map.Entry<HeaderName, String> header : headers.entries()) {
+                size += header.getKey().toString().length() + header.getValue().length();
+            }
+            return size;
+        }
+
+        /**
+         * Returns this response with the headers of a {@code 304 Not Modified} response for it.
+         */
+        public BufferedResponse withUpdatedHeaders(ListMultimap<HeaderName, String> updatedHeaders)
+        {
+            ImmutableListMultimap.Builder<HeaderName, String> builder = ImmutableListMultimap.builder();
+            for (Map.Entry<HeaderName, String> header : headers.entries()) {
+                if (!updatedHeaders.containsKey(header.getKey()) || header.getKey().equals(HeaderName.of(CONTENT_LENGTH))) {
+                    builder.put(header);
+                }
+            }
+            for (Map.Entry<HeaderName, String> header : updatedHeaders.entries()) {
+                if (!header.getKey().equals(HeaderName.of(CONTENT_LENGTH))) {
+                    builder.put(header);
+                }
+            }
+            return new BufferedResponse(statusCode, statusMessage, builder.build(), body);
+        }
+
+        public <T, E extends Exception> T handle(Request request, ResponseHandler<T, E> responseHandler)
+                throws E
+        {
+            return responseHandler.handle(request, new Response()
+            {
+                private final InputStream input = new ByteArrayInputStream(body);
+
+                @Override
+                public int getStatusCode()
+                {
+                    return statusCode;
+                }
+
+                @Override
+                public String getStatusMessage()
+                {
+                    return statusMessage;
+                }
+
+                @Override
+                public ListMultimap<HeaderName, String> getHeaders()
+                {
+                    return headers;
+                }
+
+                @Override
+                public long getBytesRead()
+                {
+                    return body.length;
+                }
+
+                @Override
+                public InputStream getInputStream()
+                {
+                    return input;
+                }
+            });
+        }
+    }
+
+    /**
+     * The buffered response of the server, or the exception for the caller's handler.
+     */
+    private static class Fetch
+    {
+        private final BufferedResponse response;
+        private final Exception exception;
+
+        public Fetch(BufferedResponse response, Exception exception)
+        {
+            this.response = response;
+            this.exception = exception;
+        }
+
+        public BufferedResponse getResponse()
+        {
+            return response;
+        }
+
+        public Exception getException()
+        {
+            return exception;
+        }
+    }
+
+    private static class FetchResponseHandler
+            implements ResponseHandler<Fetch, RuntimeException>
+    {
+        public static final FetchResponseHandler INSTANCE = new FetchResponseHandler();
+
+        @Override
+        public Fetch handleException(Request request, Exception exception)
+        {
+            return new Fetch(null, exception);
+        }
+
+        @Override
+        public Fetch handle(Request request, Response response)
+        {
+            try {
+                byte[] body = ByteStreams.toByteArray(response.getInputStream());
+                return new Fetch(new BufferedResponse(response.getStatusCode(), response.getStatusMessage(), response.getHeaders(), body), null);
+            }
+            catch (Exception e) {
+                return new Fetch(null, e);
+            }
+        }
+    }
+
+    private static class CachingResponseFuture<T>
+            extends AbstractFuture<T>
+            implements HttpResponseFuture<T>
+    {
+        private volatile HttpResponseFuture<?> delegate;
+
+        public void setDelegate(HttpResponseFuture<?> delegate)
+        {
+            this.delegate = delegate;
+            if (isCancelled()) {
+                delegate.cancel(true);
+            }
+        }
+
+        public void complete(ResultSupplier<T> supplier)
+        {
+            try {
+                set(supplier.get());
+            }
+            catch (Exception e) {
+                setException(e);
+            }
+        }
+
+        @Override
+        public boolean setException(Throwable throwable)
+        {
+            return super.setException(throwable);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            HttpResponseFuture<?> delegate = this.delegate;
+            if (delegate != null) {
+                delegate.cancel(mayInterruptIfRunning);
+            }
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public String getState()
+        {
+            HttpResponseFuture<?> delegate = this.delegate;
+            return delegate == null ? "CACHED" : delegate.getState();
+        }
+    }
+
+    private interface ResultSupplier<T>
+    {
+        T get()
+                throws Exception;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.annotations.Beta;
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+@Beta
+public class HedgingConfig
+{
+    private Duration delay;
+    private Duration minDelay = new Duration(10, TimeUnit.MILLISECONDS);
+    private double budget = 0.1;
+
+    @MinDuration("0ms")
+    public Duration getDelay()
+    {
+        return delay;
+    }
+
+    @Config("http-client.hedging.delay")
+    @ConfigDescription("Delay before a hedged request is sent. Defaults to the p95 request time of the client.")
+    public HedgingConfig setDelay(Duration delay)
+    {
+        this.delay = delay;
+        return this;
+    }
+
+    @NotNull
+    @MinDuration("0ms")
+    public Duration getMinDelay()
+    {
+        return minDelay;
+    }
+
+    @Config("http-client.hedging.min-delay")
+    @ConfigDescription("Lower bound of the delay before a hedged request is sent, when it is based on the request time")
+    public HedgingConfig setMinDelay(Duration minDelay)
+    {
+        this.minDelay = minDelay;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getBudget()
+    {
+        return budget;
+    }
+
+    @Config("http-client.hedging.budget")
+    @ConfigDescription("Hedged requests sent to a destination, as a fraction of the requests it is sent first")
+    public HedgingConfig setBudget(double budget)
+    {
+        this.budget = budget;
+        return this;
+    }
+}
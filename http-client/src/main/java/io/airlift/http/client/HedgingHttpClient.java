@@ -0,0 +1,379 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.annotations.Beta;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import io.airlift.http.client.HttpClient.HttpResponseFuture;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.TimeDistribution;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.Closeable;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Sends a request to the first of a list of service URIs, such as those returned by a service selector,
+ * and if there is no response after a delay, sends it to the second URI as well. The first response
+ * wins and the other request is canceled. If the first request fails before the delay, the second
+ * is sent right away. This is only safe for idempotent requests.
+ * <p>
+ * The delay is either fixed, or the p95 request time of the client, refreshed once a second. To
+ * keep hedging from amplifying the load during an outage, each destination has a budget: every
+ * request sent to it first earns a fraction of a hedged request, and a hedged request is only sent
+ * to it if it has earned one.
+ */
+@Beta
+@ThreadSafe
+public class HedgingHttpClient
+        implements Closeable
+{
+    // hedged requests a destination can save up while it is healthy
+    private static final double MAX_BUDGET = 10;
+    // the p95 delay is a quantile query over the request times, so it is not computed for every request
+    private static final long DELAY_REFRESH_NANOS = SECONDS.toNanos(1);
+
+    private final HttpClient httpClient;
+    private final Long delayNanos;
+    private final long minDelayNanos;
+    private final double budgetRatio;
+    private final AtomicLong nextDelayRefresh = new AtomicLong(System.nanoTime());
+    private volatile long p95DelayNanos;
+    private final ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("http-client-hedging-%s"));
+
+    private final ConcurrentMap<String, Budget> budgets = new ConcurrentHashMap<>();
+
+    private final CounterStat hedgedRequests = new CounterStat();
+    private final CounterStat hedgedResponses = new CounterStat();
+    private final CounterStat hedgesDenied = new CounterStat();
+
+    public HedgingHttpClient(HttpClient httpClient, HedgingConfig config)
+    {
+        this.httpClient = checkNotNull(httpClient, "httpClient is null");
+        checkNotNull(config, "config is null");
+
+        this.delayNanos = config.getDelay() == null ? null : config.getDelay().roundTo(NANOSECONDS);
+        this.minDelayNanos = config.getMinDelay().roundTo(NANOSECONDS);
+        this.budgetRatio = config.getBudget();
+        this.p95DelayNanos = minDelayNanos;
+    }
+
+    /**
+     * Executes the request built for the first URI, hedging with the request built for the second.
+     */
+    public <T, E extends Exception> HttpResponseFuture<T> executeAsync(List<URI> uris, Function<URI, Request> requestFactory, ResponseHandler<T, E> responseHandler)
+    {
+        checkNotNull(uris, "uris is null");
+        checkArgument(!uris.isEmpty(), "uris is empty");
+        checkNotNull(requestFactory, "requestFactory is null");
+        checkNotNull(responseHandler, "responseHandler is null");
+
+        HedgedResponseFuture<T> future = new HedgedResponseFuture<>(uris, requestFactory, responseHandler);
+        future.start();
+        return future;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHedgedRequests()
+    {
+        return hedgedRequests;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHedgedResponses()
+    {
+        return hedgedResponses;
+    }
+
+    @Managed
+    @Nested
+    public CounterStat getHedgesDenied()
+    {
+        return hedgesDenied;
+    }
+
+    @Override
+    public void close()
+    {
+        executor.shutdownNow();
+    }
+
+    private long getDelayNanos()
+    {
+        if (delayNanos != null) {
+            return delayNanos;
+        }
+
+        // one caller refreshes the delay, while the others use the previous one
+        long now = System.nanoTime();
+        long refreshAt = nextDelayRefresh.get();
+        if (now - refreshAt >= 0 && nextDelayRefresh.compareAndSet(refreshAt, now + DELAY_REFRESH_NANOS)) {
+            p95DelayNanos = computeP95DelayNanos();
+        }
+        return p95DelayNanos;
+    }
+
+    private long computeP95DelayNanos()
+    {
+        TimeDistribution requestTime = httpClient.getStats().getRequestTime().getOneMinute();
+        double p95 = requestTime.getP95();
+        if (Double.isNaN(p95)) {
+            return minDelayNanos;
+        }
+        return Math.max(minDelayNanos, (long) (p95 * requestTime.getUnit().toNanos(1)));
+    }
+
+    private Budget getBudget(URI uri)
+    {
+        String destination = uri.getScheme() + "://" + uri.getHost() + ":" + uri.getPort();
+        return budgets.computeIfAbsent(destination, key -> new Budget());
+    }
+
+    @ThreadSafe
+    private static class Budget
+    {
+        @GuardedBy("this")
+        private double balance;
+
+        public synchronized void deposit(double amount)
+        {
+            balance = Math.min(MAX_BUDGET, balance + amount);
+        }
+
+        public synchronized boolean tryWithdraw()
+        {
+            if (balance < 1) {
+                return false;
+            }
+            balance -= 1;
+            return true;
+        }
+    }
+
+    private class HedgedResponseFuture<T>
+            extends AbstractFuture<T>
+            implements HttpResponseFuture<T>
+    {
+        private final List<URI> uris;
+        private final Function<URI, Request> requestFactory;
+        private final ResponseHandler<T, ?> responseHandler;
+
+        @GuardedBy("this")
+        private final List<HttpResponseFuture<T>> attempts = new ArrayList<>();
+        @GuardedBy("this")
+        private int pendingAttempts;
+        @GuardedBy("this")
+        private boolean hedgeStarted;
+        @GuardedBy("this")
+        private ScheduledFuture<?> scheduledHedge;
+        @GuardedBy("this")
+        private Throwable failure;
+        @GuardedBy("this")
+        private boolean succeeded;
+
+        public HedgedResponseFuture(List<URI> uris, Function<URI, Request> requestFactory, ResponseHandler<T, ?> responseHandler)
+        {
+            this.uris = ImmutableList.copyOf(uris);
+            this.requestFactory = requestFactory;
+            this.responseHandler = responseHandler;
+            // without an alternate, there is nothing to hedge with
+            this.hedgeStarted = uris.size() < 2;
+        }
+
+        public void start()
+        {
+            URI uri = uris.get(0);
+            getBudget(uri).deposit(budgetRatio);
+            send(uri, false);
+
+            if (uris.size() > 1) {
+                ScheduledFuture<?> hedge = executor.schedule(this::hedge, getDelayNanos(), NANOSECONDS);
+                synchronized (this) {
+                    scheduledHedge = hedge;
+                }
+                if (isDone()) {
+                    hedge.cancel(false);
+                }
+            }
+        }
+
+        @Override
+        public synchronized String getState()
+        {
+            return attempts.stream()
+                    .map(HttpResponseFuture::getState)
+                    .collect(Collectors.joining(", ", "[", "]"));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            boolean canceled = super.cancel(mayInterruptIfRunning);
+            if (canceled) {
+                cancelAttempts();
+            }
+            return canceled;
+        }
+
+        private void hedge()
+        {
+            synchronized (this) {
+                if (hedgeStarted) {
+                    return;
+                }
+                hedgeStarted = true;
+            }
+            if (isDone()) {
+                return;
+            }
+
+            URI uri = uris.get(1);
+            if (getBudget(uri).tryWithdraw()) {
+                hedgedRequests.update(1);
+                send(uri, true);
+            }
+            else {
+                hedgesDenied.update(1);
+                failIfNoAttemptsLeft();
+            }
+        }
+
+        private void send(URI uri, boolean hedged)
+        {
+            synchronized (this) {
+                pendingAttempts++;
+            }
+
+            HttpResponseFuture<T> attempt;
+            try {
+                attempt = httpClient.executeAsync(requestFactory.apply(uri), responseHandler);
+            }
+            catch (RuntimeException e) {
+                attemptFailed(e);
+                return;
+            }
+
+            synchronized (this) {
+                attempts.add(attempt);
+            }
+            if (isDone()) {
+                cancelAttempts();
+            }
+
+            Futures.addCallback(attempt, new FutureCallback<T>()
+            {
+                @Override
+                public void onSuccess(T result)
+                {
+                    synchronized (HedgedResponseFuture.this) {
+                        if (succeeded) {
+                            return;
+                        }
+                        succeeded = true;
+                    }
+
+                    // counted before the future completes, so the count is current when callers see the response
+                    if (hedged) {
+                        hedgedResponses.update(1);
+                    }
+                    set(result);
+                    cancelAttempts();
+                }
+
+                @Override
+                public void onFailure(Throwable t)
+                {
+                    attemptFailed(t);
+                }
+            }, directExecutor());
+        }
+
+        private void attemptFailed(Throwable throwable)
+        {
+            ScheduledFuture<?> hedge;
+            synchronized (this) {
+                pendingAttempts--;
+                if (failure == null) {
+                    failure = throwable;
+                }
+                hedge = scheduledHedge;
+            }
+
+            // don't wait for the delay to hedge a request that already failed
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            hedge();
+
+            failIfNoAttemptsLeft();
+        }
+
+        private void failIfNoAttemptsLeft()
+        {
+            Throwable throwable;
+            synchronized (this) {
+                if (pendingAttempts > 0 || !hedgeStarted || failure == null) {
+                    return;
+                }
+                throwable = failure;
+            }
+            setException(throwable);
+        }
+
+        private void cancelAttempts()
+        {
+            List<HttpResponseFuture<T>> attempts;
+            ScheduledFuture<?> hedge;
+            synchronized (this) {
+                attempts = ImmutableList.copyOf(this.attempts);
+                hedge = scheduledHedge;
+            }
+
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            for (HttpResponseFuture<T> attempt : attempts) {
+                if (!attempt.isDone()) {
+                    attempt.cancel(true);
+                }
+            }
+        }
+    }
+}
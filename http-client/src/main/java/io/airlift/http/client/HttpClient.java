@@ -29,6 +29,15 @@ public interface HttpClient
 
     <T, E extends Exception> HttpResponseFuture<T> executeAsync(Request request, ResponseHandler<T, E> responseHandler);
 
+    /**
+     * Executes the request, passing the response to the handler as it arrives. The content is not buffered.
+     * Clients that do not support streaming throw {@link UnsupportedOperationException}.
+     */
+    default <T> HttpResponseFuture<T> executeStreaming(Request request, StreamingResponseHandler<T> responseHandler)
+    {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support streaming responses");
+    }
+
     RequestStats getStats();
 
     long getMaxContentLength();
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.annotations.Beta;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Receives a response as it arrives, rather than after it has been buffered. The methods are
+ * called one at a time, in order: {@link #handleHeaders}, {@link #handleContent} for each chunk
+ * of content, and then {@link #handleComplete}. If the request fails, or any of these methods
+ * throws, {@link #handleException} is called instead of the remaining methods, unless the future
+ * of the request was canceled.
+ * <p>
+ * The size of a streamed response is not limited by the max content length of the client.
+ */
+@Beta
+public interface StreamingResponseHandler<T>
+{
+    /**
+     * Called once the status and headers of the response are received, before any content.
+     */
+    void handleHeaders(Request request, int statusCode, ListMultimap<HeaderName, String> headers)
+            throws Exception;
+
+    /**
+     * Called for each chunk of content. No more content is delivered until the returned future
+     * completes, and the content buffer may be reused once it does. A failed future aborts the request.
+     */
+    ListenableFuture<?> handleContent(Request request, ByteBuffer content)
+            throws Exception;
+
+    /**
+     * Called after all content has been handled. The returned value completes the future of the request.
+     */
+    T handleComplete(Request request)
+            throws Exception;
+
+    T handleException(Request request, Exception exception)
+            throws Exception;
+}
@@ -10,6 +10,9 @@ import com.google.common.io.CountingInputStream;
 import com.google.common.net.HostAndPort;
 import com.google.common.primitives.Ints;
 import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.http.client.BodyGenerator;
 import io.airlift.http.client.FileBodyGenerator;
 import io.airlift.http.client.HeaderName;
@@ -20,6 +23,7 @@ import io.airlift.http.client.RequestStats;
 import io.airlift.http.client.ResponseHandler;
 import io.airlift.http.client.ResponseTooLargeException;
 import io.airlift.http.client.StaticBodyGenerator;
+import io.airlift.http.client.StreamingResponseHandler;
 import io.airlift.http.client.spnego.KerberosConfig;
 import io.airlift.http.client.spnego.SpnegoAuthentication;
 import io.airlift.http.client.spnego.SpnegoAuthenticationStore;
@@ -49,6 +53,7 @@ import org.eclipse.jetty.http.HttpHeader;
 import org.eclipse.jetty.http2.client.HTTP2Client;
 import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
 import org.eclipse.jetty.io.ByteBufferPool;
+import org.eclipse.jetty.util.Callback;
 import org.eclipse.jetty.util.HttpCookieStore;
 import org.eclipse.jetty.util.ssl.SslContextFactory;
 import org.eclipse.jetty.util.thread.Sweeper;
@@ -59,7 +64,6 @@ import org.weakref.jmx.Nested;
 import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
@@ -88,7 +92,7 @@ import java.util.stream.Collectors;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static com.google.common.base.Preconditions.checkNotNull;
-import static java.lang.Math.min;
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static java.util.Objects.requireNonNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
@@ -394,7 +398,34 @@ public class JettyHttpClient
 
         JettyResponseFuture<T, E> future = new JettyResponseFuture<>(request, jettyRequest, responseHandler, stats);
 
-        BufferingResponseListener listener = new BufferingResponseListener(future, Ints.saturatedCast(maxContentLength));
+        BufferingResponseListener listener = new BufferingResponseListener(future, httpClient.getByteBufferPool(), Ints.saturatedCast(maxContentLength));
+
+        try {
+            jettyRequest.send(listener);
+        }
+        catch (RuntimeException e) {
+            if (!(e instanceof RejectedExecutionException)) {
+                e = new RejectedExecutionException(e);
+            }
+            // normally this is a rejected execution exception because the client has been closed
+            future.failed(e);
+        }
+        return future;
+    }
+
+    @Override
+    public <T> HttpResponseFuture<T> executeStreaming(Request request, StreamingResponseHandler<T> responseHandler)
+    {
+        checkNotNull(request, "request is null");
+        checkNotNull(responseHandler, "responseHandler is null");
+
+        request = applyRequestFilters(request);
+
+        HttpRequest jettyRequest = buildJettyRequest(request);
+
+        StreamingResponseFuture<T> future = new StreamingResponseFuture<>(request, jettyRequest, responseHandler, stats);
+
+        StreamingResponseListener listener = new StreamingResponseListener(future);
 
         try {
             jettyRequest.send(listener);
@@ -570,6 +601,33 @@ public class JettyHttpClient
         return currentResponseProcessTime;
     }
 
+    /**
+     * Number of requests queued for, or being sent over a connection to, the destination of the URI.
+     * This is zero if the client has no connection pool for the destination.
+     */
+    public int getOutstandingRequests(URI uri)
+    {
+        // look up the existing destinations, because getDestination would create one
+        int port = HttpClient.normalizePort(uri.getScheme(), uri.getPort());
+        Destination destination = null;
+        for (Destination candidate : httpClient.getDestinations()) {
+            if (candidate.getScheme().equalsIgnoreCase(uri.getScheme()) && candidate.getHost().equalsIgnoreCase(uri.getHost()) && candidate.getPort() == port) {
+                destination = candidate;
+                break;
+            }
+        }
+        if (!(destination instanceof PoolingHttpDestination)) {
+            return 0;
+        }
+
+        PoolingHttpDestination<?> poolingHttpDestination = (PoolingHttpDestination<?>) destination;
+        DuplexConnectionPool connectionPool = poolingHttpDestination.getConnectionPool();
+        if (connectionPool == null) {
+            return 0;
+        }
+        return poolingHttpDestination.getHttpExchanges().size() + connectionPool.getActiveConnections().size();
+    }
+
     @Managed
     public String dump()
     {
@@ -764,21 +822,21 @@ public class JettyHttpClient
         }
     }
 
+    private enum JettyAsyncHttpState
+    {
+        WAITING_FOR_CONNECTION,
+        SENDING_REQUEST,
+        WAITING_FOR_RESPONSE,
+        PROCESSING_RESPONSE,
+        DONE,
+        FAILED,
+        CANCELED
+    }
+
     private static class JettyResponseFuture<T, E extends Exception>
             extends AbstractFuture<T>
             implements HttpResponseFuture<T>
     {
-        public enum JettyAsyncHttpState
-        {
-            WAITING_FOR_CONNECTION,
-            SENDING_REQUEST,
-            WAITING_FOR_RESPONSE,
-            PROCESSING_RESPONSE,
-            DONE,
-            FAILED,
-            CANCELED
-        }
-
         private static final Logger log = Logger.get(JettyResponseFuture.class);
 
         private final long requestStart = System.nanoTime();
@@ -910,6 +968,188 @@ public class JettyHttpClient
         }
     }
 
+    private static class StreamingResponseFuture<T>
+            extends AbstractFuture<T>
+            implements HttpResponseFuture<T>
+    {
+        private static final Logger log = Logger.get(StreamingResponseFuture.class);
+
+        private final long requestStart = System.nanoTime();
+        private final AtomicReference<JettyAsyncHttpState> state = new AtomicReference<>(JettyAsyncHttpState.WAITING_FOR_CONNECTION);
+        private final Request request;
+        private final org.eclipse.jetty.client.api.Request jettyRequest;
+        private final StreamingResponseHandler<T> responseHandler;
+        private final RequestStats stats;
+
+        // written by the thread delivering each response event, and events are delivered one at a time
+        private volatile long responseStart;
+        private volatile int statusCode;
+        private volatile long bytesRead;
+
+        public StreamingResponseFuture(Request request, org.eclipse.jetty.client.api.Request jettyRequest, StreamingResponseHandler<T> responseHandler, RequestStats stats)
+        {
+            this.request = request;
+            this.jettyRequest = jettyRequest;
+            this.responseHandler = responseHandler;
+            this.stats = stats;
+        }
+
+        @Override
+        public String getState()
+        {
+            return state.get().toString();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning)
+        {
+            try {
+                stats.recordRequestCanceled();
+                state.set(JettyAsyncHttpState.CANCELED);
+                jettyRequest.abort(new CancellationException());
+                return super.cancel(mayInterruptIfRunning);
+            }
+            catch (Throwable e) {
+                setException(e);
+                return true;
+            }
+        }
+
+        protected void headers(Response response)
+        {
+            if (state.get() == JettyAsyncHttpState.CANCELED) {
+                return;
+            }
+
+            responseStart = System.nanoTime();
+            statusCode = response.getStatus();
+            state.set(JettyAsyncHttpState.PROCESSING_RESPONSE);
+
+            try {
+                responseHandler.handleHeaders(request, statusCode, JettyResponse.toHeadersMap(response.getHeaders()));
+            }
+            catch (Throwable e) {
+                // the handler is notified of the failure when the response completes
+                response.abort(e);
+            }
+        }
+
+        protected void content(Response response, ByteBuffer content, Callback callback)
+        {
+            if (state.get() == JettyAsyncHttpState.CANCELED) {
+                callback.failed(new CancellationException());
+                return;
+            }
+
+            bytesRead += content.remaining();
+
+            ListenableFuture<?> demand;
+            try {
+                demand = checkNotNull(responseHandler.handleContent(request, content), "handleContent returned null");
+            }
+            catch (Throwable e) {
+                response.abort(e);
+                callback.failed(e);
+                return;
+            }
+
+            // jetty delivers the next chunk once the callback is completed
+            Futures.addCallback(demand, new FutureCallback<Object>()
+            {
+                @Override
+                public void onSuccess(Object result)
+                {
+                    callback.succeeded();
+                }
+
+                @Override
+                public void onFailure(Throwable t)
+                {
+                    response.abort(t);
+                    callback.failed(t);
+                }
+            }, directExecutor());
+        }
+
+        protected void completed()
+        {
+            if (state.get() == JettyAsyncHttpState.CANCELED) {
+                return;
+            }
+
+            T value;
+            try {
+                value = responseHandler.handleComplete(request);
+            }
+            catch (Throwable e) {
+                // the response was received, so this is not recorded as a failed request
+                handleFailure(e);
+                return;
+            }
+            finally {
+                long now = System.nanoTime();
+                stats.recordResponseReceived(request.getMethod(),
+                        statusCode,
+                        bytesRead,
+                        bytesRead,
+                        new Duration(responseStart - requestStart, NANOSECONDS),
+                        new Duration(now - responseStart, NANOSECONDS));
+            }
+            state.set(JettyAsyncHttpState.DONE);
+            set(value);
+        }
+
+        protected void failed(Throwable throwable)
+        {
+            if (state.get() == JettyAsyncHttpState.CANCELED) {
+                return;
+            }
+
+            stats.recordRequestFailed();
+            handleFailure(throwable);
+        }
+
+        private void handleFailure(Throwable throwable)
+        {
+            // give handler a chance to rewrite the exception or return a value instead
+            if (throwable instanceof Exception) {
+                try {
+                    T value = responseHandler.handleException(request, (Exception) throwable);
+                    // handler returned a value, store it in the future
+                    state.set(JettyAsyncHttpState.DONE);
+                    set(value);
+                    return;
+                }
+                catch (Throwable newThrowable) {
+                    throwable = newThrowable;
+                }
+            }
+
+            if (throwable instanceof CancellationException) {
+                state.set(JettyAsyncHttpState.CANCELED);
+            }
+            else {
+                state.set(JettyAsyncHttpState.FAILED);
+            }
+            if (throwable == null) {
+                throwable = new Throwable("Throwable is null");
+                log.error(throwable, "Something is broken");
+            }
+
+            setException(throwable);
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("requestStart", requestStart)
+                    .add("state", state)
+                    .add("request", request)
+                    .toString();
+        }
+    }
+
     private static void recordRequestComplete(RequestStats requestStats, Request request, long requestStart, JettyResponse response, long responseStart)
     {
         if (response == null) {
@@ -1052,15 +1292,14 @@ public class JettyHttpClient
         private final int maxLength;
 
         @GuardedBy("this")
-        private byte[] buffer = new byte[0];
-        @GuardedBy("this")
-        private int size;
+        private final PooledResponseBuffer buffer;
 
-        public BufferingResponseListener(JettyResponseFuture<?, ?> future, int maxLength)
+        public BufferingResponseListener(JettyResponseFuture<?, ?> future, ByteBufferPool byteBufferPool, int maxLength)
         {
             this.future = checkNotNull(future, "future is null");
             Preconditions.checkArgument(maxLength > 0, "maxLength must be greater than zero");
             this.maxLength = maxLength;
+            this.buffer = new PooledResponseBuffer(byteBufferPool);
         }
 
         @Override
@@ -1070,41 +1309,69 @@ public class JettyHttpClient
             if (length > maxLength) {
                 response.abort(new ResponseTooLargeException());
             }
-            if (length > buffer.length) {
-                buffer = Arrays.copyOf(buffer, Ints.saturatedCast(length));
-            }
         }
 
         @Override
         public synchronized void onContent(Response response, ByteBuffer content)
         {
-            int length = content.remaining();
-            int requiredCapacity = size + length;
-            if (requiredCapacity > buffer.length) {
-                if (requiredCapacity > maxLength) {
-                    response.abort(new ResponseTooLargeException());
-                    return;
-                }
+            if (buffer.size() + content.remaining() > maxLength) {
+                response.abort(new ResponseTooLargeException());
+                return;
+            }
 
-                // newCapacity = min(log2ceiling(requiredCapacity), maxLength);
-                int newCapacity = min(Integer.highestOneBit(requiredCapacity) << 1, maxLength);
+            buffer.write(content);
+        }
 
-                buffer = Arrays.copyOf(buffer, newCapacity);
+        @Override
+        public synchronized void onComplete(Result result)
+        {
+            // the response handler runs before this returns, so the buffer can be reused once it finishes
+            try {
+                Throwable throwable = result.getFailure();
+                if (throwable != null) {
+                    future.failed(throwable);
+                }
+                else {
+                    future.completed(result.getResponse(), buffer.getInputStream());
+                }
+            }
+            finally {
+                buffer.release();
             }
+        }
+    }
+
+    private static class StreamingResponseListener
+            extends Listener.Adapter
+    {
+        private final StreamingResponseFuture<?> future;
 
-            content.get(buffer, size, length);
-            size += length;
+        public StreamingResponseListener(StreamingResponseFuture<?> future)
+        {
+            this.future = checkNotNull(future, "future is null");
         }
 
         @Override
-        public synchronized void onComplete(Result result)
+        public void onHeaders(Response response)
+        {
+            future.headers(response);
+        }
+
+        @Override
+        public void onContent(Response response, ByteBuffer content, Callback callback)
+        {
+            future.content(response, content, callback);
+        }
+
+        @Override
+        public void onComplete(Result result)
         {
             Throwable throwable = result.getFailure();
             if (throwable != null) {
                 future.failed(throwable);
             }
             else {
-                future.completed(result.getResponse(), new ByteArrayInputStream(buffer, 0, size));
+                future.completed();
             }
         }
     }
@@ -0,0 +1,184 @@
+package io.airlift.http.client.jetty;
+
+import org.eclipse.jetty.io.ByteBufferPool;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.lang.Math.min;
+
+/**
+ * Buffers a response body in chunks acquired from a {@link ByteBufferPool}, rather than in a
+ * contiguous array that is copied every time it grows. The content is read back through
+ * {@link #getInputStream()}, and the chunks are returned to the pool by {@link #release()}.
+ */
+@NotThreadSafe
+final class PooledResponseBuffer
+{
+    static final int CHUNK_SIZE = 16 * 1024;
+
+    private final ByteBufferPool pool;
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private long size;
+    private boolean reading;
+    private boolean released;
+
+    public PooledResponseBuffer(ByteBufferPool pool)
+    {
+        this.pool = checkNotNull(pool, "pool is null");
+    }
+
+    public long size()
+    {
+        return size;
+    }
+
+    /**
+     * Copies the remaining content of the buffer, since Jetty reuses the buffers it passes to listeners
+     */
+    public void write(ByteBuffer content)
+    {
+        checkState(!reading, "buffer is being read");
+        checkState(!released, "buffer has been released");
+
+        while (content.hasRemaining()) {
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = pool.acquire(CHUNK_SIZE, false);
+                // pooled buffers are handed out empty, so switch to filling the whole capacity
+                chunk.clear();
+                chunks.add(chunk);
+            }
+
+            int length = min(content.remaining(), chunk.remaining());
+            int limit = content.limit();
+            content.limit(content.position() + length);
+            chunk.put(content);
+            content.limit(limit);
+
+            size += length;
+        }
+    }
+
+    /**
+     * Returns a stream over the buffered content. No more content may be written once this is called,
+     * and the stream can not be read after the buffer is released.
+     */
+    public InputStream getInputStream()
+    {
+        checkState(!reading, "buffer is already being read");
+        checkState(!released, "buffer has been released");
+
+        reading = true;
+        for (ByteBuffer chunk : chunks) {
+            chunk.flip();
+        }
+        return new ChunksInputStream();
+    }
+
+    /**
+     * Returns the chunks to the pool. This is idempotent.
+     */
+    public void release()
+    {
+        if (released) {
+            return;
+        }
+        released = true;
+
+        for (ByteBuffer chunk : chunks) {
+            pool.release(chunk);
+        }
+        chunks.clear();
+    }
+
+    private class ChunksInputStream
+            extends InputStream
+    {
+        private int chunkIndex;
+
+        @Override
+        public int read()
+                throws IOException
+        {
+            ByteBuffer chunk = currentChunk();
+            if (chunk == null) {
+                return -1;
+            }
+            return chunk.get() & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException
+        {
+            if (length == 0) {
+                return 0;
+            }
+
+            ByteBuffer chunk = currentChunk();
+            if (chunk == null) {
+                return -1;
+            }
+
+            int read = 0;
+            while (chunk != null && read < length) {
+                int chunkLength = min(length - read, chunk.remaining());
+                chunk.get(buffer, offset + read, chunkLength);
+                read += chunkLength;
+                chunk = currentChunk();
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count)
+                throws IOException
+        {
+            long skipped = 0;
+            ByteBuffer chunk = currentChunk();
+            while (chunk != null && skipped < count) {
+                int chunkLength = (int) min(count - skipped, chunk.remaining());
+                chunk.position(chunk.position() + chunkLength);
+                skipped += chunkLength;
+                chunk = currentChunk();
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available()
+                throws IOException
+        {
+            ByteBuffer chunk = currentChunk();
+            return chunk == null ? 0 : chunk.remaining();
+        }
+
+        /**
+         * Returns the first chunk with unread content, or null at the end of the content
+         */
+        private ByteBuffer currentChunk()
+                throws IOException
+        {
+            if (released) {
+                throw new IOException("Response buffer has been released");
+            }
+
+            while (chunkIndex < chunks.size()) {
+                ByteBuffer chunk = chunks.get(chunkIndex);
+                if (chunk.hasRemaining()) {
+                    return chunk;
+                }
+                chunkIndex++;
+            }
+            return null;
+        }
+    }
+}
@@ -9,8 +9,12 @@ import io.airlift.http.client.Request;
 import io.airlift.http.client.RequestStats;
 import io.airlift.http.client.Response;
 import io.airlift.http.client.ResponseHandler;
+import io.airlift.http.client.StreamingResponseHandler;
 import io.airlift.units.Duration;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -18,6 +22,7 @@ import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
+import static com.google.common.base.Throwables.propagateIfPossible;
 import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
 import static java.util.Objects.requireNonNull;
@@ -56,6 +61,19 @@ public class TestingHttpClient
         return new TestingHttpResponseFuture<>(future, state);
     }
 
+    @Override
+    public <T> HttpResponseFuture<T> executeStreaming(Request request, StreamingResponseHandler<T> responseHandler)
+    {
+        checkNotNull(request, "request is null");
+        checkNotNull(responseHandler, "responseHandler is null");
+        checkState(!closed.get(), "client is closed");
+
+        AtomicReference<String> state = new AtomicReference<>("SENDING_REQUEST");
+        ListenableFuture<T> future = executor.submit(() -> execute(request, new StreamingAdapter<>(responseHandler), state));
+
+        return new TestingHttpResponseFuture<>(future, state);
+    }
+
     @Override
     public <T, E extends Exception> T execute(Request request, ResponseHandler<T, E> responseHandler)
             throws E
@@ -141,6 +159,66 @@ public class TestingHttpClient
         closed.set(true);
     }
 
+    /**
+     * Feeds the response of the processor to a streaming handler, waiting for the handler to demand each chunk
+     */
+    private static class StreamingAdapter<T>
+            implements ResponseHandler<T, Exception>
+    {
+        private static final int CHUNK_SIZE = 8192;
+
+        private final StreamingResponseHandler<T> handler;
+
+        public StreamingAdapter(StreamingResponseHandler<T> handler)
+        {
+            this.handler = handler;
+        }
+
+        @Override
+        public T handleException(Request request, Exception exception)
+                throws Exception
+        {
+            return handler.handleException(request, exception);
+        }
+
+        @Override
+        public T handle(Request request, Response response)
+                throws Exception
+        {
+            try {
+                handler.handleHeaders(request, response.getStatusCode(), response.getHeaders());
+
+                InputStream input = response.getInputStream();
+                byte[] buffer = new byte[CHUNK_SIZE];
+                while (true) {
+                    int length = input.read(buffer);
+                    if (length < 0) {
+                        break;
+                    }
+                    awaitDemand(handler.handleContent(request, ByteBuffer.wrap(buffer, 0, length)));
+                }
+
+                return handler.handleComplete(request);
+            }
+            catch (Exception e) {
+                return handler.handleException(request, e);
+            }
+        }
+
+        private static void awaitDemand(ListenableFuture<?> demand)
+                throws Exception
+        {
+            try {
+                demand.get();
+            }
+            catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                propagateIfPossible(cause, Exception.class);
+                throw new RuntimeException(cause);
+            }
+        }
+    }
+
     public interface Processor
     {
         Response handle(Request request)
@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+import io.airlift.http.client.HttpClient.HttpResponseFuture;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.client.Request.Builder.prepareGet;
+import static io.airlift.http.client.StatusResponseHandler.createStatusResponseHandler;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestBalancingHttpClient
+{
+    private static final URI SLOW = URI.create("http://slow.example.com");
+    private static final URI FAST = URI.create("http://fast.example.com");
+    private static final URI FAILING = URI.create("http://failing.example.com");
+
+    @Test
+    public void testSingleUri()
+    {
+        BalancingHttpClient client = new BalancingHttpClient(new TestingHttpClient(request -> {
+            throw new UnsupportedOperationException();
+        }));
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(client.select(ImmutableList.of(SLOW)), SLOW);
+        }
+    }
+
+    @Test
+    public void testAvoidsSlowDestination()
+    {
+        Multiset<URI> counts = executeRequests(ImmutableList.of(SLOW, FAST));
+
+        // the slow destination is only tried again once its cost has decayed below that of the fast destination
+        assertTrue(counts.count(FAST) > 975, counts.toString());
+        assertTrue(counts.count(SLOW) < 25, counts.toString());
+    }
+
+    @Test
+    public void testAvoidsFailingDestination()
+    {
+        Multiset<URI> counts = executeRequests(ImmutableList.of(FAILING, FAST));
+
+        assertTrue(counts.count(FAST) > 975, counts.toString());
+        assertTrue(counts.count(FAILING) < 25, counts.toString());
+    }
+
+    @Test
+    public void testAvoidsBusyDestinations()
+            throws Exception
+    {
+        ExecutorService executor = newCachedThreadPool(daemonThreadsNamed("test-balancing-%s"));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            BalancingHttpClient client = new BalancingHttpClient(new TestingHttpClient(request -> {
+                if (request.getUri().equals(SLOW)) {
+                    release.await();
+                }
+                return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(), new byte[0]);
+            }, executor));
+
+            // nothing is known about the destination while its first request is outstanding
+            HttpResponseFuture<?> future = client.executeAsync(ImmutableList.of(SLOW), this::createRequest, createStatusResponseHandler());
+            for (int i = 0; i < 100; i++) {
+                assertEquals(client.select(ImmutableList.of(SLOW, FAST)), FAST);
+            }
+
+            release.countDown();
+            future.get(10, SECONDS);
+        }
+        finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCanceledRequestHasNoCost()
+            throws Exception
+    {
+        ExecutorService executor = newCachedThreadPool(daemonThreadsNamed("test-balancing-%s"));
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            TestingTicker ticker = new TestingTicker();
+            BalancingHttpClient client = new BalancingHttpClient(new TestingHttpClient(request -> {
+                if (request.getUri().equals(SLOW)) {
+                    release.await();
+                }
+                ticker.increment(1, MILLISECONDS);
+                return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(), new byte[0]);
+            }, executor), ticker);
+
+            client.execute(ImmutableList.of(FAST), this::createRequest, createStatusResponseHandler());
+
+            // canceling the request neither counts as a failure nor leaves it outstanding
+            HttpResponseFuture<?> future = client.executeAsync(ImmutableList.of(SLOW), this::createRequest, createStatusResponseHandler());
+            assertEquals(client.select(ImmutableList.of(SLOW, FAST)), FAST);
+            future.cancel(true);
+            for (int i = 0; i < 100; i++) {
+                assertEquals(client.select(ImmutableList.of(SLOW, FAST)), SLOW);
+            }
+        }
+        finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private Multiset<URI> executeRequests(List<URI> uris)
+    {
+        TestingTicker ticker = new TestingTicker();
+        ImmutableMultiset.Builder<URI> requested = ImmutableMultiset.builder();
+
+        BalancingHttpClient client = new BalancingHttpClient(new TestingHttpClient(request -> {
+            URI uri = request.getUri();
+            requested.add(uri);
+            if (uri.equals(FAILING)) {
+                throw new IllegalStateException("failed");
+            }
+            ticker.increment(uri.equals(SLOW) ? 100 : 1, MILLISECONDS);
+            return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(), new byte[0]);
+        }), ticker);
+
+        for (int i = 0; i < 1000; i++) {
+            try {
+                client.execute(uris, this::createRequest, createStatusResponseHandler());
+            }
+            catch (RuntimeException ignored) {
+            }
+        }
+        return requested.build();
+    }
+
+    private Request createRequest(URI uri)
+    {
+        return prepareGet().setUri(uri).build();
+    }
+}
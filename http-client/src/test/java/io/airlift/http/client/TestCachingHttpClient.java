@@ -0,0 +1,325 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import io.airlift.http.client.HttpClient.HttpResponseFuture;
+import io.airlift.http.client.StringResponseHandler.StringResponse;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.testing.TestingTicker;
+import io.airlift.units.DataSize;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.google.common.net.HttpHeaders.ACCEPT;
+import static com.google.common.net.HttpHeaders.AGE;
+import static com.google.common.net.HttpHeaders.AUTHORIZATION;
+import static com.google.common.net.HttpHeaders.CACHE_CONTROL;
+import static com.google.common.net.HttpHeaders.ETAG;
+import static com.google.common.net.HttpHeaders.IF_NONE_MATCH;
+import static com.google.common.net.HttpHeaders.VARY;
+import static io.airlift.http.client.Request.Builder.prepareGet;
+import static io.airlift.http.client.Request.Builder.preparePost;
+import static io.airlift.http.client.StringResponseHandler.createStringResponseHandler;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+@Test(singleThreaded = true)
+public class TestCachingHttpClient
+{
+    private static final URI URI_A = URI.create("http://example.com/a");
+    private static final URI URI_B = URI.create("http://example.com/b");
+
+    private TestingTicker ticker;
+    private List<Request> requests;
+    private AtomicReference<ListMultimap<String, String>> headers;
+    private AtomicInteger version;
+    private AtomicBoolean failing;
+    private CachingHttpClient client;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        ticker = new TestingTicker();
+        requests = new CopyOnWriteArrayList<>();
+        headers = new AtomicReference<>(ImmutableListMultimap.of());
+        version = new AtomicInteger();
+        failing = new AtomicBoolean();
+
+        client = new CachingHttpClient(new TestingHttpClient(request -> {
+            requests.add(request);
+            if (failing.get()) {
+                return new TestingResponse(HttpStatus.SERVICE_UNAVAILABLE, ImmutableListMultimap.of(), new byte[0]);
+            }
+            String etag = "\"" + version.get() + "\"";
+            ImmutableListMultimap<String, String> responseHeaders = ImmutableListMultimap.<String, String>builder()
+                    .putAll(headers.get())
+                    .put(ETAG, etag)
+                    .build();
+            if (etag.equals(request.getHeader(IF_NONE_MATCH))) {
+                return new TestingResponse(HttpStatus.NOT_MODIFIED, responseHeaders, new byte[0]);
+            }
+            return new TestingResponse(HttpStatus.OK, responseHeaders, ("version " + version.get()).getBytes(UTF_8));
+        }), new DataSize(1, MEGABYTE), ticker);
+    }
+
+    @Test
+    public void testMaxAge()
+            throws Exception
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60"));
+
+        assertEquals(get(URI_A), "version 0");
+        version.incrementAndGet();
+        ticker.increment(59, SECONDS);
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(client.executeAsync(prepareGet().setUri(URI_A).build(), createStringResponseHandler()).get().getBody(), "version 0");
+        assertEquals(requests.size(), 1);
+        assertEquals(client.getHits().getTotalCount(), 2);
+
+        // after max-age, the changed response replaces the cached one
+        ticker.increment(1, SECONDS);
+        assertEquals(get(URI_A), "version 1");
+        assertEquals(requests.size(), 2);
+        assertEquals(requests.get(1).getHeader(IF_NONE_MATCH), "\"0\"");
+        assertEquals(client.getMisses().getTotalCount(), 2);
+    }
+
+    @Test
+    public void testNoCacheRevalidates()
+            throws Exception
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "no-cache"));
+
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(client.executeAsync(prepareGet().setUri(URI_A).build(), createStringResponseHandler()).get().getBody(), "version 0");
+        assertEquals(requests.size(), 3);
+        assertNull(requests.get(0).getHeader(IF_NONE_MATCH));
+        assertEquals(requests.get(1).getHeader(IF_NONE_MATCH), "\"0\"");
+        assertEquals(requests.get(2).getHeader(IF_NONE_MATCH), "\"0\"");
+        assertEquals(client.getNotModified().getTotalCount(), 2);
+
+        version.incrementAndGet();
+        assertEquals(get(URI_A), "version 1");
+    }
+
+    @Test
+    public void testStaleWhileRevalidate()
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=10, stale-while-revalidate=20"));
+
+        assertEquals(get(URI_A), "version 0");
+        version.incrementAndGet();
+
+        // the stale response is served while the new one is fetched
+        ticker.increment(15, SECONDS);
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(requests.size(), 2);
+        assertEquals(get(URI_A), "version 1");
+        assertEquals(requests.size(), 2);
+
+        // after the stale period, the request waits for the server
+        version.incrementAndGet();
+        ticker.increment(30, SECONDS);
+        assertEquals(get(URI_A), "version 2");
+        assertEquals(requests.size(), 3);
+    }
+
+    @Test
+    public void testServerErrorDuringRevalidation()
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=10, stale-while-revalidate=20"));
+
+        assertEquals(get(URI_A), "version 0");
+
+        // the failed revalidation keeps the stale response
+        failing.set(true);
+        ticker.increment(15, SECONDS);
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(requests.size(), 3);
+        assertEquals(client.getCachedResponses(), 1);
+        assertEquals(client.getMisses().getTotalCount(), 1);
+
+        failing.set(false);
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(requests.size(), 4);
+        assertEquals(client.getNotModified().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testAge()
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60", AGE, "50"));
+
+        assertEquals(get(URI_A), "version 0");
+        ticker.increment(9, SECONDS);
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(requests.size(), 1);
+
+        // the response was already 50 seconds old when it was received
+        ticker.increment(1, SECONDS);
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(requests.size(), 2);
+
+        // a response older than its max-age without a validator is not cached
+        client = new CachingHttpClient(new TestingHttpClient(request -> {
+            requests.add(request);
+            return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60", AGE, "60"), new byte[0]);
+        }), new DataSize(1, MEGABYTE), ticker);
+        get(URI_A);
+        assertEquals(client.getCachedResponses(), 0);
+    }
+
+    @Test
+    public void testVary()
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60", VARY, "Accept"));
+
+        assertEquals(get(prepareGet().setUri(URI_A).setHeader(ACCEPT, "text/plain").build()).getBody(), "version 0");
+        assertEquals(get(prepareGet().setUri(URI_A).setHeader(ACCEPT, "text/plain").build()).getBody(), "version 0");
+        assertEquals(requests.size(), 1);
+
+        // a request with a different value of the header is not answered with the cached response
+        version.incrementAndGet();
+        assertEquals(get(prepareGet().setUri(URI_A).setHeader(ACCEPT, "application/json").build()).getBody(), "version 1");
+        assertEquals(get(URI_A), "version 1");
+        assertEquals(requests.size(), 3);
+    }
+
+    @Test
+    public void testNotModifiedUpdatesHeaders()
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "no-cache", "X-Version", "a"));
+        assertEquals(get(prepareGet().setUri(URI_A).build()).getHeader("X-Version"), "a");
+
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "no-cache", "X-Version", "b"));
+        StringResponse response = get(prepareGet().setUri(URI_A).build());
+        assertEquals(client.getNotModified().getTotalCount(), 1);
+        assertEquals(response.getBody(), "version 0");
+        assertEquals(response.getHeaders("X-Version"), ImmutableList.of("b"));
+
+        // the updated headers are cached
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60", "X-Version", "c"));
+        get(prepareGet().setUri(URI_A).build());
+        response = get(prepareGet().setUri(URI_A).build());
+        assertEquals(client.getHits().getTotalCount(), 1);
+        assertEquals(response.getHeaders("X-Version"), ImmutableList.of("c"));
+    }
+
+    @Test
+    public void testAsyncHit()
+            throws Exception
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60"));
+
+        assertEquals(client.executeAsync(prepareGet().setUri(URI_A).build(), createStringResponseHandler()).get().getBody(), "version 0");
+
+        // a cached response completes the future right away
+        HttpResponseFuture<StringResponse> future = client.executeAsync(prepareGet().setUri(URI_A).build(), createStringResponseHandler());
+        assertTrue(future.isDone());
+        assertEquals(future.getState(), "CACHED");
+        assertEquals(future.get().getBody(), "version 0");
+        assertEquals(requests.size(), 1);
+        assertEquals(client.getHits().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testAuthorization()
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60"));
+        Request authorized = prepareGet().setUri(URI_A).setHeader(AUTHORIZATION, "Bearer token").build();
+
+        // the response to an authorized request is not stored
+        get(authorized);
+        get(authorized);
+        assertEquals(requests.size(), 2);
+        assertEquals(client.getCachedResponses(), 0);
+
+        // and an authorized request is not answered with a response that isn't public
+        assertEquals(get(URI_A), "version 0");
+        get(authorized);
+        assertEquals(requests.size(), 4);
+        assertEquals(get(URI_A), "version 0");
+        assertEquals(requests.size(), 4);
+
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "public, max-age=60"));
+        get(prepareGet().setUri(URI_B).setHeader(AUTHORIZATION, "Bearer token").build());
+        get(prepareGet().setUri(URI_B).setHeader(AUTHORIZATION, "Bearer token").build());
+        assertEquals(requests.size(), 5);
+    }
+
+    @Test
+    public void testNotCached()
+    {
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "no-store"));
+        get(URI_A);
+        get(URI_A);
+        assertEquals(requests.size(), 2);
+
+        headers.set(ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60"));
+        client.execute(preparePost().setUri(URI_B).build(), createStringResponseHandler());
+        client.execute(preparePost().setUri(URI_B).build(), createStringResponseHandler());
+        assertEquals(requests.size(), 4);
+
+        // the caller can bypass the cache
+        get(URI_A);
+        client.execute(prepareGet().setUri(URI_A).setHeader(CACHE_CONTROL, "no-store").build(), createStringResponseHandler());
+        assertEquals(requests.size(), 6);
+        assertEquals(client.getCachedResponses(), 1);
+    }
+
+    @Test
+    public void testEviction()
+    {
+        client = new CachingHttpClient(new TestingHttpClient(request -> {
+            requests.add(request);
+            return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(CACHE_CONTROL, "max-age=60"), new byte[100_000]);
+        }), new DataSize(1, MEGABYTE), ticker);
+
+        for (int i = 0; i < 50; i++) {
+            get(URI_A.resolve("/" + i));
+        }
+        assertEquals(requests.size(), 50);
+        assertTrue(client.getCachedResponses() > 0);
+        assertTrue(client.getCachedResponses() <= 10, String.valueOf(client.getCachedResponses()));
+    }
+
+    private String get(URI uri)
+    {
+        return get(prepareGet().setUri(uri).build()).getBody();
+    }
+
+    private StringResponse get(Request request)
+    {
+        StringResponse response = client.execute(request, createStringResponseHandler());
+        assertEquals(response.getStatusCode(), HttpStatus.OK.code());
+        return response;
+    }
+}
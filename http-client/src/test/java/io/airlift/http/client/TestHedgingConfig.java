@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.collect.ImmutableMap;
+import io.airlift.configuration.testing.ConfigAssertions;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.testing.ValidationAssertions.assertFailsValidation;
+
+public class TestHedgingConfig
+{
+    @Test
+    public void testDefaults()
+    {
+        ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(HedgingConfig.class)
+                .setDelay(null)
+                .setMinDelay(new Duration(10, TimeUnit.MILLISECONDS))
+                .setBudget(0.1));
+    }
+
+    @Test
+    public void testExplicitPropertyMappings()
+    {
+        Map<String, String> properties = new ImmutableMap.Builder<String, String>()
+                .put("http-client.hedging.delay", "50ms")
+                .put("http-client.hedging.min-delay", "5ms")
+                .put("http-client.hedging.budget", "0.25")
+                .build();
+
+        HedgingConfig expected = new HedgingConfig()
+                .setDelay(new Duration(50, TimeUnit.MILLISECONDS))
+                .setMinDelay(new Duration(5, TimeUnit.MILLISECONDS))
+                .setBudget(0.25);
+
+        ConfigAssertions.assertFullMapping(properties, expected);
+    }
+
+    @Test
+    public void testValidations()
+    {
+        assertFailsValidation(new HedgingConfig().setBudget(1.5), "budget", "must be less than or equal to 1.0", DecimalMax.class);
+        assertFailsValidation(new HedgingConfig().setBudget(-0.5), "budget", "must be greater than or equal to 0.0", DecimalMin.class);
+    }
+}
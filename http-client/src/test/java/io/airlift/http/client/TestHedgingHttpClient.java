@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.http.client;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.io.ByteStreams;
+import io.airlift.http.client.HttpClient.HttpResponseFuture;
+import io.airlift.http.client.testing.TestingHttpClient;
+import io.airlift.http.client.testing.TestingResponse;
+import io.airlift.units.Duration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.client.Request.Builder.prepareGet;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.Executors.newCachedThreadPool;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+@Test(singleThreaded = true)
+public class TestHedgingHttpClient
+{
+    private static final URI SLOW = URI.create("http://slow.example.com");
+    private static final URI FAST = URI.create("http://fast.example.com");
+    private static final URI FAILING = URI.create("http://failing.example.com");
+
+    private ExecutorService executor;
+    private CountDownLatch slowResponse;
+    private List<URI> requested;
+    private HedgingHttpClient client;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        executor = newCachedThreadPool(daemonThreadsNamed("test-hedging-%s"));
+        slowResponse = new CountDownLatch(1);
+        requested = new CopyOnWriteArrayList<>();
+
+        TestingHttpClient httpClient = new TestingHttpClient(request -> {
+            URI uri = request.getUri();
+            requested.add(uri);
+            if (uri.equals(FAILING)) {
+                throw new IllegalStateException("failed");
+            }
+            if (uri.equals(SLOW)) {
+                slowResponse.await();
+            }
+            return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(), uri.getHost().getBytes(UTF_8));
+        }, executor);
+
+        client = new HedgingHttpClient(httpClient, new HedgingConfig()
+                .setDelay(new Duration(10, MILLISECONDS))
+                .setBudget(0.5));
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void tearDown()
+    {
+        slowResponse.countDown();
+        client.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testNoHedgeForFastResponse()
+            throws Exception
+    {
+        earnBudget(FAST);
+        requested.clear();
+
+        assertEquals(execute(FAST, SLOW), "fast.example.com");
+        assertEquals(requested, ImmutableList.of(FAST));
+        assertEquals(client.getHedgedRequests().getTotalCount(), 0);
+    }
+
+    @Test
+    public void testHedgedResponseWins()
+            throws Exception
+    {
+        earnBudget(FAST);
+
+        assertEquals(execute(SLOW, FAST), "fast.example.com");
+        assertEquals(client.getHedgedRequests().getTotalCount(), 1);
+        assertEquals(client.getHedgedResponses().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testBudget()
+            throws Exception
+    {
+        // two requests earn a single hedged request
+        earnBudget(FAST);
+
+        assertEquals(execute(SLOW, FAST), "fast.example.com");
+
+        // without budget, the request waits for the slow response
+        HttpResponseFuture<String> future = executeAsync(SLOW, FAST);
+        assertTrue(waitForDenial());
+        slowResponse.countDown();
+        assertEquals(future.get(10, SECONDS), "slow.example.com");
+        assertEquals(client.getHedgedRequests().getTotalCount(), 1);
+        assertEquals(client.getHedgesDenied().getTotalCount(), 1);
+    }
+
+    @Test
+    public void testFailureHedgesImmediately()
+            throws Exception
+    {
+        HedgingHttpClient client = new HedgingHttpClient(new TestingHttpClient(request -> {
+            if (request.getUri().equals(FAILING)) {
+                throw new IllegalStateException("failed");
+            }
+            return new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(), new byte[0]);
+        }), new HedgingConfig().setDelay(new Duration(1, SECONDS)).setBudget(1.0));
+        try {
+            client.executeAsync(ImmutableList.of(FAST), this::createRequest, new BodyResponseHandler()).get(10, SECONDS);
+
+            long start = System.nanoTime();
+            client.executeAsync(ImmutableList.of(FAILING, FAST), this::createRequest, new BodyResponseHandler()).get(10, SECONDS);
+            assertTrue(Duration.nanosSince(start).compareTo(new Duration(1, SECONDS)) < 0);
+            assertEquals(client.getHedgedRequests().getTotalCount(), 1);
+        }
+        finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testAllFail()
+            throws Exception
+    {
+        try {
+            execute(FAILING, FAILING);
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException, e.getCause().toString());
+        }
+    }
+
+    private void earnBudget(URI uri)
+            throws Exception
+    {
+        execute(uri);
+        execute(uri);
+    }
+
+    private boolean waitForDenial()
+            throws InterruptedException
+    {
+        for (int i = 0; i < 1000; i++) {
+            if (client.getHedgesDenied().getTotalCount() > 0) {
+                return true;
+            }
+            MILLISECONDS.sleep(10);
+        }
+        return false;
+    }
+
+    private String execute(URI... uris)
+            throws Exception
+    {
+        return executeAsync(uris).get(10, SECONDS);
+    }
+
+    private HttpResponseFuture<String> executeAsync(URI... uris)
+    {
+        return client.executeAsync(ImmutableList.copyOf(uris), this::createRequest, new BodyResponseHandler());
+    }
+
+    private Request createRequest(URI uri)
+    {
+        return prepareGet().setUri(uri).build();
+    }
+
+    private static class BodyResponseHandler
+            implements ResponseHandler<String, RuntimeException>
+    {
+        @Override
+        public String handleException(Request request, Exception exception)
+        {
+            if (exception instanceof RuntimeException) {
+                throw (RuntimeException) exception;
+            }
+            throw new RuntimeException(exception);
+        }
+
+        @Override
+        public String handle(Request request, Response response)
+        {
+            try {
+                return new String(ByteStreams.toByteArray(response.getInputStream()), UTF_8);
+            }
+            catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package io.airlift.http.client;
+
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Collects the content of a streamed response into a string. When given an executor, each chunk
+ * is demanded asynchronously after a short delay, and content delivered before then is recorded.
+ */
+public class TestingStreamingResponseHandler
+        implements StreamingResponseHandler<String>
+{
+    private final ScheduledExecutorService executor;
+    private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+    private final AtomicBoolean demandPending = new AtomicBoolean();
+    private final AtomicBoolean contentWithoutDemand = new AtomicBoolean();
+    private final AtomicInteger chunks = new AtomicInteger();
+    private volatile int statusCode;
+
+    public TestingStreamingResponseHandler()
+    {
+        this(null);
+    }
+
+    public TestingStreamingResponseHandler(ScheduledExecutorService executor)
+    {
+        this.executor = executor;
+    }
+
+    @Override
+    public void handleHeaders(Request request, int statusCode, ListMultimap<HeaderName, String> headers)
+    {
+        this.statusCode = statusCode;
+    }
+
+    @Override
+    public ListenableFuture<?> handleContent(Request request, ByteBuffer content)
+    {
+        if (!demandPending.compareAndSet(false, true)) {
+            contentWithoutDemand.set(true);
+        }
+        chunks.incrementAndGet();
+
+        byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        synchronized (this.content) {
+            this.content.write(bytes, 0, bytes.length);
+        }
+
+        if (executor == null) {
+            demandPending.set(false);
+            return Futures.immediateFuture(null);
+        }
+
+        SettableFuture<Void> demand = SettableFuture.create();
+        executor.schedule(() -> {
+            demandPending.set(false);
+            demand.set(null);
+        }, 1, MILLISECONDS);
+        return demand;
+    }
+
+    @Override
+    public String handleComplete(Request request)
+    {
+        synchronized (content) {
+            return new String(content.toByteArray(), UTF_8);
+        }
+    }
+
+    @Override
+    public String handleException(Request request, Exception exception)
+            throws Exception
+    {
+        throw exception;
+    }
+
+    public int getStatusCode()
+    {
+        return statusCode;
+    }
+
+    public int getChunks()
+    {
+        return chunks.get();
+    }
+
+    public boolean isContentWithoutDemand()
+    {
+        return contentWithoutDemand.get();
+    }
+}
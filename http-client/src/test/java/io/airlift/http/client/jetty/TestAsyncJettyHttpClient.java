@@ -1,16 +1,32 @@
 package io.airlift.http.client.jetty;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.http.client.AbstractHttpClientTest;
 import io.airlift.http.client.HttpClientConfig;
 import io.airlift.http.client.HttpRequestFilter;
 import io.airlift.http.client.Request;
 import io.airlift.http.client.ResponseHandler;
 import io.airlift.http.client.TestingRequestFilter;
+import io.airlift.http.client.TestingStreamingResponseHandler;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static io.airlift.http.client.Request.Builder.prepareGet;
+import static io.airlift.testing.Assertions.assertGreaterThan;
 import static io.airlift.testing.Closeables.closeQuietly;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
 
 public class TestAsyncJettyHttpClient
         extends AbstractHttpClientTest
@@ -40,6 +56,59 @@ public class TestAsyncJettyHttpClient
                 .setHttp2Enabled(false);
     }
 
+    @Test
+    public void testStreamingResponse()
+            throws Exception
+    {
+        String body = Strings.repeat("0123456789", 100_000);
+        servlet.setResponseBody(body);
+
+        Request request = prepareGet()
+                .setUri(baseURI)
+                .build();
+
+        ScheduledExecutorService executor = newSingleThreadScheduledExecutor(daemonThreadsNamed("test-streaming-%s"));
+        try {
+            TestingStreamingResponseHandler handler = new TestingStreamingResponseHandler(executor);
+            assertEquals(httpClient.executeStreaming(request, handler).get(10, SECONDS), body);
+            assertEquals(handler.getStatusCode(), 200);
+            assertGreaterThan(handler.getChunks(), 1);
+            assertFalse(handler.isContentWithoutDemand());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testStreamingResponseHandlerFailure()
+            throws Exception
+    {
+        servlet.setResponseBody("body text");
+
+        Request request = prepareGet()
+                .setUri(baseURI)
+                .build();
+
+        RuntimeException expected = new RuntimeException("test exception");
+        TestingStreamingResponseHandler handler = new TestingStreamingResponseHandler()
+        {
+            @Override
+            public ListenableFuture<?> handleContent(Request request, ByteBuffer content)
+            {
+                throw expected;
+            }
+        };
+
+        try {
+            httpClient.executeStreaming(request, handler).get(10, SECONDS);
+            fail("expected exception");
+        }
+        catch (ExecutionException e) {
+            assertEquals(e.getCause(), expected);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public <T, E extends Exception> T executeRequest(Request request, ResponseHandler<T, E> responseHandler)
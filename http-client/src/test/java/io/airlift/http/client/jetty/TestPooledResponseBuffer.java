@@ -0,0 +1,151 @@
+package io.airlift.http.client.jetty;
+
+import com.google.common.io.ByteStreams;
+import org.eclipse.jetty.io.ByteBufferPool;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static io.airlift.http.client.jetty.PooledResponseBuffer.CHUNK_SIZE;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestPooledResponseBuffer
+{
+    @Test
+    public void testEmpty()
+            throws Exception
+    {
+        TestingByteBufferPool pool = new TestingByteBufferPool();
+        PooledResponseBuffer buffer = new PooledResponseBuffer(pool);
+
+        assertEquals(buffer.size(), 0);
+        assertEquals(buffer.getInputStream().read(), -1);
+
+        buffer.release();
+        assertEquals(pool.getAcquired(), 0);
+    }
+
+    @Test
+    public void testRoundTrip()
+            throws Exception
+    {
+        byte[] data = new byte[3 * CHUNK_SIZE + 123];
+        ThreadLocalRandom.current().nextBytes(data);
+
+        TestingByteBufferPool pool = new TestingByteBufferPool();
+        PooledResponseBuffer buffer = new PooledResponseBuffer(pool);
+
+        // write in pieces that don't line up with the chunks, alternating heap and direct buffers
+        int offset = 0;
+        int piece = 0;
+        while (offset < data.length) {
+            int length = Math.min(1000 + 7919 * piece % 5000, data.length - offset);
+            ByteBuffer content = piece % 2 == 0 ? ByteBuffer.allocate(length) : ByteBuffer.allocateDirect(length);
+            content.put(data, offset, length);
+            content.flip();
+
+            buffer.write(content);
+            assertEquals(content.remaining(), 0);
+
+            offset += length;
+            piece++;
+        }
+        assertEquals(buffer.size(), data.length);
+        assertEquals(pool.getAcquired(), 4);
+
+        assertEquals(ByteStreams.toByteArray(buffer.getInputStream()), data);
+
+        buffer.release();
+        assertEquals(pool.getReleased(), pool.getAcquired());
+
+        // release is idempotent
+        buffer.release();
+        assertEquals(pool.getReleased(), pool.getAcquired());
+    }
+
+    @Test
+    public void testSingleByteReadsAndSkip()
+            throws Exception
+    {
+        byte[] data = new byte[CHUNK_SIZE + 10];
+        ThreadLocalRandom.current().nextBytes(data);
+
+        PooledResponseBuffer buffer = new PooledResponseBuffer(new TestingByteBufferPool());
+        buffer.write(ByteBuffer.wrap(data));
+
+        InputStream input = buffer.getInputStream();
+        assertEquals(input.read(), data[0] & 0xFF);
+        assertEquals(input.skip(CHUNK_SIZE - 1), CHUNK_SIZE - 1);
+        for (int i = CHUNK_SIZE; i < data.length; i++) {
+            assertEquals(input.read(), data[i] & 0xFF);
+        }
+        assertEquals(input.read(), -1);
+        assertEquals(input.skip(10), 0);
+    }
+
+    @Test
+    public void testReadAfterRelease()
+    {
+        PooledResponseBuffer buffer = new PooledResponseBuffer(new TestingByteBufferPool());
+        buffer.write(ByteBuffer.wrap(new byte[] {1, 2, 3}));
+
+        InputStream input = buffer.getInputStream();
+        buffer.release();
+        try {
+            input.read();
+            throw new AssertionError("expected IOException");
+        }
+        catch (IOException e) {
+            assertTrue(e.getMessage().contains("released"));
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class, expectedExceptionsMessageRegExp = "buffer is being read")
+    public void testWriteAfterRead()
+    {
+        PooledResponseBuffer buffer = new PooledResponseBuffer(new TestingByteBufferPool());
+        buffer.getInputStream();
+        buffer.write(ByteBuffer.wrap(new byte[] {1}));
+    }
+
+    private static class TestingByteBufferPool
+            implements ByteBufferPool
+    {
+        private final List<ByteBuffer> free = new ArrayList<>();
+        private int acquired;
+        private int released;
+
+        @Override
+        public ByteBuffer acquire(int size, boolean direct)
+        {
+            acquired++;
+            ByteBuffer buffer = free.isEmpty() ? ByteBuffer.allocate(size) : free.remove(free.size() - 1);
+            // like the Jetty pools, hand out buffers that are empty for reading
+            buffer.limit(0);
+            return buffer;
+        }
+
+        @Override
+        public void release(ByteBuffer buffer)
+        {
+            released++;
+            free.add(buffer);
+        }
+
+        public int getAcquired()
+        {
+            return acquired;
+        }
+
+        public int getReleased()
+        {
+            return released;
+        }
+    }
+}
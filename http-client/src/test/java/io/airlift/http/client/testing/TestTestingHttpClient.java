@@ -1,21 +1,46 @@
 package io.airlift.http.client.testing;
 
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableListMultimap;
 import io.airlift.http.client.AbstractHttpClientTest.CaptureExceptionResponseHandler;
 import io.airlift.http.client.AbstractHttpClientTest.CapturedException;
 import io.airlift.http.client.HttpClient.HttpResponseFuture;
+import io.airlift.http.client.HttpStatus;
 import io.airlift.http.client.Request;
+import io.airlift.http.client.TestingStreamingResponseHandler;
 import org.testng.annotations.Test;
 
 import java.net.URI;
 import java.util.concurrent.ExecutionException;
 
 import static io.airlift.http.client.Request.Builder.prepareGet;
+import static io.airlift.testing.Assertions.assertGreaterThan;
 import static io.airlift.testing.Assertions.assertInstanceOf;
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.fail;
 
 public class TestTestingHttpClient
 {
+    @Test
+    public void testStreamingResponse()
+            throws Exception
+    {
+        Request request = prepareGet()
+                .setUri(URI.create("http://example.org"))
+                .build();
+
+        String body = Strings.repeat("0123456789", 10_000);
+        TestingStreamingResponseHandler handler = new TestingStreamingResponseHandler();
+
+        HttpResponseFuture<String> future = new TestingHttpClient(input -> new TestingResponse(HttpStatus.OK, ImmutableListMultimap.of(), body.getBytes(UTF_8)))
+                .executeStreaming(request, handler);
+
+        assertEquals(future.get(), body);
+        assertEquals(handler.getStatusCode(), 200);
+        assertGreaterThan(handler.getChunks(), 1);
+    }
+
     @Test
     public void testExceptionFromProcessor()
             throws Exception
@@ -25,6 +25,8 @@ import org.weakref.jmx.Nested;
 
 import javax.inject.Inject;
 
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
 public class RequestStats
 {
     private final CounterStat request;
@@ -42,9 +44,22 @@ public class RequestStats
     }
 
     public void record(String method, int responseCode, long requestSizeInBytes, long responseSizeInBytes, Duration schedulingDelay, Duration requestProcessingTime)
+    {
+        record(method,
+                responseCode,
+                requestSizeInBytes,
+                responseSizeInBytes,
+                (long) schedulingDelay.getValue(NANOSECONDS),
+                (long) requestProcessingTime.getValue(NANOSECONDS));
+    }
+
+    /**
+     * Records a request with the times in nanoseconds, without allocating
+     */
+    public void record(String method, int responseCode, long requestSizeInBytes, long responseSizeInBytes, long schedulingDelayNanos, long requestProcessingTimeNanos)
     {
         request.update(1);
-        requestTime.add(requestProcessingTime);
+        requestTime.addNanos(requestProcessingTimeNanos);
         readBytes.add(requestSizeInBytes);
         writtenBytes.add(responseSizeInBytes);
     }
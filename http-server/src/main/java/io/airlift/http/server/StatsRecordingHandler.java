@@ -15,14 +15,12 @@
  */
 package io.airlift.http.server;
 
-import io.airlift.units.Duration;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.RequestLog;
 import org.eclipse.jetty.server.Response;
 
-import java.util.concurrent.TimeUnit;
-
 import static java.lang.Math.max;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class StatsRecordingHandler
         implements RequestLog
@@ -37,11 +35,12 @@ public class StatsRecordingHandler
     @Override
     public void log(Request request, Response response)
     {
-        Duration requestTime = new Duration(max(0, System.currentTimeMillis() - request.getTimeStamp()), TimeUnit.MILLISECONDS);
+        // times are recorded as primitive nanoseconds, so logging a request doesn't allocate
+        long requestTime = MILLISECONDS.toNanos(max(0, System.currentTimeMillis() - request.getTimeStamp()));
 
         long dispatchTime = request.getTimeStamp();
 
-        Duration schedulingDelay = new Duration(max(0, dispatchTime - request.getTimeStamp()), TimeUnit.MILLISECONDS);
+        long schedulingDelay = MILLISECONDS.toNanos(max(0, dispatchTime - request.getTimeStamp()));
 
         stats.record(request.getMethod(), response.getStatus(), request.getContentRead(), response.getContentCount(), schedulingDelay, requestTime);
     }
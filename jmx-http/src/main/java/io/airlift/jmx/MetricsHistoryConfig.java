@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.jmx;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+public class MetricsHistoryConfig
+{
+    private Duration interval = new Duration(10, TimeUnit.SECONDS);
+    private int capacity = 360;
+
+    @NotNull
+    @MinDuration("1s")
+    public Duration getInterval()
+    {
+        return interval;
+    }
+
+    @Config("jmx.history.interval")
+    @ConfigDescription("Interval between samples of the metrics history")
+    public MetricsHistoryConfig setInterval(Duration interval)
+    {
+        this.interval = interval;
+        return this;
+    }
+
+    @Min(1)
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    @Config("jmx.history.capacity")
+    @ConfigDescription("Number of samples kept in the metrics history")
+    public MetricsHistoryConfig setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+        return this;
+    }
+}
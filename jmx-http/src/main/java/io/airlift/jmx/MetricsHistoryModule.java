@@ -0,0 +1,49 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.jmx;
+
+import com.google.common.annotations.Beta;
+import com.google.inject.Binder;
+import com.google.inject.Module;
+import com.google.inject.Provides;
+import com.google.inject.Scopes;
+import com.google.inject.Singleton;
+import io.airlift.stats.MetricsHistory;
+
+import static io.airlift.configuration.ConfigBinder.configBinder;
+import static io.airlift.jaxrs.JaxrsBinder.jaxrsBinder;
+
+/**
+ * Records the history of the stats added to the bound {@link MetricsHistory}, and serves it at
+ * /v1/jmx/history. Install it alongside {@link JmxHttpModule}.
+ */
+@Beta
+public class MetricsHistoryModule
+        implements Module
+{
+    @Override
+    public void configure(Binder binder)
+    {
+        configBinder(binder).bindConfig(MetricsHistoryConfig.class);
+        binder.bind(MetricsHistoryRecorder.class).in(Scopes.SINGLETON);
+        jaxrsBinder(binder).bind(MetricsHistoryResource.class);
+    }
+
+    @Provides
+    @Singleton
+    public static MetricsHistory createMetricsHistory(MetricsHistoryConfig config)
+    {
+        return new MetricsHistory(config.getCapacity());
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.jmx;
+
+import com.google.inject.Inject;
+import io.airlift.log.Logger;
+import io.airlift.stats.MetricsHistory;
+import io.airlift.units.Duration;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static io.airlift.concurrent.Threads.daemonThreadsNamed;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
+
+/**
+ * Records the metrics history at the configured interval
+ */
+public class MetricsHistoryRecorder
+{
+    private static final Logger log = Logger.get(MetricsHistoryRecorder.class);
+
+    private final MetricsHistory history;
+    private final Duration interval;
+    private final ScheduledExecutorService executorService = newSingleThreadScheduledExecutor(daemonThreadsNamed("metrics-history-%s"));
+    private ScheduledFuture<?> scheduledFuture;
+
+    @Inject
+    public MetricsHistoryRecorder(MetricsHistory history, MetricsHistoryConfig config)
+    {
+        this.history = checkNotNull(history, "history is null");
+        this.interval = checkNotNull(config, "config is null").getInterval();
+    }
+
+    @PostConstruct
+    public synchronized void start()
+    {
+        if (scheduledFuture != null) {
+            return;
+        }
+        scheduledFuture = executorService.scheduleAtFixedRate(() -> {
+            try {
+                history.record();
+            }
+            catch (Throwable e) {
+                log.error(e, "Unexpected exception recording metrics history");
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public synchronized void stop()
+    {
+        if (scheduledFuture != null) {
+            scheduledFuture.cancel(true);
+            scheduledFuture = null;
+        }
+        executorService.shutdownNow();
+    }
+}
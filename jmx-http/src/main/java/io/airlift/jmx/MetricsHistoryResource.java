@@ -0,0 +1,62 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.jmx;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.Inject;
+import io.airlift.stats.MetricsHistory;
+import io.airlift.stats.MetricsHistory.MetricsHistorySnapshot;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+@Path("/v1/jmx/history")
+public class MetricsHistoryResource
+{
+    private final MetricsHistory history;
+
+    @Inject
+    public MetricsHistoryResource(MetricsHistory history)
+    {
+        this.history = checkNotNull(history, "history is null");
+    }
+
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public MetricsHistorySnapshot getHistory()
+    {
+        return history.snapshot();
+    }
+
+    @GET
+    @Path("{series}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getSeries(@PathParam("series") String name)
+    {
+        MetricsHistorySnapshot snapshot = history.snapshot();
+        List<Double> series = snapshot.getSeries().get(name);
+        if (series == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(new MetricsHistorySnapshot(snapshot.getTimestamps(), ImmutableMap.of(name, series))).build();
+    }
+}
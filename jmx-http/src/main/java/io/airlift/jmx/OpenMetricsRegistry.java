@@ -0,0 +1,452 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.jmx;
+
+import com.google.common.annotations.Beta;
+import com.google.common.base.CaseFormat;
+import com.google.common.collect.ImmutableList;
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.Distribution;
+import io.airlift.stats.Distribution.DistributionSnapshot;
+import io.airlift.stats.DistributionStat;
+import io.airlift.stats.TimeDistribution;
+import io.airlift.stats.TimeDistribution.TimeDistributionSnapshot;
+import io.airlift.stats.TimeStat;
+import org.weakref.jmx.Flatten;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Throwables.propagateIfInstanceOf;
+
+/**
+ * Exposes stats objects in the OpenMetrics text format, without going through JMX.
+ * <p>
+ * When an object is registered, its {@code @Managed} getters are walked once to build a plan:
+ * {@link CounterStat}, {@link TimeStat} and {@link DistributionStat} instances are resolved and kept,
+ * {@code @Nested} and {@code @Flatten} objects are walked recursively, and other numeric attributes become
+ * gauges read through a method handle. Writing the metrics then only reads the stats. Like the objects
+ * exported through jmxutils, the stats returned by nested getters are expected not to change.
+ */
+@Beta
+@ThreadSafe
+public class OpenMetricsRegistry
+{
+    public static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private static final MethodType GAUGE_TYPE = MethodType.methodType(double.class);
+    private static final MethodHandle BOOLEAN_TO_DOUBLE;
+
+    static {
+        try {
+            BOOLEAN_TO_DOUBLE = MethodHandles.lookup().findStatic(OpenMetricsRegistry.class, "booleanToDouble", MethodType.methodType(double.class, boolean.class));
+        }
+        catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @GuardedBy("this")
+    private final Map<String, List<Metric>> registrations = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private final Set<String> metricNames = new HashSet<>();
+
+    private volatile List<Metric> metrics = ImmutableList.of();
+
+    /**
+     * Registers the stats of the given object, with metric names prefixed by the given name
+     */
+    public synchronized void register(String name, Object object)
+    {
+        checkNotNull(name, "name is null");
+        checkNotNull(object, "object is null");
+        checkArgument(NAME_PATTERN.matcher(name).matches(), "Invalid metric name: %s", name);
+        checkArgument(!registrations.containsKey(name), "%s is already registered", name);
+
+        List<Metric> plan = new ArrayList<>();
+        addMetrics(plan, name, object, Collections.newSetFromMap(new IdentityHashMap<>()));
+
+        for (Metric metric : plan) {
+            checkArgument(!metricNames.contains(metric.getName()), "Metric %s is already registered", metric.getName());
+        }
+        for (Metric metric : plan) {
+            metricNames.add(metric.getName());
+        }
+
+        registrations.put(name, ImmutableList.copyOf(plan));
+        updateMetrics();
+    }
+
+    public synchronized void unregister(String name)
+    {
+        List<Metric> plan = registrations.remove(name);
+        if (plan != null) {
+            for (Metric metric : plan) {
+                metricNames.remove(metric.getName());
+            }
+            updateMetrics();
+        }
+    }
+
+    @GuardedBy("this")
+    private void updateMetrics()
+    {
+        ImmutableList.Builder<Metric> builder = ImmutableList.builder();
+        for (List<Metric> plan : registrations.values()) {
+            builder.addAll(plan);
+        }
+        metrics = builder.build();
+    }
+
+    /**
+     * Writes all registered metrics, terminated by the "# EOF" line
+     */
+    public void write(Writer writer)
+            throws IOException
+    {
+        for (Metric metric : metrics) {
+            metric.write(writer);
+        }
+        writer.write("# EOF\n");
+    }
+
+    private static void addMetrics(List<Metric> plan, String name, Object object, Set<Object> visited)
+    {
+        if (object instanceof CounterStat) {
+            plan.add(new CounterMetric(name, (CounterStat) object));
+            return;
+        }
+        if (object instanceof TimeStat) {
+            plan.add(new TimeMetric(name + "_seconds", (TimeStat) object));
+            return;
+        }
+        if (object instanceof DistributionStat) {
+            plan.add(new DistributionMetric(name, (DistributionStat) object));
+            return;
+        }
+
+        if (!visited.add(object)) {
+            return;
+        }
+
+        // sorted, so the metrics are always written in the same order
+        Method[] methods = object.getClass().getMethods();
+        Arrays.sort(methods, Comparator.comparing(Method::getName));
+
+        for (Method method : methods) {
+            if (!method.isAnnotationPresent(Managed.class) || method.getParameterCount() != 0 || Modifier.isStatic(method.getModifiers())) {
+                continue;
+            }
+
+            String attributeName = getAttributeName(method);
+            if (attributeName == null) {
+                continue;
+            }
+
+            if (method.isAnnotationPresent(Nested.class) || method.isAnnotationPresent(Flatten.class)) {
+                Object child = invoke(method, object);
+                if (child != null) {
+                    String childName = method.isAnnotationPresent(Flatten.class) ? name : name + "_" + attributeName;
+                    addMetrics(plan, childName, child, visited);
+                }
+            }
+            else if (isNumeric(method.getReturnType())) {
+                plan.add(new GaugeMetric(name + "_" + attributeName, gaugeHandle(method, object)));
+            }
+        }
+    }
+
+    private static String getAttributeName(Method method)
+    {
+        String methodName = method.getName();
+        String attributeName;
+        if (methodName.startsWith("get") && methodName.length() > 3) {
+            attributeName = methodName.substring(3);
+        }
+        else if (methodName.startsWith("is") && methodName.length() > 2) {
+            attributeName = methodName.substring(2);
+        }
+        else {
+            return null;
+        }
+        return CaseFormat.UPPER_CAMEL.to(CaseFormat.LOWER_UNDERSCORE, attributeName);
+    }
+
+    private static boolean isNumeric(Class<?> type)
+    {
+        return type == long.class || type == int.class || type == double.class || type == float.class || type == boolean.class;
+    }
+
+    private static Object invoke(Method method, Object object)
+    {
+        try {
+            return method.invoke(object);
+        }
+        catch (ReflectiveOperationException e) {
+            throw new IllegalArgumentException("Could not read " + method.getName() + " of " + object.getClass().getName(), e);
+        }
+    }
+
+    private static MethodHandle gaugeHandle(Method method, Object object)
+    {
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().unreflect(method).bindTo(object);
+            if (method.getReturnType() == boolean.class) {
+                handle = MethodHandles.filterReturnValue(handle, BOOLEAN_TO_DOUBLE);
+            }
+            // converting primitives to double doesn't box
+            return handle.asType(GAUGE_TYPE);
+        }
+        catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Could not access " + method.getName() + " of " + object.getClass().getName(), e);
+        }
+    }
+
+    private static double booleanToDouble(boolean value)
+    {
+        return value ? 1 : 0;
+    }
+
+    private static void writeType(Writer writer, String name, String type)
+            throws IOException
+    {
+        writer.write("# TYPE ");
+        writer.write(name);
+        writer.write(' ');
+        writer.write(type);
+        writer.write('\n');
+    }
+
+    private static void writeSample(Writer writer, String name, String suffix, double value)
+            throws IOException
+    {
+        writer.write(name);
+        writer.write(suffix);
+        writer.write(' ');
+        writeValue(writer, value);
+        writer.write('\n');
+    }
+
+    private static void writeQuantile(Writer writer, String name, double quantile, double value)
+            throws IOException
+    {
+        writer.write(name);
+        writer.write("{quantile=\"");
+        writer.write(Double.toString(quantile));
+        writer.write("\"} ");
+        writeValue(writer, value);
+        writer.write('\n');
+    }
+
+    private static void writeValue(Writer writer, double value)
+            throws IOException
+    {
+        if (Double.isNaN(value)) {
+            writer.write("NaN");
+        }
+        else if (Double.isInfinite(value)) {
+            writer.write(value > 0 ? "+Inf" : "-Inf");
+        }
+        else if (value == (long) value) {
+            writer.write(Long.toString((long) value));
+        }
+        else {
+            writer.write(Double.toString(value));
+        }
+    }
+
+    private interface Metric
+    {
+        String getName();
+
+        void write(Writer writer)
+                throws IOException;
+    }
+
+    private static class CounterMetric
+            implements Metric
+    {
+        private final String name;
+        private final CounterStat stat;
+
+        public CounterMetric(String name, CounterStat stat)
+        {
+            this.name = name;
+            this.stat = stat;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public void write(Writer writer)
+                throws IOException
+        {
+            writeType(writer, name, "counter");
+            writeSample(writer, name, "_total", stat.getTotalCount());
+        }
+    }
+
+    /**
+     * A summary of the last minute of a time stat, in seconds. The count and sum are totals.
+     */
+    private static class TimeMetric
+            implements Metric
+    {
+        private final String name;
+        private final TimeStat stat;
+
+        public TimeMetric(String name, TimeStat stat)
+        {
+            this.name = name;
+            this.stat = stat;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public void write(Writer writer)
+                throws IOException
+        {
+            TimeDistributionSnapshot snapshot = stat.getOneMinute().snapshot();
+            double toSeconds = (double) snapshot.unit().toNanos(1) / TimeUnit.SECONDS.toNanos(1);
+
+            writeType(writer, name, "summary");
+            writeQuantile(writer, name, 0.5, snapshot.getP50() * toSeconds);
+            writeQuantile(writer, name, 0.75, snapshot.getP75() * toSeconds);
+            writeQuantile(writer, name, 0.9, snapshot.getP90() * toSeconds);
+            writeQuantile(writer, name, 0.95, snapshot.getP95() * toSeconds);
+            writeQuantile(writer, name, 0.99, snapshot.getP99() * toSeconds);
+            TimeDistribution allTime = stat.getAllTime();
+            writeSample(writer, name, "_count", allTime.getCount());
+            writeSample(writer, name, "_sum", allTime.getTotal() * toSeconds);
+        }
+    }
+
+    /**
+     * A summary of the last minute of a distribution stat. The count and sum are totals.
+     */
+    private static class DistributionMetric
+            implements Metric
+    {
+        private final String name;
+        private final DistributionStat stat;
+
+        public DistributionMetric(String name, DistributionStat stat)
+        {
+            this.name = name;
+            this.stat = stat;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public void write(Writer writer)
+                throws IOException
+        {
+            DistributionSnapshot snapshot = stat.getOneMinute().snapshot();
+            Distribution allTime = stat.getAllTime();
+
+            writeType(writer, name, "summary");
+            writeQuantile(writer, name, 0.5, emptyToNaN(snapshot, snapshot.getP50()));
+            writeQuantile(writer, name, 0.75, emptyToNaN(snapshot, snapshot.getP75()));
+            writeQuantile(writer, name, 0.9, emptyToNaN(snapshot, snapshot.getP90()));
+            writeQuantile(writer, name, 0.95, emptyToNaN(snapshot, snapshot.getP95()));
+            writeQuantile(writer, name, 0.99, emptyToNaN(snapshot, snapshot.getP99()));
+            writeSample(writer, name, "_count", allTime.getCount());
+            writeSample(writer, name, "_sum", allTime.getTotal());
+        }
+
+        private static double emptyToNaN(DistributionSnapshot snapshot, long value)
+        {
+            if (snapshot.getCount() == 0 || value == Long.MAX_VALUE || value == Long.MIN_VALUE) {
+                return Double.NaN;
+            }
+            return value;
+        }
+    }
+
+    private static class GaugeMetric
+            implements Metric
+    {
+        private final String name;
+        private final MethodHandle getter;
+
+        public GaugeMetric(String name, MethodHandle getter)
+        {
+            this.name = name;
+            this.getter = getter;
+        }
+
+        @Override
+        public String getName()
+        {
+            return name;
+        }
+
+        @Override
+        public void write(Writer writer)
+                throws IOException
+        {
+            double value;
+            try {
+                value = (double) getter.invokeExact();
+            }
+            catch (Throwable e) {
+                propagateIfInstanceOf(e, Error.class);
+                // a failing attribute shouldn't fail the whole scrape
+                return;
+            }
+
+            writeType(writer, name, "gauge");
+            writeSample(writer, name, "", value);
+        }
+    }
+}
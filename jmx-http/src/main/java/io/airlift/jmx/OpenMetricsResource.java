@@ -0,0 +1,52 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.jmx;
+
+import com.google.inject.Inject;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.StreamingOutput;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@Path("/v1/metrics")
+public class OpenMetricsResource
+{
+    private final OpenMetricsRegistry registry;
+
+    @Inject
+    public OpenMetricsResource(OpenMetricsRegistry registry)
+    {
+        this.registry = checkNotNull(registry, "registry is null");
+    }
+
+    @GET
+    @Produces(OpenMetricsRegistry.CONTENT_TYPE)
+    public StreamingOutput getMetrics()
+    {
+        return output -> {
+            // metrics are streamed to the response as they are read
+            Writer writer = new BufferedWriter(new OutputStreamWriter(output, UTF_8));
+            registry.write(writer);
+            writer.flush();
+        };
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.jmx;
+
+import io.airlift.stats.CounterStat;
+import io.airlift.stats.DistributionStat;
+import io.airlift.stats.TimeStat;
+import org.testng.annotations.Test;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestOpenMetricsRegistry
+{
+    @Test
+    public void testEmpty()
+            throws Exception
+    {
+        assertEquals(write(new OpenMetricsRegistry()), "# EOF\n");
+    }
+
+    @Test
+    public void testStats()
+            throws Exception
+    {
+        TestStats stats = new TestStats();
+        stats.requests.update(3);
+        stats.time.add(250, TimeUnit.MILLISECONDS);
+        stats.child.size.add(10);
+        stats.child.size.add(30);
+        stats.active = 7;
+
+        OpenMetricsRegistry registry = new OpenMetricsRegistry();
+        registry.register("server", stats);
+        String output = write(registry);
+
+        assertTrue(output.contains("# TYPE server_requests counter\nserver_requests_total 3\n"), output);
+        assertTrue(output.contains("# TYPE server_time_seconds summary\n"), output);
+        assertTrue(output.contains("server_time_seconds{quantile=\"0.5\"} 0.25\n"), output);
+        assertTrue(output.contains("server_time_seconds_count 1\n"), output);
+        assertTrue(output.contains("server_time_seconds_sum 0.25\n"), output);
+        assertTrue(output.contains("# TYPE server_child_size summary\n"), output);
+        assertTrue(output.contains("server_child_size_count 2\n"), output);
+        assertTrue(output.contains("server_child_size_sum 40\n"), output);
+        assertTrue(output.contains("# TYPE server_active gauge\nserver_active 7\n"), output);
+        assertTrue(output.contains("# TYPE server_healthy gauge\nserver_healthy 1\n"), output);
+        assertTrue(output.endsWith("# EOF\n"), output);
+
+        // the registered plan reads the live values
+        stats.requests.update(2);
+        stats.active = 9;
+        output = write(registry);
+        assertTrue(output.contains("server_requests_total 5\n"), output);
+        assertTrue(output.contains("server_active 9\n"), output);
+    }
+
+    @Test
+    public void testFailingGaugeIsSkipped()
+            throws Exception
+    {
+        OpenMetricsRegistry registry = new OpenMetricsRegistry();
+        registry.register("failing", new FailingStats());
+        assertEquals(write(registry), "# EOF\n");
+    }
+
+    @Test
+    public void testUnregister()
+            throws Exception
+    {
+        OpenMetricsRegistry registry = new OpenMetricsRegistry();
+        registry.register("server", new TestStats());
+        registry.unregister("server");
+        assertEquals(write(registry), "# EOF\n");
+
+        // the name can be reused after it is unregistered
+        registry.register("server", new TestStats());
+        assertFalse(write(registry).equals("# EOF\n"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "server is already registered")
+    public void testDuplicateRegistration()
+    {
+        OpenMetricsRegistry registry = new OpenMetricsRegistry();
+        registry.register("server", new TestStats());
+        registry.register("server", new TestStats());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Invalid metric name: .*")
+    public void testInvalidName()
+    {
+        new OpenMetricsRegistry().register("not a name", new TestStats());
+    }
+
+    private static String write(OpenMetricsRegistry registry)
+            throws IOException
+    {
+        StringWriter writer = new StringWriter();
+        registry.write(writer);
+        return writer.toString();
+    }
+
+    public static class TestStats
+    {
+        private final CounterStat requests = new CounterStat();
+        private final TimeStat time = new TimeStat();
+        private final ChildStats child = new ChildStats();
+        private volatile int active;
+
+        @Managed
+        @Nested
+        public CounterStat getRequests()
+        {
+            return requests;
+        }
+
+        @Managed
+        @Nested
+        public TimeStat getTime()
+        {
+            return time;
+        }
+
+        @Managed
+        @Nested
+        public ChildStats getChild()
+        {
+            return child;
+        }
+
+        @Managed
+        public int getActive()
+        {
+            return active;
+        }
+
+        @Managed
+        public boolean isHealthy()
+        {
+            return true;
+        }
+
+        @Managed
+        public String getDescription()
+        {
+            return "not a metric";
+        }
+    }
+
+    public static class ChildStats
+    {
+        private final DistributionStat size = new DistributionStat();
+
+        @Managed
+        @Nested
+        public DistributionStat getSize()
+        {
+            return size;
+        }
+    }
+
+    public static class FailingStats
+    {
+        @Managed
+        public long getValue()
+        {
+            throw new IllegalStateException("failed");
+        }
+    }
+}
@@ -18,28 +18,48 @@ package io.airlift.stats;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.annotations.Beta;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import io.airlift.stats.DecayCounter.DecayCounterSnapshot;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
 @Beta
 public class CounterStat
 {
-    private final AtomicLong count = new AtomicLong(0);
-    private final DecayCounter oneMinute = new DecayCounter(ExponentialDecay.oneMinute());
-    private final DecayCounter fiveMinute = new DecayCounter(ExponentialDecay.fiveMinutes());
-    private final DecayCounter fifteenMinute = new DecayCounter(ExponentialDecay.fifteenMinutes());
+    private final LongAdder count = new LongAdder();
+    private final Ticker ticker;
+    private final DecayCounter oneMinute;
+    private final DecayCounter fiveMinute;
+    private final DecayCounter fifteenMinute;
+
+    public CounterStat()
+    {
+        this(Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    CounterStat(Ticker ticker)
+    {
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        oneMinute = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        fiveMinute = new DecayCounter(ExponentialDecay.fiveMinutes(), ticker);
+        fifteenMinute = new DecayCounter(ExponentialDecay.fifteenMinutes(), ticker);
+    }
 
     public void update(long count)
     {
-        oneMinute.add(count);
-        fiveMinute.add(count);
-        fifteenMinute.add(count);
-        this.count.addAndGet(count);
+        // read the clock once for all counters
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        oneMinute.add(count, nowInSeconds);
+        fiveMinute.add(count, nowInSeconds);
+        fifteenMinute.add(count, nowInSeconds);
+        this.count.add(count);
     }
 
     public void merge(CounterStat counterStat)
@@ -48,7 +68,7 @@ public class CounterStat
         oneMinute.merge(counterStat.getOneMinute());
         fiveMinute.merge(counterStat.getFiveMinute());
         fifteenMinute.merge(counterStat.getFifteenMinute());
-        count.addAndGet(counterStat.getTotalCount());
+        count.add(counterStat.getTotalCount());
     }
 
     @Managed
@@ -57,7 +77,7 @@ public class CounterStat
         oneMinute.reset();
         fiveMinute.reset();
         fifteenMinute.reset();
-        count.set(0);
+        count.reset();
     }
 
     /**
@@ -69,13 +89,14 @@ public class CounterStat
         oneMinute.resetTo(counterStat.getOneMinute());
         fiveMinute.resetTo(counterStat.getFiveMinute());
         fifteenMinute.resetTo(counterStat.getFifteenMinute());
-        count.set(counterStat.getTotalCount());
+        count.reset();
+        count.add(counterStat.getTotalCount());
     }
 
     @Managed
     public long getTotalCount()
     {
-        return count.get();
+        return count.sum();
     }
 
     @Managed
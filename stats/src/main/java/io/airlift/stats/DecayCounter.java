@@ -5,7 +5,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Ticker;
 import org.weakref.jmx.Managed;
 
+import javax.annotation.concurrent.ThreadSafe;
+
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static com.google.common.base.Preconditions.checkArgument;
@@ -19,6 +22,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
  * http://www.research.att.com/people/Cormode_Graham/library/publications/CormodeShkapenyukSrivastavaXu09.pdf
  * to not have to rely on a timer that decays the value periodically
  */
+@ThreadSafe
 public class DecayCounter
 {
     // needs to be such that Math.exp(alpha * seconds) does not grow too big
@@ -27,8 +31,10 @@ public class DecayCounter
     private final double alpha;
     private final Ticker ticker;
 
-    private long landmarkInSeconds;
-    private double count;
+    // weights for values recorded within RESCALE_THRESHOLD_SECONDS of the landmark, indexed by age of the landmark
+    private final double[] weights;
+
+    private volatile Window window;
 
     public DecayCounter(double alpha)
     {
@@ -39,51 +45,68 @@ public class DecayCounter
     {
         this.alpha = alpha;
         this.ticker = ticker;
-        landmarkInSeconds = getTickInSeconds();
+
+        weights = new double[(int) RESCALE_THRESHOLD_SECONDS];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = Math.exp(alpha * i);
+        }
+
+        window = new Window(getTickInSeconds());
     }
 
-    public synchronized void add(long value)
+    public void add(long value)
     {
-        long nowInSeconds = getTickInSeconds();
+        add(value, getTickInSeconds());
+    }
 
-        if (nowInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
-            rescaleToNewLandmark(nowInSeconds);
+    /**
+     * Adds a value that was recorded at the given time (as read from this counter's ticker).
+     * Used by callers that buffer values or share a single clock read between several counters.
+     */
+    void add(long value, long timestampInSeconds)
+    {
+        Window window = this.window;
+        if (timestampInSeconds - window.landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
+            window = rescaleToNewLandmark(timestampInSeconds, RESCALE_THRESHOLD_SECONDS);
         }
-        count += value * weight(nowInSeconds, landmarkInSeconds);
+        window.count.add(value * weight(timestampInSeconds, window.landmarkInSeconds));
     }
 
-    public synchronized void merge(DecayCounter decayCounter)
+    public void merge(DecayCounter decayCounter)
     {
         checkNotNull(decayCounter, "decayCounter is null");
         checkArgument(decayCounter.alpha == alpha, "Expected decayCounter to have alpha %s, but was %s", alpha, decayCounter.alpha);
 
-        synchronized (decayCounter) {
-            // if the landmark this counter is behind the other counter
-            if (landmarkInSeconds < decayCounter.landmarkInSeconds) {
-                // rescale this counter to the other counter, and add
-                rescaleToNewLandmark(decayCounter.landmarkInSeconds);
-                count += decayCounter.count;
-            }
-            else {
-                // rescale the other counter and add
-                double otherRescaledCount = decayCounter.count / weight(landmarkInSeconds, decayCounter.landmarkInSeconds);
-                count += otherRescaledCount;
-            }
+        Window other = decayCounter.window;
+        Window window = this.window;
+
+        // if the landmark of this counter is behind the other counter, rescale this counter to the other counter
+        if (window.landmarkInSeconds < other.landmarkInSeconds) {
+            window = rescaleToNewLandmark(other.landmarkInSeconds, 1);
         }
+
+        // rescale the other counter and add
+        window.count.add(other.getCount() / weight(window.landmarkInSeconds, other.landmarkInSeconds));
     }
 
-    private void rescaleToNewLandmark(long newLandMarkInSeconds)
+    private synchronized Window rescaleToNewLandmark(long newLandmarkInSeconds, long minimumLandmarkAgeInSeconds)
     {
+        // another thread may have rescaled while this thread was waiting for the lock
+        Window current = window;
+        if (newLandmarkInSeconds - current.landmarkInSeconds < minimumLandmarkAgeInSeconds) {
+            return current;
+        }
+
         // rescale the count based on a new landmark to avoid numerical overflow issues
-        count = count / weight(newLandMarkInSeconds, landmarkInSeconds);
-        landmarkInSeconds = newLandMarkInSeconds;
+        double scale = 1 / weight(newLandmarkInSeconds, current.landmarkInSeconds);
+        window = new Window(newLandmarkInSeconds, current, scale);
+        return window;
     }
 
     @Managed
     public synchronized void reset()
     {
-        landmarkInSeconds = getTickInSeconds();
-        count = 0;
+        window = new Window(getTickInSeconds());
     }
 
     /**
@@ -92,31 +115,35 @@ public class DecayCounter
     @Deprecated
     public synchronized void resetTo(DecayCounter counter)
     {
-        synchronized (counter) {
-            landmarkInSeconds = counter.landmarkInSeconds;
-            count = counter.count;
-        }
+        Window other = counter.window;
+        Window window = new Window(other.landmarkInSeconds);
+        window.count.add(other.getCount());
+        this.window = window;
     }
 
     @Managed
-    public synchronized double getCount()
+    public double getCount()
     {
         long nowInSeconds = getTickInSeconds();
-        return count / weight(nowInSeconds, landmarkInSeconds);
+        Window window = this.window;
+        return window.getCount() / weight(nowInSeconds, window.landmarkInSeconds);
     }
 
     @Managed
-    public synchronized double getRate()
+    public double getRate()
     {
         // The total time covered by this counter is equivalent to the integral of the weight function from 0 to Infinity,
         // which equals 1/alpha. The count per unit time is, therefore, count / (1/alpha)
         return getCount() * alpha;
     }
 
-
     private double weight(long timestampInSeconds, long landmarkInSeconds)
     {
-        return Math.exp(alpha * (timestampInSeconds - landmarkInSeconds));
+        long age = timestampInSeconds - landmarkInSeconds;
+        if (age >= 0 && age < weights.length) {
+            return weights[(int) age];
+        }
+        return Math.exp(alpha * age);
     }
 
     private long getTickInSeconds()
@@ -171,4 +198,51 @@ public class DecayCounter
                     .toString();
         }
     }
+
+    /**
+     * Values weighted relative to a landmark. Writers add to the counter of the window they
+     * observed without locking, so when a new landmark is installed, the counter of the previous
+     * window is kept and read (rescaled) on demand. Older windows are folded into a constant, which
+     * only misses values from writers that stalled for more than RESCALE_THRESHOLD_SECONDS
+     * between reading the window and adding to it.
+     */
+    private static class Window
+    {
+        private final long landmarkInSeconds;
+        private final DoubleAdder count = new DoubleAdder();
+
+        private final double carriedOver;
+        private final DoubleAdder previousCount;
+        private final double previousScale;
+
+        public Window(long landmarkInSeconds)
+        {
+            this.landmarkInSeconds = landmarkInSeconds;
+            this.carriedOver = 0;
+            this.previousCount = null;
+            this.previousScale = 0;
+        }
+
+        public Window(long landmarkInSeconds, Window previous, double scale)
+        {
+            this.landmarkInSeconds = landmarkInSeconds;
+            this.carriedOver = previous.getCarriedOver() * scale;
+            this.previousCount = previous.count;
+            this.previousScale = scale;
+        }
+
+        private double getCarriedOver()
+        {
+            double result = carriedOver;
+            if (previousCount != null) {
+                result += previousCount.sum() * previousScale;
+            }
+            return result;
+        }
+
+        public double getCount()
+        {
+            return count.sum() + getCarriedOver();
+        }
+    }
 }
@@ -0,0 +1,293 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An exponentially decaying random sample of {@code long}s, biased towards newer values. Uses the
+ * forward decay priority sampling method described in "Forward Decay: A Practical Time Decay Model for
+ * Streaming Systems" by Cormode et al.: each value gets the priority exp(alpha * t) / u, for a uniformly
+ * random u, and the reservoir keeps the values with the highest priorities.
+ * <p>
+ * Priorities are kept as logarithms, alpha * t - ln(u), which don't overflow as t grows, so the reservoir
+ * never needs to be rescaled. Values and priorities are stored in primitive arrays. A value replaces the
+ * one with the lowest priority by claiming its slot with a compare-and-set, so updates never block each
+ * other, and most updates are rejected by comparing against a lower bound of the lowest priority without
+ * writing to shared state. Reads take a consistent copy of each slot without blocking writers and, except
+ * for percentiles, without allocating.
+ */
+@ThreadSafe
+final class DecayingReservoir
+{
+    // priority of a slot that doesn't hold a value yet
+    private static final long EMPTY = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+    // priority of a slot that is being replaced. Priorities are never NaN.
+    private static final long LOCKED = Double.doubleToRawLongBits(Double.NaN);
+
+    private final int reservoirSize;
+    private final double alpha;
+    private final Ticker ticker;
+    private final long landmarkInSeconds;
+
+    private final AtomicLongArray priorities;
+    private final AtomicLongArray values;
+    private final LongAdder count = new LongAdder();
+
+    // lower bound on the lowest priority in the reservoir. Since a slot is only ever replaced by a value
+    // with a higher priority, the lowest priority never decreases.
+    private final AtomicLong threshold = new AtomicLong(EMPTY);
+
+    /**
+     * @param reservoirSize the number of values to keep in the reservoir
+     * @param alpha the exponential decay factor; the higher this is, the more biased the sample will be towards newer values
+     */
+    public DecayingReservoir(int reservoirSize, double alpha)
+    {
+        this(reservoirSize, alpha, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    DecayingReservoir(int reservoirSize, double alpha, Ticker ticker)
+    {
+        checkArgument(reservoirSize > 0, "reservoirSize must be > 0");
+        checkArgument(alpha >= 0, "alpha must be >= 0");
+
+        this.reservoirSize = reservoirSize;
+        this.alpha = alpha;
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        this.landmarkInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+
+        priorities = new AtomicLongArray(reservoirSize);
+        values = new AtomicLongArray(reservoirSize);
+        for (int i = 0; i < reservoirSize; i++) {
+            priorities.set(i, EMPTY);
+        }
+    }
+
+    /**
+     * Number of values in the reservoir
+     */
+    public int size()
+    {
+        return (int) Math.min(reservoirSize, count.sum());
+    }
+
+    public void update(long value)
+    {
+        insert(value);
+
+        // counted after the value is inserted, so that a non-empty reservoir has a value in a slot
+        count.increment();
+    }
+
+    private void insert(long value)
+    {
+        long ageInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read()) - landmarkInSeconds;
+        // 1 - nextDouble() is in (0, 1], so the logarithm is finite
+        double priority = alpha * ageInSeconds - Math.log(1 - ThreadLocalRandom.current().nextDouble());
+
+        if (priority <= Double.longBitsToDouble(threshold.get())) {
+            return;
+        }
+
+        while (true) {
+            int minimumSlot = -1;
+            long minimumBits = 0;
+            double minimum = Double.POSITIVE_INFINITY;
+            double secondMinimum = Double.POSITIVE_INFINITY;
+            boolean sawLocked = false;
+
+            for (int slot = 0; slot < reservoirSize; slot++) {
+                long bits = priorities.get(slot);
+                if (bits == LOCKED) {
+                    // the slot will get an unknown priority, so the threshold can't be raised past it
+                    sawLocked = true;
+                    continue;
+                }
+
+                double slotPriority = Double.longBitsToDouble(bits);
+                if (slotPriority < minimum) {
+                    secondMinimum = minimum;
+                    minimum = slotPriority;
+                    minimumSlot = slot;
+                    minimumBits = bits;
+                }
+                else if (slotPriority < secondMinimum) {
+                    secondMinimum = slotPriority;
+                }
+            }
+
+            if (minimumSlot < 0) {
+                // every slot is being replaced
+                continue;
+            }
+
+            if (priority <= minimum) {
+                if (!sawLocked) {
+                    raiseThreshold(minimum);
+                }
+                return;
+            }
+
+            if (priorities.compareAndSet(minimumSlot, minimumBits, LOCKED)) {
+                values.set(minimumSlot, value);
+                priorities.set(minimumSlot, Double.doubleToRawLongBits(priority));
+
+                if (!sawLocked) {
+                    raiseThreshold(Math.min(secondMinimum, priority));
+                }
+                return;
+            }
+
+            // another thread replaced the slot first, so look for the new minimum
+        }
+    }
+
+    /**
+     * Smallest value in the reservoir, or {@code Long.MAX_VALUE} if it's empty
+     */
+    public long getMin()
+    {
+        long min = Long.MAX_VALUE;
+        for (int slot = 0; slot < reservoirSize; slot++) {
+            long bits = awaitPriority(slot);
+            if (bits != EMPTY) {
+                min = Math.min(min, readValue(slot, bits));
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Largest value in the reservoir, or {@code Long.MIN_VALUE} if it's empty
+     */
+    public long getMax()
+    {
+        long max = Long.MIN_VALUE;
+        for (int slot = 0; slot < reservoirSize; slot++) {
+            long bits = awaitPriority(slot);
+            if (bits != EMPTY) {
+                max = Math.max(max, readValue(slot, bits));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Mean of the values in the reservoir, or {@code NaN} if it's empty
+     */
+    public double getMean()
+    {
+        double sum = 0;
+        int count = 0;
+        for (int slot = 0; slot < reservoirSize; slot++) {
+            long bits = awaitPriority(slot);
+            if (bits != EMPTY) {
+                sum += readValue(slot, bits);
+                count++;
+            }
+        }
+        return sum / count;
+    }
+
+    /**
+     * Values in the reservoir at the given percentiles, interpolating between adjacent values. Returns
+     * {@code NaN} for every percentile if the reservoir is empty.
+     */
+    public double[] percentiles(double... percentiles)
+    {
+        double[] scores = new double[percentiles.length];
+        Arrays.fill(scores, Double.NaN);
+
+        long[] values = new long[reservoirSize];
+        int size = 0;
+        for (int slot = 0; slot < reservoirSize; slot++) {
+            long bits = awaitPriority(slot);
+            if (bits != EMPTY) {
+                values[size++] = readValue(slot, bits);
+            }
+        }
+
+        if (size > 0) {
+            Arrays.sort(values, 0, size);
+
+            for (int i = 0; i < percentiles.length; i++) {
+                double position = percentiles[i] * (size + 1);
+                if (position < 1) {
+                    scores[i] = values[0];
+                }
+                else if (position >= size) {
+                    scores[i] = values[size - 1];
+                }
+                else {
+                    double lower = values[(int) position - 1];
+                    double upper = values[(int) position];
+                    scores[i] = lower + (position - Math.floor(position)) * (upper - lower);
+                }
+            }
+        }
+
+        return scores;
+    }
+
+    private long awaitPriority(int slot)
+    {
+        long bits = priorities.get(slot);
+        while (bits == LOCKED) {
+            // the slot is only held for two writes
+            bits = priorities.get(slot);
+        }
+        return bits;
+    }
+
+    /**
+     * Reads the value of a slot that had the given priority. If the slot was replaced in the meantime,
+     * reads the value that replaced it.
+     */
+    private long readValue(int slot, long bits)
+    {
+        while (true) {
+            long value = values.get(slot);
+            long current = priorities.get(slot);
+            if (current == bits) {
+                return value;
+            }
+            bits = awaitPriority(slot);
+        }
+    }
+
+    private void raiseThreshold(double priority)
+    {
+        while (true) {
+            long current = threshold.get();
+            if (priority <= Double.longBitsToDouble(current) || threshold.compareAndSet(current, Double.doubleToRawLongBits(priority))) {
+                return;
+            }
+        }
+    }
+}
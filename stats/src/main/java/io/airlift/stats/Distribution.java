@@ -2,6 +2,8 @@ package io.airlift.stats;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import org.weakref.jmx.Managed;
 
@@ -9,135 +11,260 @@ import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
-
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Recording is striped by thread: values are buffered per stripe and merged into the
+ * underlying digest when a stripe fills up, when a new second starts, or when the
+ * distribution is read. Buffered values are merged with the decay weight of the time
+ * at which they were recorded, so the reported values are the same as if every value
+ * had been added to the digest directly.
+ */
 @ThreadSafe
 public class Distribution
 {
-    private static final double MAX_ERROR = 0.01;
-
     @GuardedBy("this")
-    private final QuantileDigest digest;
+    private final QuantileSketch digest;
 
     private final DecayCounter total;
+    private final Ticker ticker;
+    private final DistributionBackend backend;
+    private final double alpha;
+    private final SampleBuffer buffer = new SampleBuffer();
+    private final SampleBuffer.Sink bufferSink = this::addBuffered;
 
     public Distribution()
     {
-        digest = new QuantileDigest(MAX_ERROR);
-        total = new DecayCounter(0);
+        this(0);
     }
 
     public Distribution(double alpha)
     {
-        digest = new QuantileDigest(MAX_ERROR, alpha);
-        total = new DecayCounter(alpha);
+        this(alpha, DistributionBackend.QUANTILE_DIGEST);
+    }
+
+    public Distribution(double alpha, DistributionBackend backend)
+    {
+        this(alpha, backend, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    Distribution(double alpha, Ticker ticker)
+    {
+        this(alpha, DistributionBackend.QUANTILE_DIGEST, ticker);
+    }
+
+    @VisibleForTesting
+    Distribution(double alpha, DistributionBackend backend, Ticker ticker)
+    {
+        checkNotNull(backend, "backend is null");
+        this.ticker = ticker;
+        this.backend = backend;
+        this.alpha = alpha;
+        digest = backend.createSketch(alpha, ticker);
+        total = new DecayCounter(alpha, ticker);
     }
 
     public Distribution(Distribution distribution)
     {
-        digest = new QuantileDigest(distribution.digest);
-        total = new DecayCounter(distribution.digest.getAlpha());
-        total.merge(distribution.total);
+        ticker = distribution.ticker;
+        backend = distribution.backend;
+        alpha = distribution.alpha;
+        synchronized (distribution) {
+            distribution.flush();
+            digest = distribution.digest.copy();
+            total = new DecayCounter(alpha, ticker);
+            total.merge(distribution.total);
+        }
     }
 
-    public synchronized void add(long value)
+    public void add(long value)
     {
-        digest.add(value);
-        total.add(value);
+        checkValue(value);
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        while (!buffer.offer(value, nowInSeconds)) {
+            synchronized (this) {
+                buffer.flushCurrentStripe(bufferSink);
+            }
+        }
     }
 
     public synchronized void add(long value, long count)
     {
-        digest.add(value, count);
-        total.add(value * count);
+        checkValue(value);
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        digest.add(value, count, nowInSeconds);
+        total.add(value * count, nowInSeconds);
+    }
+
+    /**
+     * Adds the values in the given range of the array as a single batch. The array is not modified.
+     */
+    public void add(long[] values, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, values.length);
+
+        long[] batch = Arrays.copyOfRange(values, offset, offset + length);
+        long sum = 0;
+        for (long value : batch) {
+            checkValue(value);
+            sum += value;
+        }
+
+        synchronized (this) {
+            long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+            digest.add(batch, 0, length, nowInSeconds);
+            total.add(sum, nowInSeconds);
+        }
+    }
+
+    /**
+     * Merges all the given distributions into this distribution. Each distribution is copied while
+     * holding its lock, so it can keep recording while the copies are merged. The distributions must
+     * have the same backend and alpha as this distribution, and are not modified.
+     */
+    public void mergeAll(Collection<Distribution> distributions)
+    {
+        checkNotNull(distributions, "distributions is null");
+
+        // check all the distributions first, so that a failed merge leaves this distribution unchanged
+        for (Distribution distribution : distributions) {
+            checkArgument(distribution.backend == backend, "Cannot merge a %s distribution into a %s distribution", distribution.backend, backend);
+            checkArgument(distribution.alpha == alpha, "Expected distribution to have alpha %s, but was %s", alpha, distribution.alpha);
+        }
+
+        List<QuantileSketch> sketches = new ArrayList<>(distributions.size());
+        List<DecayCounter> totals = new ArrayList<>(distributions.size());
+        for (Distribution distribution : distributions) {
+            synchronized (distribution) {
+                sketches.add(distribution.flush().copy());
+
+                DecayCounter total = new DecayCounter(alpha, ticker);
+                total.merge(distribution.total);
+                totals.add(total);
+            }
+        }
+
+        synchronized (this) {
+            flush().mergeAll(sketches);
+            for (DecayCounter other : totals) {
+                total.merge(other);
+            }
+        }
+    }
+
+    private void checkValue(long value)
+    {
+        checkArgument(backend.supportsNegativeValues() || value >= 0, "value must be >= 0");
+    }
+
+    @GuardedBy("this")
+    private void addBuffered(long[] values, int length, long sum, long timestampInSeconds)
+    {
+        digest.add(values, 0, length, timestampInSeconds);
+        total.add(sum, timestampInSeconds);
+    }
+
+    @GuardedBy("this")
+    private QuantileSketch flush()
+    {
+        buffer.flush(bufferSink);
+        return digest;
     }
 
     @Managed
     public synchronized double getMaxError()
     {
-        return digest.getConfidenceFactor();
+        return flush().getMaxError();
     }
 
     @Managed
     public synchronized double getCount()
     {
-        return digest.getCount();
+        return flush().getCount();
     }
 
     @Managed
     public synchronized double getTotal()
     {
+        flush();
         return total.getCount();
     }
 
     @Managed
     public synchronized long getP01()
     {
-        return digest.getQuantile(0.01);
+        return flush().getQuantile(0.01);
     }
 
     @Managed
     public synchronized long getP05()
     {
-        return digest.getQuantile(0.05);
+        return flush().getQuantile(0.05);
     }
 
     @Managed
     public synchronized long getP10()
     {
-        return digest.getQuantile(0.10);
+        return flush().getQuantile(0.10);
     }
 
     @Managed
     public synchronized long getP25()
     {
-        return digest.getQuantile(0.25);
+        return flush().getQuantile(0.25);
     }
 
     @Managed
     public synchronized long getP50()
     {
-        return digest.getQuantile(0.5);
+        return flush().getQuantile(0.5);
     }
 
     @Managed
     public synchronized long getP75()
     {
-        return digest.getQuantile(0.75);
+        return flush().getQuantile(0.75);
     }
 
     @Managed
     public synchronized long getP90()
     {
-        return digest.getQuantile(0.90);
+        return flush().getQuantile(0.90);
     }
 
     @Managed
     public synchronized long getP95()
     {
-        return digest.getQuantile(0.95);
+        return flush().getQuantile(0.95);
     }
 
     @Managed
     public synchronized long getP99()
     {
-        return digest.getQuantile(0.99);
+        return flush().getQuantile(0.99);
     }
 
     @Managed
     public synchronized long getMin()
     {
-        return digest.getMin();
+        return flush().getMin();
     }
 
     @Managed
     public synchronized long getMax()
     {
-        return digest.getMax();
+        return flush().getMax();
     }
 
     @Managed
@@ -150,7 +277,7 @@ public class Distribution
 
         List<Long> values;
         synchronized (this) {
-            values = digest.getQuantiles(percentiles);
+            values = flush().getQuantiles(percentiles);
         }
 
         Map<Double, Long> result = new LinkedHashMap<>(values.size());
@@ -163,16 +290,18 @@ public class Distribution
 
     public synchronized List<Long> getPercentiles(List<Double> percentiles)
     {
-        return digest.getQuantiles(percentiles);
+        return flush().getQuantiles(percentiles);
     }
 
     public synchronized DistributionSnapshot snapshot()
     {
+        flush();
+
         List<Long> quantiles = digest.getQuantiles(ImmutableList.of(0.01, 0.05, 0.10, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99));
         return new DistributionSnapshot(
-                getMaxError(),
-                getCount(),
-                getTotal(),
+                digest.getMaxError(),
+                digest.getCount(),
+                total.getCount(),
                 quantiles.get(0),
                 quantiles.get(1),
                 quantiles.get(2),
@@ -182,8 +311,8 @@ public class Distribution
                 quantiles.get(6),
                 quantiles.get(7),
                 quantiles.get(8),
-                getMin(),
-                getMax());
+                digest.getMin(),
+                digest.getMax());
     }
 
     public static class DistributionSnapshot
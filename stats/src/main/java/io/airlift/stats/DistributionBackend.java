@@ -0,0 +1,77 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.base.Ticker;
+import io.airlift.stats.QuantileSketch.LogLinearHistogramSketch;
+import io.airlift.stats.QuantileSketch.QuantileDigestSketch;
+import io.airlift.stats.QuantileSketch.TDigestSketch;
+
+/**
+ * The structure used by {@link Distribution} and {@link TimeDistribution} to compute quantiles.
+ */
+public enum DistributionBackend
+{
+    /**
+     * A {@link QuantileDigest} with a maximum rank error of 1%. Memory usage depends on the range of the values added.
+     */
+    QUANTILE_DIGEST {
+        @Override
+        QuantileSketch createSketch(double alpha, Ticker ticker)
+        {
+            return new QuantileDigestSketch(new QuantileDigest(0.01, alpha, ticker, true));
+        }
+    },
+
+    /**
+     * A {@link LogLinearHistogram} with a maximum relative error of 2^-{@value LogLinearHistogram#DEFAULT_PRECISION}.
+     * Memory usage is bounded and adding a value takes constant time. Only supports values {@code >= 0}.
+     */
+    LOG_LINEAR_HISTOGRAM {
+        @Override
+        QuantileSketch createSketch(double alpha, Ticker ticker)
+        {
+            return new LogLinearHistogramSketch(new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, alpha, ticker));
+        }
+
+        @Override
+        boolean supportsNegativeValues()
+        {
+            return false;
+        }
+    },
+
+    /**
+     * A {@link TDigest} with a compression of {@value TDigest#DEFAULT_COMPRESSION}. The rank error is smallest at the
+     * tails, so high quantiles such as p99 are more accurate than with {@link #QUANTILE_DIGEST}, and memory usage is bounded.
+     */
+    T_DIGEST {
+        @Override
+        QuantileSketch createSketch(double alpha, Ticker ticker)
+        {
+            return new TDigestSketch(new TDigest(TDigest.DEFAULT_COMPRESSION, alpha, ticker));
+        }
+    };
+
+    abstract QuantileSketch createSketch(double alpha, Ticker ticker);
+
+    /**
+     * Whether values {@code < 0} can be recorded. Recording checks this up front, since buffered values
+     * are only added to the sketch later, on another thread or while reading the distribution.
+     */
+    boolean supportsNegativeValues()
+    {
+        return true;
+    }
+}
@@ -17,10 +17,15 @@ public class DistributionStat
 
     public DistributionStat()
     {
-        oneMinute = new Distribution(ExponentialDecay.oneMinute());
-        fiveMinutes = new Distribution(ExponentialDecay.fiveMinutes());
-        fifteenMinutes = new Distribution(ExponentialDecay.fifteenMinutes());
-        allTime = new Distribution();
+        this(DistributionBackend.QUANTILE_DIGEST);
+    }
+
+    public DistributionStat(DistributionBackend backend)
+    {
+        oneMinute = new Distribution(ExponentialDecay.oneMinute(), backend);
+        fiveMinutes = new Distribution(ExponentialDecay.fiveMinutes(), backend);
+        fifteenMinutes = new Distribution(ExponentialDecay.fifteenMinutes(), backend);
+        allTime = new Distribution(0, backend);
     }
 
     public void add(long value)
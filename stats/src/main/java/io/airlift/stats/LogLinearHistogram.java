@@ -0,0 +1,431 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.PeekingIterator;
+import org.openjdk.jol.info.ClassLayout;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * <p>A histogram of non-negative values with log-linear buckets, in the style of HdrHistogram.
+ * Values below 2^precision are counted exactly. Larger values are grouped by their highest set
+ * bit, and each group is split into 2^precision buckets of equal width, so the value reported for
+ * a quantile is within a relative error of 2^-precision of a value at that rank.</p>
+ *
+ * <p>Adding a value takes constant time and does not allocate once the bucket group of the value
+ * has been used. The memory used is bounded by the number of groups (64 - precision) times the
+ * number of buckets per group, and doesn't depend on the number or distribution of values.</p>
+ *
+ * <p>This class supports exponential decay in the same way as {@link QuantileDigest}.</p>
+ */
+@NotThreadSafe
+public class LogLinearHistogram
+{
+    private static final int INSTANCE_SIZE = ClassLayout.parseClass(LogLinearHistogram.class).instanceSize();
+
+    public static final int DEFAULT_PRECISION = 7;
+
+    // needs to be such that Math.exp(alpha * seconds) does not grow too big
+    static final long RESCALE_THRESHOLD_SECONDS = 50;
+    static final double ZERO_WEIGHT_THRESHOLD = 1e-5;
+
+    private final int precision;
+    private final double alpha;
+    private final Ticker ticker;
+
+    // counts[group][bucket], where group 0 holds the values in [0, 2^precision) and group g > 0 holds the
+    // values in [2^(precision + g - 1), 2^(precision + g)). Groups are allocated when first used.
+    private final double[][] counts;
+
+    private double weightedCount;
+    private long max = Long.MIN_VALUE;
+    private long min = Long.MAX_VALUE;
+
+    private long landmarkInSeconds;
+
+    // weight for the most recently used timestamp, since values are usually added in the same second
+    private long cachedWeightTimestamp = Long.MIN_VALUE;
+    private double cachedWeight;
+
+    /**
+     * Create a histogram with a relative error of at most 2^-DEFAULT_PRECISION and no decay.
+     */
+    public LogLinearHistogram()
+    {
+        this(DEFAULT_PRECISION, 0);
+    }
+
+    /**
+     * Create a histogram with a relative error of at most 2^-precision and exponential decay
+     * with factor "alpha".
+     *
+     * @param precision the number of significant bits of each value that are preserved
+     * @param alpha the exponential decay factor
+     */
+    public LogLinearHistogram(int precision, double alpha)
+    {
+        this(precision, alpha, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    LogLinearHistogram(int precision, double alpha, Ticker ticker)
+    {
+        checkArgument(precision >= 1 && precision <= 16, "precision must be in range [1, 16]");
+        checkArgument(alpha >= 0 && alpha < 1, "alpha must be in range [0, 1)");
+
+        this.precision = precision;
+        this.alpha = alpha;
+        this.ticker = ticker;
+        this.counts = new double[Long.SIZE - precision][];
+
+        landmarkInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+    }
+
+    public LogLinearHistogram(LogLinearHistogram histogram)
+    {
+        this(histogram.precision, histogram.alpha, histogram.ticker);
+
+        // copy the buckets rather than merging, which would rescale the source histogram
+        for (int group = 0; group < counts.length; group++) {
+            if (histogram.counts[group] != null) {
+                counts[group] = histogram.counts[group].clone();
+            }
+        }
+        weightedCount = histogram.weightedCount;
+        max = histogram.max;
+        min = histogram.min;
+        landmarkInSeconds = histogram.landmarkInSeconds;
+    }
+
+    public int getPrecision()
+    {
+        return precision;
+    }
+
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    /**
+     * Upper bound on the relative error of the values returned for quantiles
+     */
+    public double getRelativeError()
+    {
+        return 1.0 / (1 << precision);
+    }
+
+    public void add(long value)
+    {
+        add(value, 1);
+    }
+
+    /**
+     * Adds a value to this histogram. The value must be {@code >= 0}
+     */
+    public void add(long value, long count)
+    {
+        add(value, count, TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+    }
+
+    /**
+     * Adds a value that was recorded at the given time (as read from this histogram's ticker).
+     * Used by callers that buffer values before adding them to the histogram.
+     */
+    void add(long value, long count, long timestampInSeconds)
+    {
+        checkArgument(value >= 0, "value must be >= 0");
+        checkArgument(count > 0, "count must be > 0");
+
+        rescaleIfNeeded();
+        addWeighted(value, weight(timestampInSeconds) * count);
+    }
+
+    /**
+     * Adds a batch of values that were recorded at the given time. The clock is read once for the batch.
+     */
+    void add(long[] values, int offset, int length, long timestampInSeconds)
+    {
+        long smallest = Long.MAX_VALUE;
+        for (int i = offset; i < offset + length; i++) {
+            smallest = Math.min(smallest, values[i]);
+        }
+        checkArgument(smallest >= 0, "value must be >= 0");
+
+        rescaleIfNeeded();
+
+        double weight = weight(timestampInSeconds);
+        for (int i = offset; i < offset + length; i++) {
+            addWeighted(values[i], weight);
+        }
+    }
+
+    private void rescaleIfNeeded()
+    {
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        if (nowInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
+            rescale(nowInSeconds);
+        }
+    }
+
+    private void addWeighted(long value, double weight)
+    {
+        int group = getGroup(value);
+        double[] buckets = counts[group];
+        if (buckets == null) {
+            buckets = new double[1 << precision];
+            counts[group] = buckets;
+        }
+        buckets[getBucket(value, group)] += weight;
+        weightedCount += weight;
+
+        max = Math.max(max, value);
+        min = Math.min(min, value);
+    }
+
+    /**
+     * Merges another histogram into this histogram. The other histogram is not modified.
+     */
+    public void merge(LogLinearHistogram other)
+    {
+        checkArgument(precision == other.precision, "Expected histogram to have precision %s, but was %s", precision, other.precision);
+
+        double factor = rescaleForMerge(other.landmarkInSeconds);
+
+        for (int group = 0; group < counts.length; group++) {
+            double[] otherBuckets = other.counts[group];
+            if (otherBuckets == null) {
+                continue;
+            }
+
+            double[] buckets = counts[group];
+            if (buckets == null) {
+                buckets = new double[otherBuckets.length];
+                counts[group] = buckets;
+            }
+
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                buckets[bucket] += otherBuckets[bucket] * factor;
+            }
+        }
+
+        weightedCount += other.weightedCount * factor;
+        max = Math.max(max, other.max);
+        min = Math.min(min, other.min);
+    }
+
+    /**
+     * Number (decayed) of elements added to this histogram
+     */
+    public double getCount()
+    {
+        return weightedCount / weight(TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+    }
+
+    /**
+     * Gets the values at the specified quantiles. The value returned for a quantile q is the upper bound
+     * of the bucket that contains the q quantile, capped to the max value added to the histogram.
+     * <p>
+     * The input list of quantile proportions must be sorted in increasing order, and each value must be in the range [0, 1]
+     */
+    public List<Long> getQuantiles(List<Double> quantiles)
+    {
+        checkArgument(Ordering.natural().isOrdered(quantiles), "quantiles must be sorted in increasing order");
+        for (double quantile : quantiles) {
+            checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between [0,1]");
+        }
+
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        PeekingIterator<Double> iterator = Iterators.peekingIterator(quantiles.iterator());
+
+        double sum = 0;
+        for (int group = 0; group < counts.length && iterator.hasNext(); group++) {
+            double[] buckets = counts[group];
+            if (buckets == null) {
+                continue;
+            }
+
+            for (int bucket = 0; bucket < buckets.length && iterator.hasNext(); bucket++) {
+                sum += buckets[bucket];
+
+                while (iterator.hasNext() && sum > iterator.peek() * weightedCount) {
+                    iterator.next();
+
+                    // we know the max value ever seen, so cap the percentile to provide better error
+                    // bounds in this case
+                    builder.add(Math.min(getUpperBound(group, bucket), max));
+                }
+            }
+        }
+
+        // we finished the traversal without consuming all quantiles. This means the remaining quantiles
+        // correspond to the max known value
+        while (iterator.hasNext()) {
+            builder.add(max);
+            iterator.next();
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Gets the value at the specified quantile within the relative error of this histogram. The quantile must be in the range [0, 1]
+     */
+    public long getQuantile(double quantile)
+    {
+        return getQuantiles(ImmutableList.of(quantile)).get(0);
+    }
+
+    public long getMin()
+    {
+        for (int group = 0; group < counts.length; group++) {
+            double[] buckets = counts[group];
+            if (buckets == null) {
+                continue;
+            }
+
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                if (buckets[bucket] >= ZERO_WEIGHT_THRESHOLD) {
+                    return Math.max(min, getLowerBound(group, bucket));
+                }
+            }
+        }
+
+        return min;
+    }
+
+    public long getMax()
+    {
+        for (int group = counts.length - 1; group >= 0; group--) {
+            double[] buckets = counts[group];
+            if (buckets == null) {
+                continue;
+            }
+
+            for (int bucket = buckets.length - 1; bucket >= 0; bucket--) {
+                if (buckets[bucket] >= ZERO_WEIGHT_THRESHOLD) {
+                    return Math.min(max, getUpperBound(group, bucket));
+                }
+            }
+        }
+
+        return max;
+    }
+
+    public int estimatedInMemorySizeInBytes()
+    {
+        long size = INSTANCE_SIZE + sizeOf(counts);
+        for (double[] buckets : counts) {
+            if (buckets != null) {
+                size += sizeOf(buckets);
+            }
+        }
+        return (int) size;
+    }
+
+    private double weight(long timestampInSeconds)
+    {
+        if (timestampInSeconds != cachedWeightTimestamp) {
+            cachedWeight = Math.exp(alpha * (timestampInSeconds - landmarkInSeconds));
+            cachedWeightTimestamp = timestampInSeconds;
+        }
+        return cachedWeight;
+    }
+
+    private void rescale(long newLandmarkInSeconds)
+    {
+        // rescale the weights based on a new landmark to avoid numerical overflow issues
+        double factor = Math.exp(-alpha * (newLandmarkInSeconds - landmarkInSeconds));
+
+        weightedCount *= factor;
+        for (double[] buckets : counts) {
+            if (buckets == null) {
+                continue;
+            }
+
+            for (int bucket = 0; bucket < buckets.length; bucket++) {
+                buckets[bucket] *= factor;
+            }
+        }
+
+        landmarkInSeconds = newLandmarkInSeconds;
+        cachedWeightTimestamp = Long.MIN_VALUE;
+    }
+
+    /**
+     * Rescales this histogram to the landmark that the weights of another histogram are merged at.
+     *
+     * @return the factor for the weights of the other histogram
+     */
+    private double rescaleForMerge(long otherLandmarkInSeconds)
+    {
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        long targetLandmark = Math.max(landmarkInSeconds, otherLandmarkInSeconds);
+        if (nowInSeconds - targetLandmark >= RESCALE_THRESHOLD_SECONDS) {
+            targetLandmark = nowInSeconds;
+        }
+        if (targetLandmark != landmarkInSeconds) {
+            rescale(targetLandmark);
+        }
+        return Math.exp(-alpha * (targetLandmark - otherLandmarkInSeconds));
+    }
+
+    private int getGroup(long value)
+    {
+        // index of the highest set bit, relative to the first group with buckets wider than 1
+        return Math.max(0, Long.SIZE - Long.numberOfLeadingZeros(value) - precision);
+    }
+
+    private int getBucket(long value, int group)
+    {
+        if (group == 0) {
+            return (int) value;
+        }
+
+        // drop the highest set bit and keep the next precision bits
+        return (int) (value >>> (group - 1)) - (1 << precision);
+    }
+
+    @VisibleForTesting
+    long getLowerBound(int group, int bucket)
+    {
+        if (group == 0) {
+            return bucket;
+        }
+
+        return ((1L << precision) + bucket) << (group - 1);
+    }
+
+    @VisibleForTesting
+    long getUpperBound(int group, int bucket)
+    {
+        if (group == 0) {
+            return bucket;
+        }
+
+        return getLowerBound(group, bucket) + (1L << (group - 1)) - 1;
+    }
+}
@@ -17,15 +17,14 @@ package io.airlift.stats;
 
 import org.weakref.jmx.Managed;
 
-import java.util.Collections;
-import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Deprecated
 public class MeterStat
 {
     private final AtomicLong sum = new AtomicLong(0);
-    private final ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(1028, 0.015);
+    private final DecayingReservoir sample = new DecayingReservoir(1028, 0.015);
     private final DecayCounter oneMinute = new DecayCounter(ExponentialDecay.oneMinute());
     private final DecayCounter fiveMinute = new DecayCounter(ExponentialDecay.fiveMinutes());
     private final DecayCounter fifteenMinute = new DecayCounter(ExponentialDecay.fifteenMinutes());
@@ -48,26 +47,25 @@ public class MeterStat
     @Managed
     public long getMin()
     {
-        return Collections.min(sample.values());
+        if (sample.size() == 0) {
+            throw new NoSuchElementException();
+        }
+        return sample.getMin();
     }
 
     @Managed
     public long getMax()
     {
-        return Collections.max(sample.values());
+        if (sample.size() == 0) {
+            throw new NoSuchElementException();
+        }
+        return sample.getMax();
     }
 
     @Managed
     public double getMean()
     {
-        List<Long> values = sample.values();
-
-        long sum = 0;
-        for (long value : values) {
-            sum += value;
-        }
-
-        return sum * 1.0 / values.size();
+        return sample.getMean();
     }
 
     public double getStdDev()
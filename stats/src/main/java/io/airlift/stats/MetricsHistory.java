@@ -0,0 +1,227 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.annotations.Beta;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Longs;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoubleSupplier;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Keeps the recent history of selected stats in memory, so trends can be inspected on the node itself,
+ * independently of any external collection. Each call to {@link #record()} samples every series, and the
+ * last "capacity" samples are kept in a ring of primitive arrays. Recording at a fixed interval is left to
+ * the caller.
+ * <p>
+ * Series are named after the JMX attributes they sample, e.g. "Requests.OneMinute.Rate". A series added
+ * after recording has started reports {@code NaN} for the samples taken before it was added.
+ */
+@Beta
+@ThreadSafe
+public class MetricsHistory
+{
+    private final int capacity;
+
+    @GuardedBy("this")
+    private final Map<String, Series> series = new LinkedHashMap<>();
+    @GuardedBy("this")
+    private final long[] timestamps;
+    // index of the slot for the next sample
+    @GuardedBy("this")
+    private int next;
+    @GuardedBy("this")
+    private int size;
+
+    public MetricsHistory(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be > 0");
+        this.capacity = capacity;
+        this.timestamps = new long[capacity];
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    public synchronized void add(String name, DoubleSupplier supplier)
+    {
+        checkNotNull(name, "name is null");
+        checkNotNull(supplier, "supplier is null");
+        checkArgument(!series.containsKey(name), "Series %s already exists", name);
+
+        series.put(name, new Series(supplier, capacity));
+    }
+
+    public void addCounter(String name, CounterStat stat)
+    {
+        checkNotNull(stat, "stat is null");
+        add(name + ".TotalCount", stat::getTotalCount);
+        add(name + ".OneMinute.Rate", () -> stat.getOneMinute().getRate());
+    }
+
+    public void addTime(String name, TimeStat stat)
+    {
+        checkNotNull(stat, "stat is null");
+        add(name + ".OneMinute.Count", () -> stat.getOneMinute().getCount());
+        add(name + ".OneMinute.P50", () -> stat.getOneMinute().getP50());
+        add(name + ".OneMinute.P99", () -> stat.getOneMinute().getP99());
+        add(name + ".OneMinute.Max", () -> stat.getOneMinute().getMax());
+    }
+
+    public void addDistribution(String name, DistributionStat stat)
+    {
+        checkNotNull(stat, "stat is null");
+        add(name + ".OneMinute.Count", () -> stat.getOneMinute().getCount());
+        add(name + ".OneMinute.P50", () -> stat.getOneMinute().getP50());
+        add(name + ".OneMinute.P99", () -> stat.getOneMinute().getP99());
+        add(name + ".OneMinute.Max", () -> stat.getOneMinute().getMax());
+    }
+
+    /**
+     * Samples every series, replacing the oldest sample if the history is full. A series whose
+     * supplier throws records {@code NaN} for this sample.
+     */
+    public void record()
+    {
+        record(System.currentTimeMillis());
+    }
+
+    synchronized void record(long timestampMillis)
+    {
+        // sample every series before writing any of them, so an error leaves the history unchanged
+        double[] samples = new double[series.size()];
+        int index = 0;
+        for (Series series : this.series.values()) {
+            samples[index] = series.sample();
+            index++;
+        }
+
+        timestamps[next] = timestampMillis;
+        index = 0;
+        for (Series series : this.series.values()) {
+            series.values[next] = samples[index];
+            index++;
+        }
+
+        next = (next + 1) % capacity;
+        size = Math.min(size + 1, capacity);
+    }
+
+    /**
+     * Returns the samples in the history, oldest first
+     */
+    public synchronized MetricsHistorySnapshot snapshot()
+    {
+        int start = Math.floorMod(next - size, capacity);
+
+        long[] orderedTimestamps = new long[size];
+        for (int i = 0; i < size; i++) {
+            orderedTimestamps[i] = timestamps[(start + i) % capacity];
+        }
+
+        ImmutableMap.Builder<String, List<Double>> values = ImmutableMap.builder();
+        for (Map.Entry<String, Series> entry : series.entrySet()) {
+            double[] ring = entry.getValue().values;
+            double[] ordered = new double[size];
+            for (int i = 0; i < size; i++) {
+                ordered[i] = ring[(start + i) % capacity];
+            }
+            values.put(entry.getKey(), Doubles.asList(ordered));
+        }
+
+        return new MetricsHistorySnapshot(Longs.asList(orderedTimestamps), values.build());
+    }
+
+    private static class Series
+    {
+        private final DoubleSupplier supplier;
+        private final double[] values;
+
+        public Series(DoubleSupplier supplier, int capacity)
+        {
+            this.supplier = supplier;
+            this.values = new double[capacity];
+            Arrays.fill(values, Double.NaN);
+        }
+
+        public double sample()
+        {
+            try {
+                return supplier.getAsDouble();
+            }
+            catch (RuntimeException e) {
+                return Double.NaN;
+            }
+        }
+    }
+
+    public static class MetricsHistorySnapshot
+    {
+        private final List<Long> timestamps;
+        private final Map<String, List<Double>> series;
+
+        @JsonCreator
+        public MetricsHistorySnapshot(
+                @JsonProperty("timestamps") List<Long> timestamps,
+                @JsonProperty("series") Map<String, List<Double>> series)
+        {
+            this.timestamps = ImmutableList.copyOf(checkNotNull(timestamps, "timestamps is null"));
+            this.series = ImmutableMap.copyOf(checkNotNull(series, "series is null"));
+        }
+
+        /**
+         * Times of the samples in milliseconds since the epoch, oldest first
+         */
+        @JsonProperty
+        public List<Long> getTimestamps()
+        {
+            return timestamps;
+        }
+
+        /**
+         * Samples of each series, in the same order as the timestamps
+         */
+        @JsonProperty
+        public Map<String, List<Double>> getSeries()
+        {
+            return series;
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("timestamps", timestamps)
+                    .add("series", series.keySet())
+                    .toString();
+        }
+    }
+}
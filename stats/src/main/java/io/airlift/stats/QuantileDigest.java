@@ -1,8 +1,6 @@
 package io.airlift.stats;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Objects;
-import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
@@ -11,7 +9,10 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.PeekingIterator;
-import com.google.common.util.concurrent.AtomicDouble;
+import io.airlift.slice.BasicSliceInput;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import io.airlift.slice.SliceOutput;
 import org.openjdk.jol.info.ClassLayout;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -19,19 +20,20 @@ import javax.annotation.concurrent.NotThreadSafe;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
-import static com.google.common.base.MoreObjects.firstNonNull;
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.sizeOf;
 import static java.lang.String.format;
 
 /**
@@ -50,12 +52,26 @@ import static java.lang.String.format;
  *
  * <p>This class also supports exponential decay. The implementation is based on the ideas laid out
  * in http://citeseerx.ist.psu.edu/viewdoc/summary?doi=10.1.1.159.3978</p>
+ *
+ * <p>The tree is stored in parallel primitive arrays indexed by node id, rather than as one object
+ * per node. Slots of removed nodes are kept in a free list (chained through {@code lefts}) and
+ * reused by subsequent insertions.</p>
  */
 @NotThreadSafe
 public class QuantileDigest
 {
     private static final int MAX_BITS = 64;
     private static final double MAX_SIZE_FACTOR = 1.5;
+    private static final int NIL = -1;
+    private static final int INITIAL_CAPACITY = 1;
+    // number of digests merged sequentially by a single task in mergeAll
+    private static final int MERGE_TASK_SIZE = 16;
+
+    private static final byte FORMAT_V1 = 1;
+    // flags, level, and at least one byte for each of the prefix delta and the weight
+    private static final int MIN_SERIALIZED_NODE_SIZE = 4;
+    // largest weight that can be stored as a long without loss of precision
+    private static final double MAX_INTEGRAL_WEIGHT = 1L << 53;
 
     // needs to be such that Math.exp(alpha * seconds) does not grow too big
     static final long RESCALE_THRESHOLD_SECONDS = 50;
@@ -66,7 +82,19 @@ public class QuantileDigest
     private final double alpha;
     private final boolean compressAutomatically;
 
-    private Node root;
+    private int root = NIL;
+
+    // node storage, indexed by node id
+    private double[] counts = new double[INITIAL_CAPACITY];
+    private byte[] levels = new byte[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int[] lefts = new int[INITIAL_CAPACITY];
+    private int[] rights = new int[INITIAL_CAPACITY];
+
+    // number of slots ever used; slots below this mark are either live nodes or in the free list
+    private int nextNode;
+    private int firstFree = NIL;
+    private int freeCount;
 
     private double weightedCount;
     private long max = Long.MIN_VALUE;
@@ -74,7 +102,6 @@ public class QuantileDigest
 
     private long landmarkInSeconds;
 
-    private int totalNodeCount = 0;
     private int nonZeroNodeCount = 0;
     private int compressions = 0;
 
@@ -121,8 +148,24 @@ public class QuantileDigest
 
     public QuantileDigest(QuantileDigest quantileDigest)
     {
-        this(quantileDigest.getMaxError(), quantileDigest.getAlpha());
-        merge(quantileDigest);
+        this(quantileDigest.maxError, quantileDigest.alpha, quantileDigest.ticker, quantileDigest.compressAutomatically);
+
+        // copy the arrays rather than merging, which would compress the copy and rescale the source digest
+        counts = quantileDigest.counts.clone();
+        levels = quantileDigest.levels.clone();
+        values = quantileDigest.values.clone();
+        lefts = quantileDigest.lefts.clone();
+        rights = quantileDigest.rights.clone();
+
+        root = quantileDigest.root;
+        nextNode = quantileDigest.nextNode;
+        firstFree = quantileDigest.firstFree;
+        freeCount = quantileDigest.freeCount;
+        weightedCount = quantileDigest.weightedCount;
+        max = quantileDigest.max;
+        min = quantileDigest.min;
+        landmarkInSeconds = quantileDigest.landmarkInSeconds;
+        nonZeroNodeCount = quantileDigest.nonZeroNodeCount;
     }
 
     public double getMaxError()
@@ -144,9 +187,81 @@ public class QuantileDigest
      * Adds a value to this digest. The value must be {@code >= 0}
      */
     public void add(long value, long count)
+    {
+        add(value, count, TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+    }
+
+    /**
+     * Adds a value that was recorded at the given time (as read from this digest's ticker).
+     * Used by callers that buffer values before adding them to the digest.
+     */
+    void add(long value, long count, long timestampInSeconds)
     {
         checkArgument(count > 0, "count must be > 0");
 
+        compressIfNecessary();
+
+        double weight = weight(timestampInSeconds) * count;
+
+        max = Math.max(max, value);
+        min = Math.min(min, value);
+
+        insert(longToBits(value), weight);
+    }
+
+    /**
+     * Adds the values in the given range of the array. The values are sorted and equal values are
+     * inserted once with their combined weight, and the need for compression is checked once for
+     * the whole batch rather than for every value. The array is not modified.
+     */
+    public void add(long[] values, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, values.length);
+
+        long[] batch = Arrays.copyOfRange(values, offset, offset + length);
+        add(batch, 0, length, TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+    }
+
+    /**
+     * Adds a batch of values that were recorded at the given time (as read from this digest's ticker).
+     * The given range of the array is sorted in place.
+     */
+    void add(long[] values, int offset, int length, long timestampInSeconds)
+    {
+        checkPositionIndexes(offset, offset + length, values.length);
+        if (length == 0) {
+            return;
+        }
+
+        int end = offset + length;
+        Arrays.sort(values, offset, end);
+
+        compressIfNecessary();
+
+        double weight = weight(timestampInSeconds);
+
+        int start = offset;
+        while (start < end) {
+            long value = values[start];
+
+            int next = start + 1;
+            while (next < end && values[next] == value) {
+                next++;
+            }
+
+            insert(longToBits(value), weight * (next - start));
+            start = next;
+        }
+
+        min = Math.min(min, values[offset]);
+        max = Math.max(max, values[end - 1]);
+
+        // a large batch may have grown the digest well beyond its expected size
+        compressIfNecessary();
+    }
+
+    private void compressIfNecessary()
+    {
         long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
 
         int maxExpectedNodeCount = 3 * calculateCompressionFactor();
@@ -161,27 +276,46 @@ public class QuantileDigest
             // running a compression for every new added element when we're close to boundary
             compress();
         }
+    }
 
-        double weight = weight(TimeUnit.NANOSECONDS.toSeconds(ticker.read())) * count;
+    public void merge(QuantileDigest other)
+    {
+        mergeWithoutCompression(other);
 
-        max = Math.max(max, value);
-        min = Math.min(min, value);
+        // 3. compress to remove unnecessary nodes
+        compress();
+    }
 
-        insert(longToBits(value), weight);
+    /**
+     * Merges all the given digests into this digest. The digests are merged pairwise in a balanced
+     * tree, in parallel, and the result is compressed once at the end. The given digests are only
+     * read, but must not be modified while they are being merged.
+     */
+    public void mergeAll(Collection<QuantileDigest> digests)
+    {
+        checkNotNull(digests, "digests is null");
+
+        List<QuantileDigest> list = ImmutableList.copyOf(digests);
+        if (list.size() <= MERGE_TASK_SIZE) {
+            for (QuantileDigest digest : list) {
+                mergeWithoutCompression(digest);
+            }
+        }
+        else {
+            mergeWithoutCompression(ForkJoinPool.commonPool().invoke(new MergeTask(list)));
+        }
+
+        compress();
     }
 
-    public void merge(QuantileDigest other)
+    private void mergeWithoutCompression(QuantileDigest other)
     {
-        rescaleToCommonLandmark(this, other);
+        double factor = rescaleForMerge(other.landmarkInSeconds);
 
-        // 2. merge other into this (don't modify other)
-        root = merge(root, other.root);
+        root = merge(root, other, other.root, factor);
 
         max = Math.max(max, other.max);
         min = Math.min(min, other.min);
-
-        // 3. compress to remove unnecessary nodes
-        compress();
     }
 
     /**
@@ -202,28 +336,22 @@ public class QuantileDigest
         ImmutableList.Builder<Long> builder = ImmutableList.builder();
         PeekingIterator<Double> iterator = Iterators.peekingIterator(reversedQuantiles.iterator());
 
-        postOrderTraversal(root, new Callback()
-        {
-            private double sum;
-
-            @Override
-            public boolean process(Node node)
-            {
-                sum += node.weightedCount;
+        PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.REVERSE);
+        double sum = 0;
+        int node;
+        while (iterator.hasNext() && (node = nodes.next()) != NIL) {
+            sum += counts[node];
 
-                while (iterator.hasNext() && sum > (1.0 - iterator.peek()) * weightedCount) {
-                    iterator.next();
+            while (iterator.hasNext() && sum > (1.0 - iterator.peek()) * weightedCount) {
+                iterator.next();
 
-                    // we know the min value ever seen, so cap the percentile to provide better error
-                    // bounds in this case
-                    long value = Math.max(node.getLowerBound(), min);
-
-                    builder.add(value);
-                }
+                // we know the min value ever seen, so cap the percentile to provide better error
+                // bounds in this case
+                long value = Math.max(getLowerBound(node), min);
 
-                return iterator.hasNext();
+                builder.add(value);
             }
-        }, TraversalOrder.REVERSE);
+        }
 
         // we finished the traversal without consuming all quantiles. This means the remaining quantiles
         // correspond to the max known value
@@ -248,30 +376,25 @@ public class QuantileDigest
             checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between [0,1]");
         }
 
-        final ImmutableList.Builder<Long> builder = ImmutableList.builder();
-        final PeekingIterator<Double> iterator = Iterators.peekingIterator(quantiles.iterator());
-
-        postOrderTraversal(root, new Callback()
-        {
-            private double sum = 0;
-
-            public boolean process(Node node)
-            {
-                sum += node.weightedCount;
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        PeekingIterator<Double> iterator = Iterators.peekingIterator(quantiles.iterator());
 
-                while (iterator.hasNext() && sum > iterator.peek() * weightedCount) {
-                    iterator.next();
+        PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.FORWARD);
+        double sum = 0;
+        int node;
+        while (iterator.hasNext() && (node = nodes.next()) != NIL) {
+            sum += counts[node];
 
-                    // we know the max value ever seen, so cap the percentile to provide better error
-                    // bounds in this case
-                    long value = Math.min(node.getUpperBound(), max);
+            while (iterator.hasNext() && sum > iterator.peek() * weightedCount) {
+                iterator.next();
 
-                    builder.add(value);
-                }
+                // we know the max value ever seen, so cap the percentile to provide better error
+                // bounds in this case
+                long value = Math.min(getUpperBound(node), max);
 
-                return iterator.hasNext();
+                builder.add(value);
             }
-        });
+        }
 
         // we finished the traversal without consuming all quantiles. This means the remaining quantiles
         // correspond to the max known value
@@ -326,42 +449,38 @@ public class QuantileDigest
     {
         checkArgument(Ordering.natural().isOrdered(bucketUpperBounds), "buckets must be sorted in increasing order");
 
-        final ImmutableList.Builder<Bucket> builder = ImmutableList.builder();
-        final PeekingIterator<Long> iterator = Iterators.peekingIterator(bucketUpperBounds.iterator());
+        ImmutableList.Builder<Bucket> builder = ImmutableList.builder();
+        PeekingIterator<Long> iterator = Iterators.peekingIterator(bucketUpperBounds.iterator());
 
-        final AtomicDouble sum = new AtomicDouble();
-        final AtomicDouble lastSum = new AtomicDouble();
+        double sum = 0;
+        double lastSum = 0;
 
         // for computing weighed average of values in bucket
-        final AtomicDouble bucketWeightedSum = new AtomicDouble();
-
-        final double normalizationFactor = weight(TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+        double bucketWeightedSum = 0;
 
-        postOrderTraversal(root, new Callback()
-        {
-            public boolean process(Node node)
-            {
+        double normalizationFactor = weight(TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
 
-                while (iterator.hasNext() && iterator.peek() <= node.getUpperBound()) {
-                    double bucketCount = sum.get() - lastSum.get();
+        PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.FORWARD);
+        int node;
+        while (iterator.hasNext() && (node = nodes.next()) != NIL) {
+            while (iterator.hasNext() && iterator.peek() <= getUpperBound(node)) {
+                double bucketCount = sum - lastSum;
 
-                    Bucket bucket = new Bucket(bucketCount / normalizationFactor, bucketWeightedSum.get() / bucketCount);
-
-                    builder.add(bucket);
-                    lastSum.set(sum.get());
-                    bucketWeightedSum.set(0);
-                    iterator.next();
-                }
+                Bucket bucket = new Bucket(bucketCount / normalizationFactor, bucketWeightedSum / bucketCount);
 
-                bucketWeightedSum.addAndGet(node.getMiddle() * node.weightedCount);
-                sum.addAndGet(node.weightedCount);
-                return iterator.hasNext();
+                builder.add(bucket);
+                lastSum = sum;
+                bucketWeightedSum = 0;
+                iterator.next();
             }
-        });
+
+            bucketWeightedSum += getMiddle(node) * counts[node];
+            sum += counts[node];
+        }
 
         while (iterator.hasNext()) {
-            double bucketCount = sum.get() - lastSum.get();
-            Bucket bucket = new Bucket(bucketCount / normalizationFactor, bucketWeightedSum.get() / bucketCount);
+            double bucketCount = sum - lastSum;
+            Bucket bucket = new Bucket(bucketCount / normalizationFactor, bucketWeightedSum / bucketCount);
 
             builder.add(bucket);
 
@@ -373,43 +492,44 @@ public class QuantileDigest
 
     public long getMin()
     {
-        final AtomicLong chosen = new AtomicLong(min);
-        postOrderTraversal(root, new Callback()
-        {
-            public boolean process(Node node)
-            {
-                if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-                    chosen.set(node.getLowerBound());
-                    return false;
-                }
-                return true;
+        long chosen = min;
+
+        PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.FORWARD);
+        int node;
+        while ((node = nodes.next()) != NIL) {
+            if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+                chosen = getLowerBound(node);
+                break;
             }
-        }, TraversalOrder.FORWARD);
+        }
 
-        return Math.max(min, chosen.get());
+        return Math.max(min, chosen);
     }
 
     public long getMax()
     {
-        final AtomicLong chosen = new AtomicLong(max);
-        postOrderTraversal(root, new Callback()
-        {
-            public boolean process(Node node)
-            {
-                if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-                    chosen.set(node.getUpperBound());
-                    return false;
-                }
-                return true;
+        long chosen = max;
+
+        PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.REVERSE);
+        int node;
+        while ((node = nodes.next()) != NIL) {
+            if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+                chosen = getUpperBound(node);
+                break;
             }
-        }, TraversalOrder.REVERSE);
+        }
 
-        return Math.min(max, chosen.get());
+        return Math.min(max, chosen);
     }
 
     public int estimatedInMemorySizeInBytes()
     {
-        return SizeOf.QUANTILE_DIGEST + totalNodeCount * SizeOf.NODE;
+        return (int) (SizeOf.QUANTILE_DIGEST +
+                sizeOf(counts) +
+                sizeOf(levels) +
+                sizeOf(values) +
+                sizeOf(lefts) +
+                sizeOf(rights));
     }
 
     public int estimatedSerializedSizeInBytes()
@@ -425,7 +545,7 @@ public class QuantileDigest
                 SizeOf.LONG + // min
                 SizeOf.LONG + // max
                 SizeOf.INTEGER + // node count
-                totalNodeCount * estimatedNodeSize;
+                getNodeCount() * estimatedNodeSize;
     }
 
     public void serialize(final DataOutput output)
@@ -436,43 +556,34 @@ public class QuantileDigest
             output.writeLong(landmarkInSeconds);
             output.writeLong(min);
             output.writeLong(max);
-            output.writeInt(totalNodeCount);
-
-            postOrderTraversal(root, new Callback()
-            {
-                @Override
-                public boolean process(Node node)
-                {
-                    try {
-                        serializeNode(output, node);
-                    }
-                    catch (IOException e) {
-                        Throwables.propagate(e);
-                    }
-                    return true;
-                }
-            });
+            output.writeInt(getNodeCount());
+
+            PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.FORWARD);
+            int node;
+            while ((node = nodes.next()) != NIL) {
+                serializeNode(output, node);
+            }
         }
         catch (IOException e) {
             Throwables.propagate(e);
         }
     }
 
-    private void serializeNode(DataOutput output, Node node)
+    private void serializeNode(DataOutput output, int node)
             throws IOException
     {
         int flags = 0;
-        if (node.left != null) {
+        if (lefts[node] != NIL) {
             flags |= Flags.HAS_LEFT;
         }
-        if (node.right != null) {
+        if (rights[node] != NIL) {
             flags |= Flags.HAS_RIGHT;
         }
 
         output.writeByte(flags);
-        output.writeByte(node.level);
-        output.writeLong(node.bits);
-        output.writeDouble(node.weightedCount);
+        output.writeByte(levels[node]);
+        output.writeLong(values[node]);
+        output.writeDouble(counts[node]);
     }
 
     public static QuantileDigest deserialize(DataInput input)
@@ -486,33 +597,44 @@ public class QuantileDigest
             result.landmarkInSeconds = input.readLong();
             result.min = input.readLong();
             result.max = input.readLong();
-            result.totalNodeCount = input.readInt();
 
-            Deque<Node> stack = new ArrayDeque<>();
-            for (int i = 0; i < result.totalNodeCount; i++) {
+            int nodeCount = input.readInt();
+            checkArgument(nodeCount >= 0, "Node count must be >= 0");
+
+            // the size of the input is unknown, so storage is allocated as the nodes are read, and a
+            // corrupted node count fails at the end of the input instead of allocating huge arrays
+
+            // nodes are serialized in post-order, so the children of a node are at the top of the stack.
+            // The stack of a valid tree holds at most one subtree per level
+            int[] stack = new int[Math.min(nodeCount, MAX_BITS + 1)];
+            int top = 0;
+            for (int i = 0; i < nodeCount; i++) {
                 int flags = input.readByte();
+                int level = input.readUnsignedByte();
+                long bits = input.readLong();
+                double weight = input.readDouble();
 
-                Node node = deserializeNode(input);
+                int node = result.createNode(bits, level, weight);
 
                 if ((flags & Flags.HAS_RIGHT) != 0) {
-                    node.right = stack.pop();
+                    checkArgument(top > 0, "Tree is corrupted. Missing right child");
+                    result.rights[node] = stack[--top];
                 }
 
                 if ((flags & Flags.HAS_LEFT) != 0) {
-                    node.left = stack.pop();
+                    checkArgument(top > 0, "Tree is corrupted. Missing left child");
+                    result.lefts[node] = stack[--top];
                 }
 
-                stack.push(node);
-                result.weightedCount += node.weightedCount;
-                if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-                    result.nonZeroNodeCount++;
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
                 }
+                stack[top++] = node;
             }
 
-
-            if (!stack.isEmpty()) {
-                Preconditions.checkArgument(stack.size() == 1, "Tree is corrupted. Expected a single root node");
-                result.root = stack.pop();
+            if (top > 0) {
+                checkArgument(top == 1, "Tree is corrupted. Expected a single root node");
+                result.root = stack[0];
             }
 
             return result;
@@ -522,20 +644,204 @@ public class QuantileDigest
         }
     }
 
-    private static Node deserializeNode(DataInput input)
-            throws IOException
+    /**
+     * Serializes this digest in a compact, versioned format. Node values are delta encoded and
+     * integral weights are stored as variable length integers.
+     */
+    public Slice serialize()
+    {
+        DynamicSliceOutput output = new DynamicSliceOutput(estimatedSerializedSizeInBytes())
+                .appendByte(FORMAT_V1)
+                .appendDouble(maxError)
+                .appendDouble(alpha)
+                .appendLong(landmarkInSeconds)
+                .appendLong(min)
+                .appendLong(max);
+
+        writeVarLong(output, getNodeCount());
+
+        long previousPrefix = 0;
+        PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.FORWARD);
+        int node;
+        while ((node = nodes.next()) != NIL) {
+            int flags = 0;
+            if (lefts[node] != NIL) {
+                flags |= Flags.HAS_LEFT;
+            }
+            if (rights[node] != NIL) {
+                flags |= Flags.HAS_RIGHT;
+            }
+
+            double weight = counts[node];
+            boolean integralWeight = weight >= 0 && weight <= MAX_INTEGRAL_WEIGHT && weight == Math.rint(weight);
+            if (integralWeight) {
+                flags |= Flags.INTEGRAL_WEIGHT;
+            }
+
+            output.appendByte(flags);
+            output.appendByte(levels[node]);
+
+            // only the bits above the level of a node are significant
+            long prefix = getPrefix(values[node], levels[node]);
+            writeVarLong(output, zigZag(prefix - previousPrefix));
+            previousPrefix = prefix;
+
+            if (integralWeight) {
+                writeVarLong(output, (long) weight);
+            }
+            else {
+                output.appendDouble(weight);
+            }
+        }
+
+        return output.slice();
+    }
+
+    public static QuantileDigest deserialize(Slice serialized)
+    {
+        BasicSliceInput input = serialized.getInput();
+        checkArgument(input.readByte() == FORMAT_V1, "Invalid format tag");
+
+        double maxError = input.readDouble();
+        double alpha = input.readDouble();
+
+        QuantileDigest result = new QuantileDigest(maxError, alpha);
+
+        result.landmarkInSeconds = input.readLong();
+        result.min = input.readLong();
+        result.max = input.readLong();
+
+        // check the node count against the size of the input before allocating storage for the nodes
+        long serializedNodeCount = readVarLong(input);
+        checkArgument(serializedNodeCount >= 0 && serializedNodeCount <= input.available() / MIN_SERIALIZED_NODE_SIZE, "Invalid node count: %s", serializedNodeCount);
+        int nodeCount = (int) serializedNodeCount;
+        result.ensureCapacity(nodeCount);
+
+        // nodes are serialized in post-order, so the children of a node are at the top of the stack
+        int[] stack = new int[nodeCount];
+        int top = 0;
+        long prefix = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            int flags = input.readByte();
+            int level = readLevel(input);
+            prefix += unZigZag(readVarLong(input));
+            double weight = readWeight(input, flags);
+
+            int node = result.createNode(prefix, level, weight);
+
+            if ((flags & Flags.HAS_RIGHT) != 0) {
+                checkArgument(top > 0, "Tree is corrupted. Missing right child");
+                result.rights[node] = stack[--top];
+            }
+
+            if ((flags & Flags.HAS_LEFT) != 0) {
+                checkArgument(top > 0, "Tree is corrupted. Missing left child");
+                result.lefts[node] = stack[--top];
+            }
+
+            stack[top++] = node;
+        }
+
+        if (top > 0) {
+            checkArgument(top == 1, "Tree is corrupted. Expected a single root node");
+            result.root = stack[0];
+        }
+
+        checkArgument(!input.isReadable(), "input is too big");
+
+        return result;
+    }
+
+    /**
+     * Merges a digest serialized with {@link #serialize()} into this digest, without
+     * deserializing it into an intermediate instance.
+     */
+    public void merge(Slice serialized)
+    {
+        BasicSliceInput input = serialized.getInput();
+        checkArgument(input.readByte() == FORMAT_V1, "Invalid format tag");
+
+        input.readDouble(); // maxError
+        input.readDouble(); // alpha
+        long otherLandmarkInSeconds = input.readLong();
+        long otherMin = input.readLong();
+        long otherMax = input.readLong();
+
+        double factor = rescaleForMerge(otherLandmarkInSeconds);
+
+        long nodeCount = readVarLong(input);
+        long prefix = 0;
+        for (long i = 0; i < nodeCount; i++) {
+            int flags = input.readByte();
+            int level = readLevel(input);
+            prefix += unZigZag(readVarLong(input));
+            double weight = readWeight(input, flags) * factor;
+
+            // nodes without weight only exist to hold the structure of the serialized tree
+            if (weight > 0) {
+                mergeNode(prefix, level, weight);
+            }
+        }
+
+        checkArgument(!input.isReadable(), "input is too big");
+
+        max = Math.max(max, otherMax);
+        min = Math.min(min, otherMin);
+
+        compress();
+    }
+
+    private static int readLevel(BasicSliceInput input)
     {
         int level = input.readUnsignedByte();
-        long value = input.readLong();
-        double weight = input.readDouble();
+        checkArgument(level <= MAX_BITS, "Invalid node level: %s", level);
+        return level;
+    }
+
+    private static double readWeight(BasicSliceInput input, int flags)
+    {
+        if ((flags & Flags.INTEGRAL_WEIGHT) != 0) {
+            return readVarLong(input);
+        }
+        return input.readDouble();
+    }
+
+    private static void writeVarLong(SliceOutput output, long value)
+    {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
 
-        return new Node(value, level, weight);
+    private static long readVarLong(BasicSliceInput input)
+    {
+        long result = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = input.readUnsignedByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length integer");
+    }
+
+    private static long zigZag(long value)
+    {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value)
+    {
+        return (value >>> 1) ^ -(value & 1);
     }
 
     @VisibleForTesting
     int getTotalNodeCount()
     {
-        return totalNodeCount;
+        return getNodeCount();
     }
 
     @VisibleForTesting
@@ -555,54 +861,53 @@ public class QuantileDigest
     {
         ++compressions;
 
-        final int compressionFactor = calculateCompressionFactor();
+        int compressionFactor = calculateCompressionFactor();
 
-        postOrderTraversal(root, new Callback()
-        {
-            public boolean process(Node node)
-            {
-                if (node.isLeaf()) {
-                    return true;
-                }
+        PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.FORWARD);
+        int node;
+        while ((node = nodes.next()) != NIL) {
+            int left = lefts[node];
+            int right = rights[node];
 
-                // if children's weights are ~0 remove them and shift the weight to their parent
+            if (left == NIL && right == NIL) {
+                continue;
+            }
 
-                double leftWeight = 0;
-                if (node.left != null) {
-                    leftWeight = node.left.weightedCount;
-                }
+            // if children's weights are ~0 remove them and shift the weight to their parent
 
-                double rightWeight = 0;
-                if (node.right != null) {
-                    rightWeight = node.right.weightedCount;
-                }
+            double leftWeight = 0;
+            if (left != NIL) {
+                leftWeight = counts[left];
+            }
 
-                boolean shouldCompress = node.weightedCount + leftWeight + rightWeight < (int) (weightedCount / compressionFactor);
+            double rightWeight = 0;
+            if (right != NIL) {
+                rightWeight = counts[right];
+            }
 
-                double oldNodeWeight = node.weightedCount;
-                if (shouldCompress || leftWeight < ZERO_WEIGHT_THRESHOLD) {
-                    node.left = tryRemove(node.left);
+            boolean shouldCompress = counts[node] + leftWeight + rightWeight < (int) (weightedCount / compressionFactor);
 
-                    weightedCount += leftWeight;
-                    node.weightedCount += leftWeight;
-                }
+            double oldNodeWeight = counts[node];
+            if (shouldCompress || leftWeight < ZERO_WEIGHT_THRESHOLD) {
+                lefts[node] = tryRemove(left);
 
-                if (shouldCompress || rightWeight < ZERO_WEIGHT_THRESHOLD) {
-                    node.right = tryRemove(node.right);
+                weightedCount += leftWeight;
+                counts[node] += leftWeight;
+            }
 
-                    weightedCount += rightWeight;
-                    node.weightedCount += rightWeight;
-                }
+            if (shouldCompress || rightWeight < ZERO_WEIGHT_THRESHOLD) {
+                rights[node] = tryRemove(right);
 
-                if (oldNodeWeight < ZERO_WEIGHT_THRESHOLD && node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-                    ++nonZeroNodeCount;
-                }
+                weightedCount += rightWeight;
+                counts[node] += rightWeight;
+            }
 
-                return true;
+            if (oldNodeWeight < ZERO_WEIGHT_THRESHOLD && counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+                ++nonZeroNodeCount;
             }
-        });
+        }
 
-        if (root != null && root.weightedCount < ZERO_WEIGHT_THRESHOLD) {
+        if (root != NIL && counts[root] < ZERO_WEIGHT_THRESHOLD) {
             root = tryRemove(root);
         }
     }
@@ -616,63 +921,78 @@ public class QuantileDigest
     {
         // rescale the weights based on a new landmark to avoid numerical overflow issues
 
-        final double factor = Math.exp(-alpha * (newLandmarkInSeconds - landmarkInSeconds));
+        double factor = Math.exp(-alpha * (newLandmarkInSeconds - landmarkInSeconds));
 
         weightedCount *= factor;
 
-        postOrderTraversal(root, new Callback()
-        {
-            public boolean process(Node node)
-            {
-                double oldWeight = node.weightedCount;
+        // free slots have a zero count, so there's no need to tell them apart from live nodes
+        for (int node = 0; node < nextNode; node++) {
+            double oldWeight = counts[node];
 
-                node.weightedCount *= factor;
+            counts[node] *= factor;
 
-                if (oldWeight >= ZERO_WEIGHT_THRESHOLD && node.weightedCount < ZERO_WEIGHT_THRESHOLD) {
-                    --nonZeroNodeCount;
-                }
-
-                return true;
+            if (oldWeight >= ZERO_WEIGHT_THRESHOLD && counts[node] < ZERO_WEIGHT_THRESHOLD) {
+                --nonZeroNodeCount;
             }
-        });
+        }
 
         landmarkInSeconds = newLandmarkInSeconds;
     }
 
+    /**
+     * Rescales this digest to the landmark that the weights of another digest are merged at.
+     *
+     * @return the factor for the weights of the other digest
+     */
+    private double rescaleForMerge(long otherLandmarkInSeconds)
+    {
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        long targetLandmark = Math.max(landmarkInSeconds, otherLandmarkInSeconds);
+        if (nowInSeconds - targetLandmark >= RESCALE_THRESHOLD_SECONDS) {
+            targetLandmark = nowInSeconds;
+        }
+        if (targetLandmark != landmarkInSeconds) {
+            rescale(targetLandmark);
+        }
+
+        // the other digest is not rescaled, so it can be merged concurrently into several digests
+        return Math.exp(-alpha * (targetLandmark - otherLandmarkInSeconds));
+    }
+
     private int calculateCompressionFactor()
     {
-        if (root == null) {
+        if (root == NIL) {
             return 1;
         }
 
-        return Math.max((int) ((root.level + 1) / maxError), 1);
+        return Math.max((int) ((levels[root] + 1) / maxError), 1);
     }
 
     private void insert(long bits, double weight)
     {
         long lastBranch = 0;
-        Node parent = null;
-        Node current = root;
+        int parent = NIL;
+        int current = root;
 
         while (true) {
-            if (current == null) {
+            if (current == NIL) {
                 setChild(parent, lastBranch, createLeaf(bits, weight));
                 return;
             }
-            else if (!inSameSubtree(bits, current.bits, current.level)) {
+            else if (!inSameSubtree(bits, values[current], levels[current])) {
                 // if bits and node.bits are not in the same branch given node's level,
                 // insert a parent above them at the point at which branches diverge
                 setChild(parent, lastBranch, makeSiblings(current, createLeaf(bits, weight)));
                 return;
             }
-            else if (current.level == 0 && current.bits == bits) {
+            else if (levels[current] == 0 && values[current] == bits) {
                 // found the node
 
-                double oldWeight = current.weightedCount;
+                double oldWeight = counts[current];
 
-                current.weightedCount += weight;
+                counts[current] += weight;
 
-                if (current.weightedCount >= ZERO_WEIGHT_THRESHOLD && oldWeight < ZERO_WEIGHT_THRESHOLD) {
+                if (counts[current] >= ZERO_WEIGHT_THRESHOLD && oldWeight < ZERO_WEIGHT_THRESHOLD) {
                     ++nonZeroNodeCount;
                 }
 
@@ -682,115 +1002,173 @@ public class QuantileDigest
             }
 
             // we're on the correct branch of the tree and we haven't reached a leaf, so keep going down
-            long branch = bits & current.getBranchMask();
+            long branch = bits & getBranchMask(levels[current]);
 
             parent = current;
             lastBranch = branch;
 
             if (branch == 0) {
-                current = current.left;
+                current = lefts[current];
             }
             else {
-                current = current.right;
+                current = rights[current];
             }
         }
     }
 
-    private void setChild(Node parent, long branch, Node child)
+    private void setChild(int parent, long branch, int child)
     {
-        if (parent == null) {
+        if (parent == NIL) {
             root = child;
         }
         else if (branch == 0) {
-            parent.left = child;
+            lefts[parent] = child;
         }
         else {
-            parent.right = child;
+            rights[parent] = child;
         }
     }
 
-    private Node makeSiblings(Node node, Node sibling)
+    private int makeSiblings(int node, int sibling)
     {
-        int parentLevel = MAX_BITS - Long.numberOfLeadingZeros(node.bits ^ sibling.bits);
+        int parentLevel = MAX_BITS - Long.numberOfLeadingZeros(values[node] ^ values[sibling]);
 
-        Node parent = createNode(node.bits, parentLevel, 0);
+        int parent = createNode(values[node], parentLevel, 0);
 
         // the branch is given by the bit at the level one below parent
-        long branch = sibling.bits & parent.getBranchMask();
+        long branch = values[sibling] & getBranchMask(parentLevel);
         if (branch == 0) {
-            parent.left = sibling;
-            parent.right = node;
+            lefts[parent] = sibling;
+            rights[parent] = node;
         }
         else {
-            parent.left = node;
-            parent.right = sibling;
+            lefts[parent] = node;
+            rights[parent] = sibling;
         }
 
         return parent;
     }
 
-    private Node createLeaf(long bits, double weight)
+    private int createLeaf(long bits, double weight)
     {
         return createNode(bits, 0, weight);
     }
 
-    private Node createNode(long bits, int level, double weight)
+    private int createNode(long bits, int level, double weight)
     {
         weightedCount += weight;
-        ++totalNodeCount;
         if (weight >= ZERO_WEIGHT_THRESHOLD) {
             nonZeroNodeCount++;
         }
-        return new Node(bits, level, weight);
+
+        int node;
+        if (firstFree != NIL) {
+            node = firstFree;
+            firstFree = lefts[node];
+            freeCount--;
+        }
+        else {
+            ensureCapacity(nextNode + 1);
+            node = nextNode++;
+        }
+
+        values[node] = bits;
+        levels[node] = (byte) level;
+        counts[node] = weight;
+        lefts[node] = NIL;
+        rights[node] = NIL;
+
+        return node;
     }
 
-    private Node merge(Node node, Node other)
+    private void freeNode(int node)
     {
-        if (node == null) {
-            return copyRecursive(other);
+        counts[node] = 0;
+        rights[node] = NIL;
+        lefts[node] = firstFree;
+        firstFree = node;
+        freeCount++;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity <= counts.length) {
+            return;
         }
-        else if (other == null) {
+
+        int newCapacity = Math.max(capacity, counts.length + (counts.length >> 1) + 1);
+
+        counts = Arrays.copyOf(counts, newCapacity);
+        levels = Arrays.copyOf(levels, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+        lefts = Arrays.copyOf(lefts, newCapacity);
+        rights = Arrays.copyOf(rights, newCapacity);
+    }
+
+    private int getNodeCount()
+    {
+        return nextNode - freeCount;
+    }
+
+    // Note: createNode may grow the node arrays, so child links are always assigned from a local
+    // variable rather than directly from an expression that creates nodes
+    private int merge(int node, QuantileDigest other, int otherNode, double factor)
+    {
+        if (node == NIL) {
+            return copyRecursive(other, otherNode, factor);
+        }
+        else if (otherNode == NIL) {
             return node;
         }
-        else if (!inSameSubtree(node.bits, other.bits, Math.max(node.level, other.level))) {
-            return makeSiblings(node, copyRecursive(other));
+        else if (!inSameSubtree(values[node], other.values[otherNode], Math.max(levels[node], other.levels[otherNode]))) {
+            return makeSiblings(node, copyRecursive(other, otherNode, factor));
         }
-        else if (node.level > other.level) {
-            long branch = other.bits & node.getBranchMask();
+        else if (levels[node] > other.levels[otherNode]) {
+            long branch = other.values[otherNode] & getBranchMask(levels[node]);
 
             if (branch == 0) {
-                node.left = merge(node.left, other);
+                int left = merge(lefts[node], other, otherNode, factor);
+                lefts[node] = left;
             }
             else {
-                node.right = merge(node.right, other);
+                int right = merge(rights[node], other, otherNode, factor);
+                rights[node] = right;
             }
             return node;
         }
-        else if (node.level < other.level) {
-            Node result = createNode(other.bits, other.level, other.weightedCount);
+        else if (levels[node] < other.levels[otherNode]) {
+            int result = createNode(other.values[otherNode], other.levels[otherNode], other.counts[otherNode] * factor);
 
-            long branch = node.bits & other.getBranchMask();
+            int left;
+            int right;
+            long branch = values[node] & getBranchMask(other.levels[otherNode]);
             if (branch == 0) {
-                result.left = merge(node, other.left);
-                result.right = copyRecursive(other.right);
+                left = merge(node, other, other.lefts[otherNode], factor);
+                right = copyRecursive(other, other.rights[otherNode], factor);
             }
             else {
-                result.left = copyRecursive(other.left);
-                result.right = merge(node, other.right);
+                left = copyRecursive(other, other.lefts[otherNode], factor);
+                right = merge(node, other, other.rights[otherNode], factor);
             }
+            lefts[result] = left;
+            rights[result] = right;
 
             return result;
         }
 
         // else, they must be at the same level and on the same path, so just bump the counts
-        double oldWeight = node.weightedCount;
+        double oldWeight = counts[node];
 
-        weightedCount += other.weightedCount;
-        node.weightedCount = node.weightedCount + other.weightedCount;
-        node.left = merge(node.left, other.left);
-        node.right = merge(node.right, other.right);
+        double otherWeight = other.counts[otherNode] * factor;
+        weightedCount += otherWeight;
+        counts[node] = counts[node] + otherWeight;
 
-        if (oldWeight < ZERO_WEIGHT_THRESHOLD && node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
+        int left = merge(lefts[node], other, other.lefts[otherNode], factor);
+        lefts[node] = left;
+        int right = merge(rights[node], other, other.rights[otherNode], factor);
+        rights[node] = right;
+
+        if (oldWeight < ZERO_WEIGHT_THRESHOLD && counts[node] >= ZERO_WEIGHT_THRESHOLD) {
             nonZeroNodeCount++;
         }
 
@@ -802,84 +1180,119 @@ public class QuantileDigest
         return level == MAX_BITS || (bitsA >>> level) == (bitsB >>> level);
     }
 
-    private Node copyRecursive(Node node)
+    private int copyRecursive(QuantileDigest other, int otherNode, double factor)
     {
-        Node result = null;
-
-        if (node != null) {
-            result = createNode(node.bits, node.level, node.weightedCount);
-            result.left = copyRecursive(node.left);
-            result.right = copyRecursive(node.right);
+        if (otherNode == NIL) {
+            return NIL;
         }
 
+        int result = createNode(other.values[otherNode], other.levels[otherNode], other.counts[otherNode] * factor);
+
+        int left = copyRecursive(other, other.lefts[otherNode], factor);
+        int right = copyRecursive(other, other.rights[otherNode], factor);
+        lefts[result] = left;
+        rights[result] = right;
+
         return result;
     }
 
     /**
-     * Remove the node if possible or set its count to 0 if it has children and
-     * it needs to be kept around
+     * Adds weight to the node at the given level that covers the given value, creating the
+     * node (and a common parent, if needed) when it doesn't exist
      */
-    private Node tryRemove(Node node)
+    private void mergeNode(long bits, int level, double weight)
     {
-        if (node == null) {
-            return null;
-        }
+        long lastBranch = 0;
+        int parent = NIL;
+        int current = root;
 
-        if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-            --nonZeroNodeCount;
-        }
+        while (true) {
+            if (current == NIL) {
+                setChild(parent, lastBranch, createNode(bits, level, weight));
+                return;
+            }
 
-        weightedCount -= node.weightedCount;
+            int currentLevel = levels[current];
+            if (currentLevel < level && inSameSubtree(values[current], bits, level)) {
+                // the current node is in the subtree of the new node, so insert the new node above it
+                int node = createNode(bits, level, weight);
+                if ((values[current] & getBranchMask(level)) == 0) {
+                    lefts[node] = current;
+                }
+                else {
+                    rights[node] = current;
+                }
+                setChild(parent, lastBranch, node);
+                return;
+            }
+            else if (!inSameSubtree(bits, values[current], Math.max(level, currentLevel))) {
+                // insert a parent above both nodes at the point at which branches diverge
+                setChild(parent, lastBranch, makeSiblings(current, createNode(bits, level, weight)));
+                return;
+            }
+            else if (currentLevel == level) {
+                // found the node
+                double oldWeight = counts[current];
 
-        Node result = null;
-        if (node.isLeaf()) {
-            --totalNodeCount;
-        }
-        else if (node.hasSingleChild()) {
-            result = node.getSingleChild();
-            --totalNodeCount;
-        }
-        else {
-            node.weightedCount = 0;
-            result = node;
-        }
+                counts[current] += weight;
 
-        return result;
-    }
+                if (counts[current] >= ZERO_WEIGHT_THRESHOLD && oldWeight < ZERO_WEIGHT_THRESHOLD) {
+                    ++nonZeroNodeCount;
+                }
 
-    private boolean postOrderTraversal(Node node, Callback callback)
-    {
-        return postOrderTraversal(node, callback, TraversalOrder.FORWARD);
-    }
+                weightedCount += weight;
 
-    // returns true if traversal should continue
-    private boolean postOrderTraversal(Node node, Callback callback, TraversalOrder order)
-    {
-        if (node == null) {
-            return false;
-        }
+                return;
+            }
 
-        Node first;
-        Node second;
+            // the new node belongs in the subtree of the current node, so keep going down
+            long branch = bits & getBranchMask(currentLevel);
+
+            parent = current;
+            lastBranch = branch;
 
-        if (order == TraversalOrder.FORWARD) {
-            first = node.left;
-            second = node.right;
+            if (branch == 0) {
+                current = lefts[current];
+            }
+            else {
+                current = rights[current];
+            }
         }
-        else {
-            first = node.right;
-            second = node.left;
+    }
+
+    /**
+     * Remove the node if possible or set its count to 0 if it has children and
+     * it needs to be kept around
+     */
+    private int tryRemove(int node)
+    {
+        if (node == NIL) {
+            return NIL;
         }
 
-        if (first != null && !postOrderTraversal(first, callback, order)) {
-            return false;
+        if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+            --nonZeroNodeCount;
         }
 
-        if (second != null && !postOrderTraversal(second, callback, order)) {
-            return false;
+        weightedCount -= counts[node];
+
+        int left = lefts[node];
+        int right = rights[node];
+
+        int result = NIL;
+        if (left == NIL && right == NIL) {
+            freeNode(node);
+        }
+        else if (left == NIL || right == NIL) {
+            result = (left != NIL) ? left : right;
+            freeNode(node);
+        }
+        else {
+            counts[node] = 0;
+            result = node;
         }
 
-        return callback.process(node);
+        return result;
     }
 
     /**
@@ -894,12 +1307,25 @@ public class QuantileDigest
     {
         rescaleToCommonLandmark(this, other);
 
-        return (totalNodeCount == other.totalNodeCount &&
+        return (getNodeCount() == other.getNodeCount() &&
                 nonZeroNodeCount == other.nonZeroNodeCount &&
                 min == other.min &&
                 max == other.max &&
                 weightedCount == other.weightedCount &&
-                Objects.equal(root, other.root));
+                equivalent(root, other, other.root));
+    }
+
+    private boolean equivalent(int node, QuantileDigest other, int otherNode)
+    {
+        if (node == NIL || otherNode == NIL) {
+            return node == otherNode;
+        }
+
+        return counts[node] == other.counts[otherNode] &&
+                levels[node] == other.levels[otherNode] &&
+                getPrefix(values[node], levels[node]) == getPrefix(other.values[otherNode], other.levels[otherNode]) &&
+                equivalent(lefts[node], other, other.lefts[otherNode]) &&
+                equivalent(rights[node], other, other.rights[otherNode]);
     }
 
     private void rescaleToCommonLandmark(QuantileDigest one, QuantileDigest two)
@@ -926,82 +1352,87 @@ public class QuantileDigest
      * Computes the max "weight" of any path starting at node and ending at a leaf in the
      * hypothetical complete tree. The weight is the sum of counts in the ancestors of a given node
      */
-    private double computeMaxPathWeight(Node node)
+    private double computeMaxPathWeight(int node)
     {
-        if (node == null || node.level == 0) {
+        // recursion depth is bounded by the number of levels (MAX_BITS + 1)
+        if (node == NIL || levels[node] == 0) {
             return 0;
         }
 
-        double leftMaxWeight = computeMaxPathWeight(node.left);
-        double rightMaxWeight = computeMaxPathWeight(node.right);
+        double leftMaxWeight = computeMaxPathWeight(lefts[node]);
+        double rightMaxWeight = computeMaxPathWeight(rights[node]);
 
-        return Math.max(leftMaxWeight, rightMaxWeight) + node.weightedCount;
+        return Math.max(leftMaxWeight, rightMaxWeight) + counts[node];
     }
 
     @VisibleForTesting
     void validate()
     {
-        final AtomicDouble sumOfWeights = new AtomicDouble();
-        final AtomicInteger actualNodeCount = new AtomicInteger();
-        final AtomicInteger actualNonZeroNodeCount = new AtomicInteger();
+        double sumOfWeights = 0;
+        int actualNodeCount = 0;
+        int actualNonZeroNodeCount = 0;
 
-        if (root != null) {
+        if (root != NIL) {
             validateStructure(root);
 
-            postOrderTraversal(root, new Callback()
-            {
-                @Override
-                public boolean process(Node node)
-                {
-                    sumOfWeights.addAndGet(node.weightedCount);
-                    actualNodeCount.incrementAndGet();
-
-                    if (node.weightedCount >= ZERO_WEIGHT_THRESHOLD) {
-                        actualNonZeroNodeCount.incrementAndGet();
-                    }
+            PostOrderIterator nodes = new PostOrderIterator(TraversalOrder.FORWARD);
+            int node;
+            while ((node = nodes.next()) != NIL) {
+                sumOfWeights += counts[node];
+                actualNodeCount++;
 
-                    return true;
+                if (counts[node] >= ZERO_WEIGHT_THRESHOLD) {
+                    actualNonZeroNodeCount++;
                 }
-            });
+            }
         }
 
-        checkState(Math.abs(sumOfWeights.get() - weightedCount) < ZERO_WEIGHT_THRESHOLD,
-                "Computed weight (%s) doesn't match summary (%s)", sumOfWeights.get(),
+        checkState(Math.abs(sumOfWeights - weightedCount) < ZERO_WEIGHT_THRESHOLD,
+                "Computed weight (%s) doesn't match summary (%s)", sumOfWeights,
                 weightedCount);
 
-        checkState(actualNodeCount.get() == totalNodeCount,
+        checkState(actualNodeCount == getNodeCount(),
                 "Actual node count (%s) doesn't match summary (%s)",
-                actualNodeCount.get(), totalNodeCount);
+                actualNodeCount, getNodeCount());
 
-        checkState(actualNonZeroNodeCount.get() == nonZeroNodeCount,
+        checkState(actualNonZeroNodeCount == nonZeroNodeCount,
                 "Actual non-zero node count (%s) doesn't match summary (%s)",
-                actualNonZeroNodeCount.get(), nonZeroNodeCount);
+                actualNonZeroNodeCount, nonZeroNodeCount);
+
+        int actualFreeCount = 0;
+        for (int node = firstFree; node != NIL; node = lefts[node]) {
+            actualFreeCount++;
+        }
+
+        checkState(actualFreeCount == freeCount,
+                "Actual free slot count (%s) doesn't match summary (%s)",
+                actualFreeCount, freeCount);
     }
 
-    private void validateStructure(Node node)
+    private void validateStructure(int node)
     {
-        checkState(node.level >= 0);
+        checkState(levels[node] >= 0);
 
-        if (node.left != null) {
-            validateBranchStructure(node, node.left, node.right, true);
-            validateStructure(node.left);
+        if (lefts[node] != NIL) {
+            validateBranchStructure(node, lefts[node], rights[node], true);
+            validateStructure(lefts[node]);
         }
 
-        if (node.right != null) {
-            validateBranchStructure(node, node.right, node.left, false);
-            validateStructure(node.right);
+        if (rights[node] != NIL) {
+            validateBranchStructure(node, rights[node], lefts[node], false);
+            validateStructure(rights[node]);
         }
     }
 
-    private void validateBranchStructure(Node parent, Node child, Node otherChild, boolean isLeft)
+    private void validateBranchStructure(int parent, int child, int otherChild, boolean isLeft)
     {
-        checkState(child.level < parent.level, "Child level (%s) should be smaller than parent level (%s)", child.level, parent.level);
+        checkState(levels[child] < levels[parent], "Child level (%s) should be smaller than parent level (%s)", levels[child], levels[parent]);
 
-        long branch = child.bits & (1L << (parent.level - 1));
+        long branch = values[child] & (1L << (levels[parent] - 1));
         checkState(branch == 0 && isLeft || branch != 0 && !isLeft, "Value of child node is inconsistent with its branch");
 
-        Preconditions.checkState(parent.weightedCount >= ZERO_WEIGHT_THRESHOLD ||
-                child.weightedCount >= ZERO_WEIGHT_THRESHOLD || otherChild != null,
+        checkState(counts[parent] >= ZERO_WEIGHT_THRESHOLD ||
+                counts[child] >= ZERO_WEIGHT_THRESHOLD || otherChild != NIL,
                 "Found a linear chain of zero-weight nodes");
     }
 
@@ -1012,43 +1443,39 @@ public class QuantileDigest
         builder.append("digraph QuantileDigest {\n")
                 .append("\tgraph [ordering=\"out\"];");
 
-        final List<Node> nodes = new ArrayList<>();
-        postOrderTraversal(root, new Callback()
-        {
-            @Override
-            public boolean process(Node node)
-            {
-                nodes.add(node);
-                return true;
-            }
-        });
+        List<Integer> nodes = new ArrayList<>();
+        PostOrderIterator iterator = new PostOrderIterator(TraversalOrder.FORWARD);
+        int next;
+        while ((next = iterator.next()) != NIL) {
+            nodes.add(next);
+        }
 
-        Multimap<Integer, Node> nodesByLevel = Multimaps.index(nodes, input -> input.level);
+        Multimap<Byte, Integer> nodesByLevel = Multimaps.index(nodes, input -> levels[input]);
 
-        for (Map.Entry<Integer, Collection<Node>> entry : nodesByLevel.asMap().entrySet()) {
+        for (Map.Entry<Byte, Collection<Integer>> entry : nodesByLevel.asMap().entrySet()) {
             builder.append("\tsubgraph level_" + entry.getKey() + " {\n")
                     .append("\t\trank = same;\n");
 
-            for (Node node : entry.getValue()) {
+            for (int node : entry.getValue()) {
                 builder.append(String.format("\t\t%s [label=\"[%s..%s]@%s\\n%s\", shape=rect, style=filled,color=%s];\n",
                         idFor(node),
-                        node.getLowerBound(),
-                        node.getUpperBound(),
-                        node.level,
-                        node.weightedCount,
-                        node.weightedCount > 0 ? "salmon2" : "white")
+                        getLowerBound(node),
+                        getUpperBound(node),
+                        levels[node],
+                        counts[node],
+                        counts[node] > 0 ? "salmon2" : "white")
                 );
             }
 
             builder.append("\t}\n");
         }
 
-        for (Node node : nodes) {
-            if (node.left != null) {
-                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(node.left)));
+        for (int node : nodes) {
+            if (lefts[node] != NIL) {
+                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(lefts[node])));
             }
-            if (node.right != null) {
-                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(node.right)));
+            if (rights[node] != NIL) {
+                builder.append(format("\t%s -> %s;\n", idFor(node), idFor(rights[node])));
             }
         }
 
@@ -1057,9 +1484,53 @@ public class QuantileDigest
         return builder.toString();
     }
 
-    private static String idFor(Node node)
+    private String idFor(int node)
     {
-        return String.format("node_%x_%x", node.bits, node.level);
+        return String.format("node_%x_%x", values[node], levels[node]);
+    }
+
+    private long getUpperBound(int node)
+    {
+        // set all lsb below level to 1 (we're looking for the highest value of the range covered by this node)
+        long mask = 0;
+
+        if (levels[node] > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
+            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - levels[node]);
+        }
+        return bitsToLong(values[node] | mask);
+    }
+
+    private long getLowerBound(int node)
+    {
+        // set all lsb below level to 0 (we're looking for the lowest value of the range covered by this node)
+        long mask = 0;
+
+        if (levels[node] > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
+            mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - levels[node]);
+        }
+
+        return bitsToLong(values[node] & (~mask));
+    }
+
+    private long getMiddle(int node)
+    {
+        return getLowerBound(node) + (getUpperBound(node) - getLowerBound(node)) / 2;
+    }
+
+    /**
+     * The bits of a node's value that are significant at the node's level
+     */
+    private static long getPrefix(long bits, int level)
+    {
+        if (level == MAX_BITS) {
+            return 0;
+        }
+        return bits & (0xFFFF_FFFF_FFFF_FFFFL << level);
+    }
+
+    private static long getBranchMask(int level)
+    {
+        return (1L << (level - 1));
     }
 
     /**
@@ -1139,106 +1610,90 @@ public class QuantileDigest
         }
     }
 
-    private static class Node
+    /**
+     * Iterates over the nodes of the tree in post-order (children before their parent) using an
+     * explicit stack. The depth of the tree is bounded by the number of levels, since a child is
+     * always at a lower level than its parent.
+     * <p>
+     * The links of the node most recently returned may be modified while iterating.
+     */
+    private final class PostOrderIterator
     {
-        private double weightedCount;
-        private int level;
-        private long bits;
-        private Node left;
-        private Node right;
+        private final int[] stack = new int[MAX_BITS + 1];
+        private final boolean reverse;
 
-        private Node(long bits, int level, double weightedCount)
-        {
-            this.bits = bits;
-            this.level = level;
-            this.weightedCount = weightedCount;
-        }
+        private int size;
+        private int current;
+        private int lastVisited = NIL;
 
-        public boolean isLeaf()
+        public PostOrderIterator(TraversalOrder order)
         {
-            return left == null && right == null;
+            this.reverse = (order == TraversalOrder.REVERSE);
+            this.current = root;
         }
 
-        public boolean hasSingleChild()
-        {
-            return left == null && right != null || left != null && right == null;
-        }
-
-        public Node getSingleChild()
-        {
-            checkState(hasSingleChild(), "Node does not have a single child");
-            return firstNonNull(left, right);
-        }
-
-        public long getUpperBound()
-        {
-            // set all lsb below level to 1 (we're looking for the highest value of the range covered by this node)
-            long mask = 0;
-
-            if (level > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
-                mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - level);
-            }
-            return bitsToLong(bits | mask);
-        }
-
-        public long getBranchMask()
-        {
-            return (1L << (level - 1));
-        }
-
-        public long getLowerBound()
+        /**
+         * @return the next node, or NIL if there are no more nodes
+         */
+        public int next()
         {
-            // set all lsb below level to 0 (we're looking for the lowest value of the range covered by this node)
-            long mask = 0;
+            while (true) {
+                if (current != NIL) {
+                    stack[size++] = current;
+                    current = reverse ? rights[current] : lefts[current];
+                }
+                else if (size == 0) {
+                    return NIL;
+                }
+                else {
+                    int node = stack[size - 1];
+                    int second = reverse ? lefts[node] : rights[node];
 
-            if (level > 0) { // need to special case when level == 0 because (value >> 64 really means value >> (64 % 64))
-                mask = 0xFFFF_FFFF_FFFF_FFFFL >>> (MAX_BITS - level);
+                    if (second != NIL && second != lastVisited) {
+                        current = second;
+                    }
+                    else {
+                        size--;
+                        lastVisited = node;
+                        return node;
+                    }
+                }
             }
-
-            return bitsToLong(bits & (~mask));
-        }
-
-        public long getMiddle()
-        {
-            return getLowerBound() + (getUpperBound() - getLowerBound()) / 2;
         }
+    }
 
-        public String toString()
-        {
-            return format("%s (level = %d, count = %s, left = %s, right = %s)", bits, level, weightedCount, left != null, right != null);
-        }
+    /**
+     * Merges a range of digests into a new digest, splitting the range in halves that are merged
+     * in parallel until it is small enough to merge sequentially
+     */
+    private final class MergeTask
+            extends RecursiveTask<QuantileDigest>
+    {
+        private final List<QuantileDigest> digests;
 
-        @Override
-        public int hashCode()
+        public MergeTask(List<QuantileDigest> digests)
         {
-            return Objects.hashCode(weightedCount, level, bits, left, right);
+            this.digests = digests;
         }
 
         @Override
-        public boolean equals(Object obj)
+        protected QuantileDigest compute()
         {
-            if (this == obj) {
-                return true;
-            }
-            if (obj == null || getClass() != obj.getClass()) {
-                return false;
+            if (digests.size() <= MERGE_TASK_SIZE) {
+                QuantileDigest result = new QuantileDigest(maxError, alpha, ticker, compressAutomatically);
+                for (QuantileDigest digest : digests) {
+                    result.mergeWithoutCompression(digest);
+                }
+                return result;
             }
-            final Node other = (Node) obj;
-            return Objects.equal(this.weightedCount, other.weightedCount) &&
-                    Objects.equal(this.level, other.level) &&
-                    Objects.equal(this.bits, other.bits) &&
-                    Objects.equal(this.left, other.left) &&
-                    Objects.equal(this.right, other.right);
-        }
-    }
 
-    private static interface Callback
-    {
-        /**
-         * @param node the node to process
-         * @return true if processing should continue
-         */
-        boolean process(Node node);
+            int middle = digests.size() / 2;
+            MergeTask right = new MergeTask(digests.subList(middle, digests.size()));
+            right.fork();
+            QuantileDigest result = new MergeTask(digests.subList(0, middle)).compute();
+            result.mergeWithoutCompression(right.join());
+            return result;
+        }
     }
 
     private static class SizeOf
@@ -1250,13 +1705,13 @@ public class QuantileDigest
         public static final int DOUBLE = 8;
 
         public static final int QUANTILE_DIGEST = ClassLayout.parseClass(QuantileDigest.class).instanceSize();
-        public static final int NODE = ClassLayout.parseClass(Node.class).instanceSize();
     }
 
     private static class Flags
     {
         public static final int HAS_LEFT = 1 << 0;
         public static final int HAS_RIGHT = 1 << 1;
+        // only used by the Slice format
+        public static final int INTEGRAL_WEIGHT = 1 << 2;
     }
 }
-
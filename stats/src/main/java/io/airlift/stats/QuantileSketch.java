@@ -0,0 +1,289 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The operations {@link Distribution} and {@link TimeDistribution} need from the structure
+ * that backs them. Implementations are not thread safe.
+ */
+interface QuantileSketch
+{
+    /**
+     * Adds a value that was recorded at the given time (as read from the sketch's ticker).
+     */
+    void add(long value, long count, long timestampInSeconds);
+
+    /**
+     * Adds a batch of values that were recorded at the given time. The given range of the array may be reordered.
+     */
+    void add(long[] values, int offset, int length, long timestampInSeconds);
+
+    double getCount();
+
+    /**
+     * The error bound reported as the "maxError" of a distribution
+     */
+    double getMaxError();
+
+    List<Long> getQuantiles(List<Double> quantiles);
+
+    default long getQuantile(double quantile)
+    {
+        return getQuantiles(ImmutableList.of(quantile)).get(0);
+    }
+
+    long getMin();
+
+    long getMax();
+
+    double getAlpha();
+
+    QuantileSketch copy();
+
+    /**
+     * Merges the given sketches, which must be of the same type as this sketch, into this sketch.
+     */
+    void mergeAll(List<QuantileSketch> sketches);
+
+    final class QuantileDigestSketch
+            implements QuantileSketch
+    {
+        private final QuantileDigest digest;
+
+        public QuantileDigestSketch(QuantileDigest digest)
+        {
+            this.digest = digest;
+        }
+
+        @Override
+        public void add(long value, long count, long timestampInSeconds)
+        {
+            digest.add(value, count, timestampInSeconds);
+        }
+
+        @Override
+        public void add(long[] values, int offset, int length, long timestampInSeconds)
+        {
+            digest.add(values, offset, length, timestampInSeconds);
+        }
+
+        @Override
+        public double getCount()
+        {
+            return digest.getCount();
+        }
+
+        @Override
+        public double getMaxError()
+        {
+            return digest.getConfidenceFactor();
+        }
+
+        @Override
+        public List<Long> getQuantiles(List<Double> quantiles)
+        {
+            return digest.getQuantiles(quantiles);
+        }
+
+        @Override
+        public long getMin()
+        {
+            return digest.getMin();
+        }
+
+        @Override
+        public long getMax()
+        {
+            return digest.getMax();
+        }
+
+        @Override
+        public double getAlpha()
+        {
+            return digest.getAlpha();
+        }
+
+        @Override
+        public QuantileSketch copy()
+        {
+            return new QuantileDigestSketch(new QuantileDigest(digest));
+        }
+
+        @Override
+        public void mergeAll(List<QuantileSketch> sketches)
+        {
+            ImmutableList.Builder<QuantileDigest> digests = ImmutableList.builder();
+            for (QuantileSketch sketch : sketches) {
+                checkArgument(sketch instanceof QuantileDigestSketch, "Cannot merge %s into a quantile digest", sketch.getClass().getSimpleName());
+                digests.add(((QuantileDigestSketch) sketch).digest);
+            }
+            digest.mergeAll(digests.build());
+        }
+    }
+
+    final class LogLinearHistogramSketch
+            implements QuantileSketch
+    {
+        private final LogLinearHistogram histogram;
+
+        public LogLinearHistogramSketch(LogLinearHistogram histogram)
+        {
+            this.histogram = histogram;
+        }
+
+        @Override
+        public void add(long value, long count, long timestampInSeconds)
+        {
+            histogram.add(value, count, timestampInSeconds);
+        }
+
+        @Override
+        public void add(long[] values, int offset, int length, long timestampInSeconds)
+        {
+            histogram.add(values, offset, length, timestampInSeconds);
+        }
+
+        @Override
+        public double getCount()
+        {
+            return histogram.getCount();
+        }
+
+        @Override
+        public double getMaxError()
+        {
+            return histogram.getRelativeError();
+        }
+
+        @Override
+        public List<Long> getQuantiles(List<Double> quantiles)
+        {
+            return histogram.getQuantiles(quantiles);
+        }
+
+        @Override
+        public long getMin()
+        {
+            return histogram.getMin();
+        }
+
+        @Override
+        public long getMax()
+        {
+            return histogram.getMax();
+        }
+
+        @Override
+        public double getAlpha()
+        {
+            return histogram.getAlpha();
+        }
+
+        @Override
+        public QuantileSketch copy()
+        {
+            return new LogLinearHistogramSketch(new LogLinearHistogram(histogram));
+        }
+
+        @Override
+        public void mergeAll(List<QuantileSketch> sketches)
+        {
+            // merging histograms is a linear pass over the buckets, so there's no need to parallelize it
+            for (QuantileSketch sketch : sketches) {
+                checkArgument(sketch instanceof LogLinearHistogramSketch, "Cannot merge %s into a log-linear histogram", sketch.getClass().getSimpleName());
+                histogram.merge(((LogLinearHistogramSketch) sketch).histogram);
+            }
+        }
+    }
+
+    final class TDigestSketch
+            implements QuantileSketch
+    {
+        private final TDigest digest;
+
+        public TDigestSketch(TDigest digest)
+        {
+            this.digest = digest;
+        }
+
+        @Override
+        public void add(long value, long count, long timestampInSeconds)
+        {
+            digest.add(value, count, timestampInSeconds);
+        }
+
+        @Override
+        public void add(long[] values, int offset, int length, long timestampInSeconds)
+        {
+            digest.add(values, offset, length, timestampInSeconds);
+        }
+
+        @Override
+        public double getCount()
+        {
+            return digest.getCount();
+        }
+
+        @Override
+        public double getMaxError()
+        {
+            return digest.getMaxRankError();
+        }
+
+        @Override
+        public List<Long> getQuantiles(List<Double> quantiles)
+        {
+            return digest.getQuantiles(quantiles);
+        }
+
+        @Override
+        public long getMin()
+        {
+            return digest.getMin();
+        }
+
+        @Override
+        public long getMax()
+        {
+            return digest.getMax();
+        }
+
+        @Override
+        public double getAlpha()
+        {
+            return digest.getAlpha();
+        }
+
+        @Override
+        public QuantileSketch copy()
+        {
+            return new TDigestSketch(new TDigest(digest));
+        }
+
+        @Override
+        public void mergeAll(List<QuantileSketch> sketches)
+        {
+            for (QuantileSketch sketch : sketches) {
+                checkArgument(sketch instanceof TDigestSketch, "Cannot merge %s into a t-digest", sketch.getClass().getSimpleName());
+                digest.merge(((TDigestSketch) sketch).digest);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.Beta;
+import io.airlift.stats.ResourceTimer.ResourceUsage;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Distributions of the wall time, CPU time and allocated bytes per operation, as measured by a
+ * {@link ResourceTimer}. Exporting one of these per endpoint attributes CPU usage and GC pressure to the
+ * endpoints that cause them.
+ */
+@Beta
+public class ResourceStat
+{
+    private final TimeStat wall;
+    private final TimeStat cpu;
+    private final DistributionStat allocatedBytes;
+
+    public ResourceStat()
+    {
+        this(TimeUnit.MILLISECONDS);
+    }
+
+    public ResourceStat(TimeUnit unit)
+    {
+        checkNotNull(unit, "unit is null");
+        wall = new TimeStat(unit);
+        cpu = new TimeStat(unit);
+        allocatedBytes = new DistributionStat();
+    }
+
+    public void add(ResourceUsage usage)
+    {
+        add(usage.getWallNanos(), usage.getCpuNanos(), usage.getAllocatedBytes());
+    }
+
+    public void add(long wallNanos, long cpuNanos, long allocatedBytes)
+    {
+        wall.addNanos(wallNanos);
+        cpu.addNanos(cpuNanos);
+        this.allocatedBytes.add(allocatedBytes);
+    }
+
+    /**
+     * Measures the operation run by the current thread until the returned timer is closed
+     */
+    public BlockTimer time()
+    {
+        return new BlockTimer();
+    }
+
+    public class BlockTimer
+            implements AutoCloseable
+    {
+        private final ResourceTimer timer = new ResourceTimer();
+
+        @Override
+        public void close()
+        {
+            add(timer.elapsedUsage());
+        }
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getWall()
+    {
+        return wall;
+    }
+
+    @Managed
+    @Nested
+    public TimeStat getCpu()
+    {
+        return cpu;
+    }
+
+    @Managed
+    @Nested
+    public DistributionStat getAllocatedBytes()
+    {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("wall", wall)
+                .add("cpu", cpu)
+                .add("allocatedBytes", allocatedBytes)
+                .toString();
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.Beta;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Like {@link CpuTimer}, but also measures the bytes allocated by the current thread, so the garbage produced by an
+ * operation can be attributed to it. The timer must be used by the thread that created it.
+ * <p>
+ * Allocated bytes are reported as zero if the JVM doesn't support measuring them.
+ */
+@Beta
+public class ResourceTimer
+{
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final com.sun.management.ThreadMXBean ALLOCATION_MX_BEAN = getAllocationMXBean();
+
+    private final long threadId = Thread.currentThread().getId();
+
+    private final long wallStartTime;
+    private final long cpuStartTime;
+    private final long userStartTime;
+    private final long allocatedStartBytes;
+
+    private long intervalWallStart;
+    private long intervalCpuStart;
+    private long intervalUserStart;
+    private long intervalAllocatedStart;
+
+    public ResourceTimer()
+    {
+        wallStartTime = System.nanoTime();
+        cpuStartTime = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        userStartTime = THREAD_MX_BEAN.getCurrentThreadUserTime();
+        allocatedStartBytes = getAllocatedBytes();
+
+        intervalWallStart = wallStartTime;
+        intervalCpuStart = cpuStartTime;
+        intervalUserStart = userStartTime;
+        intervalAllocatedStart = allocatedStartBytes;
+    }
+
+    public static boolean isAllocationMeasured()
+    {
+        return ALLOCATION_MX_BEAN != null;
+    }
+
+    public ResourceUsage startNewInterval()
+    {
+        long currentWallTime = System.nanoTime();
+        long currentCpuTime = THREAD_MX_BEAN.getCurrentThreadCpuTime();
+        long currentUserTime = THREAD_MX_BEAN.getCurrentThreadUserTime();
+        long currentAllocatedBytes = getAllocatedBytes();
+
+        ResourceUsage usage = new ResourceUsage(
+                Math.abs(currentWallTime - intervalWallStart),
+                Math.abs(currentCpuTime - intervalCpuStart),
+                Math.abs(currentUserTime - intervalUserStart),
+                Math.abs(currentAllocatedBytes - intervalAllocatedStart));
+
+        intervalWallStart = currentWallTime;
+        intervalCpuStart = currentCpuTime;
+        intervalUserStart = currentUserTime;
+        intervalAllocatedStart = currentAllocatedBytes;
+
+        return usage;
+    }
+
+    public ResourceUsage elapsedIntervalUsage()
+    {
+        return new ResourceUsage(
+                Math.abs(System.nanoTime() - intervalWallStart),
+                Math.abs(THREAD_MX_BEAN.getCurrentThreadCpuTime() - intervalCpuStart),
+                Math.abs(THREAD_MX_BEAN.getCurrentThreadUserTime() - intervalUserStart),
+                Math.abs(getAllocatedBytes() - intervalAllocatedStart));
+    }
+
+    public ResourceUsage elapsedUsage()
+    {
+        return new ResourceUsage(
+                Math.abs(System.nanoTime() - wallStartTime),
+                Math.abs(THREAD_MX_BEAN.getCurrentThreadCpuTime() - cpuStartTime),
+                Math.abs(THREAD_MX_BEAN.getCurrentThreadUserTime() - userStartTime),
+                Math.abs(getAllocatedBytes() - allocatedStartBytes));
+    }
+
+    private long getAllocatedBytes()
+    {
+        if (ALLOCATION_MX_BEAN == null) {
+            return 0;
+        }
+        return ALLOCATION_MX_BEAN.getThreadAllocatedBytes(threadId);
+    }
+
+    private static com.sun.management.ThreadMXBean getAllocationMXBean()
+    {
+        if (!(THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+        if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+            return null;
+        }
+        return bean;
+    }
+
+    /**
+     * Wall time, CPU time, user time and allocated bytes of an operation, kept as primitives so taking a
+     * measurement only allocates this object
+     */
+    public static class ResourceUsage
+    {
+        private final long wallNanos;
+        private final long cpuNanos;
+        private final long userNanos;
+        private final long allocatedBytes;
+
+        public ResourceUsage(long wallNanos, long cpuNanos, long userNanos, long allocatedBytes)
+        {
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.userNanos = userNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        public long getWallNanos()
+        {
+            return wallNanos;
+        }
+
+        public long getCpuNanos()
+        {
+            return cpuNanos;
+        }
+
+        public long getUserNanos()
+        {
+            return userNanos;
+        }
+
+        public long getAllocatedBytes()
+        {
+            return allocatedBytes;
+        }
+
+        public Duration getWall()
+        {
+            return new Duration(wallNanos, NANOSECONDS);
+        }
+
+        public Duration getCpu()
+        {
+            return new Duration(cpuNanos, NANOSECONDS);
+        }
+
+        public Duration getUser()
+        {
+            return new Duration(userNanos, NANOSECONDS);
+        }
+
+        public DataSize getAllocated()
+        {
+            return new DataSize(allocatedBytes, DataSize.Unit.BYTE);
+        }
+
+        public ResourceUsage add(ResourceUsage usage)
+        {
+            return new ResourceUsage(
+                    wallNanos + usage.wallNanos,
+                    cpuNanos + usage.cpuNanos,
+                    userNanos + usage.userNanos,
+                    allocatedBytes + usage.allocatedBytes);
+        }
+
+        public ResourceUsage subtract(ResourceUsage usage)
+        {
+            return new ResourceUsage(
+                    Math.max(0, wallNanos - usage.wallNanos),
+                    Math.max(0, cpuNanos - usage.cpuNanos),
+                    Math.max(0, userNanos - usage.userNanos),
+                    Math.max(0, allocatedBytes - usage.allocatedBytes));
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("wall", getWall())
+                    .add("cpu", getCpu())
+                    .add("user", getUser())
+                    .add("allocated", getAllocated())
+                    .toString();
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Buffers recorded samples in stripes selected by the recording thread, so concurrent
+ * writers don't contend on the lock that protects the underlying digest. Each stripe
+ * only holds samples recorded within the same second, which allows the owner to apply
+ * them with the exact decay weight they would have received if added directly.
+ * <p>
+ * The flush methods must be called while holding the owner's lock, and the owner must
+ * not hold its lock when calling {@link #offer}. This guarantees a consistent lock order
+ * (owner, then stripe).
+ */
+@ThreadSafe
+final class SampleBuffer
+{
+    private static final int MAX_STRIPES = 64;
+    private static final int STRIPE_CAPACITY = 64;
+
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public SampleBuffer()
+    {
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, 2 * processors - 1)));
+
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe();
+        }
+        mask = stripeCount - 1;
+    }
+
+    /**
+     * Buffers a value in the stripe of the current thread.
+     *
+     * @return false if the stripe must be flushed before the value can be buffered
+     */
+    public boolean offer(long value, long nowInSeconds)
+    {
+        return currentStripe().offer(value, nowInSeconds);
+    }
+
+    @GuardedBy("owner")
+    public void flushCurrentStripe(Sink sink)
+    {
+        currentStripe().flush(sink);
+    }
+
+    @GuardedBy("owner")
+    public void flush(Sink sink)
+    {
+        for (Stripe stripe : stripes) {
+            stripe.flush(sink);
+        }
+    }
+
+    private Stripe currentStripe()
+    {
+        return stripes[(int) Thread.currentThread().getId() & mask];
+    }
+
+    interface Sink
+    {
+        /**
+         * @param values the buffered values, valid only for the duration of the call
+         * @param length the number of valid entries in values
+         * @param sum the sum of the buffered values
+         * @param timestampInSeconds the second in which all values were recorded
+         */
+        void accept(long[] values, int length, long sum, long timestampInSeconds);
+    }
+
+    private static class Stripe
+    {
+        @GuardedBy("this")
+        private long[] values;
+        @GuardedBy("this")
+        private int size;
+        @GuardedBy("this")
+        private long sum;
+        @GuardedBy("this")
+        private long timestampInSeconds;
+
+        public synchronized boolean offer(long value, long nowInSeconds)
+        {
+            if (size > 0 && (size == STRIPE_CAPACITY || timestampInSeconds != nowInSeconds)) {
+                return false;
+            }
+
+            if (values == null) {
+                // allocate lazily, since most stripes of a lightly used stat are never touched
+                values = new long[STRIPE_CAPACITY];
+            }
+
+            values[size++] = value;
+            sum += value;
+            timestampInSeconds = nowInSeconds;
+            return true;
+        }
+
+        public synchronized void flush(Sink sink)
+        {
+            if (size == 0) {
+                return;
+            }
+
+            // clear the stripe first, so a sink that throws drops the batch instead of failing every later flush
+            int length = size;
+            long batchSum = sum;
+            size = 0;
+            sum = 0;
+
+            // the values can't be overwritten during the call, since offer needs the stripe lock
+            sink.accept(values, length, batchSum, timestampInSeconds);
+        }
+    }
+}
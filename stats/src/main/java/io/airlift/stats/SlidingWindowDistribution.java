@@ -0,0 +1,286 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import io.airlift.stats.Distribution.DistributionSnapshot;
+import io.airlift.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * A distribution of the values added within a sliding window, as opposed to the exponentially
+ * decayed windows of {@link DistributionStat} and {@link TimeStat}. Values older than the window
+ * don't contribute at all, and recent values are not diluted by older ones.
+ * <p>
+ * The window is divided into intervals, and each interval records into its own {@link Distribution}.
+ * The intervals are kept in a ring, and the interval for the current time replaces the oldest one
+ * with a compare-and-set, so writers never block each other on the swap. Reads merge the intervals
+ * that are within the window, so the window slides with the granularity of an interval.
+ * <p>
+ * The merged distribution is cached until the current interval changes or for at most one second,
+ * so reading all the statistics at once merges the intervals only once. Values added since are
+ * visible once the cache expires.
+ */
+@ThreadSafe
+public class SlidingWindowDistribution
+{
+    private static final long MERGED_TTL_NANOS = SECONDS.toNanos(1);
+
+    private final Ticker ticker;
+    private final Duration window;
+    private final long intervalNanos;
+    private final int intervals;
+
+    // one more slot than intervals in the window, so the oldest interval in the window is not replaced while it's being read
+    private final AtomicReferenceArray<Interval> ring;
+
+    private volatile MergedWindow merged;
+
+    public SlidingWindowDistribution(Duration window, int intervals)
+    {
+        this(window, intervals, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    SlidingWindowDistribution(Duration window, int intervals, Ticker ticker)
+    {
+        checkNotNull(window, "window is null");
+        checkArgument(intervals > 0, "intervals must be > 0");
+
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        this.window = window;
+        this.intervals = intervals;
+        this.intervalNanos = (long) window.getValue(NANOSECONDS) / intervals;
+        checkArgument(intervalNanos > 0, "window is too small for %s intervals", intervals);
+
+        ring = new AtomicReferenceArray<>(intervals + 1);
+    }
+
+    public void add(long value)
+    {
+        getCurrentInterval().getDistribution().add(value);
+    }
+
+    public void add(long value, long count)
+    {
+        getCurrentInterval().getDistribution().add(value, count);
+    }
+
+    private Interval getCurrentInterval()
+    {
+        long index = getIntervalIndex();
+        int slot = (int) Math.floorMod(index, (long) ring.length());
+
+        while (true) {
+            Interval interval = ring.get(slot);
+            if (interval != null && interval.getIndex() >= index) {
+                // a writer that fell behind by more than the length of the ring records into the newer interval
+                return interval;
+            }
+
+            Interval next = new Interval(index);
+            if (ring.compareAndSet(slot, interval, next)) {
+                return next;
+            }
+        }
+    }
+
+    private long getIntervalIndex()
+    {
+        return Math.floorDiv(ticker.read(), intervalNanos);
+    }
+
+    /**
+     * Returns the merged intervals that are within the window, merging them again if the cached
+     * merge is for an older interval or has expired
+     */
+    private Distribution merge()
+    {
+        long now = ticker.read();
+        long currentIndex = Math.floorDiv(now, intervalNanos);
+
+        MergedWindow cached = merged;
+        if (cached != null && cached.getIndex() == currentIndex && now - cached.getCreatedNanos() < MERGED_TTL_NANOS) {
+            return cached.getDistribution();
+        }
+
+        // concurrent readers may both merge, and the last one wins
+        Distribution distribution = merge(currentIndex);
+        merged = new MergedWindow(currentIndex, now, distribution);
+        return distribution;
+    }
+
+    private Distribution merge(long currentIndex)
+    {
+        List<Distribution> recent = new ArrayList<>(intervals);
+        for (int i = 0; i < ring.length(); i++) {
+            Interval interval = ring.get(i);
+            if (interval != null && interval.getIndex() > currentIndex - intervals && interval.getIndex() <= currentIndex) {
+                recent.add(interval.getDistribution());
+            }
+        }
+
+        Distribution merged = new Distribution();
+        merged.mergeAll(recent);
+        return merged;
+    }
+
+    @Managed
+    public String getWindow()
+    {
+        return window.toString();
+    }
+
+    @Managed
+    public double getMaxError()
+    {
+        return merge().getMaxError();
+    }
+
+    @Managed
+    public double getCount()
+    {
+        return merge().getCount();
+    }
+
+    @Managed
+    public double getTotal()
+    {
+        return merge().getTotal();
+    }
+
+    @Managed
+    public long getP50()
+    {
+        return merge().getP50();
+    }
+
+    @Managed
+    public long getP75()
+    {
+        return merge().getP75();
+    }
+
+    @Managed
+    public long getP90()
+    {
+        return merge().getP90();
+    }
+
+    @Managed
+    public long getP95()
+    {
+        return merge().getP95();
+    }
+
+    @Managed
+    public long getP99()
+    {
+        return merge().getP99();
+    }
+
+    @Managed
+    public long getMin()
+    {
+        return merge().getMin();
+    }
+
+    @Managed
+    public long getMax()
+    {
+        return merge().getMax();
+    }
+
+    public List<Long> getPercentiles(List<Double> percentiles)
+    {
+        return merge().getPercentiles(percentiles);
+    }
+
+    public DistributionSnapshot snapshot()
+    {
+        return merge().snapshot();
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("window", window)
+                .add("intervals", intervals)
+                .toString();
+    }
+
+    private static class MergedWindow
+    {
+        private final long index;
+        private final long createdNanos;
+        private final Distribution distribution;
+
+        public MergedWindow(long index, long createdNanos, Distribution distribution)
+        {
+            this.index = index;
+            this.createdNanos = createdNanos;
+            this.distribution = distribution;
+        }
+
+        public long getIndex()
+        {
+            return index;
+        }
+
+        public long getCreatedNanos()
+        {
+            return createdNanos;
+        }
+
+        public Distribution getDistribution()
+        {
+            return distribution;
+        }
+    }
+
+    private static class Interval
+    {
+        private final long index;
+        private final Distribution distribution = new Distribution();
+
+        public Interval(long index)
+        {
+            this.index = index;
+        }
+
+        public long getIndex()
+        {
+            return index;
+        }
+
+        public Distribution getDistribution()
+        {
+            return distribution;
+        }
+    }
+}
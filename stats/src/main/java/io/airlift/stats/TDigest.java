@@ -0,0 +1,641 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import io.airlift.slice.BasicSliceInput;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.SizeOf;
+import io.airlift.slice.Slice;
+import org.openjdk.jol.info.ClassLayout;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.slice.SizeOf.sizeOf;
+
+/**
+ * <p>A merging t-digest, as described in "Computing Extremely Accurate Quantiles Using t-Digests" by
+ * Dunning and Ertl. Values are summarized by centroids (a mean and a weight), and the size of a centroid
+ * is limited by a scale function that allows large centroids near the median and small ones near the tails.
+ * The error is therefore relative to q * (1 - q) rather than uniform in rank as with {@link QuantileDigest},
+ * which makes high quantiles such as p99 and p999 much more accurate for the same size.</p>
+ *
+ * <p>Added values are appended to a buffer, which is periodically sorted and merged with the centroids in
+ * a single pass. Centroids and the buffer are kept in primitive arrays that are allocated up front, so
+ * adding a value does not allocate. The number of centroids is bounded by about "compression".</p>
+ *
+ * <p>This class supports exponential decay in the same way as {@link QuantileDigest}.</p>
+ */
+@NotThreadSafe
+public class TDigest
+{
+    private static final int INSTANCE_SIZE = ClassLayout.parseClass(TDigest.class).instanceSize();
+
+    public static final double DEFAULT_COMPRESSION = 100;
+
+    private static final byte FORMAT_V1 = 1;
+
+    // needs to be such that Math.exp(alpha * seconds) does not grow too big
+    static final long RESCALE_THRESHOLD_SECONDS = 50;
+    static final double ZERO_WEIGHT_THRESHOLD = 1e-5;
+
+    private final double compression;
+    private final double alpha;
+    private final Ticker ticker;
+    private final int maxCentroids;
+
+    // centroids, sorted by mean, are in [0, centroidCount). The buffer of added values follows them.
+    private double[] means;
+    private double[] weights;
+    private int centroidCount;
+    private int bufferCount;
+
+    // the destination of a merge, swapped with the arrays above once the merge completes
+    private double[] mergedMeans;
+    private double[] mergedWeights;
+
+    // sum of the weights of the centroids and the buffer
+    private double weightedCount;
+    // the smallest and largest values that still have weight, and the weight with which they were added.
+    // Once that has decayed away, the bounds are taken from the first and last centroid instead.
+    private long min = Long.MAX_VALUE;
+    private double minWeight;
+    private long max = Long.MIN_VALUE;
+    private double maxWeight;
+
+    private long landmarkInSeconds;
+
+    private long cachedWeightTimestamp = Long.MIN_VALUE;
+    private double cachedWeight;
+
+    /**
+     * Create a digest with the default compression and no decay.
+     */
+    public TDigest()
+    {
+        this(DEFAULT_COMPRESSION, 0);
+    }
+
+    /**
+     * Create a digest with exponential decay with factor "alpha".
+     *
+     * @param compression bounds the number of centroids. Higher values are more accurate and use more memory.
+     * @param alpha the exponential decay factor
+     */
+    public TDigest(double compression, double alpha)
+    {
+        this(compression, alpha, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    TDigest(double compression, double alpha, Ticker ticker)
+    {
+        checkArgument(compression >= 10 && compression <= 10_000, "compression must be in range [10, 10000]");
+        checkArgument(alpha >= 0 && alpha < 1, "alpha must be in range [0, 1)");
+
+        this.compression = compression;
+        this.alpha = alpha;
+        this.ticker = ticker;
+
+        // two centroids next to each other always span at least one unit of the scale function, whose range
+        // is compression / 2, so a merge never produces more than compression + 2 centroids
+        maxCentroids = (int) Math.ceil(compression) + 2;
+        int bufferSize = 5 * (int) Math.ceil(compression);
+        means = new double[maxCentroids + bufferSize];
+        weights = new double[maxCentroids + bufferSize];
+        mergedMeans = new double[maxCentroids + bufferSize];
+        mergedWeights = new double[maxCentroids + bufferSize];
+
+        landmarkInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+    }
+
+    public TDigest(TDigest digest)
+    {
+        this(digest.compression, digest.alpha, digest.ticker);
+
+        // copy the arrays rather than merging, which would rescale the source digest
+        int count = digest.centroidCount + digest.bufferCount;
+        System.arraycopy(digest.means, 0, means, 0, count);
+        System.arraycopy(digest.weights, 0, weights, 0, count);
+        centroidCount = digest.centroidCount;
+        bufferCount = digest.bufferCount;
+        weightedCount = digest.weightedCount;
+        min = digest.min;
+        minWeight = digest.minWeight;
+        max = digest.max;
+        maxWeight = digest.maxWeight;
+        landmarkInSeconds = digest.landmarkInSeconds;
+    }
+
+    public double getCompression()
+    {
+        return compression;
+    }
+
+    public double getAlpha()
+    {
+        return alpha;
+    }
+
+    /**
+     * Approximate upper bound on the rank error of the values returned for quantiles, which is reached at
+     * the median. The error for a quantile q is smaller by a factor of about 2 * sqrt(q * (1 - q)).
+     */
+    public double getMaxRankError()
+    {
+        return Math.PI / (2 * compression);
+    }
+
+    public void add(long value)
+    {
+        add(value, 1);
+    }
+
+    public void add(long value, long count)
+    {
+        add(value, count, TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+    }
+
+    /**
+     * Adds a value that was recorded at the given time (as read from this digest's ticker).
+     * Used by callers that buffer values before adding them to the digest.
+     */
+    void add(long value, long count, long timestampInSeconds)
+    {
+        checkArgument(count > 0, "count must be > 0");
+
+        rescaleIfNeeded();
+
+        double weight = weight(timestampInSeconds) * count;
+        addWeighted(value, weight);
+        updateBounds(value, weight, value, weight);
+    }
+
+    /**
+     * Adds a batch of values that were recorded at the given time. The clock is read once for the batch.
+     */
+    void add(long[] values, int offset, int length, long timestampInSeconds)
+    {
+        rescaleIfNeeded();
+
+        double weight = weight(timestampInSeconds);
+        for (int i = offset; i < offset + length; i++) {
+            addWeighted(values[i], weight);
+            updateBounds(values[i], weight, values[i], weight);
+        }
+    }
+
+    private void rescaleIfNeeded()
+    {
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        if (nowInSeconds - landmarkInSeconds >= RESCALE_THRESHOLD_SECONDS) {
+            rescale(nowInSeconds);
+        }
+    }
+
+    private void addWeighted(double mean, double weight)
+    {
+        if (centroidCount + bufferCount == means.length) {
+            mergeBuffer();
+        }
+
+        int index = centroidCount + bufferCount;
+        means[index] = mean;
+        weights[index] = weight;
+        bufferCount++;
+        weightedCount += weight;
+    }
+
+    /**
+     * Merges another digest into this digest. The other digest is not modified.
+     */
+    public void merge(TDigest other)
+    {
+        double factor = rescaleForMerge(other.landmarkInSeconds);
+
+        // the centroids of the other digest are added as weighted values, and may be combined further
+        int otherCount = other.centroidCount + other.bufferCount;
+        for (int i = 0; i < otherCount; i++) {
+            addWeighted(other.means[i], other.weights[i] * factor);
+        }
+
+        updateBounds(other.min, other.minWeight * factor, other.max, other.maxWeight * factor);
+    }
+
+    private void updateBounds(long newMin, double newMinWeight, long newMax, double newMaxWeight)
+    {
+        if (newMin < min) {
+            min = newMin;
+            minWeight = newMinWeight;
+        }
+        else if (newMin == min) {
+            minWeight += newMinWeight;
+        }
+
+        if (newMax > max) {
+            max = newMax;
+            maxWeight = newMaxWeight;
+        }
+        else if (newMax == max) {
+            maxWeight += newMaxWeight;
+        }
+    }
+
+    /**
+     * Number (decayed) of elements added to this digest
+     */
+    public double getCount()
+    {
+        return weightedCount / weight(TimeUnit.NANOSECONDS.toSeconds(ticker.read()));
+    }
+
+    /**
+     * Gets the values at the specified quantiles, interpolating between the means of adjacent centroids.
+     * <p>
+     * The input list of quantile proportions must be sorted in increasing order, and each value must be in the range [0, 1]
+     */
+    public List<Long> getQuantiles(List<Double> quantiles)
+    {
+        checkArgument(Ordering.natural().isOrdered(quantiles), "quantiles must be sorted in increasing order");
+        for (double quantile : quantiles) {
+            checkArgument(quantile >= 0 && quantile <= 1, "quantile must be between [0,1]");
+        }
+
+        mergeBuffer();
+
+        ImmutableList.Builder<Long> builder = ImmutableList.builder();
+        if (centroidCount == 0) {
+            for (int i = 0; i < quantiles.size(); i++) {
+                builder.add(max);
+            }
+            return builder.build();
+        }
+
+        // the rank of the center of the current centroid
+        int centroid = 0;
+        double center = weights[0] / 2;
+        for (double quantile : quantiles) {
+            double rank = quantile * weightedCount;
+
+            while (centroid < centroidCount - 1 && center + (weights[centroid] + weights[centroid + 1]) / 2 <= rank) {
+                center += (weights[centroid] + weights[centroid + 1]) / 2;
+                centroid++;
+            }
+
+            double value;
+            if (rank < center) {
+                // before the center of the first centroid, whose values are spread between the min and its mean
+                value = min + (means[0] - min) * (rank / center);
+            }
+            else if (centroid == centroidCount - 1) {
+                double remaining = weightedCount - center;
+                value = remaining <= 0 ? max : means[centroid] + (max - means[centroid]) * ((rank - center) / remaining);
+            }
+            else {
+                double nextCenter = center + (weights[centroid] + weights[centroid + 1]) / 2;
+                value = means[centroid] + (means[centroid + 1] - means[centroid]) * ((rank - center) / (nextCenter - center));
+            }
+
+            builder.add(Math.max(min, Math.min(max, Math.round(value))));
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Gets the value at the specified quantile. The quantile must be in the range [0, 1]
+     */
+    public long getQuantile(double quantile)
+    {
+        return getQuantiles(ImmutableList.of(quantile)).get(0);
+    }
+
+    /**
+     * Smallest value with a non-negligible weight, or {@code Long.MAX_VALUE} if it's empty. Once the
+     * smallest value added has decayed, this is the mean of the first centroid.
+     */
+    public long getMin()
+    {
+        return min;
+    }
+
+    /**
+     * Largest value with a non-negligible weight, or {@code Long.MIN_VALUE} if it's empty. Once the
+     * largest value added has decayed, this is the mean of the last centroid.
+     */
+    public long getMax()
+    {
+        return max;
+    }
+
+    @VisibleForTesting
+    int getCentroidCount()
+    {
+        mergeBuffer();
+        return centroidCount;
+    }
+
+    public int estimatedInMemorySizeInBytes()
+    {
+        return (int) (INSTANCE_SIZE + sizeOf(means) + sizeOf(weights) + sizeOf(mergedMeans) + sizeOf(mergedWeights));
+    }
+
+    public int estimatedSerializedSizeInBytes()
+    {
+        mergeBuffer();
+        return SizeOf.SIZE_OF_BYTE + // format
+                SizeOf.SIZE_OF_DOUBLE + // compression
+                SizeOf.SIZE_OF_DOUBLE + // alpha
+                SizeOf.SIZE_OF_LONG + // landmark
+                SizeOf.SIZE_OF_LONG + // min
+                SizeOf.SIZE_OF_LONG + // max
+                SizeOf.SIZE_OF_INT + // centroid count
+                centroidCount * (SizeOf.SIZE_OF_DOUBLE + SizeOf.SIZE_OF_DOUBLE); // means and weights
+    }
+
+    public Slice serialize()
+    {
+        DynamicSliceOutput output = new DynamicSliceOutput(estimatedSerializedSizeInBytes())
+                .appendByte(FORMAT_V1)
+                .appendDouble(compression)
+                .appendDouble(alpha)
+                .appendLong(landmarkInSeconds)
+                .appendLong(min)
+                .appendLong(max)
+                .appendInt(centroidCount);
+
+        for (int i = 0; i < centroidCount; i++) {
+            output.appendDouble(means[i]);
+            output.appendDouble(weights[i]);
+        }
+
+        return output.slice();
+    }
+
+    public static TDigest deserialize(Slice serialized)
+    {
+        BasicSliceInput input = serialized.getInput();
+        checkArgument(input.readByte() == FORMAT_V1, "Invalid format tag");
+
+        double compression = input.readDouble();
+        double alpha = input.readDouble();
+        TDigest result = new TDigest(compression, alpha);
+
+        result.landmarkInSeconds = input.readLong();
+        result.min = input.readLong();
+        result.max = input.readLong();
+
+        int centroidCount = input.readInt();
+        checkArgument(centroidCount >= 0 && centroidCount <= result.maxCentroids, "Invalid number of centroids: %s", centroidCount);
+
+        double previousMean = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < centroidCount; i++) {
+            double mean = input.readDouble();
+            double weight = input.readDouble();
+            checkArgument(mean >= previousMean, "Centroids are not sorted");
+            checkArgument(weight > 0, "Invalid centroid weight: %s", weight);
+            previousMean = mean;
+
+            result.means[i] = mean;
+            result.weights[i] = weight;
+            result.weightedCount += weight;
+        }
+        result.centroidCount = centroidCount;
+        if (centroidCount > 0) {
+            // the weight of the extremes is not serialized, so they are assumed to be part of the outer centroids
+            result.minWeight = result.weights[0];
+            result.maxWeight = result.weights[centroidCount - 1];
+        }
+
+        checkArgument(!input.isReadable(), "input is too big");
+
+        return result;
+    }
+
+    /**
+     * Merges the buffered values into the centroids
+     */
+    private void mergeBuffer()
+    {
+        if (bufferCount == 0) {
+            return;
+        }
+
+        sort(means, weights, centroidCount, centroidCount + bufferCount - 1);
+
+        // walk the centroids and the buffer in order of mean, combining adjacent values as long as the
+        // combined centroid spans at most one unit of the scale function
+        double normalizer = compression / (2 * Math.PI);
+        double total = weightedCount;
+
+        int centroid = 0;
+        int buffered = centroidCount;
+        int end = centroidCount + bufferCount;
+
+        int merged = -1;
+        double weightSoFar = 0;
+        double weightLimit = 0;
+        while (centroid < centroidCount || buffered < end) {
+            int next;
+            if (buffered == end || (centroid < centroidCount && means[centroid] <= means[buffered])) {
+                next = centroid++;
+            }
+            else {
+                next = buffered++;
+            }
+
+            double mean = means[next];
+            double weight = weights[next];
+
+            if (merged >= 0 && weightSoFar + mergedWeights[merged] + weight <= weightLimit) {
+                double combinedWeight = mergedWeights[merged] + weight;
+                mergedMeans[merged] += (mean - mergedMeans[merged]) * (weight / combinedWeight);
+                mergedWeights[merged] = combinedWeight;
+                continue;
+            }
+
+            if (merged >= 0) {
+                weightSoFar += mergedWeights[merged];
+            }
+
+            merged++;
+            mergedMeans[merged] = mean;
+            mergedWeights[merged] = weight;
+
+            // the new centroid may grow until it spans one unit of the scale function from where it starts
+            double k = normalizer * Math.asin(2 * Math.min(1, weightSoFar / total) - 1);
+            weightLimit = total * (Math.sin(Math.min(Math.PI / 2, (k + 1) / normalizer)) + 1) / 2;
+        }
+
+        double[] swapMeans = means;
+        double[] swapWeights = weights;
+        means = mergedMeans;
+        weights = mergedWeights;
+        mergedMeans = swapMeans;
+        mergedWeights = swapWeights;
+
+        centroidCount = merged + 1;
+        bufferCount = 0;
+    }
+
+    private double weight(long timestampInSeconds)
+    {
+        if (timestampInSeconds != cachedWeightTimestamp) {
+            cachedWeight = Math.exp(alpha * (timestampInSeconds - landmarkInSeconds));
+            cachedWeightTimestamp = timestampInSeconds;
+        }
+        return cachedWeight;
+    }
+
+    private void rescale(long newLandmarkInSeconds)
+    {
+        // rescale the weights based on a new landmark to avoid numerical overflow issues
+        double factor = Math.exp(-alpha * (newLandmarkInSeconds - landmarkInSeconds));
+
+        mergeBuffer();
+
+        // drop the centroids whose weight has decayed to nothing
+        int count = 0;
+        weightedCount = 0;
+        for (int i = 0; i < centroidCount; i++) {
+            double weight = weights[i] * factor;
+            if (weight >= ZERO_WEIGHT_THRESHOLD) {
+                means[count] = means[i];
+                weights[count] = weight;
+                weightedCount += weight;
+                count++;
+            }
+        }
+        centroidCount = count;
+
+        minWeight *= factor;
+        maxWeight *= factor;
+        if (centroidCount == 0) {
+            min = Long.MAX_VALUE;
+            minWeight = 0;
+            max = Long.MIN_VALUE;
+            maxWeight = 0;
+        }
+        else {
+            // the remaining values are summarized by the centroids, so the first and last are the best bounds left
+            if (minWeight < ZERO_WEIGHT_THRESHOLD) {
+                min = Math.round(means[0]);
+                minWeight = weights[0];
+            }
+            if (maxWeight < ZERO_WEIGHT_THRESHOLD) {
+                max = Math.round(means[centroidCount - 1]);
+                maxWeight = weights[centroidCount - 1];
+            }
+        }
+
+        landmarkInSeconds = newLandmarkInSeconds;
+        cachedWeightTimestamp = Long.MIN_VALUE;
+    }
+
+    /**
+     * Rescales this digest to the landmark that the weights of another digest are merged at.
+     *
+     * @return the factor for the weights of the other digest
+     */
+    private double rescaleForMerge(long otherLandmarkInSeconds)
+    {
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        long targetLandmark = Math.max(landmarkInSeconds, otherLandmarkInSeconds);
+        if (nowInSeconds - targetLandmark >= RESCALE_THRESHOLD_SECONDS) {
+            targetLandmark = nowInSeconds;
+        }
+        if (targetLandmark != landmarkInSeconds) {
+            rescale(targetLandmark);
+        }
+        return Math.exp(-alpha * (targetLandmark - otherLandmarkInSeconds));
+    }
+
+    /**
+     * Sorts the inclusive range [from, to] of the keys, moving the values along with them
+     */
+    private static void sort(double[] keys, double[] values, int from, int to)
+    {
+        while (to - from > 16) {
+            // median of three, so that already sorted ranges don't take quadratic time
+            int middle = (from + to) >>> 1;
+            if (keys[middle] < keys[from]) {
+                swap(keys, values, middle, from);
+            }
+            if (keys[to] < keys[from]) {
+                swap(keys, values, to, from);
+            }
+            if (keys[to] < keys[middle]) {
+                swap(keys, values, to, middle);
+            }
+            double pivot = keys[middle];
+
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i, j);
+                    i++;
+                    j--;
+                }
+            }
+
+            // recurse into the smaller part, so the depth of the stack is logarithmic
+            if (j - from < to - i) {
+                sort(keys, values, from, j);
+                from = i;
+            }
+            else {
+                sort(keys, values, i, to);
+                to = j;
+            }
+        }
+
+        for (int i = from + 1; i <= to; i++) {
+            double key = keys[i];
+            double value = values[i];
+            int j = i - 1;
+            while (j >= from && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+        }
+    }
+
+    private static void swap(double[] keys, double[] values, int i, int j)
+    {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+
+        double value = values[i];
+        values[i] = values[j];
+        values[j] = value;
+    }
+}
@@ -2,12 +2,16 @@ package io.airlift.stats;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import org.weakref.jmx.Managed;
 
 import javax.annotation.concurrent.GuardedBy;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,13 +20,19 @@ import java.util.concurrent.TimeUnit;
 import static com.google.common.base.MoreObjects.toStringHelper;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+/**
+ * Recording is striped by thread in the same way as {@link Distribution}.
+ */
 public class TimeDistribution
 {
-    private static final double MAX_ERROR = 0.01;
-
     @GuardedBy("this")
-    private final QuantileDigest digest;
+    private final QuantileSketch digest;
+    private final DecayCounter total;
     private final TimeUnit unit;
+    private final Ticker ticker;
+    private final boolean negativeValuesSupported;
+    private final SampleBuffer buffer = new SampleBuffer();
+    private final SampleBuffer.Sink bufferSink = this::addBuffered;
 
     public TimeDistribution()
     {
@@ -31,10 +41,7 @@ public class TimeDistribution
 
     public TimeDistribution(TimeUnit unit)
     {
-        Preconditions.checkNotNull(unit, "unit is null");
-
-        digest = new QuantileDigest(MAX_ERROR);
-        this.unit = unit;
+        this(0, unit);
     }
 
     public TimeDistribution(double alpha)
@@ -43,70 +50,149 @@ public class TimeDistribution
     }
 
     public TimeDistribution(double alpha, TimeUnit unit)
+    {
+        this(alpha, unit, DistributionBackend.QUANTILE_DIGEST);
+    }
+
+    public TimeDistribution(double alpha, TimeUnit unit, DistributionBackend backend)
+    {
+        this(alpha, unit, backend, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    TimeDistribution(double alpha, TimeUnit unit, Ticker ticker)
+    {
+        this(alpha, unit, DistributionBackend.QUANTILE_DIGEST, ticker);
+    }
+
+    @VisibleForTesting
+    TimeDistribution(double alpha, TimeUnit unit, DistributionBackend backend, Ticker ticker)
     {
         Preconditions.checkNotNull(unit, "unit is null");
+        Preconditions.checkNotNull(backend, "backend is null");
 
-        digest = new QuantileDigest(MAX_ERROR, alpha);
+        digest = backend.createSketch(alpha, ticker);
+        total = new DecayCounter(alpha, ticker);
+        negativeValuesSupported = backend.supportsNegativeValues();
         this.unit = unit;
+        this.ticker = ticker;
     }
 
-    public synchronized void add(long value)
+    /**
+     * Adds a duration in nanoseconds
+     */
+    public void add(long value)
     {
-        digest.add(value);
+        checkValue(value);
+        long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+        while (!buffer.offer(value, nowInSeconds)) {
+            synchronized (this) {
+                buffer.flushCurrentStripe(bufferSink);
+            }
+        }
+    }
+
+    /**
+     * Adds the values in the given range of the array as a single batch. The array is not modified.
+     */
+    public void add(long[] values, int offset, int length)
+    {
+        Preconditions.checkPositionIndexes(offset, offset + length, values.length);
+
+        long[] batch = Arrays.copyOfRange(values, offset, offset + length);
+        long sum = 0;
+        for (long value : batch) {
+            checkValue(value);
+            sum += value;
+        }
+        synchronized (this) {
+            long nowInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+            digest.add(batch, 0, length, nowInSeconds);
+            total.add(sum, nowInSeconds);
+        }
+    }
+
+    private void checkValue(long value)
+    {
+        Preconditions.checkArgument(negativeValuesSupported || value >= 0, "value must be >= 0");
+    }
+
+    @GuardedBy("this")
+    private void addBuffered(long[] values, int length, long sum, long timestampInSeconds)
+    {
+        digest.add(values, 0, length, timestampInSeconds);
+        total.add(sum, timestampInSeconds);
+    }
+
+    @GuardedBy("this")
+    private QuantileSketch flush()
+    {
+        buffer.flush(bufferSink);
+        return digest;
     }
 
     @Managed
     public synchronized double getMaxError()
     {
-        return digest.getConfidenceFactor();
+        return flush().getMaxError();
     }
 
     @Managed
     public synchronized double getCount()
     {
-        return digest.getCount();
+        return flush().getCount();
+    }
+
+    /**
+     * Sum of the durations, in the unit of this distribution
+     */
+    @Managed
+    public synchronized double getTotal()
+    {
+        flush();
+        return total.getCount() / unit.toNanos(1);
     }
 
     @Managed
     public synchronized double getP50()
     {
-        return convertToUnit(digest.getQuantile(0.5));
+        return convertToUnit(flush().getQuantile(0.5));
     }
 
     @Managed
     public synchronized double getP75()
     {
-        return convertToUnit(digest.getQuantile(0.75));
+        return convertToUnit(flush().getQuantile(0.75));
     }
 
     @Managed
     public synchronized double getP90()
     {
-        return convertToUnit(digest.getQuantile(0.90));
+        return convertToUnit(flush().getQuantile(0.90));
     }
 
     @Managed
     public synchronized double getP95()
     {
-        return convertToUnit(digest.getQuantile(0.95));
+        return convertToUnit(flush().getQuantile(0.95));
     }
 
     @Managed
     public synchronized double getP99()
     {
-        return convertToUnit(digest.getQuantile(0.99));
+        return convertToUnit(flush().getQuantile(0.99));
     }
 
     @Managed
     public synchronized double getMin()
     {
-        return convertToUnit(digest.getMin());
+        return convertToUnit(flush().getMin());
     }
 
     @Managed
     public synchronized double getMax()
     {
-        return convertToUnit(digest.getMax());
+        return convertToUnit(flush().getMax());
     }
 
     @Managed
@@ -125,7 +211,7 @@ public class TimeDistribution
 
         List<Long> values;
         synchronized (this) {
-            values = digest.getQuantiles(percentiles);
+            values = flush().getQuantiles(percentiles);
         }
 
         Map<Double, Double> result = new LinkedHashMap<>(values.size());
@@ -144,19 +230,22 @@ public class TimeDistribution
         return nanos * 1.0 / unit.toNanos(1);
     }
 
-    public TimeDistributionSnapshot snapshot()
+    public synchronized TimeDistributionSnapshot snapshot()
     {
+        flush();
+
+        List<Long> quantiles = digest.getQuantiles(ImmutableList.of(0.5, 0.75, 0.90, 0.95, 0.99));
         return new TimeDistributionSnapshot(
-                getMaxError(),
-                getCount(),
-                getP50(),
-                getP75(),
-                getP90(),
-                getP95(),
-                getP99(),
-                getMin(),
-                getMax(),
-                getUnit());
+                digest.getMaxError(),
+                digest.getCount(),
+                convertToUnit(quantiles.get(0)),
+                convertToUnit(quantiles.get(1)),
+                convertToUnit(quantiles.get(2)),
+                convertToUnit(quantiles.get(3)),
+                convertToUnit(quantiles.get(4)),
+                convertToUnit(digest.getMin()),
+                convertToUnit(digest.getMax()),
+                unit);
     }
 
     public static class TimeDistributionSnapshot
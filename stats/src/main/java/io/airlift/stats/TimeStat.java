@@ -27,6 +27,8 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 public class TimeStat
 {
@@ -52,38 +54,68 @@ public class TimeStat
     }
 
     public TimeStat(Ticker ticker, TimeUnit unit)
+    {
+        this(ticker, unit, DistributionBackend.QUANTILE_DIGEST);
+    }
+
+    public TimeStat(Ticker ticker, TimeUnit unit, DistributionBackend backend)
     {
         this.ticker = ticker;
-        oneMinute = new TimeDistribution(ExponentialDecay.oneMinute(), unit);
-        fiveMinutes = new TimeDistribution(ExponentialDecay.fiveMinutes(), unit);
-        fifteenMinutes = new TimeDistribution(ExponentialDecay.fifteenMinutes(), unit);
-        allTime = new TimeDistribution(unit);
+        oneMinute = new TimeDistribution(ExponentialDecay.oneMinute(), unit, backend);
+        fiveMinutes = new TimeDistribution(ExponentialDecay.fiveMinutes(), unit, backend);
+        fifteenMinutes = new TimeDistribution(ExponentialDecay.fifteenMinutes(), unit, backend);
+        allTime = new TimeDistribution(0, unit, backend);
     }
 
     public void add(double value, TimeUnit timeUnit)
     {
-        add(new Duration(value, timeUnit));
+        checkArgument(!Double.isInfinite(value), "value is infinite");
+        checkArgument(!Double.isNaN(value), "value is not a number");
+        checkArgument(value >= 0, "value is negative");
+        checkNotNull(timeUnit, "timeUnit is null");
+
+        addNanos((long) (value * timeUnit.toNanos(1)));
     }
 
     public void add(Duration duration)
     {
-        add((long) duration.getValue(TimeUnit.NANOSECONDS));
+        addNanos((long) duration.getValue(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Adds a duration in nanoseconds. Unlike the other methods for adding a value, this does not allocate.
+     */
+    public void addNanos(long nanos)
+    {
+        oneMinute.add(nanos);
+        fiveMinutes.add(nanos);
+        fifteenMinutes.add(nanos);
+        allTime.add(nanos);
+    }
+
+    /**
+     * Returns the current reading of the ticker of this stat, to be passed to {@link #addNanosSince(long)}
+     * when the operation being timed completes. Together, they time an operation without allocating.
+     */
+    public long startNanos()
+    {
+        return ticker.read();
     }
 
-    private void add(long value)
+    /**
+     * Adds the time elapsed since the given reading of {@link #startNanos()}
+     */
+    public void addNanosSince(long startNanos)
     {
-        oneMinute.add(value);
-        fiveMinutes.add(value);
-        fifteenMinutes.add(value);
-        allTime.add(value);
+        addNanos(ticker.read() - startNanos);
     }
 
     public <T> T time(Callable<T> callable)
             throws Exception
     {
-        long start = ticker.read();
+        long start = startNanos();
         T result = callable.call();
-        add(ticker.read() - start);
+        addNanosSince(start);
         return result;
     }
 
@@ -95,12 +127,12 @@ public class TimeStat
     public class BlockTimer
             implements AutoCloseable
     {
-        private final long start = ticker.read();
+        private final long start = startNanos();
 
         @Override
         public void close()
         {
-            add(ticker.read() - start);
+            addNanosSince(start);
         }
     }
 
@@ -18,8 +18,6 @@ package io.airlift.stats;
 import io.airlift.units.Duration;
 import org.weakref.jmx.Managed;
 
-import java.util.Collections;
-import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -32,7 +30,7 @@ public class TimedStat
 {
     private final AtomicLong sum = new AtomicLong(0);
     private final AtomicLong count = new AtomicLong(0);
-    private final ExponentiallyDecayingSample sample = new ExponentiallyDecayingSample(1028, 0.015);
+    private final DecayingReservoir sample = new DecayingReservoir(1028, 0.015);
 
     @Managed
     public long getCount()
@@ -49,40 +47,27 @@ public class TimedStat
     @Managed
     public double getMin()
     {
-        List<Long> values = sample.values();
-        if (!values.isEmpty()) {
-            return Collections.min(values);
+        if (sample.size() == 0) {
+            return Double.NaN;
         }
 
-        return Double.NaN;
+        return sample.getMin();
     }
 
     @Managed
     public double getMax()
     {
-        List<Long> values = sample.values();
-        if (!values.isEmpty()) {
-            return Collections.max(values);
+        if (sample.size() == 0) {
+            return Double.NaN;
         }
 
-        return Double.NaN;
+        return sample.getMax();
     }
 
     @Managed
     public double getMean()
     {
-        List<Long> values = sample.values();
-
-        if (!values.isEmpty()) {
-            long sum = 0;
-            for (long value : values) {
-                sum += value;
-            }
-
-            return sum * 1.0 / values.size();
-        }
-
-        return Double.NaN;
+        return sample.getMean();
     }
 
     @Managed
@@ -0,0 +1,432 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.BasicSliceInput;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.SizeOf;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * <p>Tracks the most frequent keys in a stream using the Space-Saving algorithm, as described in
+ * "Efficient Computation of Frequent and Top-k Elements in Data Streams" by Metwally, Agrawal and El Abbadi.</p>
+ *
+ * <p>At most "capacity" keys are tracked, regardless of the number of distinct keys in the stream. When a new key
+ * arrives and all counters are in use, the key with the smallest count is replaced and the new key inherits its count.
+ * The count reported for a key is therefore an upper bound, and exceeds the actual count by at most the reported
+ * error, which is itself bounded by total count / capacity. Any key that occurs more often than that is guaranteed
+ * to be tracked.</p>
+ *
+ * <p>Sketches are mergeable as described in "Mergeable Summaries" by Agarwal et al.</p>
+ */
+@NotThreadSafe
+public class TopK
+{
+    private static final byte FORMAT_V1 = 1;
+
+    private static final Comparator<Counter> BY_COUNT_DESCENDING = Comparator.comparingLong((Counter counter) -> counter.count).reversed();
+
+    private final int capacity;
+
+    private final Map<Slice, Counter> counters;
+    // min-heap of the counters by count, so the counter to replace is always at the root
+    private final Counter[] heap;
+    private int size;
+
+    private long totalCount;
+
+    /**
+     * Create a sketch that tracks at most "capacity" keys
+     */
+    public TopK(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be > 0");
+
+        this.capacity = capacity;
+        this.counters = new HashMap<>();
+        this.heap = new Counter[capacity];
+    }
+
+    public TopK(TopK other)
+    {
+        this(other.capacity);
+
+        for (int i = 0; i < other.size; i++) {
+            Counter counter = other.heap[i];
+            insertCounter(new Counter(counter.key, counter.count, counter.error));
+        }
+        totalCount = other.totalCount;
+    }
+
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /**
+     * Sum of the counts added to this sketch, including those of keys that are no longer tracked
+     */
+    public long getTotalCount()
+    {
+        return totalCount;
+    }
+
+    /**
+     * Upper bound on the amount by which any count reported by this sketch exceeds the actual count of a key
+     */
+    public long getMaxError()
+    {
+        return size < capacity ? 0 : heap[0].count;
+    }
+
+    public void add(Slice key)
+    {
+        add(key, 1);
+    }
+
+    public void add(Slice key, long count)
+    {
+        checkNotNull(key, "key is null");
+        checkArgument(count > 0, "count must be > 0");
+
+        totalCount += count;
+
+        Counter counter = counters.get(key);
+        if (counter != null) {
+            counter.count += count;
+            siftDown(counter.heapIndex);
+            return;
+        }
+
+        // copy the key, so the sketch doesn't retain the buffer it came from
+        Slice copy = Slices.copyOf(key);
+
+        if (size < capacity) {
+            insertCounter(new Counter(copy, count, 0));
+            return;
+        }
+
+        // replace the key with the smallest count. The new key may have occurred that many times before.
+        counter = heap[0];
+        counters.remove(counter.key);
+
+        counter.key = copy;
+        counter.error = counter.count;
+        counter.count += count;
+        counters.put(copy, counter);
+
+        siftDown(0);
+    }
+
+    public void merge(TopK other)
+    {
+        checkArgument(capacity == other.capacity, "Expected sketch to have capacity %s, but was %s", capacity, other.capacity);
+
+        // a key that is not tracked by a full sketch may have occurred as many times as its smallest count
+        long minCount = getMaxError();
+        long otherMinCount = other.getMaxError();
+
+        Map<Slice, Counter> merged = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            Counter counter = heap[i];
+            merged.put(counter.key, new Counter(counter.key, counter.count + otherMinCount, counter.error + otherMinCount));
+        }
+        for (int i = 0; i < other.size; i++) {
+            Counter counter = other.heap[i];
+            Counter existing = merged.get(counter.key);
+            if (existing == null) {
+                merged.put(counter.key, new Counter(counter.key, counter.count + minCount, counter.error + minCount));
+            }
+            else {
+                // replace the bound on the count in the other sketch with the actual count
+                existing.count += counter.count - otherMinCount;
+                existing.error += counter.error - otherMinCount;
+            }
+        }
+
+        List<Counter> candidates = new ArrayList<>(merged.values());
+        candidates.sort(BY_COUNT_DESCENDING);
+
+        clearCounters();
+        for (Counter counter : candidates.subList(0, Math.min(capacity, candidates.size()))) {
+            insertCounter(counter);
+        }
+
+        totalCount += other.totalCount;
+    }
+
+    /**
+     * Returns the tracked keys, in decreasing order of count
+     */
+    public List<Entry> getTopEntries()
+    {
+        return getTopEntries(capacity);
+    }
+
+    /**
+     * Returns up to "limit" tracked keys, in decreasing order of count
+     */
+    public List<Entry> getTopEntries(int limit)
+    {
+        checkArgument(limit >= 0, "limit must be >= 0");
+
+        Counter[] sorted = Arrays.copyOf(heap, size);
+        Arrays.sort(sorted, BY_COUNT_DESCENDING);
+
+        ImmutableList.Builder<Entry> builder = ImmutableList.builder();
+        for (int i = 0; i < Math.min(limit, sorted.length); i++) {
+            builder.add(new Entry(sorted[i].key, sorted[i].count, sorted[i].error));
+        }
+        return builder.build();
+    }
+
+    public int estimatedSerializedSizeInBytes()
+    {
+        int size = SizeOf.SIZE_OF_BYTE + // format
+                SizeOf.SIZE_OF_INT + // capacity
+                SizeOf.SIZE_OF_LONG + // total count
+                SizeOf.SIZE_OF_INT; // number of entries
+
+        for (int i = 0; i < this.size; i++) {
+            size += SizeOf.SIZE_OF_INT + heap[i].key.length() + // key
+                    SizeOf.SIZE_OF_LONG + // count
+                    SizeOf.SIZE_OF_LONG; // error
+        }
+        return size;
+    }
+
+    public Slice serialize()
+    {
+        DynamicSliceOutput output = new DynamicSliceOutput(estimatedSerializedSizeInBytes())
+                .appendByte(FORMAT_V1)
+                .appendInt(capacity)
+                .appendLong(totalCount)
+                .appendInt(size);
+
+        for (int i = 0; i < size; i++) {
+            Counter counter = heap[i];
+            output.appendInt(counter.key.length())
+                    .appendBytes(counter.key)
+                    .appendLong(counter.count)
+                    .appendLong(counter.error);
+        }
+
+        return output.slice();
+    }
+
+    public static TopK deserialize(Slice serialized)
+    {
+        BasicSliceInput input = serialized.getInput();
+
+        byte format = input.readByte();
+        checkArgument(format == FORMAT_V1, "Invalid format: %s", format);
+
+        int capacity = input.readInt();
+        checkArgument(capacity > 0, "capacity must be > 0");
+
+        TopK result = new TopK(capacity);
+        result.totalCount = input.readLong();
+
+        int size = input.readInt();
+        checkArgument(size >= 0 && size <= capacity, "Invalid number of entries: %s", size);
+
+        for (int i = 0; i < size; i++) {
+            int keyLength = input.readInt();
+            checkArgument(keyLength >= 0 && keyLength <= input.available(), "Invalid key length: %s", keyLength);
+            Slice key = Slices.copyOf(input.readSlice(keyLength));
+
+            long count = input.readLong();
+            long error = input.readLong();
+            checkArgument(count > 0 && error >= 0 && error < count, "Invalid count for entry: count = %s, error = %s", count, error);
+            checkArgument(!result.counters.containsKey(key), "Duplicate key");
+
+            result.insertCounter(new Counter(key, count, error));
+        }
+
+        checkArgument(!input.isReadable(), "input is too big");
+
+        return result;
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("capacity", capacity)
+                .add("totalCount", totalCount)
+                .add("topEntries", getTopEntries(10))
+                .toString();
+    }
+
+    private void insertCounter(Counter counter)
+    {
+        counters.put(counter.key, counter);
+        heap[size] = counter;
+        counter.heapIndex = size;
+        size++;
+        siftUp(counter.heapIndex);
+    }
+
+    private void clearCounters()
+    {
+        counters.clear();
+        Arrays.fill(heap, 0, size, null);
+        size = 0;
+    }
+
+    private void siftUp(int index)
+    {
+        Counter counter = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heap[parent].count <= counter.count) {
+                break;
+            }
+            setHeapEntry(index, heap[parent]);
+            index = parent;
+        }
+        setHeapEntry(index, counter);
+    }
+
+    private void siftDown(int index)
+    {
+        Counter counter = heap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].count < heap[child].count) {
+                child++;
+            }
+            if (counter.count <= heap[child].count) {
+                break;
+            }
+            setHeapEntry(index, heap[child]);
+            index = child;
+        }
+        setHeapEntry(index, counter);
+    }
+
+    private void setHeapEntry(int index, Counter counter)
+    {
+        heap[index] = counter;
+        counter.heapIndex = index;
+    }
+
+    public static class Entry
+    {
+        private final Slice key;
+        private final long count;
+        private final long error;
+
+        public Entry(Slice key, long count, long error)
+        {
+            this.key = checkNotNull(key, "key is null");
+            this.count = count;
+            this.error = error;
+        }
+
+        public Slice getKey()
+        {
+            return key;
+        }
+
+        /**
+         * Upper bound on the number of times the key occurred
+         */
+        public long getCount()
+        {
+            return count;
+        }
+
+        /**
+         * Upper bound on the amount by which the count exceeds the actual number of occurrences
+         */
+        public long getError()
+        {
+            return error;
+        }
+
+        /**
+         * Lower bound on the number of times the key occurred
+         */
+        public long getGuaranteedCount()
+        {
+            return count - error;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return count == entry.count &&
+                    error == entry.error &&
+                    key.equals(entry.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(key, count, error);
+        }
+
+        @Override
+        public String toString()
+        {
+            return toStringHelper(this)
+                    .add("key", key.toStringUtf8())
+                    .add("count", count)
+                    .add("error", error)
+                    .toString();
+        }
+    }
+
+    private static class Counter
+    {
+        private Slice key;
+        private long count;
+        private long error;
+        private int heapIndex;
+
+        public Counter(Slice key, long count, long error)
+        {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import io.airlift.stats.TopK.Entry;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.MoreObjects.toStringHelper;
+import static com.google.common.base.Preconditions.checkArgument;
+import static io.airlift.slice.Slices.utf8Slice;
+
+/**
+ * Tracks the most frequent keys, such as request URIs or client addresses, and exposes them through JMX.
+ * <p>
+ * Keys are partitioned into stripes by hash, and each stripe is a separate {@link TopK} sketch with its own
+ * lock, so concurrent updates of different keys rarely contend. Since a key is only ever counted in one stripe,
+ * the top keys are the union of the top keys of each stripe, without the error introduced by merging sketches.
+ * Each stripe tracks up to "capacity" keys, so the memory used is bounded by the number of stripes times the capacity.
+ */
+@ThreadSafe
+public class TopKStat
+{
+    private static final int MAX_STRIPES = 16;
+
+    private final int capacity;
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public TopKStat(int capacity)
+    {
+        checkArgument(capacity > 0, "capacity must be > 0");
+        this.capacity = capacity;
+
+        int processors = Runtime.getRuntime().availableProcessors();
+        int stripeCount = Math.min(MAX_STRIPES, Integer.highestOneBit(Math.max(1, 2 * processors - 1)));
+
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(capacity);
+        }
+        mask = stripeCount - 1;
+    }
+
+    public void add(String key)
+    {
+        add(utf8Slice(key), 1);
+    }
+
+    public void add(Slice key)
+    {
+        add(key, 1);
+    }
+
+    public void add(Slice key, long count)
+    {
+        int hash = key.hashCode();
+        // spread the high bits, since only the low bits select the stripe
+        hash ^= hash >>> 16;
+
+        stripes[hash & mask].add(key, count);
+    }
+
+    @Managed
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    @Managed
+    public long getTotalCount()
+    {
+        long total = 0;
+        for (Stripe stripe : stripes) {
+            total += stripe.getTotalCount();
+        }
+        return total;
+    }
+
+    /**
+     * Upper bound on the amount by which any reported count exceeds the actual count of a key
+     */
+    @Managed
+    public long getMaxError()
+    {
+        long maxError = 0;
+        for (Stripe stripe : stripes) {
+            maxError = Math.max(maxError, stripe.getMaxError());
+        }
+        return maxError;
+    }
+
+    /**
+     * Returns the estimated count of the most frequent keys, in decreasing order of count
+     */
+    @Managed
+    public Map<String, Long> getTopEntries()
+    {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Entry entry : getTopEntries(capacity)) {
+            result.put(entry.getKey().toStringUtf8(), entry.getCount());
+        }
+        return result;
+    }
+
+    public List<Entry> getTopEntries(int limit)
+    {
+        checkArgument(limit >= 0, "limit must be >= 0");
+
+        List<Entry> entries = new ArrayList<>();
+        for (Stripe stripe : stripes) {
+            entries.addAll(stripe.getTopEntries(limit));
+        }
+        entries.sort(Comparator.comparingLong(Entry::getCount).reversed());
+
+        return ImmutableList.copyOf(entries.subList(0, Math.min(limit, entries.size())));
+    }
+
+    @Managed
+    public void reset()
+    {
+        for (Stripe stripe : stripes) {
+            stripe.reset();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return toStringHelper(this)
+                .add("capacity", capacity)
+                .add("topEntries", getTopEntries(10))
+                .toString();
+    }
+
+    private static class Stripe
+    {
+        private final int capacity;
+
+        @GuardedBy("this")
+        private TopK sketch;
+
+        public Stripe(int capacity)
+        {
+            this.capacity = capacity;
+            this.sketch = new TopK(capacity);
+        }
+
+        public synchronized void add(Slice key, long count)
+        {
+            sketch.add(key, count);
+        }
+
+        public synchronized long getTotalCount()
+        {
+            return sketch.getTotalCount();
+        }
+
+        public synchronized long getMaxError()
+        {
+            return sketch.getMaxError();
+        }
+
+        public synchronized List<Entry> getTopEntries(int limit)
+        {
+            return sketch.getTopEntries(limit);
+        }
+
+        public synchronized void reset()
+        {
+            sketch = new TopK(capacity);
+        }
+    }
+}
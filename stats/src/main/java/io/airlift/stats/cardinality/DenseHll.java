@@ -20,6 +20,7 @@ import io.airlift.slice.BasicSliceInput;
 import io.airlift.slice.DynamicSliceOutput;
 import io.airlift.slice.SizeOf;
 import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.openjdk.jol.info.ClassLayout;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -29,7 +30,9 @@ import java.util.HashSet;
 import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static com.google.common.base.Preconditions.checkState;
+import static io.airlift.slice.SizeOf.SIZE_OF_LONG;
 import static io.airlift.stats.cardinality.Utils.alpha;
 import static io.airlift.stats.cardinality.Utils.computeIndex;
 import static io.airlift.stats.cardinality.Utils.computeValue;
@@ -49,6 +52,25 @@ final class DenseHll
     private static final int DENSE_INSTANCE_SIZE = ClassLayout.parseClass(DenseHll.class).instanceSize();
     private static final int OVERFLOW_GROW_INCREMENT = 5;
 
+    // layout of the serialized format
+    private static final int FORMAT_TAG_OFFSET = 0;
+    private static final int INDEX_BIT_LENGTH_OFFSET = 1;
+    private static final int BASELINE_OFFSET = 2;
+    private static final int DELTAS_OFFSET = 3;
+
+    // lowest and highest bit of each of the 16 deltas packed in a long
+    private static final long LANE_LOW_BITS = 0x1111_1111_1111_1111L;
+    private static final long LANE_HIGH_BITS = 0x8888_8888_8888_8888L;
+
+    // sum of 2^-delta for the two deltas packed in each possible byte
+    private static final double[] PAIR_RECIPROCALS = new double[1 << Byte.SIZE];
+
+    static {
+        for (int i = 0; i < PAIR_RECIPROCALS.length; i++) {
+            PAIR_RECIPROCALS[i] = Math.scalb(1.0, -(i >>> BITS_PER_BUCKET)) + Math.scalb(1.0, -(i & BUCKET_MASK));
+        }
+    }
+
     private final byte indexBitLength;
     private byte baseline;
     private int baselineCount;
@@ -91,7 +113,7 @@ final class DenseHll
             int bucket = input.readShort();
             byte value = input.readByte();
             if (bucket >= 0 && value > 0) {
-                checkArgument(bucket <= numberOfBuckets, "Overflow bucket index is out of range");
+                checkArgument(bucket < numberOfBuckets, "Overflow bucket index is out of range");
                 overflows = 1;
                 overflowBuckets = new int[] { bucket };
                 overflowValues = new byte[] { value };
@@ -111,7 +133,7 @@ final class DenseHll
 
             for (int i = 0; i < overflows; i++) {
                 overflowBuckets[i] = input.readUnsignedShort();
-                checkArgument(overflowBuckets[i] <= numberOfBuckets, "Overflow bucket index is out of range");
+                checkArgument(overflowBuckets[i] < numberOfBuckets, "Overflow bucket index is out of range");
             }
 
             for (int i = 0; i < overflows; i++) {
@@ -147,6 +169,17 @@ final class DenseHll
         insert(index, value);
     }
 
+    @Override
+    public void insertHashes(long[] hashes, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, hashes.length);
+
+        for (int i = offset; i < offset + length; i++) {
+            long hash = hashes[i];
+            insert(computeIndex(hash, indexBitLength), computeValue(hash, indexBitLength));
+        }
+    }
+
     @Override
     public int estimatedInMemorySize()
     {
@@ -172,19 +205,75 @@ final class DenseHll
             return Math.round(linearCounting(baselineCount, numberOfBuckets));
         }
 
-        double sum = 0;
-        for (int i = 0; i < numberOfBuckets; i++) {
-            int value = getValue(i);
-            sum += 1.0 / (1L << value);
-        }
+        return estimateCardinality(indexBitLength, harmonicSum());
+    }
 
-        double estimate = (alpha(indexBitLength) * numberOfBuckets * numberOfBuckets) / sum;
-        estimate = correctBias(estimate);
+    private static long estimateCardinality(int indexBitLength, double harmonicSum)
+    {
+        int numberOfBuckets = numberOfBuckets(indexBitLength);
+
+        double estimate = (alpha(indexBitLength) * numberOfBuckets * numberOfBuckets) / harmonicSum;
+        estimate = correctBias(indexBitLength, estimate);
 
         return Math.round(estimate);
     }
 
-    private double correctBias(double rawEstimate)
+    /**
+     * Computes the sum of 2^-value over all buckets
+     */
+    @VisibleForTesting
+    double harmonicSum()
+    {
+        double sum = sumOfReciprocals(Slices.wrappedBuffer(deltas), 0, deltas.length);
+        for (int i = 0; i < overflows; i++) {
+            sum += overflowCorrection(overflowValues[i]);
+        }
+
+        // 2^-(baseline + delta) == 2^-baseline * 2^-delta, and scaling by a power of two is exact
+        return Math.scalb(sum, -baseline);
+    }
+
+    /**
+     * Computes the sum of 2^-delta over the packed deltas
+     */
+    private static double sumOfReciprocals(Slice deltas, int offset, int length)
+    {
+        // Each byte holds the deltas of two buckets, so the sum of 2^-delta for the pair can be looked up
+        // in a table. Two independent accumulators avoid serializing on a single addition chain.
+        double evenSum = 0;
+        double oddSum = 0;
+
+        int end = offset + length;
+        int wordEnd = offset + length - (length % SIZE_OF_LONG);
+
+        int position = offset;
+        for (; position < wordEnd; position += SIZE_OF_LONG) {
+            long word = deltas.getLong(position);
+            evenSum += PAIR_RECIPROCALS[(int) word & 0xFF] +
+                    PAIR_RECIPROCALS[(int) (word >>> 16) & 0xFF] +
+                    PAIR_RECIPROCALS[(int) (word >>> 32) & 0xFF] +
+                    PAIR_RECIPROCALS[(int) (word >>> 48) & 0xFF];
+            oddSum += PAIR_RECIPROCALS[(int) (word >>> 8) & 0xFF] +
+                    PAIR_RECIPROCALS[(int) (word >>> 24) & 0xFF] +
+                    PAIR_RECIPROCALS[(int) (word >>> 40) & 0xFF] +
+                    PAIR_RECIPROCALS[(int) (word >>> 56) & 0xFF];
+        }
+        for (; position < end; position++) {
+            evenSum += PAIR_RECIPROCALS[deltas.getUnsignedByte(position)];
+        }
+
+        return evenSum + oddSum;
+    }
+
+    /**
+     * Buckets with an overflow entry are counted as MAX_DELTA by {@link #sumOfReciprocals}
+     */
+    private static double overflowCorrection(int overflowValue)
+    {
+        return Math.scalb(1.0, -(MAX_DELTA + overflowValue)) - Math.scalb(1.0, -MAX_DELTA);
+    }
+
+    private static double correctBias(int indexBitLength, double rawEstimate)
     {
         double[] estimates = BiasCorrection.RAW_ESTIMATES[indexBitLength - 4];
         if (rawEstimate < estimates[0] || rawEstimate > estimates[estimates.length - 1]) {
@@ -214,7 +303,7 @@ final class DenseHll
         return rawEstimate - bias;
     }
 
-    private int search(double rawEstimate, double[] estimateCurve)
+    private static int search(double rawEstimate, double[] estimateCurve)
     {
         int low = 0;
         int high = estimateCurve.length - 1;
@@ -390,50 +479,82 @@ final class DenseHll
     private void adjustBaselineIfNeeded()
     {
         while (baselineCount == 0) {
-            baseline++;
-
-            for (int bucket = 0; bucket < numberOfBuckets(indexBitLength); ++bucket) {
-                int delta = getDelta(bucket);
-
-                boolean hasOverflow = false;
-                if (delta == MAX_DELTA) {
-                    // scan overflows
-                    for (int i = 0; i < overflows; i++) {
-                        if (overflowBuckets[i] == bucket) {
-                            hasOverflow = true;
-                            overflowValues[i]--;
-
-                            if (overflowValues[i] == 0) {
-                                int lastEntry = overflows - 1;
-                                if (i < lastEntry) {
-                                    // remove the entry by moving the last entry to this position
-                                    overflowBuckets[i] = overflowBuckets[lastEntry];
-                                    overflowValues[i] = overflowValues[lastEntry];
-
-                                    // clean up to make it easier to catch bugs
-                                    overflowBuckets[lastEntry] = -1;
-                                    overflowValues[lastEntry] = 0;
-                                }
-                                overflows--;
-                            }
-                            break;
-                        }
-                    }
-                }
-
-                if (!hasOverflow) {
-                    // getDelta is guaranteed to return a value greater than zero
-                    // because baselineCount is zero (i.e., number of deltas with zero value)
-                    // So it's safe to decrement here
-                    delta--;
-                    setDelta(bucket, delta);
-                }
-
-                if (delta == 0) {
-                    ++baselineCount;
-                }
+            // all deltas are greater than zero, so moving the baseline up by one doesn't lose any value
+            rebase(baseline + 1);
+        }
+    }
+
+    /**
+     * Moves the baseline up to the given value. Buckets with a value below the new baseline are raised to it.
+     */
+    private void rebase(int newBaseline)
+    {
+        int shift = newBaseline - baseline;
+
+        Slice slice = Slices.wrappedBuffer(deltas);
+        int wordBytes = wordAlignedLength(deltas);
+        for (int offset = 0; offset < wordBytes; offset += SIZE_OF_LONG) {
+            slice.setLong(offset, subtractDeltas(slice.getLong(offset), shift));
+        }
+        for (int offset = wordBytes; offset < deltas.length; offset++) {
+            deltas[offset] = (byte) subtractDeltas(deltas[offset] & 0xFF, shift);
+        }
+
+        // the deltas of overflow buckets were MAX_DELTA, so they have to be computed from the overflow value
+        int i = 0;
+        while (i < overflows) {
+            int bucket = overflowBuckets[i];
+            int delta = MAX_DELTA + overflowValues[i] - shift;
+            if (delta > MAX_DELTA) {
+                overflowValues[i] = (byte) (delta - MAX_DELTA);
+                setDelta(bucket, MAX_DELTA);
+                i++;
+            }
+            else {
+                setDelta(bucket, Math.max(delta, 0));
+                // the last entry takes this position, so don't advance
+                removeOverflow(i);
             }
         }
+
+        baseline = (byte) newBaseline;
+        baselineCount = countZeroDeltas();
+    }
+
+    private void removeOverflow(int index)
+    {
+        int lastEntry = overflows - 1;
+        if (index < lastEntry) {
+            // remove the entry by moving the last entry to this position
+            overflowBuckets[index] = overflowBuckets[lastEntry];
+            overflowValues[index] = overflowValues[lastEntry];
+        }
+
+        // clean up to make it easier to catch bugs
+        overflowBuckets[lastEntry] = -1;
+        overflowValues[lastEntry] = 0;
+        overflows--;
+    }
+
+    private int countZeroDeltas()
+    {
+        return countZeroDeltas(Slices.wrappedBuffer(deltas), 0, deltas.length);
+    }
+
+    private static int countZeroDeltas(Slice deltas, int offset, int length)
+    {
+        int end = offset + length;
+        int wordEnd = offset + length - (length % SIZE_OF_LONG);
+
+        int count = 0;
+        for (int position = offset; position < wordEnd; position += SIZE_OF_LONG) {
+            count += countZeroDeltas(deltas.getLong(position));
+        }
+        for (int position = wordEnd; position < end; position++) {
+            // the upper 14 lanes of a single byte are always zero
+            count += countZeroDeltas(deltas.getUnsignedByte(position)) - (Long.SIZE - Byte.SIZE) / BITS_PER_BUCKET;
+        }
+        return count;
     }
 
     /**
@@ -448,48 +569,165 @@ final class DenseHll
                     numberOfBuckets(other.indexBitLength)));
         }
 
-        int baseline = Math.max(this.baseline, other.baseline);
-        int baselineCount = 0;
+        mergeDeltas(Slices.wrappedBuffer(other.deltas), 0, other.baseline);
 
-        int overflows = 0;
-        int[] overflowBuckets = new int[OVERFLOW_GROW_INCREMENT];
-        byte[] overflowValues = new byte[OVERFLOW_GROW_INCREMENT];
+        // the overflow buckets of the other HLL may hold larger values than those merged above
+        for (int i = 0; i < other.overflows; i++) {
+            insert(other.overflowBuckets[i], other.baseline + MAX_DELTA + other.overflowValues[i]);
+        }
 
-        int numberOfBuckets = numberOfBuckets(indexBitLength);
-        for (int i = 0; i < numberOfBuckets; i++) {
-            int value = Math.max(getValue(i), other.getValue(i));
+        // all baseline values in one of the HLLs lost to the values
+        // in the other HLL, so we need to adjust the final baseline
+        adjustBaselineIfNeeded();
 
-            int delta = value - baseline;
-            if (delta == 0) {
-                baselineCount++;
+        return this;
+    }
+
+    /**
+     * Merges a serialized dense HLL into this one without deserializing it
+     */
+    void mergeWith(Slice serialized)
+    {
+        byte formatTag = serialized.getByte(FORMAT_TAG_OFFSET);
+        checkArgument(formatTag == Format.DENSE_V1.getTag() || formatTag == Format.DENSE_V2.getTag(), "Invalid format tag");
+
+        int otherIndexBitLength = serialized.getByte(INDEX_BIT_LENGTH_OFFSET);
+        validatePrefixLength(otherIndexBitLength);
+        if (indexBitLength != otherIndexBitLength) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot merge HLLs with different number of buckets: %s vs %s",
+                    numberOfBuckets(indexBitLength),
+                    numberOfBuckets(otherIndexBitLength)));
+        }
+
+        int otherBaseline = serialized.getByte(BASELINE_OFFSET);
+        int overflowsOffset = DELTAS_OFFSET + deltas.length;
+        int overflows = validateOverflows(serialized, formatTag, indexBitLength, overflowsOffset);
+
+        mergeDeltas(serialized, DELTAS_OFFSET, otherBaseline);
+
+        for (int i = 0; i < overflows; i++) {
+            insert(getOverflowBucket(serialized, formatTag, overflowsOffset, overflows, i),
+                    otherBaseline + MAX_DELTA + getOverflowValue(serialized, formatTag, overflowsOffset, overflows, i));
+        }
+
+        adjustBaselineIfNeeded();
+    }
+
+    /**
+     * Merges the packed deltas of another HLL. Overflow buckets are MAX_DELTA in both HLLs, which is the
+     * maximum, so the overflows of this HLL remain valid, but those of the other HLL need to be applied by the caller.
+     */
+    private void mergeDeltas(Slice otherDeltas, int otherOffset, int otherBaseline)
+    {
+        // only move the baseline of this HLL if needed, since it requires touching every bucket
+        if (baseline < otherBaseline) {
+            rebase(otherBaseline);
+        }
+
+        // the deltas of the other HLL, relative to the baseline of this one, are lower by this
+        // amount. Those that end up below the baseline lose against the values in this HLL.
+        int otherShift = baseline - otherBaseline;
+
+        // merge 16 deltas at a time
+        Slice slice = Slices.wrappedBuffer(deltas);
+        int wordBytes = wordAlignedLength(deltas);
+        for (int offset = 0; offset < wordBytes; offset += SIZE_OF_LONG) {
+            long otherWord = otherDeltas.getLong(otherOffset + offset);
+            if (otherShift > 0) {
+                otherWord = subtractDeltas(otherWord, otherShift);
             }
-            else if (delta > MAX_DELTA) {
-                // grow overflows arrays if necessary
-                overflowBuckets = Ints.ensureCapacity(overflowBuckets, overflows + 1, OVERFLOW_GROW_INCREMENT);
-                overflowValues = Bytes.ensureCapacity(overflowValues, overflows + 1, OVERFLOW_GROW_INCREMENT);
+            slice.setLong(offset, maxDeltas(slice.getLong(offset), otherWord));
+        }
+        for (int offset = wordBytes; offset < deltas.length; offset++) {
+            long otherByte = subtractDeltas(otherDeltas.getUnsignedByte(otherOffset + offset), otherShift);
+            deltas[offset] = (byte) maxDeltas(deltas[offset] & 0xFF, otherByte);
+        }
 
-                overflowBuckets[overflows] = i;
-                overflowValues[overflows] = (byte) (delta - MAX_DELTA);
+        baselineCount = countZeroDeltas();
+    }
 
-                overflows++;
+    /**
+     * Estimates the cardinality of a serialized dense HLL without deserializing it
+     */
+    static long cardinality(Slice serialized)
+    {
+        byte formatTag = serialized.getByte(FORMAT_TAG_OFFSET);
+        checkArgument(formatTag == Format.DENSE_V1.getTag() || formatTag == Format.DENSE_V2.getTag(), "Invalid format tag");
+
+        int indexBitLength = serialized.getByte(INDEX_BIT_LENGTH_OFFSET);
+        validatePrefixLength(indexBitLength);
+        int numberOfBuckets = numberOfBuckets(indexBitLength);
 
-                delta = MAX_DELTA;
+        int baseline = serialized.getByte(BASELINE_OFFSET);
+        int deltasLength = numberOfBuckets / 2;
+        int overflowsOffset = DELTAS_OFFSET + deltasLength;
+        int overflows = validateOverflows(serialized, formatTag, indexBitLength, overflowsOffset);
+
+        if (baseline == 0) {
+            int baselineCount = countZeroDeltas(serialized, DELTAS_OFFSET, deltasLength);
+            if (baselineCount > (LINEAR_COUNTING_MIN_EMPTY_BUCKETS * numberOfBuckets)) {
+                return Math.round(linearCounting(baselineCount, numberOfBuckets));
             }
+        }
 
-            setDelta(i, delta);
+        double sum = sumOfReciprocals(serialized, DELTAS_OFFSET, deltasLength);
+        for (int i = 0; i < overflows; i++) {
+            sum += overflowCorrection(getOverflowValue(serialized, formatTag, overflowsOffset, overflows, i));
         }
 
-        this.baseline = (byte) baseline;
-        this.baselineCount = baselineCount;
-        this.overflows = overflows;
-        this.overflowBuckets = overflowBuckets;
-        this.overflowValues = overflowValues;
+        return estimateCardinality(indexBitLength, Math.scalb(sum, -baseline));
+    }
 
-        // all baseline values in one of the HLLs lost to the values
-        // in the other HLL, so we need to adjust the final baseline
-        adjustBaselineIfNeeded();
+    /**
+     * Validates the overflow entries of a serialized HLL, and returns their number
+     */
+    private static int validateOverflows(Slice serialized, byte formatTag, int indexBitLength, int overflowsOffset)
+    {
+        int numberOfBuckets = numberOfBuckets(indexBitLength);
 
-        return this;
+        int overflows;
+        int expectedSize;
+        if (formatTag == Format.DENSE_V1.getTag()) {
+            expectedSize = overflowsOffset + SizeOf.SIZE_OF_SHORT + SizeOf.SIZE_OF_BYTE;
+            checkArgument(serialized.length() == expectedSize, "Invalid serialized size: %s", serialized.length());
+
+            // for backward compatibility
+            int bucket = serialized.getShort(overflowsOffset);
+            byte value = serialized.getByte(overflowsOffset + SizeOf.SIZE_OF_SHORT);
+            overflows = (bucket >= 0 && value > 0) ? 1 : 0;
+        }
+        else {
+            checkArgument(serialized.length() >= overflowsOffset + SizeOf.SIZE_OF_SHORT, "Invalid serialized size: %s", serialized.length());
+            overflows = serialized.getShort(overflowsOffset) & 0xFFFF;
+            checkArgument(overflows <= numberOfBuckets, "Overflow entries is greater than actual number of buckets (possibly corrupt input)");
+
+            expectedSize = overflowsOffset + SizeOf.SIZE_OF_SHORT + (SizeOf.SIZE_OF_SHORT + SizeOf.SIZE_OF_BYTE) * overflows;
+            checkArgument(serialized.length() == expectedSize, "Invalid serialized size: %s", serialized.length());
+        }
+
+        for (int i = 0; i < overflows; i++) {
+            checkArgument(getOverflowBucket(serialized, formatTag, overflowsOffset, overflows, i) < numberOfBuckets, "Overflow bucket index is out of range");
+            checkArgument(getOverflowValue(serialized, formatTag, overflowsOffset, overflows, i) > 0, "Overflow bucket value must be > 0");
+        }
+
+        return overflows;
+    }
+
+    private static int getOverflowBucket(Slice serialized, byte formatTag, int overflowsOffset, int overflows, int index)
+    {
+        if (formatTag == Format.DENSE_V1.getTag()) {
+            return serialized.getShort(overflowsOffset);
+        }
+        return serialized.getShort(overflowsOffset + SizeOf.SIZE_OF_SHORT + SizeOf.SIZE_OF_SHORT * index) & 0xFFFF;
+    }
+
+    private static int getOverflowValue(Slice serialized, byte formatTag, int overflowsOffset, int overflows, int index)
+    {
+        if (formatTag == Format.DENSE_V1.getTag()) {
+            return serialized.getByte(overflowsOffset + SizeOf.SIZE_OF_SHORT);
+        }
+        return serialized.getByte(overflowsOffset + SizeOf.SIZE_OF_SHORT + SizeOf.SIZE_OF_SHORT * overflows + index);
     }
 
     public static int estimatedInMemorySize(int indexBitLength)
@@ -509,6 +747,56 @@ final class DenseHll
         return ((~bucket) & 1) << 2;
     }
 
+    private static int wordAlignedLength(byte[] deltas)
+    {
+        return deltas.length - (deltas.length % SIZE_OF_LONG);
+    }
+
+    /**
+     * Lane-wise maximum of 16 packed deltas
+     */
+    private static long maxDeltas(long first, long second)
+    {
+        long mask = greaterOrEqualMask(first, second);
+        return (first & mask) | (second & ~mask);
+    }
+
+    /**
+     * Lane-wise subtraction of the given amount from 16 packed deltas. Deltas lower than the amount become zero.
+     */
+    private static long subtractDeltas(long deltas, int amount)
+    {
+        if (amount > MAX_DELTA) {
+            return 0;
+        }
+
+        long subtrahend = LANE_LOW_BITS * amount;
+        long difference = ((deltas | LANE_HIGH_BITS) - (subtrahend & ~LANE_HIGH_BITS)) ^ ((deltas ^ ~subtrahend) & LANE_HIGH_BITS);
+        return difference & greaterOrEqualMask(deltas, subtrahend);
+    }
+
+    /**
+     * Returns a mask with all the bits set in the lanes where first >= second
+     */
+    private static long greaterOrEqualMask(long first, long second)
+    {
+        // the high bit of each lane is set if the lower three bits of first are >= those of second.
+        // Setting the high bit of first before subtracting prevents borrows from crossing lanes.
+        long lowerBitsGreaterOrEqual = (first | LANE_HIGH_BITS) - (second & ~LANE_HIGH_BITS);
+
+        // first >= second if its high bit is greater, or if the high bits are equal and the lower bits compare >=
+        long greaterOrEqual = ((first & ~second) | (~(first ^ second) & lowerBitsGreaterOrEqual)) & LANE_HIGH_BITS;
+
+        // spread the high bit to the whole lane
+        return (greaterOrEqual >>> (BITS_PER_BUCKET - 1)) * BUCKET_MASK;
+    }
+
+    private static int countZeroDeltas(long deltas)
+    {
+        long nonZero = (deltas | (deltas >>> 1) | (deltas >>> 2) | (deltas >>> 3)) & LANE_LOW_BITS;
+        return Long.SIZE / BITS_PER_BUCKET - Long.bitCount(nonZero);
+    }
+
     private static void validatePrefixLength(int indexBitLength)
     {
         checkArgument(indexBitLength >= 1 && indexBitLength <= 16, "indexBitLength is out of range");
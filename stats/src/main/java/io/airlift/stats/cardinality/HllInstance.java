@@ -20,6 +20,8 @@ interface HllInstance
 {
     void insertHash(long hash);
 
+    void insertHashes(long[] hashes, int offset, int length);
+
     long cardinality();
 
     int getIndexBitLength();
@@ -18,6 +18,8 @@ import io.airlift.slice.Murmur3;
 import io.airlift.slice.Slice;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static io.airlift.slice.SizeOf.SIZE_OF_INT;
 import static io.airlift.stats.cardinality.Utils.indexBitLength;
 
 public class HyperLogLog
@@ -51,6 +53,53 @@ public class HyperLogLog
         throw new IllegalArgumentException("Cannot deserialize HyperLogLog");
     }
 
+    /**
+     * Estimates the cardinality of a serialized HyperLogLog without deserializing it.
+     * Equivalent to {@code newInstance(serialized).cardinality()}.
+     */
+    public static long cardinality(Slice serialized)
+    {
+        checkArgument(serialized.getByte(0) != Format.SPARSE_V1.getTag(), "Sparse v1 encoding no longer supported");
+
+        if (SparseHll.canDeserialize(serialized)) {
+            return SparseHll.cardinality(serialized);
+        }
+        else if (DenseHll.canDeserialize(serialized)) {
+            return DenseHll.cardinality(serialized);
+        }
+
+        throw new IllegalArgumentException("Cannot deserialize HyperLogLog");
+    }
+
+    /**
+     * Merges two serialized HyperLogLogs, reading their encodings directly instead of deserializing
+     * both of them. Equivalent to merging the deserialized instances and serializing the result.
+     */
+    public static Slice merge(Slice first, Slice second)
+    {
+        checkArgument(first.getByte(0) != Format.SPARSE_V1.getTag() && second.getByte(0) != Format.SPARSE_V1.getTag(), "Sparse v1 encoding no longer supported");
+        checkArgument(SparseHll.canDeserialize(first) || DenseHll.canDeserialize(first), "Cannot deserialize HyperLogLog");
+        checkArgument(SparseHll.canDeserialize(second) || DenseHll.canDeserialize(second), "Cannot deserialize HyperLogLog");
+
+        if (SparseHll.canDeserialize(first) && SparseHll.canDeserialize(second)) {
+            return SparseHll.merge(first, second);
+        }
+
+        // the result is dense, so only the dense input needs to be decoded (merging is commutative)
+        Slice dense = DenseHll.canDeserialize(first) ? first : second;
+        Slice other = (dense == first) ? second : first;
+
+        DenseHll result = new DenseHll(dense);
+        if (DenseHll.canDeserialize(other)) {
+            result.mergeWith(other);
+        }
+        else {
+            SparseHll.mergeInto(result, other);
+        }
+
+        return result.serialize();
+    }
+
     public void add(long value)
     {
         addHash(Murmur3.hash64(value));
@@ -76,6 +125,36 @@ public class HyperLogLog
         }
     }
 
+    /**
+     * Adds a batch of values that have already been hashed. This is equivalent to calling
+     * {@link #addHash(long)} for each of them, but amortizes the cost of maintaining the
+     * sparse representation over the batch.
+     */
+    public void addHashes(long[] hashes, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, hashes.length);
+
+        int position = offset;
+        int end = offset + length;
+        while (position < end && instance instanceof SparseHll) {
+            SparseHll sparse = (SparseHll) instance;
+
+            // limit the batch to the number of new entries that would make the sparse
+            // representation larger than the dense one, since it's converted at that point
+            int capacity = (DenseHll.estimatedInMemorySize(sparse.getIndexBitLength()) - sparse.estimatedInMemorySize()) / SIZE_OF_INT + 1;
+            int batch = Math.min(end - position, capacity);
+
+            sparse.insertHashes(hashes, position, batch);
+            position += batch;
+
+            instance = makeDenseIfNecessary(sparse);
+        }
+
+        if (position < end) {
+            instance.insertHashes(hashes, position, end - position);
+        }
+    }
+
     public void mergeWith(HyperLogLog other)
     {
         if (instance instanceof SparseHll && other.instance instanceof SparseHll) {
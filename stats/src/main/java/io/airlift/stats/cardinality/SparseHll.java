@@ -20,6 +20,7 @@ import io.airlift.slice.BasicSliceInput;
 import io.airlift.slice.DynamicSliceOutput;
 import io.airlift.slice.SizeOf;
 import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import org.openjdk.jol.info.ClassLayout;
 
 import javax.annotation.concurrent.NotThreadSafe;
@@ -27,6 +28,7 @@ import javax.annotation.concurrent.NotThreadSafe;
 import java.util.Arrays;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 import static com.google.common.base.Preconditions.checkState;
 import static io.airlift.stats.cardinality.Utils.computeIndex;
 import static io.airlift.stats.cardinality.Utils.linearCounting;
@@ -45,6 +47,12 @@ final class SparseHll
     private static final int VALUE_MASK = (1 << VALUE_BITS) - 1;
     private static final int EXTENDED_PREFIX_BITS = Integer.SIZE - VALUE_BITS;
 
+    // layout of the serialized format
+    private static final int FORMAT_TAG_OFFSET = 0;
+    private static final int INDEX_BIT_LENGTH_OFFSET = 1;
+    private static final int NUMBER_OF_ENTRIES_OFFSET = 2;
+    private static final int ENTRIES_OFFSET = 4;
+
     private final byte indexBitLength;
     private short numberOfEntries;
     private int[] entries;
@@ -81,11 +89,146 @@ final class SparseHll
         return serialized.getByte(0) == Format.SPARSE_V2.getTag();
     }
 
-    public void insertHash(long hash)
+    /**
+     * Estimates the cardinality of a serialized sparse HLL without deserializing it
+     */
+    static long cardinality(Slice serialized)
+    {
+        int numberOfEntries = validateSerialized(serialized);
+        return cardinality(numberOfEntries);
+    }
+
+    /**
+     * Inserts the entries of a serialized sparse HLL into a dense HLL without deserializing it
+     */
+    static void mergeInto(DenseHll result, Slice serialized)
+    {
+        int numberOfEntries = validateSerialized(serialized);
+        checkIndexBitLength(result.getIndexBitLength(), serialized.getByte(INDEX_BIT_LENGTH_OFFSET));
+
+        for (int i = 0; i < numberOfEntries; i++) {
+            insertEntry(result, serialized.getInt(ENTRIES_OFFSET + SizeOf.SIZE_OF_INT * i));
+        }
+    }
+
+    /**
+     * Merges two serialized sparse HLLs without deserializing them. The result is
+     * serialized in the dense format if it's smaller in that representation.
+     */
+    static Slice merge(Slice first, Slice second)
+    {
+        int firstEntries = validateSerialized(first);
+        int secondEntries = validateSerialized(second);
+
+        byte indexBitLength = first.getByte(INDEX_BIT_LENGTH_OFFSET);
+        checkIndexBitLength(indexBitLength, second.getByte(INDEX_BIT_LENGTH_OFFSET));
+
+        // count the entries first, so the result can be written into a slice of the exact size
+        int numberOfEntries = 0;
+        int firstIndex = 0;
+        int secondIndex = 0;
+        while (firstIndex < firstEntries && secondIndex < secondEntries) {
+            int left = decodeBucketIndex(getEntry(first, firstIndex));
+            int right = decodeBucketIndex(getEntry(second, secondIndex));
+            if (left <= right) {
+                firstIndex++;
+            }
+            if (right <= left) {
+                secondIndex++;
+            }
+            numberOfEntries++;
+        }
+        numberOfEntries += (firstEntries - firstIndex) + (secondEntries - secondIndex);
+
+        if (SPARSE_INSTANCE_SIZE + SizeOf.SIZE_OF_INT * numberOfEntries > DenseHll.estimatedInMemorySize(indexBitLength)) {
+            DenseHll result = new DenseHll(indexBitLength);
+            mergeInto(result, first);
+            mergeInto(result, second);
+            return result.serialize();
+        }
+
+        Slice result = Slices.allocate(ENTRIES_OFFSET + SizeOf.SIZE_OF_INT * numberOfEntries);
+        result.setByte(FORMAT_TAG_OFFSET, Format.SPARSE_V2.getTag());
+        result.setByte(INDEX_BIT_LENGTH_OFFSET, indexBitLength);
+        result.setShort(NUMBER_OF_ENTRIES_OFFSET, numberOfEntries);
+
+        int index = 0;
+        firstIndex = 0;
+        secondIndex = 0;
+        while (firstIndex < firstEntries && secondIndex < secondEntries) {
+            int leftEntry = getEntry(first, firstIndex);
+            int rightEntry = getEntry(second, secondIndex);
+            int left = decodeBucketIndex(leftEntry);
+            int right = decodeBucketIndex(rightEntry);
+
+            int entry;
+            if (left < right) {
+                entry = leftEntry;
+                firstIndex++;
+            }
+            else if (left > right) {
+                entry = rightEntry;
+                secondIndex++;
+            }
+            else {
+                entry = encode(left, Math.max(decodeBucketValue(leftEntry), decodeBucketValue(rightEntry)));
+                firstIndex++;
+                secondIndex++;
+            }
+            setEntry(result, index++, entry);
+        }
+
+        while (firstIndex < firstEntries) {
+            setEntry(result, index++, getEntry(first, firstIndex++));
+        }
+
+        while (secondIndex < secondEntries) {
+            setEntry(result, index++, getEntry(second, secondIndex++));
+        }
+
+        return result;
+    }
+
+    /**
+     * Validates the header and size of a serialized sparse HLL, and returns its number of entries
+     */
+    private static int validateSerialized(Slice serialized)
+    {
+        checkArgument(serialized.length() >= ENTRIES_OFFSET, "input is too small");
+        checkArgument(serialized.getByte(FORMAT_TAG_OFFSET) == Format.SPARSE_V2.getTag(), "invalid format tag");
+        validatePrefixLength(serialized.getByte(INDEX_BIT_LENGTH_OFFSET));
+
+        int numberOfEntries = serialized.getShort(NUMBER_OF_ENTRIES_OFFSET);
+        checkArgument(numberOfEntries >= 0, "invalid number of entries: %s", numberOfEntries);
+        checkArgument(serialized.length() == ENTRIES_OFFSET + SizeOf.SIZE_OF_INT * numberOfEntries, "input size does not match the number of entries");
+
+        return numberOfEntries;
+    }
+
+    private static void checkIndexBitLength(int indexBitLength, int otherIndexBitLength)
+    {
+        if (indexBitLength != otherIndexBitLength) {
+            throw new IllegalArgumentException(String.format(
+                    "Cannot merge HLLs with different number of buckets: %s vs %s",
+                    numberOfBuckets(indexBitLength),
+                    numberOfBuckets(otherIndexBitLength)));
+        }
+    }
+
+    private static int getEntry(Slice serialized, int index)
+    {
+        return serialized.getInt(ENTRIES_OFFSET + SizeOf.SIZE_OF_INT * index);
+    }
+
+    private static void setEntry(Slice serialized, int index, int entry)
     {
-        // TODO: investigate whether accumulate, sort and merge results in better performance due to avoiding the shift+insert in every call
+        serialized.setInt(ENTRIES_OFFSET + SizeOf.SIZE_OF_INT * index, entry);
+    }
 
-        int position = searchBucket(Utils.computeIndex(hash, EXTENDED_PREFIX_BITS));
+    public void insertHash(long hash)
+    {
+        int bucketIndex = computeIndex(hash, EXTENDED_PREFIX_BITS);
+        int position = searchBucket(bucketIndex);
 
         // add entry if missing
         if (position < 0) {
@@ -105,14 +248,49 @@ final class SparseHll
         }
         else {
             int currentEntry = entries[position];
-            int newValue = Utils.computeValue(hash, EXTENDED_PREFIX_BITS);
+            int newValue = numberOfLeadingZeros(hash, EXTENDED_PREFIX_BITS);
 
-            if (decodeBucketValue(currentEntry) > newValue) {
-                entries[position] = encode(position, newValue);
+            if (newValue > decodeBucketValue(currentEntry)) {
+                entries[position] = encode(bucketIndex, newValue);
             }
         }
     }
 
+    /**
+     * Inserts a batch of hashes. Instead of shifting the entries for every new bucket, the hashes
+     * are encoded, sorted and merged with the existing entries in a single pass.
+     */
+    @Override
+    public void insertHashes(long[] hashes, int offset, int length)
+    {
+        checkPositionIndexes(offset, offset + length, hashes.length);
+        checkArgument(numberOfEntries + length <= Short.MAX_VALUE, "batch is too large: %s", length);
+
+        if (length == 0) {
+            return;
+        }
+
+        int[] batch = new int[length];
+        for (int i = 0; i < length; i++) {
+            // flip the sign bit so that the signed sort orders the entries by their unsigned bucket index
+            batch[i] = encode(hashes[offset + i]) ^ Integer.MIN_VALUE;
+        }
+        Arrays.sort(batch);
+
+        // entries for the same bucket are adjacent and ordered by value, so keep the last one
+        int batchEntries = 0;
+        for (int i = 0; i < length; i++) {
+            int entry = batch[i] ^ Integer.MIN_VALUE;
+            if (batchEntries > 0 && decodeBucketIndex(batch[batchEntries - 1]) == decodeBucketIndex(entry)) {
+                batchEntries--;
+            }
+            batch[batchEntries++] = entry;
+        }
+
+        entries = mergeEntries(entries, numberOfEntries, batch, batchEntries);
+        numberOfEntries = (short) entries.length;
+    }
+
     private int encode(long hash)
     {
         return encode(computeIndex(hash, EXTENDED_PREFIX_BITS), numberOfLeadingZeros(hash, EXTENDED_PREFIX_BITS));
@@ -149,27 +327,32 @@ final class SparseHll
         DenseHll result = new DenseHll(indexBitLength);
 
         for (int i = 0; i < numberOfEntries; i++) {
-            int entry = entries[i];
+            insertEntry(result, entries[i]);
+        }
 
-            // The leading EXTENDED_BITS_LENGTH are a proper subset of the original hash.
-            // Since we're guaranteed that indexBitLength is <= EXTENDED_BITS_LENGTH,
-            // the value stored in those bits corresponds to the bucket index in the dense HLL
-            int bucket = decodeBucketIndex(indexBitLength, entry);
+        return result;
+    }
 
-            // compute the number of zeros between indexBitLength and EXTENDED_BITS_LENGTH
-            int zeros = Integer.numberOfLeadingZeros(entry << indexBitLength);
+    private static void insertEntry(DenseHll result, int entry)
+    {
+        int indexBitLength = result.getIndexBitLength();
 
-            // if zeros > EXTENDED_BITS_LENGTH - indexBits, it means all those bits were zeros,
-            // so look at the entry value, which contains the number of leading 0 *after* EXTENDED_BITS_LENGTH
-            int bits = EXTENDED_PREFIX_BITS - indexBitLength;
-            if (zeros > bits) {
-                zeros = bits + decodeBucketValue(entry);
-            }
+        // The leading EXTENDED_BITS_LENGTH are a proper subset of the original hash.
+        // Since we're guaranteed that indexBitLength is <= EXTENDED_BITS_LENGTH,
+        // the value stored in those bits corresponds to the bucket index in the dense HLL
+        int bucket = decodeBucketIndex(indexBitLength, entry);
+
+        // compute the number of zeros between indexBitLength and EXTENDED_BITS_LENGTH
+        int zeros = Integer.numberOfLeadingZeros(entry << indexBitLength);
 
-            result.insert(bucket, zeros + 1); // + 1 because HLL stores leading number of zeros + 1
+        // if zeros > EXTENDED_BITS_LENGTH - indexBits, it means all those bits were zeros,
+        // so look at the entry value, which contains the number of leading 0 *after* EXTENDED_BITS_LENGTH
+        int bits = EXTENDED_PREFIX_BITS - indexBitLength;
+        if (zeros > bits) {
+            zeros = bits + decodeBucketValue(entry);
         }
 
-        return result;
+        result.insert(bucket, zeros + 1); // + 1 because HLL stores leading number of zeros + 1
     }
 
     @Override
@@ -178,6 +361,11 @@ final class SparseHll
         // Estimate the cardinality using linear counting over the theoretical 2^EXTENDED_BITS_LENGTH buckets available due
         // to the fact that we're recording the raw leading EXTENDED_BITS_LENGTH of the hash. This produces much better precision
         // while in the sparse regime.
+        return cardinality(numberOfEntries);
+    }
+
+    private static long cardinality(int numberOfEntries)
+    {
         int totalBuckets = numberOfBuckets(EXTENDED_PREFIX_BITS);
         int zeroBuckets = totalBuckets - numberOfEntries;
 
@@ -225,35 +413,40 @@ final class SparseHll
 
     private int[] mergeEntries(SparseHll other)
     {
-        int[] result = new int[numberOfEntries + other.numberOfEntries];
+        return mergeEntries(entries, numberOfEntries, other.entries, other.numberOfEntries);
+    }
+
+    private static int[] mergeEntries(int[] leftEntries, int leftLength, int[] rightEntries, int rightLength)
+    {
+        int[] result = new int[leftLength + rightLength];
         int leftIndex = 0;
         int rightIndex = 0;
 
         int index = 0;
-        while (leftIndex < numberOfEntries && rightIndex < other.numberOfEntries) {
-            int left = decodeBucketIndex(entries[leftIndex]);
-            int right = decodeBucketIndex(other.entries[rightIndex]);
+        while (leftIndex < leftLength && rightIndex < rightLength) {
+            int left = decodeBucketIndex(leftEntries[leftIndex]);
+            int right = decodeBucketIndex(rightEntries[rightIndex]);
 
             if (left < right) {
-                result[index++] = entries[leftIndex++];
+                result[index++] = leftEntries[leftIndex++];
             }
             else if (left > right) {
-                result[index++] = other.entries[rightIndex++];
+                result[index++] = rightEntries[rightIndex++];
             }
             else {
-                int value = Math.max(decodeBucketValue(entries[leftIndex]), decodeBucketValue(other.entries[rightIndex]));
+                int value = Math.max(decodeBucketValue(leftEntries[leftIndex]), decodeBucketValue(rightEntries[rightIndex]));
                 result[index++] = encode(left, value);
                 leftIndex++;
                 rightIndex++;
             }
         }
 
-        while (leftIndex < numberOfEntries) {
-            result[index++] = entries[leftIndex++];
+        while (leftIndex < leftLength) {
+            result[index++] = leftEntries[leftIndex++];
         }
 
-        while (rightIndex < other.numberOfEntries) {
-            result[index++] = other.entries[rightIndex++];
+        while (rightIndex < rightLength) {
+            result[index++] = rightEntries[rightIndex++];
         }
 
         return Arrays.copyOf(result, index);
@@ -1,40 +1,109 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
 package io.airlift.stats;
 
-import io.airlift.testing.TestingTicker;
-import io.airlift.units.Duration;
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.Slice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.RunnerException;
 
-import java.util.Random;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * {@link QuantileDigest} is not thread safe, so each thread works on its own digests. Running at several thread
+ * counts measures how the digest operations scale, without contention on the digest itself.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(3)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
 public class BenchmarkQuantileDigest
 {
-    public static void main(String[] args)
-            throws Exception
+    private static final List<Double> QUANTILES = ImmutableList.of(0.5, 0.75, 0.9, 0.95, 0.99);
+
+    @Benchmark
+    public QuantileDigest benchmarkAdd(AddData data)
     {
-        Duration warmupTime = new Duration(3, TimeUnit.SECONDS);
-        Duration benchmarkTime = new Duration(5, TimeUnit.SECONDS);
+        data.digest.add(ThreadLocalRandom.current().nextLong(100_000));
+        return data.digest;
+    }
 
-        final QuantileDigest digest = new QuantileDigest(0.01, 0, new TestingTicker(), true);
-        final Random random = new Random();
+    @Benchmark
+    public QuantileDigest benchmarkMerge(Data data)
+    {
+        QuantileDigest merged = new QuantileDigest(data.digest);
+        merged.merge(data.other);
+        return merged;
+    }
 
-        Benchmark.Results results = Benchmark.run(new Runnable() {
-            public void run()
-            {
-                digest.add(Math.abs(random.nextInt(100000)));
-            }
-        }, warmupTime, benchmarkTime);
+    @Benchmark
+    public List<Long> benchmarkQuantiles(Data data)
+    {
+        return data.digest.getQuantiles(QUANTILES);
+    }
 
-        digest.validate();
+    @Benchmark
+    public Slice benchmarkSerialize(Data data)
+    {
+        return data.digest.serialize();
+    }
 
-        System.out.println(String.format("Processed %s entries in %s ms. Insertion rate = %s entries/s (%.4fµs per operation)",
-                results.getOperations(),
-                results.getTime().getValue(TimeUnit.MILLISECONDS),
-                results.getOperationsPerSecond(),
-                results.getTimePerOperation().getValue(TimeUnit.MICROSECONDS)));
+    @State(Scope.Thread)
+    public static class AddData
+    {
+        public QuantileDigest digest;
 
-        System.out.println(String.format("Compressions: %s, %s entries/compression",
-                digest.getCompressions(),
-                digest.getCount() / digest.getCompressions()));
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            digest = new QuantileDigest(0.01, ExponentialDecay.oneMinute());
+        }
     }
 
+    @State(Scope.Thread)
+    public static class Data
+    {
+        public QuantileDigest digest;
+        public QuantileDigest other;
+
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            // fresh digests, so each iteration measures digests of the same size
+            digest = new QuantileDigest(0.01);
+            other = new QuantileDigest(0.01);
+            for (int i = 0; i < 100_000; i++) {
+                digest.add(ThreadLocalRandom.current().nextLong(100_000));
+                other.add(ThreadLocalRandom.current().nextLong(100_000));
+            }
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        BenchmarkStats.runWithThreadCounts(BenchmarkQuantileDigest.class);
+    }
 }
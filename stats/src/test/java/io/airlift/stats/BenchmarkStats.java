@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.units.Duration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the methods called on every request. All threads record into the same stats, as the threads of a server
+ * do, so running at several thread counts measures the effect of contention. The GC profiler reports the allocation
+ * rate per operation, which should be zero for all of these except the Duration created by the caller of
+ * {@code TimeStat.add(Duration)}.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(3)
+@Warmup(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+public class BenchmarkStats
+{
+    private static final int[] THREAD_COUNTS = {1, 4, 16, 64};
+
+    @Benchmark
+    public CounterStat benchmarkCounterStat(Data data)
+    {
+        data.counterStat.update(1);
+        return data.counterStat;
+    }
+
+    @Benchmark
+    public DecayCounter benchmarkDecayCounter(Data data)
+    {
+        data.decayCounter.add(1);
+        return data.decayCounter;
+    }
+
+    @Benchmark
+    public Distribution benchmarkDistribution(Data data)
+    {
+        data.distribution.add(nextValue());
+        return data.distribution;
+    }
+
+    @Benchmark
+    public DistributionStat benchmarkDistributionStat(Data data)
+    {
+        data.distributionStat.add(nextValue());
+        return data.distributionStat;
+    }
+
+    @Benchmark
+    public TimeStat benchmarkTimeStat(Data data)
+    {
+        data.timeStat.add(nextValue(), TimeUnit.NANOSECONDS);
+        return data.timeStat;
+    }
+
+    @Benchmark
+    public TimeStat benchmarkTimeStatDuration(Data data)
+    {
+        data.timeStat.add(new Duration(nextValue(), TimeUnit.NANOSECONDS));
+        return data.timeStat;
+    }
+
+    @Benchmark
+    public TimeStat benchmarkTimeStatNanos(Data data)
+    {
+        data.timeStat.addNanos(nextValue());
+        return data.timeStat;
+    }
+
+    private static long nextValue()
+    {
+        return ThreadLocalRandom.current().nextLong(100_000);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Data
+    {
+        public CounterStat counterStat;
+        public DecayCounter decayCounter;
+        public Distribution distribution;
+        public DistributionStat distributionStat;
+        public TimeStat timeStat;
+
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            counterStat = new CounterStat();
+            decayCounter = new DecayCounter(ExponentialDecay.oneMinute());
+            distribution = new Distribution(ExponentialDecay.oneMinute());
+            distributionStat = new DistributionStat();
+            timeStat = new TimeStat();
+        }
+    }
+
+    /**
+     * Runs the benchmarks of the given class once for each thread count, with the GC profiler enabled
+     */
+    static void runWithThreadCounts(Class<?> benchmarkClass)
+            throws RunnerException
+    {
+        for (int threads : THREAD_COUNTS) {
+            Options options = new OptionsBuilder()
+                    .verbosity(VerboseMode.NORMAL)
+                    .include(".*" + benchmarkClass.getSimpleName() + ".*")
+                    .threads(threads)
+                    .addProfiler(GCProfiler.class)
+                    .build();
+
+            new Runner(options).run();
+        }
+    }
+
+    public static void main(String[] args)
+            throws RunnerException
+    {
+        runWithThreadCounts(BenchmarkStats.class);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestCounterStat
+{
+    @Test
+    public void testMatchesDecayCounters()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CounterStat stat = new CounterStat(ticker);
+        DecayCounter oneMinute = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        DecayCounter fiveMinutes = new DecayCounter(ExponentialDecay.fiveMinutes(), ticker);
+        DecayCounter fifteenMinutes = new DecayCounter(ExponentialDecay.fifteenMinutes(), ticker);
+
+        for (int i = 0; i < 1000; i++) {
+            stat.update(i);
+            oneMinute.add(i);
+            fiveMinutes.add(i);
+            fifteenMinutes.add(i);
+            ticker.increment(700, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(stat.getTotalCount(), 1000 * 999 / 2);
+        assertClose(stat.getOneMinute().getCount(), oneMinute.getCount());
+        assertClose(stat.getOneMinute().getRate(), oneMinute.getRate());
+        assertClose(stat.getFiveMinute().getCount(), fiveMinutes.getCount());
+        assertClose(stat.getFiveMinute().getRate(), fiveMinutes.getRate());
+        assertClose(stat.getFifteenMinute().getCount(), fifteenMinutes.getCount());
+        assertClose(stat.getFifteenMinute().getRate(), fifteenMinutes.getRate());
+    }
+
+    @Test
+    public void testMergeAndReset()
+    {
+        TestingTicker ticker = new TestingTicker();
+        CounterStat stat = new CounterStat(ticker);
+        stat.update(3);
+
+        CounterStat other = new CounterStat(ticker);
+        other.update(4);
+
+        stat.merge(other);
+        assertEquals(stat.getTotalCount(), 7);
+        assertClose(stat.getFifteenMinute().getCount(), 7);
+
+        stat.reset();
+        assertEquals(stat.getTotalCount(), 0);
+        assertEquals(stat.getOneMinute().getCount(), 0.0);
+
+        stat.resetTo(other);
+        assertEquals(stat.getTotalCount(), 4);
+        assertClose(stat.getOneMinute().getCount(), 4);
+    }
+
+    private static void assertClose(double actual, double expected)
+    {
+        assertTrue(Math.abs(actual - expected) <= 1e-9 * Math.max(1, Math.abs(expected)), actual + " != " + expected);
+    }
+}
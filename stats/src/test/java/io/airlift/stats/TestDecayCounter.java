@@ -1,10 +1,13 @@
 package io.airlift.stats;
 
+import com.google.common.base.Ticker;
 import io.airlift.testing.TestingTicker;
 import org.testng.annotations.Test;
 
 import java.util.concurrent.TimeUnit;
 
+import static io.airlift.stats.TestingConcurrency.runConcurrently;
+import static org.testng.Assert.assertEquals;
 import static org.testng.Assert.assertTrue;
 
 public class TestDecayCounter
@@ -34,4 +37,77 @@ public class TestDecayCounter
         double expected = 2 + 1 / Math.E;
         assertTrue(Math.abs(counter.getCount() - expected) < 1e-9);
     }
+
+    @Test
+    public void testMerge()
+    {
+        TestingTicker ticker = new TestingTicker();
+
+        DecayCounter counter = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        counter.add(1);
+        ticker.increment(1, TimeUnit.MINUTES);
+
+        DecayCounter other = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        other.add(2);
+
+        counter.merge(other);
+        double expected = 2 + 1 / Math.E;
+        assertTrue(Math.abs(counter.getCount() - expected) < 1e-9);
+
+        other.merge(counter);
+        assertTrue(Math.abs(other.getCount() - (2 + expected)) < 1e-9);
+    }
+
+    @Test
+    public void testResetTo()
+    {
+        TestingTicker ticker = new TestingTicker();
+
+        DecayCounter counter = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        counter.add(1);
+        ticker.increment(1, TimeUnit.MINUTES);
+
+        DecayCounter copy = new DecayCounter(ExponentialDecay.oneMinute(), ticker);
+        copy.add(5);
+        copy.resetTo(counter);
+        assertTrue(Math.abs(copy.getCount() - 1 / Math.E) < 1e-9);
+
+        copy.reset();
+        assertEquals(copy.getCount(), 0.0);
+    }
+
+    @Test
+    public void testConcurrentAddsDuringRescale()
+            throws Exception
+    {
+        // each thread reads its own clock, so the time at which every value is recorded is known
+        ThreadLocal<TestingTicker> clocks = ThreadLocal.withInitial(TestingTicker::new);
+        Ticker ticker = new Ticker()
+        {
+            @Override
+            public long read()
+            {
+                return clocks.get().read();
+            }
+        };
+        double alpha = ExponentialDecay.oneMinute();
+        DecayCounter counter = new DecayCounter(alpha, ticker);
+
+        int threads = 8;
+        int valuesPerThread = 100_000;
+        runConcurrently(threads, thread -> {
+            for (int value = 0; value < valuesPerThread; value++) {
+                if (value == valuesPerThread / 2) {
+                    // the first thread to get here moves the landmark while the others still add at the old time
+                    clocks.get().increment(DecayCounter.RESCALE_THRESHOLD_SECONDS, TimeUnit.SECONDS);
+                }
+                counter.add(1);
+            }
+        });
+
+        clocks.get().increment(DecayCounter.RESCALE_THRESHOLD_SECONDS, TimeUnit.SECONDS);
+        double half = threads * valuesPerThread / 2.0;
+        double expected = half * Math.exp(-alpha * DecayCounter.RESCALE_THRESHOLD_SECONDS) + half;
+        assertEquals(counter.getCount(), expected, expected * 1e-9);
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.stats.TestingConcurrency.runConcurrently;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestDecayingReservoir
+{
+    @Test
+    public void testEmpty()
+    {
+        DecayingReservoir reservoir = new DecayingReservoir(100, 0.015);
+
+        assertEquals(reservoir.size(), 0);
+        assertEquals(reservoir.getMin(), Long.MAX_VALUE);
+        assertEquals(reservoir.getMax(), Long.MIN_VALUE);
+        assertTrue(Double.isNaN(reservoir.getMean()));
+        assertTrue(Double.isNaN(reservoir.percentiles(0.5)[0]));
+    }
+
+    @Test
+    public void testWithinCapacity()
+    {
+        DecayingReservoir reservoir = new DecayingReservoir(100, 0.015);
+        for (int i = 0; i < 100; i++) {
+            reservoir.update(i);
+        }
+
+        // every value is kept
+        assertEquals(reservoir.size(), 100);
+        assertEquals(reservoir.getMin(), 0);
+        assertEquals(reservoir.getMax(), 99);
+        assertEquals(reservoir.getMean(), 49.5);
+        assertEquals(reservoir.percentiles(0, 0.5, 1), new double[] {0, 49.5, 99});
+    }
+
+    @Test
+    public void testBoundedSize()
+    {
+        DecayingReservoir reservoir = new DecayingReservoir(100, 0.015);
+        for (int i = 0; i < 10_000; i++) {
+            reservoir.update(i);
+        }
+
+        assertEquals(reservoir.size(), 100);
+        assertTrue(reservoir.getMin() >= 0);
+        assertTrue(reservoir.getMax() < 10_000);
+    }
+
+    @Test
+    public void testBiasedTowardsNewerValues()
+    {
+        TestingTicker ticker = new TestingTicker();
+        DecayingReservoir reservoir = new DecayingReservoir(100, 0.015, ticker);
+
+        for (int i = 0; i < 1000; i++) {
+            reservoir.update(1);
+        }
+
+        // after an hour, newer values have a weight of exp(0.015 * 3600) relative to the older ones
+        ticker.increment(1, TimeUnit.HOURS);
+        for (int i = 0; i < 1000; i++) {
+            reservoir.update(2);
+        }
+
+        assertEquals(reservoir.getMin(), 2);
+        assertEquals(reservoir.getMean(), 2.0);
+    }
+
+    @Test
+    public void testConcurrentUpdates()
+            throws Exception
+    {
+        TestingTicker ticker = new TestingTicker();
+        DecayingReservoir reservoir = new DecayingReservoir(100, 0.015, ticker);
+        for (int i = 0; i < 1000; i++) {
+            reservoir.update(0);
+        }
+
+        // after an hour, the concurrent updates replace every old value
+        ticker.increment(1, TimeUnit.HOURS);
+        int threads = 8;
+        int valuesPerThread = 100_000;
+        runConcurrently(threads, thread -> {
+            for (int i = 0; i < valuesPerThread; i++) {
+                reservoir.update(thread + 1);
+            }
+        });
+
+        assertEquals(reservoir.size(), 100);
+        assertTrue(reservoir.getMin() >= 1, String.valueOf(reservoir.getMin()));
+        assertTrue(reservoir.getMax() <= threads, String.valueOf(reservoir.getMax()));
+
+        double[] percentiles = reservoir.percentiles(0, 1);
+        assertEquals(percentiles[0], (double) reservoir.getMin());
+        assertEquals(percentiles[1], (double) reservoir.getMax());
+    }
+}
@@ -0,0 +1,295 @@
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.stats.TestingConcurrency.runConcurrently;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestDistribution
+{
+    @Test
+    public void testMatchesDigest()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(0, ticker);
+        QuantileDigest digest = new QuantileDigest(0.01, 0, ticker, true);
+
+        for (int i = 0; i < 10_000; i++) {
+            distribution.add(i);
+            digest.add(i);
+        }
+
+        assertEquals(distribution.getCount(), digest.getCount());
+        assertEquals(distribution.getTotal(), 10_000 * 9_999 / 2.0);
+        assertEquals(distribution.getMin(), digest.getMin());
+        assertEquals(distribution.getMax(), digest.getMax());
+
+        // values are compressed in batches, so the quantiles may differ within the error bound
+        assertTrue(Math.abs(distribution.getP50() - digest.getQuantile(0.5)) <= 2 * 0.01 * 10_000);
+        assertTrue(Math.abs(distribution.getP99() - digest.getQuantile(0.99)) <= 2 * 0.01 * 10_000);
+    }
+
+    @Test
+    public void testBufferedValuesDecayFromRecordingTime()
+    {
+        TestingTicker ticker = new TestingTicker();
+        double alpha = ExponentialDecay.oneMinute();
+        Distribution distribution = new Distribution(alpha, ticker);
+
+        distribution.add(10);
+        ticker.increment(1, TimeUnit.MINUTES);
+
+        // the value sat in the buffer for a minute, so it should have decayed as if added directly
+        assertTrue(Math.abs(distribution.getCount() - 1 / Math.E) < 1e-9);
+        assertTrue(Math.abs(distribution.getTotal() - 10 / Math.E) < 1e-9);
+    }
+
+    @Test
+    public void testValuesAcrossSeconds()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(0, ticker);
+
+        for (int i = 0; i < 100; i++) {
+            distribution.add(i);
+            ticker.increment(500, TimeUnit.MILLISECONDS);
+        }
+
+        assertEquals(distribution.getCount(), 100.0);
+        assertEquals(distribution.getMin(), 0);
+        assertEquals(distribution.getMax(), 99);
+    }
+
+    @Test
+    public void testConcurrentAdds()
+            throws Exception
+    {
+        Distribution distribution = new Distribution();
+
+        // each thread adds its own range of values, which are recorded in the stripe of the thread
+        int threads = 8;
+        int valuesPerThread = 10_000;
+        runConcurrently(threads, thread -> {
+            for (int value = 0; value < valuesPerThread; value++) {
+                distribution.add(thread * valuesPerThread + value);
+            }
+        });
+
+        // no value is lost or counted twice when the stripes are flushed
+        int count = threads * valuesPerThread;
+        assertEquals(distribution.getCount(), (double) count);
+        assertEquals(distribution.getTotal(), (double) count * (count - 1) / 2);
+        assertEquals(distribution.getMin(), 0);
+        assertEquals(distribution.getMax(), count - 1);
+        assertTrue(Math.abs(distribution.getP50() - count / 2) <= 2 * 0.01 * count);
+        assertEquals(distribution.snapshot().getCount(), (double) count);
+    }
+
+    @Test
+    public void testCopy()
+    {
+        Distribution distribution = new Distribution();
+        for (int i = 0; i < 100; i++) {
+            distribution.add(i);
+        }
+
+        Distribution copy = new Distribution(distribution);
+        assertEquals(copy.getCount(), 100.0);
+        assertEquals(copy.getTotal(), distribution.getTotal());
+        assertEquals(copy.getMax(), 99);
+    }
+
+    @Test
+    public void testCopyUsesSourceTicker()
+    {
+        TestingTicker ticker = new TestingTicker();
+        double alpha = ExponentialDecay.oneMinute();
+        Distribution distribution = new Distribution(alpha, ticker);
+        distribution.add(10);
+        ticker.increment(1, TimeUnit.MINUTES);
+
+        Distribution copy = new Distribution(distribution);
+        assertEquals(copy.getCount(), distribution.getCount(), 1e-9);
+        assertEquals(copy.getTotal(), distribution.getTotal(), 1e-9);
+
+        // values added to the copy are weighted by the same clock as the values copied from the source
+        copy.add(20);
+        distribution.add(20);
+        ticker.increment(1, TimeUnit.MINUTES);
+        assertEquals(copy.getCount(), (1 + 1 / Math.E) / Math.E, 1e-9);
+        assertEquals(copy.getCount(), distribution.getCount(), 1e-9);
+        assertEquals(copy.getTotal(), distribution.getTotal(), 1e-9);
+        assertEquals(copy.getMax(), 20);
+    }
+
+    @Test
+    public void testLogLinearHistogramBackend()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(0, DistributionBackend.LOG_LINEAR_HISTOGRAM, ticker);
+        LogLinearHistogram histogram = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, 0, ticker);
+
+        for (int i = 0; i < 10_000; i++) {
+            distribution.add(i);
+            histogram.add(i);
+        }
+
+        Distribution.DistributionSnapshot snapshot = distribution.snapshot();
+        assertEquals(snapshot.getMaxError(), histogram.getRelativeError());
+        assertEquals(snapshot.getCount(), 10_000.0);
+        assertEquals(snapshot.getTotal(), 10_000 * 9_999 / 2.0);
+        assertEquals(snapshot.getP50(), histogram.getQuantile(0.5));
+        assertEquals(snapshot.getP99(), histogram.getQuantile(0.99));
+        assertEquals(snapshot.getMin(), 0);
+        assertEquals(snapshot.getMax(), 9_999);
+
+        Distribution copy = new Distribution(distribution);
+        assertEquals(copy.getP90(), distribution.getP90());
+    }
+
+    @Test
+    public void testLogLinearHistogramBackendRejectsNegativeValues()
+    {
+        Distribution distribution = new Distribution(0, DistributionBackend.LOG_LINEAR_HISTOGRAM);
+        distribution.add(5);
+        assertRejected(() -> distribution.add(-1));
+        assertRejected(() -> distribution.add(-1, 10));
+        assertRejected(() -> distribution.add(new long[] {1, -1}, 0, 2));
+
+        // the rejected values were never buffered, so reading the distribution still works
+        assertEquals(distribution.getCount(), 1.0);
+        assertEquals(distribution.getMin(), 5);
+        assertEquals(distribution.getP50(), 5);
+    }
+
+    @Test
+    public void testTDigestBackend()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(0, DistributionBackend.T_DIGEST, ticker);
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, 0, ticker);
+
+        for (int i = 0; i < 10_000; i++) {
+            distribution.add(i);
+            digest.add(i);
+        }
+
+        Distribution.DistributionSnapshot snapshot = distribution.snapshot();
+        assertEquals(snapshot.getMaxError(), digest.getMaxRankError());
+        assertEquals(snapshot.getCount(), 10_000.0);
+        assertEquals(snapshot.getTotal(), 10_000 * 9_999 / 2.0);
+        assertEquals(snapshot.getP50(), digest.getQuantile(0.5));
+        assertEquals(snapshot.getP99(), digest.getQuantile(0.99));
+        assertEquals(snapshot.getMin(), 0);
+        assertEquals(snapshot.getMax(), 9_999);
+
+        Distribution copy = new Distribution(distribution);
+        assertEquals(copy.getP90(), distribution.getP90());
+    }
+
+    @Test
+    public void testBatchAdd()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(0, ticker);
+        Distribution expected = new Distribution(0, ticker);
+
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i % 100;
+            expected.add(values[i]);
+        }
+        distribution.add(values, 0, values.length);
+
+        assertEquals(distribution.getCount(), expected.getCount());
+        assertEquals(distribution.getTotal(), expected.getTotal());
+        assertEquals(distribution.getMin(), 0);
+        assertEquals(distribution.getMax(), 99);
+        assertEquals(distribution.getP50(), expected.getP50());
+    }
+
+    @Test
+    public void testMergeAll()
+    {
+        List<Distribution> distributions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            Distribution distribution = new Distribution();
+            for (int value = 0; value < 100; value++) {
+                distribution.add(i * 100 + value);
+            }
+            distributions.add(distribution);
+        }
+
+        Distribution merged = new Distribution();
+        merged.mergeAll(distributions);
+
+        assertEquals(merged.getCount(), 10_000.0);
+        assertEquals(merged.getTotal(), 10_000 * 9_999 / 2.0);
+        assertEquals(merged.getMin(), 0);
+        assertEquals(merged.getMax(), 9_999);
+        assertTrue(Math.abs(merged.getP50() - 5_000) <= 0.01 * 10_000);
+
+        // the merged distributions are not modified
+        assertEquals(distributions.get(0).getCount(), 100.0);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeAllDifferentBackends()
+    {
+        Distribution distribution = new Distribution(0, DistributionBackend.LOG_LINEAR_HISTOGRAM);
+        distribution.mergeAll(ImmutableList.of(new Distribution()));
+    }
+
+    @Test
+    public void testFailedMergeAllLeavesDistributionUnchanged()
+    {
+        Distribution distribution = new Distribution(0, DistributionBackend.LOG_LINEAR_HISTOGRAM);
+        distribution.add(10);
+
+        Distribution valid = new Distribution(0, DistributionBackend.LOG_LINEAR_HISTOGRAM);
+        valid.add(20);
+        Distribution invalid = new Distribution();
+        invalid.add(30);
+
+        assertRejected(() -> distribution.mergeAll(ImmutableList.of(valid, invalid)));
+        assertEquals(distribution.getCount(), 1.0);
+        assertEquals(distribution.getTotal(), 10.0);
+        assertEquals(distribution.getMax(), 10);
+    }
+
+    @Test
+    public void testMergeAllWithRepeatedDistribution()
+    {
+        TestingTicker ticker = new TestingTicker();
+        Distribution distribution = new Distribution(0.1, ticker);
+        distribution.add(10);
+        ticker.increment(30, TimeUnit.SECONDS);
+        distribution.add(20);
+
+        Distribution merged = new Distribution(0.1, ticker);
+        merged.mergeAll(ImmutableList.of(distribution, distribution));
+
+        assertEquals(merged.getCount(), 2 * distribution.getCount(), 0.001);
+        assertEquals(merged.getTotal(), 2 * distribution.getTotal(), 0.001);
+        assertEquals(merged.getMin(), 10);
+        assertEquals(merged.getMax(), 20);
+    }
+
+    private static void assertRejected(Runnable runnable)
+    {
+        try {
+            runnable.run();
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestLogLinearHistogram
+{
+    @Test
+    public void testEmpty()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+
+        assertEquals(histogram.getCount(), 0.0);
+        assertEquals(histogram.getMin(), Long.MAX_VALUE);
+        assertEquals(histogram.getMax(), Long.MIN_VALUE);
+        assertEquals(histogram.getQuantile(0.5), Long.MIN_VALUE);
+    }
+
+    @Test
+    public void testSmallValuesAreExact()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram(4, 0);
+        for (int i = 0; i < 16; i++) {
+            histogram.add(i);
+        }
+
+        assertEquals(histogram.getCount(), 16.0);
+        assertEquals(histogram.getMin(), 0);
+        assertEquals(histogram.getMax(), 15);
+        assertEquals(histogram.getQuantiles(ImmutableList.of(0.0, 0.25, 0.5, 1.0)), ImmutableList.of(0L, 4L, 8L, 15L));
+    }
+
+    @Test
+    public void testExtremeValues()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        histogram.add(0);
+        histogram.add(Long.MAX_VALUE);
+
+        assertEquals(histogram.getMin(), 0);
+        assertEquals(histogram.getMax(), Long.MAX_VALUE);
+        assertEquals(histogram.getQuantile(0.0), 0);
+        assertEquals(histogram.getQuantile(1.0), Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testBucketBoundaries()
+    {
+        int precision = 3;
+        LogLinearHistogram histogram = new LogLinearHistogram(precision, 0);
+
+        // buckets must be contiguous and cover all non-negative values
+        long expectedLowerBound = 0;
+        for (int group = 0; group < Long.SIZE - precision; group++) {
+            for (int bucket = 0; bucket < 1 << precision; bucket++) {
+                assertEquals(histogram.getLowerBound(group, bucket), expectedLowerBound);
+                expectedLowerBound = histogram.getUpperBound(group, bucket) + 1;
+            }
+        }
+        assertEquals(expectedLowerBound, Long.MIN_VALUE);
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextLong(1, 10_000_000_000L);
+            histogram.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        List<Double> quantiles = ImmutableList.of(0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999);
+        List<Long> actual = histogram.getQuantiles(quantiles);
+        for (int i = 0; i < quantiles.size(); i++) {
+            long expected = values[(int) (quantiles.get(i) * values.length)];
+            double error = Math.abs(actual.get(i) - expected) / (double) expected;
+            assertTrue(error <= histogram.getRelativeError(), "error for quantile " + quantiles.get(i) + " is " + error);
+        }
+
+        assertEquals(histogram.getMin(), values[0]);
+        assertEquals(histogram.getMax(), values[values.length - 1]);
+    }
+
+    @Test
+    public void testDecay()
+    {
+        TestingTicker ticker = new TestingTicker();
+        LogLinearHistogram histogram = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, ExponentialDecay.computeAlpha(0.5, 60), ticker);
+
+        for (int i = 0; i < 100; i++) {
+            histogram.add(1);
+        }
+        ticker.increment(60, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            histogram.add(1000);
+        }
+
+        assertTrue(Math.abs(histogram.getCount() - 150) < 1e-9);
+        // the old values have half the weight of the new ones
+        assertEquals(histogram.getQuantile(0.3), 1);
+        assertTrue(histogram.getQuantile(0.4) >= 1000);
+
+        ticker.increment(1, TimeUnit.HOURS);
+        assertTrue(histogram.getCount() < 1e-9);
+    }
+
+    @Test
+    public void testRescale()
+    {
+        TestingTicker ticker = new TestingTicker();
+        LogLinearHistogram histogram = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, ExponentialDecay.oneMinute(), ticker);
+
+        histogram.add(10);
+        ticker.increment(1, TimeUnit.MINUTES);
+        histogram.add(20);
+
+        assertTrue(Math.abs(histogram.getCount() - (1 + 1 / Math.E)) < 1e-9);
+    }
+
+    @Test
+    public void testMerge()
+    {
+        TestingTicker ticker = new TestingTicker();
+        LogLinearHistogram histogram = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, ExponentialDecay.oneMinute(), ticker);
+        LogLinearHistogram other = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, ExponentialDecay.oneMinute(), ticker);
+        LogLinearHistogram expected = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, ExponentialDecay.oneMinute(), ticker);
+
+        for (int i = 0; i < 1000; i++) {
+            histogram.add(i);
+            expected.add(i);
+        }
+        ticker.increment(10, TimeUnit.SECONDS);
+        for (int i = 1000; i < 3000; i++) {
+            other.add(i);
+            expected.add(i);
+        }
+
+        histogram.merge(other);
+
+        assertTrue(Math.abs(histogram.getCount() - expected.getCount()) < 1e-9);
+        assertEquals(histogram.getMin(), 0);
+        assertEquals(histogram.getMax(), 2999);
+
+        List<Double> quantiles = ImmutableList.of(0.1, 0.5, 0.9);
+        assertEquals(histogram.getQuantiles(quantiles), expected.getQuantiles(quantiles));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testNegativeValue()
+    {
+        new LogLinearHistogram().add(-1);
+    }
+
+    @Test
+    public void testBatchAdd()
+    {
+        TestingTicker ticker = new TestingTicker();
+        LogLinearHistogram histogram = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, ExponentialDecay.oneMinute(), ticker);
+        LogLinearHistogram expected = new LogLinearHistogram(LogLinearHistogram.DEFAULT_PRECISION, ExponentialDecay.oneMinute(), ticker);
+
+        long[] values = new long[64];
+        for (int batch = 0; batch < 100; batch++) {
+            long timestampInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+            for (int i = 0; i < values.length; i++) {
+                values[i] = batch * values.length + i;
+                expected.add(values[i], 1, timestampInSeconds);
+            }
+            histogram.add(values, 0, values.length, timestampInSeconds);
+            ticker.increment(1, TimeUnit.SECONDS);
+        }
+
+        assertTrue(Math.abs(histogram.getCount() - expected.getCount()) < 1e-9);
+        assertEquals(histogram.getMin(), 0);
+        assertEquals(histogram.getMax(), 6399);
+
+        List<Double> quantiles = ImmutableList.of(0.1, 0.5, 0.9);
+        assertEquals(histogram.getQuantiles(quantiles), expected.getQuantiles(quantiles));
+    }
+
+    @Test
+    public void testBatchWithNegativeValueIsRejected()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        try {
+            histogram.add(new long[] {1, -1, 2}, 0, 3, 0);
+            fail("expected exception");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+        assertEquals(histogram.getCount(), 0.0);
+    }
+
+    @Test
+    public void testMemoryIsBounded()
+    {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        for (int i = 0; i < Long.SIZE - 1; i++) {
+            histogram.add(1L << i);
+        }
+        int size = histogram.estimatedInMemorySizeInBytes();
+
+        for (int i = 0; i < 100_000; i++) {
+            histogram.add(ThreadLocalRandom.current().nextLong(Long.MAX_VALUE));
+        }
+        assertEquals(histogram.estimatedInMemorySizeInBytes(), size);
+    }
+}
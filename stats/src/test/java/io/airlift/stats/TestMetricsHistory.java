@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.stats.MetricsHistory.MetricsHistorySnapshot;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestMetricsHistory
+{
+    @Test
+    public void testEmpty()
+    {
+        MetricsHistory history = new MetricsHistory(3);
+        history.add("value", () -> 1);
+
+        MetricsHistorySnapshot snapshot = history.snapshot();
+        assertEquals(snapshot.getTimestamps(), ImmutableList.of());
+        assertEquals(snapshot.getSeries().get("value"), ImmutableList.of());
+    }
+
+    @Test
+    public void testRing()
+    {
+        AtomicLong value = new AtomicLong();
+        MetricsHistory history = new MetricsHistory(3);
+        history.add("value", value::get);
+
+        for (int i = 0; i < 2; i++) {
+            value.set(i * 10);
+            history.record(i);
+        }
+
+        MetricsHistorySnapshot snapshot = history.snapshot();
+        assertEquals(snapshot.getTimestamps(), ImmutableList.of(0L, 1L));
+        assertEquals(snapshot.getSeries().get("value"), ImmutableList.of(0.0, 10.0));
+
+        // wraps around, dropping the oldest samples
+        for (int i = 2; i < 5; i++) {
+            value.set(i * 10);
+            history.record(i);
+        }
+
+        snapshot = history.snapshot();
+        assertEquals(snapshot.getTimestamps(), ImmutableList.of(2L, 3L, 4L));
+        assertEquals(snapshot.getSeries().get("value"), ImmutableList.of(20.0, 30.0, 40.0));
+    }
+
+    @Test
+    public void testSeriesAddedLater()
+    {
+        MetricsHistory history = new MetricsHistory(3);
+        history.add("first", () -> 1);
+        history.record(0);
+
+        history.add("second", () -> 2);
+        history.record(1);
+
+        MetricsHistorySnapshot snapshot = history.snapshot();
+        assertEquals(snapshot.getSeries().get("first"), ImmutableList.of(1.0, 1.0));
+        assertTrue(Double.isNaN(snapshot.getSeries().get("second").get(0)));
+        assertEquals(snapshot.getSeries().get("second").get(1), 2.0);
+    }
+
+    @Test
+    public void testFailingSeries()
+    {
+        AtomicLong value = new AtomicLong();
+        MetricsHistory history = new MetricsHistory(3);
+        history.add("failing", () -> {
+            if (value.get() == 1) {
+                throw new IllegalStateException("failed");
+            }
+            return value.get();
+        });
+        history.add("value", value::get);
+
+        for (int i = 0; i < 3; i++) {
+            value.set(i);
+            history.record(i);
+        }
+
+        // the failed sample is recorded as NaN, and the other series are unaffected
+        MetricsHistorySnapshot snapshot = history.snapshot();
+        assertEquals(snapshot.getTimestamps(), ImmutableList.of(0L, 1L, 2L));
+        assertEquals(snapshot.getSeries().get("failing").get(0), 0.0);
+        assertTrue(Double.isNaN(snapshot.getSeries().get("failing").get(1)));
+        assertEquals(snapshot.getSeries().get("failing").get(2), 2.0);
+        assertEquals(snapshot.getSeries().get("value"), ImmutableList.of(0.0, 1.0, 2.0));
+    }
+
+    @Test
+    public void testStats()
+    {
+        CounterStat counter = new CounterStat();
+        TimeStat time = new TimeStat();
+        DistributionStat distribution = new DistributionStat();
+
+        MetricsHistory history = new MetricsHistory(10);
+        history.addCounter("Requests", counter);
+        history.addTime("RequestTime", time);
+        history.addDistribution("ResponseSize", distribution);
+
+        counter.update(5);
+        time.add(1, TimeUnit.SECONDS);
+        distribution.add(100);
+        history.record(0);
+
+        MetricsHistorySnapshot snapshot = history.snapshot();
+        assertEquals(snapshot.getSeries().get("Requests.TotalCount"), ImmutableList.of(5.0));
+        assertEquals(snapshot.getSeries().get("RequestTime.OneMinute.Max"), ImmutableList.of(1.0));
+        assertEquals(snapshot.getSeries().get("ResponseSize.OneMinute.P50"), ImmutableList.of(100.0));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDuplicateSeries()
+    {
+        MetricsHistory history = new MetricsHistory(3);
+        history.add("value", () -> 1);
+        history.add("value", () -> 2);
+    }
+}
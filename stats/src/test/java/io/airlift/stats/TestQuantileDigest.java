@@ -3,6 +3,9 @@ package io.airlift.stats;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
 import io.airlift.testing.TestingTicker;
 import org.testng.annotations.Test;
 
@@ -12,6 +15,7 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
@@ -473,6 +477,67 @@ public class TestQuantileDigest
         assertEquals(digest.getTotalNodeCount(), 1);
     }
 
+    @Test
+    public void testBatchAdd()
+    {
+        QuantileDigest digest = new QuantileDigest(0.01, 0, Ticker.systemTicker(), false);
+        QuantileDigest expected = new QuantileDigest(0.01, 0, Ticker.systemTicker(), false);
+
+        long[] values = new long[] {-1, 5, 3, 5, 5, 0, 3, 1000, 7, -1, 42};
+        for (long value : values) {
+            expected.add(value);
+        }
+
+        long[] batch = new long[values.length + 2];
+        System.arraycopy(values, 0, batch, 1, values.length);
+        long[] original = batch.clone();
+
+        digest.add(batch, 1, values.length);
+        digest.validate();
+
+        // the caller's array is not modified
+        assertEquals(batch, original);
+
+        assertEquals(digest.getCount(), expected.getCount());
+        assertEquals(digest.getTotalNodeCount(), expected.getTotalNodeCount());
+        List<Double> quantiles = asList(0.0, 0.1, 0.2, 0.3, 0.4, 0.5, 0.6, 0.7, 0.8, 0.9, 1.0);
+        assertEquals(digest.getQuantiles(quantiles), expected.getQuantiles(quantiles));
+        assertEquals(digest.getMin(), -1);
+        assertEquals(digest.getMax(), 1000);
+
+        // duplicates are inserted once
+        assertEquals(digest.getNonZeroNodeCount(), 7);
+    }
+
+    @Test
+    public void testBatchAddCompression()
+    {
+        QuantileDigest digest = new QuantileDigest(0.01);
+
+        long[] values = new long[100_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = ThreadLocalRandom.current().nextLong(1_000_000);
+        }
+
+        digest.add(values, 0, values.length);
+        digest.validate();
+
+        assertEquals(digest.getCount(), (double) values.length);
+        // compression runs once for the whole batch
+        assertEquals(digest.getCompressions(), 1);
+
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double quantile : asList(0.1, 0.5, 0.9, 0.99)) {
+            long value = digest.getQuantile(quantile);
+            int rank = Arrays.binarySearch(sorted, value);
+            if (rank < 0) {
+                rank = -(rank + 1);
+            }
+            assertTrue(Math.abs(rank - quantile * values.length) / values.length <= digest.getConfidenceFactor() + 1.0 / values.length);
+        }
+    }
+
     @Test
     public void testEquivalenceEmpty()
             throws Exception
@@ -623,6 +688,101 @@ public class TestQuantileDigest
         assertEquals(a.getTotalNodeCount(), 5);
     }
 
+    @Test
+    public void testMergeAll()
+    {
+        int digestCount = 1000;
+        int valuesPerDigest = 100;
+
+        List<QuantileDigest> digests = new ArrayList<>();
+        long[] values = new long[digestCount * valuesPerDigest];
+        for (int i = 0; i < digestCount; i++) {
+            QuantileDigest digest = new QuantileDigest(0.01);
+            for (int j = 0; j < valuesPerDigest; j++) {
+                long value = ThreadLocalRandom.current().nextLong(1_000_000);
+                values[i * valuesPerDigest + j] = value;
+                digest.add(value);
+            }
+            digests.add(digest);
+        }
+
+        QuantileDigest merged = new QuantileDigest(0.01);
+        merged.add(0);
+        merged.mergeAll(digests);
+        merged.validate();
+
+        assertEquals(merged.getCount(), values.length + 1.0);
+        assertTrue(merged.getConfidenceFactor() <= merged.getMaxError());
+
+        // the inputs are not modified
+        for (QuantileDigest digest : digests) {
+            assertEquals(digest.getCount(), (double) valuesPerDigest);
+        }
+
+        long[] sorted = Arrays.copyOf(values, values.length + 1);
+        Arrays.sort(sorted);
+
+        // the min is only known within the error bound once the node holding it is compressed
+        int minRank = Arrays.binarySearch(sorted, merged.getMin());
+        if (minRank < 0) {
+            minRank = -(minRank + 1);
+        }
+        assertTrue(minRank * 1.0 / sorted.length <= merged.getMaxError());
+
+        for (double quantile : asList(0.01, 0.1, 0.5, 0.9, 0.99)) {
+            long value = merged.getQuantile(quantile);
+            int rank = Arrays.binarySearch(sorted, value);
+            if (rank < 0) {
+                rank = -(rank + 1);
+            }
+            assertTrue(Math.abs(rank - quantile * sorted.length) / sorted.length <= merged.getMaxError());
+        }
+    }
+
+    @Test
+    public void testMergeAllFew()
+    {
+        QuantileDigest a = new QuantileDigest(0.01);
+        QuantileDigest b = new QuantileDigest(0.01);
+        addRange(a, 0, 100);
+        addRange(b, 100, 200);
+
+        QuantileDigest expected = new QuantileDigest(0.01);
+        expected.merge(a);
+        expected.merge(b);
+
+        QuantileDigest merged = new QuantileDigest(0.01);
+        merged.mergeAll(asList(a, b));
+        merged.validate();
+
+        assertTrue(merged.equivalent(expected));
+    }
+
+    @Test
+    public void testMergeWithDecayDoesNotModifyInput()
+    {
+        TestingTicker ticker = new TestingTicker();
+        double alpha = ExponentialDecay.computeAlpha(0.5, 60);
+        QuantileDigest digest = new QuantileDigest(0.01, alpha, ticker, true);
+        QuantileDigest other = new QuantileDigest(0.01, alpha, ticker, true);
+        addAll(other, asList(0, 1, 2, 3, 4));
+
+        // the digest moves to a newer landmark, while the other one keeps the old one
+        ticker.increment(60, TimeUnit.SECONDS);
+        addAll(digest, asList(5, 6, 7, 8, 9));
+
+        double count = other.getCount();
+        List<Long> quantiles = other.getQuantiles(asList(0.0, 0.5, 1.0));
+
+        digest.merge(other);
+        digest.mergeAll(asList(other, other));
+        digest.validate();
+
+        assertEquals(other.getCount(), count, 0.001);
+        assertEquals(other.getQuantiles(asList(0.0, 0.5, 1.0)), quantiles);
+        assertEquals(digest.getCount(), 5 + 3 * count, 0.001);
+    }
+
     @Test
     public void testMergeSeparateBranches()
             throws Exception
@@ -801,6 +961,149 @@ public class TestQuantileDigest
         assertTrue(digest.equivalent(deserialize(serialize(digest))), format("Serialization roundtrip failed for input: %s", values));
     }
 
+    @Test
+    public void testSliceSerializationEmpty()
+    {
+        QuantileDigest digest = new QuantileDigest(0.01);
+        QuantileDigest deserialized = QuantileDigest.deserialize(digest.serialize());
+
+        assertTrue(digest.equivalent(deserialized));
+    }
+
+    @Test
+    public void testSliceSerializationComplex()
+    {
+        QuantileDigest digest = new QuantileDigest(1);
+        addAll(digest, asList(-5, 0, 2, 2, 2, 2, 3, 3, 3, 3, 3, 3, 4, 5, 6, 7, Integer.MAX_VALUE));
+
+        QuantileDigest deserialized = QuantileDigest.deserialize(digest.serialize());
+        deserialized.validate();
+        assertTrue(digest.equivalent(deserialized));
+        assertEquals(deserialized.getMin(), -5);
+        assertEquals(deserialized.getMax(), Integer.MAX_VALUE);
+
+        digest.compress();
+
+        assertTrue(digest.equivalent(QuantileDigest.deserialize(digest.serialize())));
+    }
+
+    @Test
+    public void testSliceSerializationWithDecay()
+    {
+        TestingTicker ticker = new TestingTicker();
+        QuantileDigest digest = new QuantileDigest(0.01, ExponentialDecay.oneMinute(), ticker, true);
+
+        addRange(digest, 0, 100);
+        ticker.increment(10, TimeUnit.SECONDS);
+        addRange(digest, 50, 150);
+
+        // decayed weights are not integral
+        QuantileDigest deserialized = QuantileDigest.deserialize(digest.serialize());
+        assertTrue(digest.equivalent(deserialized));
+    }
+
+    @Test(invocationCount = 100)
+    public void testSliceSerializationRandom()
+            throws Exception
+    {
+        QuantileDigest digest = new QuantileDigest(0.01);
+
+        List<Integer> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+        }
+
+        addAll(digest, values);
+
+        Slice serialized = digest.serialize();
+        assertTrue(digest.equivalent(QuantileDigest.deserialize(serialized)), format("Serialization roundtrip failed for input: %s", values));
+        assertTrue(serialized.length() < serialize(digest).length);
+    }
+
+    @Test(expectedExceptions = RuntimeException.class, expectedExceptionsMessageRegExp = ".*EOFException.*")
+    public void testDeserializationCorruptNodeCount()
+            throws Exception
+    {
+        byte[] serialized = serialize(new QuantileDigest(0.01));
+
+        // the node count follows the max error, alpha, landmark, min and max
+        int nodeCountOffset = 5 * 8;
+        serialized[nodeCountOffset] = 0x7F;
+        deserialize(serialized);
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Invalid node count: .*")
+    public void testSliceDeserializationCorruptNodeCount()
+    {
+        Slice serialized = new QuantileDigest(0.01).serialize();
+
+        // replace the node count, which is the last field of an empty digest, with a large one
+        DynamicSliceOutput output = new DynamicSliceOutput(serialized.length() + 4);
+        output.appendBytes(serialized.slice(0, serialized.length() - 1));
+        output.appendBytes(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+        QuantileDigest.deserialize(output.slice());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSliceDeserializationInvalidFormat()
+    {
+        QuantileDigest.deserialize(Slices.wrappedBuffer(new byte[] {42}));
+    }
+
+    @Test(invocationCount = 100)
+    public void testMergeSerialized()
+    {
+        QuantileDigest a = new QuantileDigest(0.01);
+        QuantileDigest b = new QuantileDigest(0.01);
+        QuantileDigest expected = new QuantileDigest(0.01);
+
+        for (int i = 0; i < 1000; i++) {
+            long value = ThreadLocalRandom.current().nextLong(100_000);
+            a.add(value);
+            expected.add(value);
+        }
+        for (int i = 0; i < 1000; i++) {
+            long value = ThreadLocalRandom.current().nextLong(-100, 1_000_000);
+            b.add(value);
+            expected.add(value);
+        }
+
+        QuantileDigest merged = new QuantileDigest(a);
+        merged.merge(b);
+
+        a.merge(b.serialize());
+        a.validate();
+
+        assertEquals(a.getCount(), expected.getCount());
+        assertEquals(a.getMin(), merged.getMin());
+        assertEquals(a.getMax(), merged.getMax());
+
+        List<Double> quantiles = asList(0.0, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 1.0);
+        assertEquals(a.getQuantiles(quantiles), merged.getQuantiles(quantiles));
+    }
+
+    @Test
+    public void testMergeSerializedWithDecay()
+    {
+        TestingTicker ticker = new TestingTicker();
+        QuantileDigest a = new QuantileDigest(0.01, ExponentialDecay.oneMinute(), ticker, true);
+        QuantileDigest b = new QuantileDigest(0.01, ExponentialDecay.oneMinute(), ticker, true);
+
+        addRange(a, 0, 100);
+        ticker.increment(1, TimeUnit.MINUTES);
+        addRange(b, 100, 200);
+
+        QuantileDigest merged = new QuantileDigest(0.01, ExponentialDecay.oneMinute(), ticker, true);
+        merged.merge(a);
+        merged.merge(b);
+
+        a.merge(b.serialize());
+        a.validate();
+
+        assertTrue(Math.abs(a.getCount() - merged.getCount()) < 1e-9);
+        assertEquals(a.getQuantile(0.5), merged.getQuantile(0.5));
+    }
+
     private QuantileDigest deserialize(byte[] result)
             throws IOException
     {
@@ -0,0 +1,84 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.stats.ResourceTimer.ResourceUsage;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestResourceTimer
+{
+    private static volatile Object sink;
+
+    @Test
+    public void testAllocatedBytes()
+    {
+        ResourceTimer timer = new ResourceTimer();
+        sink = new byte[10_000_000];
+        ResourceUsage usage = timer.startNewInterval();
+
+        if (ResourceTimer.isAllocationMeasured()) {
+            assertTrue(usage.getAllocatedBytes() >= 10_000_000, "allocated bytes: " + usage.getAllocatedBytes());
+        }
+        else {
+            assertEquals(usage.getAllocatedBytes(), 0);
+        }
+
+        // the new interval doesn't include the allocation
+        ResourceUsage interval = timer.elapsedIntervalUsage();
+        assertTrue(interval.getAllocatedBytes() < 10_000_000, "allocated bytes: " + interval.getAllocatedBytes());
+
+        ResourceUsage total = timer.elapsedUsage();
+        assertTrue(total.getAllocatedBytes() >= usage.getAllocatedBytes());
+        assertTrue(total.getWallNanos() >= usage.getWallNanos());
+    }
+
+    @Test
+    public void testAddAndSubtract()
+    {
+        ResourceUsage first = new ResourceUsage(10, 5, 3, 100);
+        ResourceUsage second = new ResourceUsage(4, 2, 1, 150);
+
+        ResourceUsage sum = first.add(second);
+        assertEquals(sum.getWallNanos(), 14);
+        assertEquals(sum.getCpuNanos(), 7);
+        assertEquals(sum.getUserNanos(), 4);
+        assertEquals(sum.getAllocatedBytes(), 250);
+
+        ResourceUsage difference = first.subtract(second);
+        assertEquals(difference.getWallNanos(), 6);
+        assertEquals(difference.getCpuNanos(), 3);
+        assertEquals(difference.getUserNanos(), 2);
+        assertEquals(difference.getAllocatedBytes(), 0);
+    }
+
+    @Test
+    public void testStat()
+    {
+        ResourceStat stat = new ResourceStat();
+        stat.add(new ResourceUsage(TimeUnit.MILLISECONDS.toNanos(20), TimeUnit.MILLISECONDS.toNanos(10), 0, 1000));
+        try (ResourceStat.BlockTimer ignored = stat.time()) {
+            sink = new byte[1000];
+        }
+
+        assertEquals(stat.getWall().getAllTime().getCount(), 2.0);
+        assertEquals(stat.getCpu().getAllTime().getCount(), 2.0);
+        assertEquals(stat.getAllocatedBytes().getAllTime().getCount(), 2.0);
+        assertTrue(stat.getWall().getAllTime().getMax() >= 20.0);
+    }
+}
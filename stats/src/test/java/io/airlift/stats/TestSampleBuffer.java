@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestSampleBuffer
+{
+    @Test
+    public void testFailedFlushClearsStripe()
+    {
+        SampleBuffer buffer = new SampleBuffer();
+        assertTrue(buffer.offer(1, 0));
+        assertTrue(buffer.offer(2, 0));
+
+        try {
+            buffer.flush((values, length, sum, timestampInSeconds) -> {
+                throw new IllegalArgumentException("bad batch");
+            });
+            fail("expected exception");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+
+        // the failed batch is dropped, and the stripe accepts and flushes new values
+        assertTrue(buffer.offer(3, 1));
+
+        List<Long> flushed = new ArrayList<>();
+        buffer.flush((values, length, sum, timestampInSeconds) -> {
+            for (int i = 0; i < length; i++) {
+                flushed.add(values[i]);
+            }
+            assertEquals(sum, 3);
+            assertEquals(timestampInSeconds, 1);
+        });
+        assertEquals(flushed, ImmutableList.of(3L));
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.testing.TestingTicker;
+import io.airlift.units.Duration;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static io.airlift.stats.TestingConcurrency.runConcurrently;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestSlidingWindowDistribution
+{
+    @Test
+    public void testValuesExpire()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowDistribution distribution = new SlidingWindowDistribution(new Duration(1, TimeUnit.MINUTES), 6, ticker);
+
+        for (int i = 0; i < 100; i++) {
+            distribution.add(1000);
+        }
+        assertEquals(distribution.getCount(), 100.0);
+        assertEquals(distribution.getP99(), 1000);
+
+        ticker.increment(30, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            distribution.add(10);
+        }
+
+        // both intervals are within the window, and the old values are not decayed
+        assertEquals(distribution.getCount(), 200.0);
+        assertEquals(distribution.getTotal(), 100 * 1000 + 100 * 10.0);
+        assertEquals(distribution.getMin(), 10);
+        assertEquals(distribution.getMax(), 1000);
+
+        // the first interval leaves the window
+        ticker.increment(30, TimeUnit.SECONDS);
+        assertEquals(distribution.getCount(), 100.0);
+        assertEquals(distribution.getP99(), 10);
+        assertEquals(distribution.getMax(), 10);
+
+        ticker.increment(1, TimeUnit.MINUTES);
+        assertEquals(distribution.getCount(), 0.0);
+    }
+
+    @Test
+    public void testRingReuse()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowDistribution distribution = new SlidingWindowDistribution(new Duration(10, TimeUnit.SECONDS), 10, ticker);
+
+        for (int second = 0; second < 100; second++) {
+            distribution.add(second);
+            ticker.increment(1, TimeUnit.SECONDS);
+        }
+
+        // the last 10 seconds are in the window, but the current interval hasn't seen any values yet
+        assertEquals(distribution.getCount(), 9.0);
+        assertEquals(distribution.getMin(), 91);
+        assertEquals(distribution.getMax(), 99);
+        assertEquals(distribution.snapshot().getCount(), 9.0);
+    }
+
+    @Test
+    public void testMergedWindowIsCached()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowDistribution distribution = new SlidingWindowDistribution(new Duration(1, TimeUnit.MINUTES), 6, ticker);
+
+        distribution.add(10);
+        assertEquals(distribution.getCount(), 1.0);
+
+        // reads within a second of the merge see the same merged window
+        distribution.add(20);
+        ticker.increment(500, TimeUnit.MILLISECONDS);
+        assertEquals(distribution.getCount(), 1.0);
+        assertEquals(distribution.getMax(), 10);
+
+        ticker.increment(500, TimeUnit.MILLISECONDS);
+        assertEquals(distribution.getCount(), 2.0);
+        assertEquals(distribution.getMax(), 20);
+
+        // a new interval is merged right away
+        distribution.add(30);
+        ticker.increment(9, TimeUnit.SECONDS);
+        assertEquals(distribution.getCount(), 3.0);
+        assertEquals(distribution.getMax(), 30);
+    }
+
+    @Test
+    public void testConcurrentAdds()
+            throws Exception
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowDistribution distribution = new SlidingWindowDistribution(new Duration(1, TimeUnit.MINUTES), 60, ticker);
+
+        runConcurrently(8, thread -> {
+            for (int value = 0; value < 10_000; value++) {
+                distribution.add(value);
+            }
+        });
+
+        assertEquals(distribution.getCount(), 80_000.0);
+        // every thread adds the same values, so the quantiles of the merged window are those of a single thread
+        assertTrue(Math.abs(distribution.getP50() - 5_000) <= distribution.getMaxError() * 10_000);
+        assertTrue(Math.abs(distribution.getP90() - 9_000) <= distribution.getMaxError() * 10_000);
+    }
+}
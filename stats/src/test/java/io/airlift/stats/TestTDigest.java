@@ -0,0 +1,318 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import io.airlift.testing.TestingTicker;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestTDigest
+{
+    private static final List<Double> QUANTILES = ImmutableList.of(0.001, 0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99, 0.999);
+
+    @Test
+    public void testEmpty()
+    {
+        TDigest digest = new TDigest();
+
+        assertEquals(digest.getCount(), 0.0);
+        assertEquals(digest.getMin(), Long.MAX_VALUE);
+        assertEquals(digest.getMax(), Long.MIN_VALUE);
+        assertEquals(digest.getQuantile(0.5), Long.MIN_VALUE);
+    }
+
+    @Test
+    public void testSingleValue()
+    {
+        TDigest digest = new TDigest();
+        digest.add(42, 10);
+
+        assertEquals(digest.getCount(), 10.0);
+        assertEquals(digest.getQuantiles(ImmutableList.of(0.0, 0.5, 1.0)), ImmutableList.of(42L, 42L, 42L));
+    }
+
+    @Test
+    public void testUniformRankError()
+    {
+        Random random = new Random(1);
+        long[] values = new long[1_000_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextInt(1_000_000_000);
+        }
+
+        assertRankError(values);
+    }
+
+    @Test
+    public void testHeavyTailRankError()
+    {
+        // latencies are typically log-normal, with a long tail
+        Random random = new Random(2);
+        long[] values = new long[1_000_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(10 + 2 * random.nextGaussian());
+        }
+
+        assertRankError(values);
+    }
+
+    private static void assertRankError(long[] values)
+    {
+        TDigest digest = new TDigest();
+        for (long value : values) {
+            digest.add(value);
+        }
+        Arrays.sort(values);
+
+        List<Long> actual = digest.getQuantiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.size(); i++) {
+            double quantile = QUANTILES.get(i);
+            double rank = rank(values, actual.get(i)) / values.length;
+
+            // the error shrinks towards the tails
+            double maxError = digest.getMaxRankError() * 2 * Math.sqrt(quantile * (1 - quantile));
+            assertTrue(Math.abs(rank - quantile) <= maxError, "rank error for quantile " + quantile + " is " + Math.abs(rank - quantile));
+        }
+
+        assertEquals(digest.getMin(), values[0]);
+        assertEquals(digest.getMax(), values[values.length - 1]);
+        assertEquals(digest.getCount(), (double) values.length);
+    }
+
+    private static double rank(long[] sorted, long value)
+    {
+        int index = Arrays.binarySearch(sorted, value);
+        if (index < 0) {
+            return -(index + 1);
+        }
+
+        // the middle of a run of equal values
+        int low = index;
+        while (low > 0 && sorted[low - 1] == value) {
+            low--;
+        }
+        int high = index;
+        while (high < sorted.length - 1 && sorted[high + 1] == value) {
+            high++;
+        }
+        return (low + high) / 2.0;
+    }
+
+    @Test
+    public void testCentroidsAreBounded()
+    {
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, 0);
+        Random random = new Random(3);
+        for (int i = 0; i < 1_000_000; i++) {
+            digest.add(random.nextLong());
+        }
+
+        assertTrue(digest.getCentroidCount() <= TDigest.DEFAULT_COMPRESSION + 2, "centroids: " + digest.getCentroidCount());
+    }
+
+    @Test
+    public void testDecay()
+    {
+        TestingTicker ticker = new TestingTicker();
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.computeAlpha(0.5, 60), ticker);
+
+        for (int i = 0; i < 100; i++) {
+            digest.add(1);
+        }
+        ticker.increment(60, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            digest.add(1000);
+        }
+
+        assertTrue(Math.abs(digest.getCount() - 150) < 1e-9);
+        // the old values have half the weight of the new ones
+        assertEquals(digest.getQuantile(0.2), 1);
+        assertEquals(digest.getQuantile(0.5), 1000);
+
+        ticker.increment(1, TimeUnit.HOURS);
+        assertTrue(digest.getCount() < 1e-9);
+    }
+
+    @Test
+    public void testDecayedMinAndMax()
+    {
+        TestingTicker ticker = new TestingTicker();
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+
+        digest.add(-1000);
+        digest.add(1_000_000);
+        assertEquals(digest.getMin(), -1000);
+        assertEquals(digest.getMax(), 1_000_000);
+
+        // keep the digest busy until the extremes have decayed away
+        for (int second = 0; second < 20 * 60; second += 10) {
+            ticker.increment(10, TimeUnit.SECONDS);
+            for (int value = 0; value < 100; value++) {
+                digest.add(value);
+            }
+        }
+
+        assertTrue(digest.getMin() >= 0 && digest.getMin() < 10, "min: " + digest.getMin());
+        assertTrue(digest.getMax() < 100 && digest.getMax() >= 90, "max: " + digest.getMax());
+        assertTrue(digest.getQuantile(0.999) < 100, "p999: " + digest.getQuantile(0.999));
+    }
+
+    @Test
+    public void testCopyDoesNotModifySource()
+    {
+        TestingTicker ticker = new TestingTicker();
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+        for (int i = 0; i < 1000; i++) {
+            digest.add(i);
+        }
+        ticker.increment(10, TimeUnit.MINUTES);
+        double count = digest.getCount();
+
+        TDigest copy = new TDigest(digest);
+
+        assertEquals(digest.getCount(), count);
+        assertEquals(copy.getCount(), count);
+        assertEquals(copy.getMin(), digest.getMin());
+        assertEquals(copy.getMax(), digest.getMax());
+        assertEquals(copy.getQuantiles(QUANTILES), digest.getQuantiles(QUANTILES));
+    }
+
+    @Test
+    public void testBatchAdd()
+    {
+        TestingTicker ticker = new TestingTicker();
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+        TDigest expected = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+
+        long[] values = new long[64];
+        for (int batch = 0; batch < 100; batch++) {
+            long timestampInSeconds = TimeUnit.NANOSECONDS.toSeconds(ticker.read());
+            for (int i = 0; i < values.length; i++) {
+                values[i] = batch * values.length + i;
+                expected.add(values[i], 1, timestampInSeconds);
+            }
+            digest.add(values, 0, values.length, timestampInSeconds);
+            ticker.increment(1, TimeUnit.SECONDS);
+        }
+
+        assertTrue(Math.abs(digest.getCount() - expected.getCount()) < 1e-6);
+        assertEquals(digest.getMin(), expected.getMin());
+        assertEquals(digest.getMax(), expected.getMax());
+        assertEquals(digest.getQuantiles(QUANTILES), expected.getQuantiles(QUANTILES));
+    }
+
+    @Test
+    public void testRescale()
+    {
+        TestingTicker ticker = new TestingTicker();
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+
+        digest.add(10);
+        ticker.increment(1, TimeUnit.MINUTES);
+        digest.add(20);
+
+        assertTrue(Math.abs(digest.getCount() - (1 + 1 / Math.E)) < 1e-9);
+    }
+
+    @Test
+    public void testMerge()
+    {
+        TestingTicker ticker = new TestingTicker();
+        TDigest digest = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+        TDigest other = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+        TDigest expected = new TDigest(TDigest.DEFAULT_COMPRESSION, ExponentialDecay.oneMinute(), ticker);
+
+        for (int i = 0; i < 10_000; i++) {
+            digest.add(i);
+            expected.add(i);
+        }
+        ticker.increment(10, TimeUnit.SECONDS);
+        for (int i = 10_000; i < 30_000; i++) {
+            other.add(i);
+            expected.add(i);
+        }
+
+        digest.merge(other);
+
+        assertTrue(Math.abs(digest.getCount() - expected.getCount()) < 1e-6);
+        assertEquals(digest.getMin(), 0);
+        assertEquals(digest.getMax(), 29_999);
+
+        List<Long> actual = digest.getQuantiles(QUANTILES);
+        List<Long> expectedQuantiles = expected.getQuantiles(QUANTILES);
+        for (int i = 0; i < QUANTILES.size(); i++) {
+            // both are within the error bound of the actual quantile, so they are within twice the bound of each other
+            assertTrue(Math.abs(actual.get(i) - expectedQuantiles.get(i)) <= 2 * digest.getMaxRankError() * 30_000,
+                    "quantile " + QUANTILES.get(i) + ": " + actual.get(i) + " vs " + expectedQuantiles.get(i));
+        }
+    }
+
+    @Test
+    public void testSerialization()
+    {
+        TDigest digest = new TDigest(200, ExponentialDecay.oneMinute());
+        Random random = new Random(4);
+        for (int i = 0; i < 100_000; i++) {
+            digest.add(random.nextInt(1_000_000));
+        }
+
+        TDigest deserialized = TDigest.deserialize(digest.serialize());
+
+        assertEquals(deserialized.getCompression(), 200.0);
+        assertEquals(deserialized.getAlpha(), ExponentialDecay.oneMinute());
+        assertEquals(deserialized.getMin(), digest.getMin());
+        assertEquals(deserialized.getMax(), digest.getMax());
+        assertEquals(deserialized.getQuantiles(QUANTILES), digest.getQuantiles(QUANTILES));
+        assertEquals(deserialized.estimatedSerializedSizeInBytes(), digest.serialize().length());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "Invalid number of centroids: 13")
+    public void testDeserializeTooManyCentroids()
+    {
+        // a digest with compression 10 holds at most 12 centroids, while its arrays also have room for the add buffer
+        DynamicSliceOutput output = new DynamicSliceOutput(1024)
+                .appendByte(1)
+                .appendDouble(10)
+                .appendDouble(0)
+                .appendLong(0)
+                .appendLong(0)
+                .appendLong(12)
+                .appendInt(13);
+        for (int i = 0; i < 13; i++) {
+            output.appendDouble(i);
+            output.appendDouble(1);
+        }
+
+        TDigest.deserialize(output.slice());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidFormat()
+    {
+        Slice serialized = Slices.copyOf(new TDigest().serialize());
+        serialized.setByte(0, 0);
+        TDigest.deserialize(serialized);
+    }
+}
@@ -119,6 +119,44 @@ public class TestTimeStat
         assertEquals(allTime.getMax(), 0.010);
     }
 
+    @Test
+    public void timeNanos()
+    {
+        TimeStat stat = new TimeStat(ticker);
+        long start = stat.startNanos();
+        ticker.increment(10, TimeUnit.MILLISECONDS);
+        stat.addNanosSince(start);
+
+        TimeDistribution allTime = stat.getAllTime();
+        assertEquals(allTime.getCount(), 1.0);
+        assertEquals(allTime.getMin(), 0.010);
+        assertEquals(allTime.getMax(), 0.010);
+    }
+
+    @Test
+    public void testAddNanos()
+    {
+        TimeStat stat = new TimeStat(ticker, TimeUnit.MILLISECONDS);
+        stat.addNanos(TimeUnit.MILLISECONDS.toNanos(5));
+        stat.add(7, TimeUnit.MILLISECONDS);
+
+        TimeDistribution allTime = stat.getAllTime();
+        assertEquals(allTime.getCount(), 2.0);
+        assertEquals(allTime.getMin(), 5.0);
+        assertEquals(allTime.getMax(), 7.0);
+    }
+
+    @Test
+    public void testTotal()
+    {
+        TimeStat stat = new TimeStat(ticker, TimeUnit.MILLISECONDS);
+        stat.add(5, TimeUnit.MILLISECONDS);
+        stat.add(1, TimeUnit.SECONDS);
+        stat.getAllTime().add(new long[] {TimeUnit.MILLISECONDS.toNanos(20)}, 0, 1);
+
+        assertEquals(stat.getAllTime().getTotal(), 1025.0);
+    }
+
     @Test
     public void testUnit()
     {
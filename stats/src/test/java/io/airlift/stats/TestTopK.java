@@ -0,0 +1,196 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import io.airlift.slice.Slice;
+import io.airlift.stats.TopK.Entry;
+import org.testng.annotations.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static io.airlift.slice.Slices.utf8Slice;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestTopK
+{
+    @Test
+    public void testExactWithinCapacity()
+    {
+        TopK topK = new TopK(20);
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j <= i; j++) {
+                topK.add(key(i));
+            }
+        }
+
+        List<Entry> entries = topK.getTopEntries();
+        assertEquals(entries.size(), 10);
+        for (int i = 0; i < 10; i++) {
+            Entry entry = entries.get(i);
+            assertEquals(entry.getKey(), key(9 - i));
+            assertEquals(entry.getCount(), 10 - i);
+            assertEquals(entry.getError(), 0);
+        }
+
+        assertEquals(topK.getTotalCount(), 55);
+        assertEquals(topK.getMaxError(), 0);
+        assertEquals(topK.getTopEntries(3).size(), 3);
+    }
+
+    @Test
+    public void testHeavyHitters()
+    {
+        TopK topK = new TopK(50);
+        Map<Slice, Long> actual = new HashMap<>();
+
+        Random random = new Random(0);
+        for (int i = 0; i < 100_000; i++) {
+            // a few hot keys within a long tail of rare keys
+            Slice key = random.nextInt(10) < 3 ? key(random.nextInt(5)) : key(100 + random.nextInt(100_000));
+            topK.add(key);
+            actual.merge(key, 1L, Long::sum);
+        }
+
+        assertBounds(topK, actual);
+
+        List<Entry> top = topK.getTopEntries(5);
+        for (int i = 0; i < 5; i++) {
+            Slice key = key(i);
+            assertTrue(top.stream().anyMatch(entry -> entry.getKey().equals(key)));
+        }
+    }
+
+    @Test
+    public void testMerge()
+    {
+        TopK first = new TopK(20);
+        TopK second = new TopK(20);
+        Map<Slice, Long> actual = new HashMap<>();
+
+        Random random = new Random(0);
+        for (int i = 0; i < 50_000; i++) {
+            Slice key = random.nextInt(10) < 3 ? key(random.nextInt(3)) : key(100 + random.nextInt(10_000));
+            (i % 2 == 0 ? first : second).add(key);
+            actual.merge(key, 1L, Long::sum);
+        }
+
+        first.merge(second);
+
+        assertEquals(first.getTotalCount(), 50_000);
+        assertBounds(first, actual);
+
+        List<Entry> top = first.getTopEntries(3);
+        for (int i = 0; i < 3; i++) {
+            Slice key = key(i);
+            assertTrue(top.stream().anyMatch(entry -> entry.getKey().equals(key)));
+        }
+
+        // the merged sketch is not modified
+        assertEquals(second.getTotalCount(), 25_000);
+    }
+
+    @Test
+    public void testMergeWithinCapacity()
+    {
+        TopK first = new TopK(10);
+        first.add(key(1), 5);
+        first.add(key(2), 3);
+
+        TopK second = new TopK(10);
+        second.add(key(2), 4);
+        second.add(key(3), 1);
+
+        first.merge(second);
+
+        List<Entry> entries = first.getTopEntries();
+        assertEquals(entries.size(), 3);
+        assertEquals(entries.get(0), new Entry(key(2), 7, 0));
+        assertEquals(entries.get(1), new Entry(key(1), 5, 0));
+        assertEquals(entries.get(2), new Entry(key(3), 1, 0));
+    }
+
+    @Test
+    public void testSerialization()
+    {
+        TopK topK = new TopK(20);
+        Random random = new Random(0);
+        for (int i = 0; i < 10_000; i++) {
+            topK.add(key(random.nextInt(100)), 1 + random.nextInt(3));
+        }
+
+        Slice serialized = topK.serialize();
+        assertEquals(serialized.length(), topK.estimatedSerializedSizeInBytes());
+
+        TopK deserialized = TopK.deserialize(serialized);
+        assertEquals(deserialized.getCapacity(), 20);
+        assertEquals(deserialized.getTotalCount(), topK.getTotalCount());
+        assertEquals(deserialized.getMaxError(), topK.getMaxError());
+        assertEquals(deserialized.getTopEntries(), topK.getTopEntries());
+
+        // the deserialized sketch keeps working
+        topK.add(key(1000), 100);
+        deserialized.add(key(1000), 100);
+        assertEquals(deserialized.getTopEntries(), topK.getTopEntries());
+    }
+
+    @Test
+    public void testSerializationEmpty()
+    {
+        TopK deserialized = TopK.deserialize(new TopK(5).serialize());
+        assertEquals(deserialized.getCapacity(), 5);
+        assertEquals(deserialized.getTotalCount(), 0);
+        assertTrue(deserialized.getTopEntries().isEmpty());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testDeserializeInvalidFormat()
+    {
+        TopK.deserialize(utf8Slice("invalid"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testMergeDifferentCapacity()
+    {
+        new TopK(5).merge(new TopK(10));
+    }
+
+    private static void assertBounds(TopK topK, Map<Slice, Long> actual)
+    {
+        long maxError = topK.getMaxError();
+        assertTrue(maxError <= topK.getTotalCount() / topK.getCapacity());
+
+        for (Entry entry : topK.getTopEntries()) {
+            long count = actual.get(entry.getKey());
+            assertTrue(entry.getCount() >= count);
+            assertTrue(entry.getGuaranteedCount() <= count);
+            assertTrue(entry.getError() <= maxError);
+        }
+
+        // every key that occurred more often than the max error is tracked
+        for (Map.Entry<Slice, Long> entry : actual.entrySet()) {
+            if (entry.getValue() > maxError) {
+                assertTrue(topK.getTopEntries().stream().anyMatch(tracked -> tracked.getKey().equals(entry.getKey())), "missing " + entry.getKey().toStringUtf8());
+            }
+        }
+    }
+
+    private static Slice key(int value)
+    {
+        return utf8Slice("key" + value);
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import com.google.common.collect.ImmutableList;
+import io.airlift.stats.TopK.Entry;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static io.airlift.stats.TestingConcurrency.runConcurrently;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestTopKStat
+{
+    @Test
+    public void testTopEntries()
+    {
+        TopKStat stat = new TopKStat(10);
+        for (int i = 0; i < 10; i++) {
+            stat.add("/hot");
+        }
+        for (int i = 0; i < 5; i++) {
+            stat.add("/warm");
+        }
+        stat.add("/cold");
+
+        Map<String, Long> top = stat.getTopEntries();
+        assertEquals(ImmutableList.copyOf(top.keySet()), ImmutableList.of("/hot", "/warm", "/cold"));
+        assertEquals(stat.getTopEntries(2).size(), 2);
+        assertEquals(top.get("/hot").longValue(), 10);
+        assertEquals(top.get("/warm").longValue(), 5);
+        assertEquals(stat.getTotalCount(), 16);
+        assertEquals(stat.getMaxError(), 0);
+
+        stat.reset();
+        assertTrue(stat.getTopEntries().isEmpty());
+        assertEquals(stat.getTotalCount(), 0);
+    }
+
+    @Test
+    public void testConcurrentAdds()
+            throws Exception
+    {
+        TopKStat stat = new TopKStat(10);
+
+        // a hot key, concurrently with far more distinct keys than the sketch can hold
+        int threads = 8;
+        int addsPerThread = 10_000;
+        runConcurrently(threads, thread -> {
+            for (int i = 0; i < addsPerThread; i++) {
+                stat.add("/hot");
+                stat.add("/cold/" + thread + "/" + i);
+            }
+        });
+
+        assertEquals(stat.getTotalCount(), 2L * threads * addsPerThread);
+
+        // the hot key is reported first, and its count is within the error bound
+        List<Entry> top = stat.getTopEntries(1);
+        assertEquals(top.get(0).getKey().toStringUtf8(), "/hot");
+        long count = top.get(0).getCount();
+        assertTrue(count >= threads * addsPerThread, String.valueOf(count));
+        assertTrue(count - stat.getMaxError() <= threads * addsPerThread, String.valueOf(count));
+    }
+}
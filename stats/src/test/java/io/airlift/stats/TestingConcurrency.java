@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.airlift.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.MINUTES;
+
+final class TestingConcurrency
+{
+    private TestingConcurrency() {}
+
+    /**
+     * Runs the task on the given number of threads, released at the same time, and waits for all
+     * of them to finish. Each thread passes its index to the task. A task that fails fails the call.
+     */
+    public static void runConcurrently(int threads, IntConsumer task)
+            throws Exception
+    {
+        ExecutorService executor = newFixedThreadPool(threads);
+        try {
+            CyclicBarrier start = new CyclicBarrier(threads);
+            List<Future<?>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                int thread = i;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.accept(thread);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, MINUTES);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -48,6 +48,23 @@ public class BenchmarkDenseHll
         return data.instance;
     }
 
+    @Benchmark
+    public long benchmarkCardinality(CardinalityData data)
+    {
+        return data.instance.cardinality();
+    }
+
+    @Benchmark
+    public DenseHll benchmarkMerge(MergeData data)
+    {
+        DenseHll result = new DenseHll(11);
+        for (DenseHll instance : data.instances) {
+            result.mergeWith(instance);
+        }
+
+        return result;
+    }
+
     @State(Scope.Thread)
     public static class Data
     {
@@ -63,6 +80,39 @@ public class BenchmarkDenseHll
         }
     }
 
+    @State(Scope.Thread)
+    public static class CardinalityData
+    {
+        public final DenseHll instance = new DenseHll(12);
+
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            for (int i = 0; i < 1_000_000; i++) {
+                instance.insertHash(ThreadLocalRandom.current().nextLong());
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class MergeData
+    {
+        public final DenseHll[] instances = new DenseHll[100];
+
+        @Setup(Level.Iteration)
+        public void initialize()
+        {
+            for (int i = 0; i < instances.length; i++) {
+                instances[i] = new DenseHll(11);
+
+                // enough values per instance for the baselines to move and produce some overflows
+                for (int j = 0; j < 20_000; j++) {
+                    instances[i].insertHash(ThreadLocalRandom.current().nextLong());
+                }
+            }
+        }
+    }
+
     public static void main(String[] args)
             throws RunnerException
     {
@@ -48,6 +48,26 @@ public class BenchmarkSparseHll
         return data.instance;
     }
 
+    @Benchmark
+    public SparseHll benchmarkInsertIntoEmpty(Data data)
+    {
+        SparseHll instance = new SparseHll(11);
+        for (long hash : data.hashes) {
+            instance.insertHash(hash);
+        }
+
+        return instance;
+    }
+
+    @Benchmark
+    public SparseHll benchmarkInsertBatchIntoEmpty(Data data)
+    {
+        SparseHll instance = new SparseHll(11);
+        instance.insertHashes(data.hashes, 0, data.hashes.length);
+
+        return instance;
+    }
+
     @State(Scope.Thread)
     public static class Data
     {
@@ -13,16 +13,20 @@
  */
 package io.airlift.stats.cardinality;
 
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
 import io.airlift.slice.XxHash64;
 import org.testng.annotations.DataProvider;
 import org.testng.annotations.Test;
 
 import java.util.List;
+import java.util.Random;
 
 import static io.airlift.slice.testing.SliceAssertions.assertSlicesEqual;
 import static io.airlift.stats.cardinality.TestUtils.sequence;
 import static io.airlift.stats.cardinality.Utils.numberOfBuckets;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.fail;
 
 public class TestDenseHll
 {
@@ -112,6 +116,44 @@ public class TestDenseHll
         assertSameBuckets(testingHll, hll1);
     }
 
+    @Test
+    public void testOverflowBucketOutOfRange()
+    {
+        // a single overflow entry for the bucket just past the last one
+        Slice serialized = new DynamicSliceOutput(0)
+                .appendByte(Format.DENSE_V2.getTag())
+                .appendByte(12)
+                .appendByte(0)
+                .appendBytes(new byte[numberOfBuckets(12) / 2])
+                .appendShort(1)
+                .appendShort(numberOfBuckets(12))
+                .appendByte(1)
+                .slice();
+
+        assertRejected(() -> new DenseHll(serialized));
+        assertRejected(() -> DenseHll.cardinality(serialized));
+        assertRejected(() -> new DenseHll(12).mergeWith(serialized));
+    }
+
+    @Test(dataProvider = "bits")
+    public void testHarmonicSum(int prefixBitLength)
+            throws Exception
+    {
+        DenseHll hll = new DenseHll(prefixBitLength);
+        assertHarmonicSum(hll);
+
+        for (int i = 0; i < 100_000; i++) {
+            hll.insertHash(XxHash64.hash(i));
+        }
+        assertHarmonicSum(hll);
+
+        // a hash with only the lowest bit set after the index produces a value beyond the range of a delta
+        hll.insertHash((1L << (Long.SIZE - prefixBitLength)) | 1);
+        hll.insertHash((3L << (Long.SIZE - prefixBitLength)) | 1);
+        hll.verify();
+        assertHarmonicSum(hll);
+    }
+
     @Test(dataProvider = "bits")
     public void testMerge(int prefixBitLength)
             throws Exception
@@ -139,6 +181,43 @@ public class TestDenseHll
         verifyMerge(prefixBitLength, sequence(0, 2_000_000), sequence(0, 2_000_000));
     }
 
+    @Test(dataProvider = "bits")
+    public void testMergeWithDifferentBaselines(int prefixBitLength)
+            throws Exception
+    {
+        Random random = new Random(prefixBitLength);
+        int[][] ranges = {{0, 3}, {0, 20}, {2, 5}, {5, 25}, {20, 40}};
+
+        for (int[] first : ranges) {
+            for (int[] second : ranges) {
+                DenseHll hll1 = new DenseHll(prefixBitLength);
+                DenseHll hll2 = new DenseHll(prefixBitLength);
+                DenseHll expected = new DenseHll(prefixBitLength);
+
+                for (int bucket = 0; bucket < numberOfBuckets(prefixBitLength); bucket++) {
+                    int value1 = first[0] + random.nextInt(first[1] - first[0] + 1);
+                    int value2 = second[0] + random.nextInt(second[1] - second[0] + 1);
+
+                    hll1.insert(bucket, value1);
+                    hll2.insert(bucket, value2);
+                    expected.insert(bucket, value1);
+                    expected.insert(bucket, value2);
+                }
+
+                hll1.mergeWith(hll2);
+                hll1.verify();
+
+                for (int bucket = 0; bucket < numberOfBuckets(prefixBitLength); bucket++) {
+                    assertEquals(hll1.getValue(bucket), expected.getValue(bucket));
+                }
+                assertSlicesEqual(hll1.serialize(), expected.serialize());
+
+                // the merged HLL is not modified
+                hll2.verify();
+            }
+        }
+    }
+
     private static void verifyMerge(int prefixBitLength, List<Long> one, List<Long> two)
     {
         DenseHll hll1 = new DenseHll(prefixBitLength);
@@ -168,6 +247,16 @@ public class TestDenseHll
         assertSlicesEqual(hll1.serialize(), expected.serialize());
     }
 
+    private static void assertHarmonicSum(DenseHll hll)
+    {
+        double expected = 0;
+        for (int i = 0; i < numberOfBuckets(hll.getIndexBitLength()); i++) {
+            expected += 1.0 / (1L << hll.getValue(i));
+        }
+
+        assertEquals(hll.harmonicSum(), expected, expected * 1e-12);
+    }
+
     private static void assertSameBuckets(TestingHll testingHll, DenseHll hll)
     {
         for (int i = 0; i < testingHll.getBuckets().length; i++) {
@@ -194,4 +283,14 @@ public class TestDenseHll
                 new Object[] {16},
         };
     }
+
+    private static void assertRejected(Runnable runnable)
+    {
+        try {
+            runnable.run();
+            fail("expected IllegalArgumentException");
+        }
+        catch (IllegalArgumentException expected) {
+        }
+    }
 }
@@ -117,6 +117,86 @@ public class TestHyperLogLog
         assertEquals(hll1.serialize(), expected.serialize());
     }
 
+    @Test
+    public void testAddHashes()
+            throws Exception
+    {
+        // stays sparse, crosses to dense within a batch, and dense
+        for (int size : new int[] {100, 1000, 20000}) {
+            long[] hashes = new long[size];
+            for (int i = 0; i < size; i++) {
+                hashes[i] = ThreadLocalRandom.current().nextLong();
+            }
+
+            HyperLogLog expected = HyperLogLog.newInstance(2048);
+            for (long hash : hashes) {
+                expected.addHash(hash);
+            }
+
+            HyperLogLog batched = HyperLogLog.newInstance(2048);
+            batched.addHashes(hashes, 0, size / 2);
+            batched.addHashes(hashes, size / 2, size - size / 2);
+            batched.verify();
+
+            assertEquals(batched.cardinality(), expected.cardinality());
+            assertSlicesEqual(batched.serialize(), expected.serialize());
+        }
+    }
+
+    @Test
+    public void testSerializedCardinality()
+            throws Exception
+    {
+        // empty, sparse, dense with a zero baseline, and dense with baseline > 0 and overflows
+        for (int size : new int[] {0, 100, 2000, 100_000}) {
+            HyperLogLog hll = HyperLogLog.newInstance(2048);
+            for (int i = 0; i < size; i++) {
+                hll.addHash(ThreadLocalRandom.current().nextLong());
+            }
+
+            assertEquals(HyperLogLog.cardinality(hll.serialize()), hll.cardinality());
+        }
+    }
+
+    @Test
+    public void testSerializedMerge()
+            throws Exception
+    {
+        int[] sizes = {0, 100, 500, 2000, 100_000};
+        for (int firstSize : sizes) {
+            for (int secondSize : sizes) {
+                HyperLogLog first = HyperLogLog.newInstance(2048);
+                for (int i = 0; i < firstSize; i++) {
+                    first.addHash(ThreadLocalRandom.current().nextLong());
+                }
+
+                HyperLogLog second = HyperLogLog.newInstance(2048);
+                for (int i = 0; i < secondSize; i++) {
+                    second.addHash(ThreadLocalRandom.current().nextLong());
+                }
+
+                Slice merged = HyperLogLog.merge(first.serialize(), second.serialize());
+
+                first.mergeWith(second);
+                assertSlicesEqual(merged, first.serialize());
+
+                HyperLogLog deserialized = HyperLogLog.newInstance(merged);
+                deserialized.verify();
+                assertEquals(HyperLogLog.cardinality(merged), first.cardinality());
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSerializedMergeDifferentBuckets()
+    {
+        HyperLogLog first = HyperLogLog.newInstance(1024);
+        HyperLogLog second = HyperLogLog.newInstance(2048);
+        second.makeDense();
+
+        HyperLogLog.merge(first.serialize(), second.serialize());
+    }
+
     @Test
     public void testRoundtrip()
             throws Exception
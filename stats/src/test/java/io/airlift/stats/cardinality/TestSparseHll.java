@@ -57,6 +57,34 @@ public class TestSparseHll
         verifyToDense(prefixBitLength, ImmutableList.of(224L, 271L));
     }
 
+    @Test(dataProvider = "bits")
+    public void testInsertHashes(int prefixBitLength)
+            throws Exception
+    {
+        long[] hashes = new long[2000];
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = Murmur3.hash64(i % 1000);
+        }
+        // same extended bucket with a different number of leading zeros after it
+        hashes[10] = 0xFFFF_FFC0_0000_0000L;
+        hashes[20] = 0xFFFF_FFC0_0000_0001L;
+        hashes[30] = 0x0000_0000_0000_0000L;
+
+        SparseHll expected = new SparseHll(prefixBitLength);
+        for (long hash : hashes) {
+            expected.insertHash(hash);
+        }
+
+        SparseHll batched = new SparseHll(prefixBitLength);
+        batched.insertHashes(hashes, 0, 500);
+        batched.insertHashes(hashes, 500, 0);
+        batched.insertHashes(hashes, 500, hashes.length - 500);
+        batched.verify();
+
+        assertEquals(batched.cardinality(), expected.cardinality());
+        assertSlicesEqual(batched.serialize(), expected.serialize());
+    }
+
     private static void verifyMerge(int prefixBitLength, List<Long> one, List<Long> two)
     {
         SparseHll hll1 = new SparseHll(prefixBitLength);